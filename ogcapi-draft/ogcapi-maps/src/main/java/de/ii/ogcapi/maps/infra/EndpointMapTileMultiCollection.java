@@ -22,6 +22,8 @@ import de.ii.ogcapi.maps.domain.MapTilesConfiguration;
 import de.ii.ogcapi.tiles.api.AbstractEndpointTileMultiCollection;
 import de.ii.ogcapi.tiles.domain.StaticTileProviderStore;
 import de.ii.ogcapi.tiles.domain.TileCache;
+import de.ii.ogcapi.tiles.domain.TileOccupancy;
+import de.ii.ogcapi.tiles.domain.TilePopularity;
 import de.ii.ogcapi.tiles.domain.TileProvider;
 import de.ii.ogcapi.tiles.domain.TilesQueriesHandler;
 import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimitsGenerator;
@@ -68,8 +70,10 @@ public class EndpointMapTileMultiCollection extends AbstractEndpointTileMultiCol
                                    TileMatrixSetLimitsGenerator limitsGenerator,
                                    TileCache cache,
                                    StaticTileProviderStore staticTileProviderStore,
-                                   TileMatrixSetRepository tileMatrixSetRepository) {
-        super(providers, extensionRegistry, queryHandler, crsTransformerFactory, limitsGenerator, cache, staticTileProviderStore, tileMatrixSetRepository);
+                                   TileMatrixSetRepository tileMatrixSetRepository,
+                                   TilePopularity tilePopularity,
+                                   TileOccupancy tileOccupancy) {
+        super(providers, extensionRegistry, queryHandler, crsTransformerFactory, limitsGenerator, cache, staticTileProviderStore, tileMatrixSetRepository, tilePopularity, tileOccupancy);
         this.client = ClientBuilder.newClient();
     }
 
@@ -22,6 +22,8 @@ import de.ii.ogcapi.maps.domain.MapTilesConfiguration;
 import de.ii.ogcapi.tiles.api.AbstractEndpointTileSingleCollection;
 import de.ii.ogcapi.tiles.domain.StaticTileProviderStore;
 import de.ii.ogcapi.tiles.domain.TileCache;
+import de.ii.ogcapi.tiles.domain.TileOccupancy;
+import de.ii.ogcapi.tiles.domain.TilePopularity;
 import de.ii.ogcapi.tiles.domain.TileProvider;
 import de.ii.ogcapi.tiles.domain.TilesConfiguration;
 import de.ii.ogcapi.tiles.domain.TilesQueriesHandler;
@@ -66,8 +68,10 @@ public class EndpointMapTileSingleCollection extends AbstractEndpointTileSingleC
                                     TileMatrixSetLimitsGenerator limitsGenerator,
                                     TileCache cache,
                                     StaticTileProviderStore staticTileProviderStore,
-                                    TileMatrixSetRepository tileMatrixSetRepository) {
-        super(providers, extensionRegistry, queryHandler, crsTransformerFactory, limitsGenerator, cache, staticTileProviderStore, tileMatrixSetRepository);
+                                    TileMatrixSetRepository tileMatrixSetRepository,
+                                    TilePopularity tilePopularity,
+                                    TileOccupancy tileOccupancy) {
+        super(providers, extensionRegistry, queryHandler, crsTransformerFactory, limitsGenerator, cache, staticTileProviderStore, tileMatrixSetRepository, tilePopularity, tileOccupancy);
         this.client = ClientBuilder.newClient();
     }
 
@@ -19,17 +19,22 @@ import de.ii.ogcapi.foundation.domain.ExtensionRegistry;
 import de.ii.ogcapi.foundation.domain.FormatExtension;
 import de.ii.ogcapi.foundation.domain.HttpMethods;
 import de.ii.ogcapi.foundation.domain.ImmutableApiEndpointDefinition;
+import de.ii.ogcapi.foundation.domain.ImmutableRequestContext;
 import de.ii.ogcapi.foundation.domain.OgcApi;
 import de.ii.ogcapi.foundation.domain.OgcApiDataV2;
 import de.ii.ogcapi.foundation.domain.OgcApiPathParameter;
 import de.ii.ogcapi.foundation.domain.OgcApiQueryParameter;
 import de.ii.ogcapi.foundation.domain.QueryInput;
+import de.ii.ogcapi.tiles.domain.CachedTile;
+import de.ii.ogcapi.tiles.domain.ImmutableQueryInputTileEmpty;
 import de.ii.ogcapi.tiles.domain.ImmutableTile;
 import de.ii.ogcapi.tiles.domain.MinMax;
 import de.ii.ogcapi.tiles.domain.StaticTileProviderStore;
 import de.ii.ogcapi.tiles.domain.Tile;
 import de.ii.ogcapi.tiles.domain.TileCache;
 import de.ii.ogcapi.tiles.domain.TileFormatExtension;
+import de.ii.ogcapi.tiles.domain.TileOccupancy;
+import de.ii.ogcapi.tiles.domain.TilePopularity;
 import de.ii.ogcapi.tiles.domain.TileProvider;
 import de.ii.ogcapi.tiles.domain.TilesConfiguration;
 import de.ii.ogcapi.tiles.domain.TilesQueriesHandler;
@@ -44,7 +49,7 @@ import de.ii.xtraplatform.crs.domain.CrsTransformerFactory;
 import de.ii.xtraplatform.features.domain.FeatureTypeConfiguration;
 import de.ii.xtraplatform.features.domain.FeatureProvider2;
 import java.io.IOException;
-import java.io.InputStream;
+import java.net.URI;
 import java.text.MessageFormat;
 import java.util.List;
 import java.util.Map;
@@ -70,11 +75,15 @@ public abstract class AbstractEndpointTileMultiCollection extends Endpoint {
     private final TileCache cache;
     private final StaticTileProviderStore staticTileProviderStore;
     private final TileMatrixSetRepository tileMatrixSetRepository;
+    private final TilePopularity tilePopularity;
+    private final TileOccupancy tileOccupancy;
 
     public AbstractEndpointTileMultiCollection(FeaturesCoreProviders providers, ExtensionRegistry extensionRegistry,
                                                TilesQueriesHandler queryHandler, CrsTransformerFactory crsTransformerFactory,
                                                TileMatrixSetLimitsGenerator limitsGenerator, TileCache cache,
-                                               StaticTileProviderStore staticTileProviderStore, TileMatrixSetRepository tileMatrixSetRepository) {
+                                               StaticTileProviderStore staticTileProviderStore, TileMatrixSetRepository tileMatrixSetRepository,
+                                               TilePopularity tilePopularity,
+                                               TileOccupancy tileOccupancy) {
         super(extensionRegistry);
         this.providers = providers;
         this.queryHandler = queryHandler;
@@ -83,6 +92,8 @@ public abstract class AbstractEndpointTileMultiCollection extends Endpoint {
         this.cache = cache;
         this.staticTileProviderStore = staticTileProviderStore;
         this.tileMatrixSetRepository = tileMatrixSetRepository;
+        this.tilePopularity = tilePopularity;
+        this.tileOccupancy = tileOccupancy;
     }
 
     @Override
@@ -142,6 +153,18 @@ public abstract class AbstractEndpointTileMultiCollection extends Endpoint {
                                String definitionPath, String tileMatrixSetId, String tileMatrix, String tileRow, String tileCol,
                                TileProvider tileProvider)
             throws CrsTransformationException, IOException, NotFoundException {
+        return getTile(api, requestContext, uriInfo, definitionPath, tileMatrixSetId, tileMatrix, tileRow, tileCol,
+                       tileProvider, false);
+    }
+
+    /**
+     * @param gzipAccepted the client accepts gzip-compressed content; tiles that are stored gzip-compressed in the
+     *                     cache are then sent as stored
+     */
+    protected Response getTile(OgcApi api, ApiRequestContext requestContext, UriInfo uriInfo,
+                               String definitionPath, String tileMatrixSetId, String tileMatrix, String tileRow, String tileCol,
+                               TileProvider tileProvider, boolean gzipAccepted)
+            throws CrsTransformationException, IOException, NotFoundException {
         OgcApiDataV2 apiData = api.getData();
         Map<String, String> queryParams = toFlatMap(uriInfo.getQueryParameters());
         TilesConfiguration tilesConfiguration = apiData.getExtension(TilesConfiguration.class).orElseThrow();
@@ -239,30 +262,62 @@ public abstract class AbstractEndpointTileMultiCollection extends Endpoint {
 
         // if cache can be used and the tile is cached for the requested format, return the cache
         if (useCache) {
+            // the most requested tiles are seeded first
+            tilePopularity.recordRequest(tile);
+
             // get the tile from the cache and return it
-            Optional<InputStream> tileStream = Optional.empty();
+            Optional<CachedTile> cachedTile = Optional.empty();
             try {
-                tileStream = cache.getTile(tile);
+                cachedTile = cache.getCachedTile(tile);
             } catch (Exception e) {
                 LOGGER.warn("Failed to retrieve multi-collection tile {}/{}/{}/{} from the cache. Reason: {}",
                             tile.getTileMatrixSet().getId(), tile.getTileLevel(), tile.getTileRow(),
                             tile.getTileCol(), e.getMessage());
             }
-            if (tileStream.isPresent()) {
+            if (cachedTile.isPresent()) {
+                boolean passthrough = gzipAccepted && cachedTile.get().isGzipped();
                 queryInput = new Builder()
                     .from(getGenericQueryInput(apiData))
                     .tile(tile)
-                    .tileContent(tileStream.get())
+                    .cachedTile(cachedTile.get())
+                    .contentGzipped(passthrough)
                     .build();
+                // a stale tile is served, while it is generated again in the background
+                if (cachedTile.get().isStale())
+                    revalidate(api, requestContext, queryParams, allowedParameters, tileProvider, tile);
             }
         }
 
-        // not cached or cache access failed
+        // not cached or cache access failed; a tile without features according to the occupancy grid is not generated
+        if (Objects.isNull(queryInput) && tileOccupancy.isEmpty(tile))
+            queryInput = new ImmutableQueryInputTileEmpty.Builder()
+                .from(getGenericQueryInput(apiData))
+                .tile(tile)
+                .build();
+
         if (Objects.isNull(queryInput))
             queryInput = tileProvider.getQueryInput(apiData, requestContext.getUriCustomizer(),
                                                     queryParams, allowedParameters,
                                                     getGenericQueryInput(apiData), tile);
 
+        return queryHandler.handle(getQuery(queryInput), queryInput, requestContext);
+    }
+
+    private void revalidate(OgcApi api, ApiRequestContext requestContext, Map<String, String> queryParams,
+                            List<OgcApiQueryParameter> allowedParameters, TileProvider tileProvider, Tile tile) {
+        QueryInput generationInput = tileProvider.getQueryInput(api.getData(), requestContext.getUriCustomizer(),
+                                                                queryParams, allowedParameters,
+                                                                getGenericQueryInput(api.getData()), tile);
+        // the context of the request must not be used after the response has been written
+        ApiRequestContext generationContext = new ImmutableRequestContext.Builder()
+            .api(api)
+            .requestUri(URI.create(requestContext.getUriCustomizer().toString()))
+            .mediaType(requestContext.getMediaType())
+            .build();
+        cache.revalidate(tile, () -> queryHandler.handle(getQuery(generationInput), generationInput, generationContext));
+    }
+
+    private static TilesQueriesHandler.Query getQuery(QueryInput queryInput) {
         TilesQueriesHandler.Query query = null;
         if (queryInput instanceof TilesQueriesHandler.QueryInputTileMbtilesTile)
             query = TilesQueriesHandler.Query.MBTILES_TILE;
@@ -277,6 +332,6 @@ public abstract class AbstractEndpointTileMultiCollection extends Endpoint {
         else if (queryInput instanceof TilesQueriesHandler.QueryInputTileSingleLayer)
             query = TilesQueriesHandler.Query.SINGLE_LAYER_TILE;
 
-        return queryHandler.handle(query, queryInput, requestContext);
+        return query;
     }
 }
@@ -11,14 +11,23 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
 import de.ii.ogcapi.tiles.domain.MvtFeature;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
 
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 
+/**
+ * determines clusters of connected features; a cluster consists of all features that are connected directly or via
+ * other features of the cluster, e.g. three features in a row, where only neighbours intersect, are one cluster; the
+ * main feature of a cluster is the feature with the lowest index, features that are not connected to another
+ * feature are standalone
+ */
 class ClusterAnalysis {
 
     Multimap<MvtFeature, MvtFeature> clusters = ArrayListMultimap.create();
@@ -26,33 +35,73 @@ class ClusterAnalysis {
     Set<MvtFeature> standalone = new HashSet<>();
 
     static ClusterAnalysis analyse(List<MvtFeature> features, boolean boundary) {
-        // determine clusters of connected features
+        // the geometries to compare, a boundary is only determined once per feature
+        List<Geometry> geometries = features.stream()
+                                            .map(MvtFeature::getGeometry)
+                                            .map(geometry -> boundary ? geometry.getBoundary() : geometry)
+                                            .collect(Collectors.toUnmodifiableList());
+
+        // candidates for connected features are found by their envelopes
+        STRtree index = new STRtree();
+        for (int i = 0; i < geometries.size(); i++) {
+            if (!geometries.get(i).isEmpty())
+                index.insert(geometries.get(i).getEnvelopeInternal(), i);
+        }
+
+        // determine clusters of connected features; the first feature of a cluster is the main feature
+        int[] parent = new int[features.size()];
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        for (int i = 0; i < geometries.size(); i++) {
+            Geometry gi = geometries.get(i);
+            if (gi.isEmpty())
+                continue;
+            PreparedGeometry pi = null;
+            for (Object candidate : index.query(gi.getEnvelopeInternal())) {
+                int j = (Integer) candidate;
+                // pairs are only tested once and not at all, if the features are already in the same cluster
+                if (j <= i || find(parent, i) == find(parent, j))
+                    continue;
+                if (pi == null)
+                    pi = PreparedGeometryFactory.prepare(gi);
+                if (pi.intersects(geometries.get(j)))
+                    union(parent, i, j);
+            }
+        }
+
         ClusterAnalysis clusterResult = new ClusterAnalysis();
         for (int i = 0; i < features.size(); i++) {
-            MvtFeature fi = features.get(i);
-            Geometry gi = fi.getGeometry();
-            Optional<MvtFeature> cluster = Optional.ofNullable(clusterResult.inCluster.get(fi));
-            for (int j = i+1; j < features.size(); j++) {
-                MvtFeature fj = features.get(j);
-                Geometry gj = fj.getGeometry();
-                boolean clustered = boundary ? gi.getBoundary().intersects(gj.getBoundary()) : gi.intersects(gj);
-                if (clustered) {
-                    if (cluster.isPresent()) {
-                        // already in a cluster, add to the new feature to the cluster
-                        clusterResult.clusters.put(cluster.get(),fj);
-                        clusterResult.inCluster.put(fj,cluster.get());
-                    } else {
-                        // new cluster
-                        clusterResult.clusters.put(fi,fj);
-                        clusterResult.inCluster.put(fj,fi);
-                    }
-                }
+            int cluster = find(parent, i);
+            if (cluster != i) {
+                clusterResult.clusters.put(features.get(cluster), features.get(i));
+                clusterResult.inCluster.put(features.get(i), features.get(cluster));
             }
-            // if the feature wasn't already in a cluster and hasn't started a new cluster, it is standalone
-            if (cluster.isEmpty() && !clusterResult.clusters.containsKey(fi)) {
-                clusterResult.standalone.add(fi);
+        }
+        // features that are not connected to another feature are standalone
+        for (int i = 0; i < features.size(); i++) {
+            if (find(parent, i) == i && !clusterResult.clusters.containsKey(features.get(i))) {
+                clusterResult.standalone.add(features.get(i));
             }
         }
         return clusterResult;
     }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int i, int j) {
+        int rootI = find(parent, i);
+        int rootJ = find(parent, j);
+        // the feature with the lower index remains the main feature of the cluster
+        if (rootI < rootJ)
+            parent[rootJ] = rootI;
+        else if (rootJ < rootI)
+            parent[rootI] = rootJ;
+    }
 }
@@ -0,0 +1,335 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The empty tiles of a tile set across all zoom levels, so that empty tiles are neither stored as tile files nor as
+ * rows of an MBTiles file. The tiles are grouped in chunks of 64x64 tiles with one bit per tile; a chunk in which all
+ * tiles are empty, e.g. over the sea, is stored without bits. The bitmap is written to a file, if it has changed. When
+ * a tile is removed, the file is deleted until the bitmap is written again, so that an interrupted process never
+ * reads a tile as empty that has been removed before.
+ */
+public class EmptyTileBitmap {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EmptyTileBitmap.class);
+    private static final int FORMAT_VERSION = 1;
+    private static final int CHUNK_BITS = 6;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    // a chunk in which all tiles are empty
+    private static final long[] FULL = new long[0];
+    // the bitmap is written at most once in this interval, unless it is written on request
+    private static final long SAVE_INTERVAL = 60 * 1000;
+
+    private final Path path;
+    private final Map<Long, long[]> chunks;
+    // only one thread writes the file at a time
+    private final Object saveLock;
+    private boolean modified;
+    private boolean persisted;
+    private long lastSave;
+    // the number of changes that removed tiles
+    private long removals;
+
+    private EmptyTileBitmap(Path path) {
+        this.path = path;
+        this.chunks = new HashMap<>();
+        this.saveLock = new Object();
+    }
+
+    /**
+     * read the bitmap from a file; if the file does not exist or cannot be read, the bitmap is empty
+     * @param path the file of the bitmap
+     * @return the bitmap
+     */
+    public static EmptyTileBitmap load(Path path) {
+        EmptyTileBitmap bitmap = new EmptyTileBitmap(path);
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(path))))) {
+            if (in.readInt() != FORMAT_VERSION)
+                throw new IOException("unsupported version");
+            int numberOfChunks = in.readInt();
+            for (int i = 0; i < numberOfChunks; i++) {
+                long key = in.readLong();
+                if (in.readBoolean()) {
+                    bitmap.chunks.put(key, FULL);
+                } else {
+                    long[] bits = new long[CHUNK_SIZE];
+                    for (int j = 0; j < CHUNK_SIZE; j++) {
+                        bits[j] = in.readLong();
+                    }
+                    bitmap.chunks.put(key, bits);
+                }
+            }
+            bitmap.persisted = true;
+        } catch (NoSuchFileException e) {
+            // no empty tiles yet
+        } catch (IOException e) {
+            LOGGER.warn("The empty tiles in '{}' could not be read, the tiles are generated again: {}", path, e.getMessage());
+            bitmap.chunks.clear();
+        }
+        return bitmap;
+    }
+
+    /**
+     *
+     * @param level the zoom level / tile matrix of the tile
+     * @param row the row of the tile
+     * @param col the column of the tile
+     * @return {@code true}, if the tile is empty
+     */
+    public synchronized boolean contains(int level, int row, int col) {
+        long[] bits = chunks.get(getKey(level, row, col));
+        if (Objects.isNull(bits))
+            return false;
+        return bits == FULL || (bits[row & (CHUNK_SIZE - 1)] & (1L << (col & (CHUNK_SIZE - 1)))) != 0;
+    }
+
+    /**
+     * add an empty tile
+     * @param level the zoom level / tile matrix of the tile
+     * @param row the row of the tile
+     * @param col the column of the tile
+     */
+    public synchronized void add(int level, int row, int col) {
+        long key = getKey(level, row, col);
+        long[] bits = chunks.computeIfAbsent(key, k -> new long[CHUNK_SIZE]);
+        if (bits == FULL)
+            return;
+        bits[row & (CHUNK_SIZE - 1)] |= 1L << (col & (CHUNK_SIZE - 1));
+        if (Arrays.stream(bits).allMatch(word -> word == -1L))
+            chunks.put(key, FULL);
+        modified = true;
+    }
+
+    /**
+     * remove a tile, e.g. because it is no longer empty
+     * @param level the zoom level / tile matrix of the tile
+     * @param row the row of the tile
+     * @param col the column of the tile
+     * @return {@code true}, if the tile was empty
+     */
+    public synchronized boolean remove(int level, int row, int col) {
+        if (!contains(level, row, col))
+            return false;
+        long key = getKey(level, row, col);
+        long[] bits = chunks.get(key);
+        if (bits == FULL) {
+            bits = new long[CHUNK_SIZE];
+            Arrays.fill(bits, -1L);
+            chunks.put(key, bits);
+        }
+        bits[row & (CHUNK_SIZE - 1)] &= ~(1L << (col & (CHUNK_SIZE - 1)));
+        if (Arrays.stream(bits).allMatch(word -> word == 0L))
+            chunks.remove(key);
+        removed();
+        return true;
+    }
+
+    /**
+     * remove the tiles in a range of rows and columns
+     * @param level the zoom level / tile matrix of the tiles
+     */
+    public synchronized void remove(int level, int minRow, int maxRow, int minCol, int maxCol) {
+        boolean changed = false;
+        for (int chunkRow = minRow >> CHUNK_BITS; chunkRow <= maxRow >> CHUNK_BITS; chunkRow++) {
+            for (int chunkCol = minCol >> CHUNK_BITS; chunkCol <= maxCol >> CHUNK_BITS; chunkCol++) {
+                long key = getKey(level, chunkRow << CHUNK_BITS, chunkCol << CHUNK_BITS);
+                long[] bits = chunks.get(key);
+                if (Objects.isNull(bits))
+                    continue;
+                if (bits == FULL) {
+                    bits = new long[CHUNK_SIZE];
+                    Arrays.fill(bits, -1L);
+                }
+                int firstCol = Math.max(minCol, chunkCol << CHUNK_BITS) & (CHUNK_SIZE - 1);
+                int lastCol = Math.min(maxCol, (chunkCol << CHUNK_BITS) + CHUNK_SIZE - 1) & (CHUNK_SIZE - 1);
+                long mask = lastCol == CHUNK_SIZE - 1 ? -1L << firstCol : ((1L << (lastCol + 1)) - 1) & (-1L << firstCol);
+                int firstRow = Math.max(minRow, chunkRow << CHUNK_BITS) & (CHUNK_SIZE - 1);
+                int lastRow = Math.min(maxRow, (chunkRow << CHUNK_BITS) + CHUNK_SIZE - 1) & (CHUNK_SIZE - 1);
+                for (int row = firstRow; row <= lastRow; row++) {
+                    bits[row] &= ~mask;
+                }
+                if (Arrays.stream(bits).allMatch(word -> word == 0L))
+                    chunks.remove(key);
+                else
+                    chunks.put(key, bits);
+                changed = true;
+            }
+        }
+        if (changed)
+            removed();
+    }
+
+    public interface TileVisitor {
+        void visit(int level, int row, int col);
+    }
+
+    /**
+     * visit the empty tiles of a zoom level in a range of rows and columns
+     * @param level the zoom level / tile matrix of the tiles
+     * @param visitor the visitor
+     */
+    public synchronized void visit(int level, int minRow, int maxRow, int minCol, int maxCol, TileVisitor visitor) {
+        for (int chunkRow = minRow >> CHUNK_BITS; chunkRow <= maxRow >> CHUNK_BITS; chunkRow++) {
+            for (int chunkCol = minCol >> CHUNK_BITS; chunkCol <= maxCol >> CHUNK_BITS; chunkCol++) {
+                long[] bits = chunks.get(getKey(level, chunkRow << CHUNK_BITS, chunkCol << CHUNK_BITS));
+                if (Objects.isNull(bits))
+                    continue;
+                for (int row = Math.max(minRow, chunkRow << CHUNK_BITS); row <= Math.min(maxRow, (chunkRow << CHUNK_BITS) + CHUNK_SIZE - 1); row++) {
+                    for (int col = Math.max(minCol, chunkCol << CHUNK_BITS); col <= Math.min(maxCol, (chunkCol << CHUNK_BITS) + CHUNK_SIZE - 1); col++) {
+                        if (bits == FULL || (bits[row & (CHUNK_SIZE - 1)] & (1L << (col & (CHUNK_SIZE - 1)))) != 0)
+                            visitor.visit(level, row, col);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * visit all empty tiles
+     * @param visitor the visitor
+     */
+    public synchronized void visit(TileVisitor visitor) {
+        for (Map.Entry<Long, long[]> chunk : chunks.entrySet()) {
+            int level = (int) (chunk.getKey() >>> 58);
+            int minRow = (int) ((chunk.getKey() >>> 29) & 0x1FFFFFFF) << CHUNK_BITS;
+            int minCol = (int) (chunk.getKey() & 0x1FFFFFFF) << CHUNK_BITS;
+            long[] bits = chunk.getValue();
+            for (int row = 0; row < CHUNK_SIZE; row++) {
+                for (int col = 0; col < CHUNK_SIZE; col++) {
+                    if (bits == FULL || (bits[row] & (1L << col)) != 0)
+                        visitor.visit(level, minRow + row, minCol + col);
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * @return the number of empty tiles per zoom level
+     */
+    public synchronized Map<Integer, Long> getNumberOfTiles() {
+        Map<Integer, Long> numberOfTiles = new TreeMap<>();
+        for (Map.Entry<Long, long[]> chunk : chunks.entrySet()) {
+            long tiles = chunk.getValue() == FULL
+                ? CHUNK_SIZE * CHUNK_SIZE
+                : Arrays.stream(chunk.getValue()).map(Long::bitCount).sum();
+            numberOfTiles.merge((int) (chunk.getKey() >>> 58), tiles, Long::sum);
+        }
+        return numberOfTiles;
+    }
+
+    /**
+     * write the bitmap to its file, if it has changed since it has been written the last time; the chunks are copied
+     * while the bitmap is locked, the file is written without blocking the access to the bitmap
+     * @param force {@code false}, if the bitmap should be written at most once per minute
+     */
+    public void save(boolean force) {
+        synchronized (saveLock) {
+            Map<Long, long[]> snapshot = new HashMap<>();
+            long version;
+            synchronized (this) {
+                if (!modified || (!force && System.currentTimeMillis() - lastSave < SAVE_INTERVAL))
+                    return;
+                lastSave = System.currentTimeMillis();
+                modified = false;
+                if (chunks.isEmpty()) {
+                    try {
+                        Files.deleteIfExists(path);
+                        persisted = false;
+                    } catch (IOException e) {
+                        modified = true;
+                        LOGGER.warn("The outdated empty tiles in '{}' could not be deleted: {}", path, e.getMessage());
+                    }
+                    return;
+                }
+                chunks.forEach((key, bits) -> snapshot.put(key, bits == FULL ? FULL : bits.clone()));
+                version = removals;
+            }
+
+            try {
+                Path tmpPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+                try {
+                    try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath))))) {
+                        out.writeInt(FORMAT_VERSION);
+                        out.writeInt(snapshot.size());
+                        for (Map.Entry<Long, long[]> chunk : snapshot.entrySet()) {
+                            out.writeLong(chunk.getKey());
+                            out.writeBoolean(chunk.getValue() == FULL);
+                            if (chunk.getValue() != FULL) {
+                                for (long word : chunk.getValue()) {
+                                    out.writeLong(word);
+                                }
+                            }
+                        }
+                    }
+                    synchronized (this) {
+                        // a tile that has been removed in the meantime must not be written as empty
+                        if (removals != version) {
+                            modified = true;
+                            return;
+                        }
+                        try {
+                            Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                        } catch (AtomicMoveNotSupportedException e) {
+                            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING);
+                        }
+                        persisted = true;
+                    }
+                } finally {
+                    Files.deleteIfExists(tmpPath);
+                }
+            } catch (IOException e) {
+                // the empty tiles that are not written are generated again after a restart
+                synchronized (this) {
+                    modified = true;
+                }
+                LOGGER.warn("The empty tiles could not be written to '{}': {}", path, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * a file with the removed tile must not be read after an interruption, the file is written again later
+     */
+    private void removed() {
+        modified = true;
+        removals++;
+        if (persisted) {
+            try {
+                Files.deleteIfExists(path);
+                persisted = false;
+            } catch (IOException e) {
+                LOGGER.warn("The outdated empty tiles in '{}' could not be deleted: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    private static long getKey(int level, int row, int col) {
+        return ((long) level << 58) | ((long) (row >>> CHUNK_BITS) << 29) | (col >>> CHUNK_BITS);
+    }
+}
@@ -18,6 +18,8 @@ import de.ii.ogcapi.tiles.domain.Rule;
 import de.ii.ogcapi.tiles.domain.Tile;
 import de.ii.ogcapi.tiles.domain.TilesConfiguration;
 import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
+import de.ii.xtraplatform.base.domain.LogContext;
+import de.ii.xtraplatform.crs.domain.BoundingBox;
 import de.ii.xtraplatform.features.domain.FeatureObjectEncoder;
 import java.util.HashSet;
 import java.util.List;
@@ -25,8 +27,10 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 import no.ecc.vectortile.VectorTileEncoder;
 import org.locationtech.jts.geom.CoordinateXY;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.Polygon;
@@ -39,14 +43,13 @@ import org.slf4j.LoggerFactory;
 public class FeatureEncoderMVT extends FeatureObjectEncoder<PropertySfFlat, FeatureSfFlat> {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(FeatureEncoderMVT.class);
+  private static final int BUFFER = 8;
 
   private final FeatureTransformationContextTiles encodingContext;
   private final TilesConfiguration tilesConfiguration;
   private final String collectionId;
   private final Tile tile;
   private final TileMatrixSet tileMatrixSet;
-  private final VectorTileEncoder tileEncoder;
-  private final AffineTransformation affineTransformation;
   private final double minimumSizeInPixel;
   private final String layerName;
   private final List<String> properties;
@@ -56,14 +59,16 @@ public class FeatureEncoderMVT extends FeatureObjectEncoder<PropertySfFlat, Feat
   private final GeometryFactory geometryFactoryWorld;
   private final Polygon clipGeometry;
   private final List<String> groupBy;
-  private final Set<MvtFeature> mergeFeatures;
+  // the tiles generated from the features, more than one for a metatile
+  private final List<TileContent> tiles;
+  private final boolean isMetatile;
+  // the maximum number of features of each tile, for a metatile the query only limits the number of all features
+  private final int limit;
 
-  private long mergeCount = 0;
   private final long transformerStart = System.nanoTime();
   private long processingStart;
   private Long featureStart = null;
   private long featureCount = 0;
-  private long written = 0;
 
   public FeatureEncoderMVT(FeatureTransformationContextTiles encodingContext) {
     this.encodingContext = encodingContext;
@@ -71,8 +76,6 @@ public class FeatureEncoderMVT extends FeatureObjectEncoder<PropertySfFlat, Feat
     this.collectionId = encodingContext.getCollectionId();
     this.tile = encodingContext.tile();
     this.tileMatrixSet = tile.getTileMatrixSet();
-    this.tileEncoder = new VectorTileEncoder(tileMatrixSet.getTileExtent());
-    this.affineTransformation = tile.createTransformNativeToTile();
     this.minimumSizeInPixel = tilesConfiguration.getMinimumSizeInPixelDerived();
     this.layerName = Objects.requireNonNullElse(collectionId, "layer");
     this.properties = encodingContext.getFields();
@@ -82,12 +85,11 @@ public class FeatureEncoderMVT extends FeatureObjectEncoder<PropertySfFlat, Feat
     this.geometryFactoryWorld = new GeometryFactory();
 
     final int size = tileMatrixSet.getTileSize();
-    final int buffer = 8;
     CoordinateXY[] coords = new CoordinateXY[5];
-    coords[0] = new CoordinateXY(-buffer, size+buffer);
-    coords[1] = new CoordinateXY(size+buffer, size+buffer);
-    coords[2] = new CoordinateXY(size+buffer, -buffer);
-    coords[3] = new CoordinateXY(-buffer, -buffer);
+    coords[0] = new CoordinateXY(-BUFFER, size+BUFFER);
+    coords[1] = new CoordinateXY(size+BUFFER, size+BUFFER);
+    coords[2] = new CoordinateXY(size+BUFFER, -BUFFER);
+    coords[3] = new CoordinateXY(-BUFFER, -BUFFER);
     coords[4] = coords[0];
     this.clipGeometry = geometryFactoryTile.createPolygon(coords);
 
@@ -99,7 +101,12 @@ public class FeatureEncoderMVT extends FeatureObjectEncoder<PropertySfFlat, Feat
             .findAny()
             .orElse(null) :
         null;
-    this.mergeFeatures = new HashSet<>();
+
+    this.isMetatile = !encodingContext.metatile().isEmpty();
+    this.limit = Objects.requireNonNullElse(tilesConfiguration.getLimitDerived(), CapabilityTiles.LIMIT_DEFAULT);
+    this.tiles = isMetatile
+        ? encodingContext.metatile().stream().map(TileContent::new).collect(Collectors.toUnmodifiableList())
+        : List.of(new TileContent(tile));
   }
 
   @Override
@@ -115,8 +122,13 @@ public class FeatureEncoderMVT extends FeatureObjectEncoder<PropertySfFlat, Feat
   @Override
   public void onStart(ModifiableContext context) {
     if (LOGGER.isTraceEnabled()) {
-      LOGGER.trace("Start generating tile for collection {}, tile {}/{}/{}/{}.", collectionId,
-          tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol());
+      if (isMetatile) {
+        LOGGER.trace("Start generating metatile with {} tiles for collection {}, first tile {}/{}/{}/{}.", tiles.size(), collectionId,
+            tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol());
+      } else {
+        LOGGER.trace("Start generating tile for collection {}, tile {}/{}/{}/{}.", collectionId,
+            tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol());
+      }
     }
     this.processingStart = System.nanoTime();
   }
@@ -133,61 +145,162 @@ public class FeatureEncoderMVT extends FeatureObjectEncoder<PropertySfFlat, Feat
       return;
     }
 
-    try {
-      Geometry tileGeometry = TileGeometryUtil
-          .getTileGeometry(featureGeometry.get(), affineTransformation, clipGeometry, tilePrecisionModel, minimumSizeInPixel);
-      if (Objects.isNull(tileGeometry)) {
-        return;
-      }
+    if (!isMetatile) {
+      tiles.get(0).addFeature(feature, featureGeometry.get());
+      return;
+    }
 
-      // if polygons have to be merged, store them for now and process at the end
-      if (Objects.nonNull(groupBy) && tileGeometry.getGeometryType().contains("Polygon")) {
-        mergeFeatures.add(new ImmutableMvtFeature.Builder()
-            .id(++mergeCount)
-            .properties(feature.getPropertiesAsMap())
-            .geometry(tileGeometry)
-            .build());
-        return;
+    // the geometry is transformed in place, so each tile of the metatile needs its own copy
+    Envelope envelope = featureGeometry.get().getEnvelopeInternal();
+    for (TileContent tileContent : tiles) {
+      if (tileContent.envelope.intersects(envelope) && tileContent.received < limit) {
+        tileContent.received++;
+        tileContent.addFeature(feature, featureGeometry.get().copy());
       }
+    }
+  }
 
-      // Geometry is invalid -> log this information and skip it, if that option is used
-      if (!tileGeometry.isValid()) {
-        LOGGER.warn("Feature {} in collection {} has an invalid tile geometry in tile {}/{}/{}/{}. Size in pixels: {}.", feature.getIdValue(), collectionId, tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(), featureGeometry.get().getArea());
-        if (encodingContext.tilesConfiguration().isIgnoreInvalidGeometriesDerived()) {
-          return;
-        }
-      }
+  @Override
+  public void onEnd(ModifiableContext context) {
+    long written = 0;
+    long mergerDuration = 0;
+    long encoderDuration = 0;
+    int bytes = 0;
+    long generationDuration = System.nanoTime() - transformerStart;
+    for (TileContent tileContent : tiles) {
+      long mergerStart = System.nanoTime();
+      tileContent.merge();
+      mergerDuration += (System.nanoTime() - mergerStart) / 1000000;
+
+      long encoderStart = System.nanoTime();
+      byte[] mvt = tileContent.tileEncoder.encode();
+      encoderDuration += (System.nanoTime() - encoderStart) / 1000000;
 
-      // If we have an id that happens to be a long value, use it
-      Long id = null;
-      if (feature.getIdValue() != null) {
+      if (isMetatile) {
         try {
-          id = Long.parseLong(feature.getIdValue());
-        } catch (Exception e) {
-          // nothing to do
+          // the tiles of a metatile are written to the cache directly
+          encodingContext.getTileCache().storeTile(tileContent.tile, mvt);
+        } catch (Throwable e) {
+          String msg = "Failure to write the tile {}/{}/{}/{} of a metatile in collection '{}' to the cache";
+          LogContext.errorAsInfo(LOGGER, e, msg, tileMatrixSet.getId(), tileContent.tile.getTileLevel(), tileContent.tile.getTileRow(), tileContent.tile.getTileCol(), collectionId);
         }
+      } else {
+        push(mvt);
       }
 
-      // Add the feature with the layer name, a Map with attributes and the JTS Geometry.
-      if (Objects.nonNull(id)) {
-        tileEncoder.addFeature(layerName, feature.getPropertiesAsMap(), tileGeometry, id);
+      // the generation time of a metatile is shared by its tiles
+      encodingContext.getTileStatistics().recordGeneration(tileContent.tile, collectionId, generationDuration / tiles.size(), mvt.length, tileContent.written);
+      written += tileContent.written;
+      bytes += mvt.length;
+    }
+
+    if (LOGGER.isDebugEnabled()) {
+      long transformerDuration = generationDuration / 1000000;
+      long processingDuration = (System.nanoTime() - processingStart) / 1000000;
+      int kiloBytes = bytes/1024;
+      String tileText = isMetatile
+          ? String.format("metatile %s/%d/%d/%d with %d tiles", tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(), tiles.size())
+          : String.format("tile %s/%d/%d/%d", tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol());
+      String text;
+      if (Objects.nonNull(featureStart)) {
+        long featureDuration = (System.nanoTime() - featureStart) / 1000000;
+        text = String.format("Collection %s, %s written. Features returned: %d, written: %d, total duration: %dms, processing: %dms, feature post-processing: %dms, average feature post-processing: %dms, merging: %dms, encoding: %dms, size: %dkB.",
+                             collectionId, tileText, context.metadata().getNumberReturned().orElse(0), written,
+                             transformerDuration, processingDuration, featureDuration, featureCount == 0 ? 0 : featureDuration / featureCount, mergerDuration, encoderDuration, kiloBytes);
       } else {
-        tileEncoder.addFeature(layerName, feature.getPropertiesAsMap(), tileGeometry);
+        text = String.format("Collection %s, %s written. Features returned: %d, written: %d, total duration: %dms, processing: %dms, encoding: %dms, size: %dkB.",
+                             collectionId, tileText, context.metadata().getNumberReturned().orElse(0), written,
+                             transformerDuration, processingDuration, encoderDuration, kiloBytes);
       }
-      written++;
+      if (processingDuration > 200 * tiles.size() || kiloBytes > 50 * tiles.size())
+        LOGGER.debug(text);
+      else
+        LOGGER.trace(text);
+    }
+  }
+
+  /**
+   * the features of a single tile, clipped to the tile and converted to tile coordinates
+   */
+  private final class TileContent {
+
+    private final Tile tile;
+    private final VectorTileEncoder tileEncoder;
+    private final AffineTransformation affineTransformation;
+    // the area of the tile including the buffer in the CRS of the tiling scheme
+    private final Envelope envelope;
+    private final Set<MvtFeature> mergeFeatures;
+    private long mergeCount = 0;
+    private long written = 0;
+    // the features of the metatile that cover the tile
+    private long received = 0;
+
+    TileContent(Tile tile) {
+      this.tile = tile;
+      this.tileEncoder = new VectorTileEncoder(tileMatrixSet.getTileExtent());
+      this.affineTransformation = tile.createTransformNativeToTile();
+      BoundingBox bbox = tile.getBoundingBox();
+      this.envelope = new Envelope(bbox.getXmin(), bbox.getXmax(), bbox.getYmin(), bbox.getYmax());
+      envelope.expandBy((bbox.getXmax() - bbox.getXmin()) * BUFFER / tileMatrixSet.getTileSize(),
+                        (bbox.getYmax() - bbox.getYmin()) * BUFFER / tileMatrixSet.getTileSize());
+      this.mergeFeatures = new HashSet<>();
+    }
 
-    } catch (Exception e) {
-      LOGGER.error("Error while processing feature {} in tile {}/{}/{}/{} in collection {}. The feature is skipped.", feature.getIdValue(), tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(), collectionId);
-      if(LOGGER.isDebugEnabled()) {
-        LOGGER.debug("Stacktrace:", e);
+    void addFeature(FeatureSfFlat feature, Geometry featureGeometry) {
+      try {
+        Geometry tileGeometry = TileGeometryUtil
+            .getTileGeometry(featureGeometry, affineTransformation, clipGeometry, tilePrecisionModel, minimumSizeInPixel);
+        if (Objects.isNull(tileGeometry)) {
+          return;
+        }
+
+        // if polygons have to be merged, store them for now and process at the end
+        if (Objects.nonNull(groupBy) && tileGeometry.getGeometryType().contains("Polygon")) {
+          mergeFeatures.add(new ImmutableMvtFeature.Builder()
+              .id(++mergeCount)
+              .properties(feature.getPropertiesAsMap())
+              .geometry(tileGeometry)
+              .build());
+          return;
+        }
+
+        // Geometry is invalid -> log this information and skip it, if that option is used
+        if (!tileGeometry.isValid()) {
+          LOGGER.warn("Feature {} in collection {} has an invalid tile geometry in tile {}/{}/{}/{}. Size in pixels: {}.", feature.getIdValue(), collectionId, tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(), featureGeometry.getArea());
+          if (encodingContext.tilesConfiguration().isIgnoreInvalidGeometriesDerived()) {
+            return;
+          }
+        }
+
+        // If we have an id that happens to be a long value, use it
+        Long id = null;
+        if (feature.getIdValue() != null) {
+          try {
+            id = Long.parseLong(feature.getIdValue());
+          } catch (Exception e) {
+            // nothing to do
+          }
+        }
+
+        // Add the feature with the layer name, a Map with attributes and the JTS Geometry.
+        if (Objects.nonNull(id)) {
+          tileEncoder.addFeature(layerName, feature.getPropertiesAsMap(), tileGeometry, id);
+        } else {
+          tileEncoder.addFeature(layerName, feature.getPropertiesAsMap(), tileGeometry);
+        }
+        written++;
+
+      } catch (Exception e) {
+        LOGGER.error("Error while processing feature {} in tile {}/{}/{}/{} in collection {}. The feature is skipped.", feature.getIdValue(), tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(), collectionId);
+        if(LOGGER.isDebugEnabled()) {
+          LOGGER.debug("Stacktrace:", e);
+        }
       }
     }
-  }
 
-  @Override
-  public void onEnd(ModifiableContext context) {
-    long mergerStart = System.nanoTime();
-    if (Objects.nonNull(groupBy) && mergeCount >0) {
+    void merge() {
+      if (Objects.isNull(groupBy) || mergeCount == 0)
+        return;
       FeatureMerger merger = new FeatureMerger(groupBy, allProperties, properties, geometryFactoryTile, tilePrecisionModel, String.format("Collection %s, tile %s/%d/%d/%d", collectionId, tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol()));
       merger.merge(mergeFeatures).forEach(mergedFeature -> {
         Geometry geom = mergedFeature.getGeometry();
@@ -201,33 +314,5 @@ public class FeatureEncoderMVT extends FeatureObjectEncoder<PropertySfFlat, Feat
         written++;
       });
     }
-    long mergerDuration = (System.nanoTime() - mergerStart) / 1000000;
-
-    long encoderStart = System.nanoTime();
-
-    byte[] mvt = tileEncoder.encode();
-    push(mvt);
-
-    if (LOGGER.isDebugEnabled()) {
-      long encoderDuration = (System.nanoTime() - encoderStart) / 1000000;
-      long transformerDuration = (System.nanoTime() - transformerStart) / 1000000;
-      long processingDuration = (System.nanoTime() - processingStart) / 1000000;
-      int kiloBytes = mvt.length/1024;
-      String text;
-      if (Objects.nonNull(featureStart)) {
-        long featureDuration = (System.nanoTime() - featureStart) / 1000000;
-        text = String.format("Collection %s, tile %s/%d/%d/%d written. Features returned: %d, written: %d, total duration: %dms, processing: %dms, feature post-processing: %dms, average feature post-processing: %dms, merging: %dms, encoding: %dms, size: %dkB.",
-                             collectionId, tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(), context.metadata().getNumberReturned().orElse(0), written,
-                             transformerDuration, processingDuration, featureDuration, featureCount == 0 ? 0 : featureDuration / featureCount, mergerDuration, encoderDuration, kiloBytes);
-      } else {
-        text = String.format("Collection %s, tile %s/%d/%d/%d written. Features returned: %d, written: %d, total duration: %dms, processing: %dms, encoding: %dms, size: %dkB.",
-                             collectionId, tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(), context.metadata().getNumberReturned().orElse(0), written,
-                             transformerDuration, processingDuration, encoderDuration, kiloBytes);
-      }
-      if (processingDuration > 200 || kiloBytes > 50)
-        LOGGER.debug(text);
-      else
-        LOGGER.trace(text);
-    }
   }
 }
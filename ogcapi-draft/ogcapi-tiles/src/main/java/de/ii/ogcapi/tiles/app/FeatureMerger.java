@@ -10,12 +10,11 @@ package de.ii.ogcapi.tiles.app;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Lists;
 import de.ii.ogcapi.tiles.domain.ImmutableMvtFeature.Builder;
 import de.ii.ogcapi.tiles.domain.MvtFeature;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -30,7 +29,7 @@ import org.locationtech.jts.geom.Polygon;
 import org.locationtech.jts.geom.PrecisionModel;
 import org.locationtech.jts.geom.util.GeometryFixer;
 import org.locationtech.jts.operation.linemerge.LineMerger;
-import org.locationtech.jts.operation.overlayng.OverlayNG;
+import org.locationtech.jts.operation.overlayng.UnaryUnionNG;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -58,44 +57,46 @@ class FeatureMerger {
     }
 
     List<MvtFeature> merge(Set<MvtFeature> mergeFeatures) {
-        ImmutableList<ImmutableList<Object>> valueGroups = groupBy.stream()
-                                                                  .map(att -> mergeFeatures.stream()
-                                                                                           .map(props -> props.getProperties().getOrDefault(att, NULL))
-                                                                                           .distinct()
-                                                                                           .collect(ImmutableList.toImmutableList()))
-                                                                  .collect(ImmutableList.toImmutableList());
+        // group the features by their values for the groupBy attributes in a single pass, only groups with features are merged
+        Map<List<Object>, List<MvtFeature>> polygonGroups = new LinkedHashMap<>();
+        Map<List<Object>, List<MvtFeature>> lineStringGroups = new LinkedHashMap<>();
+        for (MvtFeature feature : mergeFeatures) {
+            if (feature.getGeometry() instanceof Polygon || feature.getGeometry() instanceof MultiPolygon) {
+                polygonGroups.computeIfAbsent(getValues(feature), values -> new ArrayList<>()).add(feature);
+            } else if (feature.getGeometry() instanceof LineString || feature.getGeometry() instanceof MultiLineString) {
+                lineStringGroups.computeIfAbsent(getValues(feature), values -> new ArrayList<>()).add(feature);
+            }
+        }
 
         List<MvtFeature> polygonFeatures = new ArrayList<>();
         List<MvtFeature> lineStringFeatures = new ArrayList<>();
-        if (mergeFeatures.stream().anyMatch(feature -> feature.getGeometry() instanceof Polygon || feature.getGeometry() instanceof MultiPolygon)) {
-            Lists.cartesianProduct(valueGroups)
-                 .forEach(values -> {
-                     try {
-                         polygonFeatures.addAll(mergePolygons(mergeFeatures, values));
-                     } catch (Exception e) {
-                         LOGGER.error("{}: Error while merging polygon geometries grouped by {}. The features are skipped.", context, values);
-                         if (LOGGER.isDebugEnabled()) {
-                             LOGGER.debug("Stacktrace:", e);
-                         }
-                     }
-                 });
+        if (!polygonGroups.isEmpty()) {
+            polygonGroups.forEach((values, features) -> {
+                try {
+                    polygonFeatures.addAll(mergePolygons(features, values));
+                } catch (Exception e) {
+                    LOGGER.error("{}: Error while merging polygon geometries grouped by {}. The features are skipped.", context, values);
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Stacktrace:", e);
+                    }
+                }
+            });
             LOGGER.trace("{}: {} merged polygon features, total pixel area: {}.", context, polygonFeatures.size(), polygonFeatures.stream()
                                                                                                                                   .mapToDouble(f -> f.getGeometry().getArea())
                                                                                                                                   .sum());
         }
 
-        if (mergeFeatures.stream().anyMatch(feature -> feature.getGeometry() instanceof LineString || feature.getGeometry() instanceof MultiLineString)) {
-            Lists.cartesianProduct(valueGroups)
-                 .forEach(values -> {
-                     try {
-                         lineStringFeatures.addAll(mergeLineStrings(mergeFeatures, values));
-                     } catch (Exception e) {
-                         LOGGER.error("{}: Error while merging line string geometries grouped by {}. The features are skipped.", context, values);
-                         if (LOGGER.isDebugEnabled()) {
-                             LOGGER.debug("Stacktrace:", e);
-                         }
-                     }
-                 });
+        if (!lineStringGroups.isEmpty()) {
+            lineStringGroups.forEach((values, features) -> {
+                try {
+                    lineStringFeatures.addAll(mergeLineStrings(features, values));
+                } catch (Exception e) {
+                    LOGGER.error("{}: Error while merging line string geometries grouped by {}. The features are skipped.", context, values);
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Stacktrace:", e);
+                    }
+                }
+            });
             LOGGER.trace("{}: {} merged line string features, total pixel length: {}.",
                          context, lineStringFeatures.size(), lineStringFeatures.stream()
                                                                                .mapToDouble(f -> f.getGeometry().getLength())
@@ -106,33 +107,21 @@ class FeatureMerger {
         return polygonFeatures;
     }
 
-    private List<MvtFeature> mergePolygons(Set<MvtFeature> mergeFeatures, List<Object> values) {
+    /**
+     * @param feature a feature
+     * @return the values of the feature for the groupBy attributes, {@value #NULL} for a missing attribute or an
+     *     attribute without a value, so that all features without a value are merged with each other
+     */
+    private List<Object> getValues(MvtFeature feature) {
+        return groupBy.stream()
+                      .map(att -> Objects.requireNonNullElse(feature.getProperties().get(att), NULL))
+                      .collect(Collectors.toUnmodifiableList());
+    }
+
+    private List<MvtFeature> mergePolygons(List<MvtFeature> features, List<Object> values) {
         // merge all polygons with the values for the groupBy attributes
         ImmutableList.Builder<MvtFeature> result = ImmutableList.builder();
 
-        // identify features that match the values
-        List<MvtFeature> features = mergeFeatures
-                .stream()
-                .filter(feature -> feature.getGeometry() instanceof Polygon || feature.getGeometry() instanceof MultiPolygon)
-                .filter(feature -> {
-                    int i = 0;
-                    boolean match = true;
-                    for (String att : groupBy) {
-                        if (values.get(i).equals(NULL)) {
-                            if (feature.getProperties().containsKey(att)) {
-                                match = false;
-                                break;
-                            }
-                        } else if (!values.get(i).equals(feature.getProperties().get(att))) {
-                            match = false;
-                            break;
-                        }
-                        i++;
-                    }
-                    return match;
-                })
-                .collect(Collectors.toUnmodifiableList());
-
         // nothing to merge?
         if (features.isEmpty()) {
             return result.build();
@@ -173,15 +162,8 @@ class FeatureMerger {
                             break;
                         default:
                             try {
-                                Iterator<Polygon> iter = polygons.iterator();
-                                geom = iter.next();
-                                while (iter.hasNext()) {
-                                    // TODO use OverlayNGRobust instead?
-                                    // geom = OverlayNGRobust.overlay(geom, iter.next(), OverlayNG.SYMDIFFERENCE);
-                                    OverlayNG overlay = new OverlayNG(geom, iter.next(), precisionModel, OverlayNG.SYMDIFFERENCE);
-                                    overlay.setStrictMode(true);
-                                    geom = overlay.getResult();
-                                }
+                                // union all polygons of the cluster at once instead of one after the other
+                                geom = UnaryUnionNG.union(geometryFactory.createMultiPolygon(polygons.toArray(Polygon[]::new)), precisionModel);
                             } catch (Exception e) {
                                 geom = geometryFactory.createMultiPolygon(polygons.toArray(Polygon[]::new));
                             }
@@ -219,32 +201,9 @@ class FeatureMerger {
     }
 
     // merge all polygons with the values for the groupBy attributes
-    private List<MvtFeature> mergeLineStrings(Set<MvtFeature> mergeFeatures, List<Object> values) {
+    private List<MvtFeature> mergeLineStrings(List<MvtFeature> features, List<Object> values) {
         ImmutableList.Builder<MvtFeature> result = ImmutableList.builder();
 
-        // identify features that match the values
-        List<MvtFeature> features = mergeFeatures
-                .stream()
-                .filter(feature -> feature.getGeometry() instanceof LineString || feature.getGeometry() instanceof MultiLineString)
-                .filter(feature -> {
-                    int i = 0;
-                    boolean match = true;
-                    for (String att : groupBy) {
-                        if (values.get(i).equals(NULL)) {
-                            if (feature.getProperties().containsKey(att)) {
-                                match = false;
-                                break;
-                            }
-                        } else if (!values.get(i).equals(feature.getProperties().get(att))) {
-                            match = false;
-                            break;
-                        }
-                        i++;
-                    }
-                    return match;
-                })
-                .collect(Collectors.toUnmodifiableList());
-
         // nothing to merge?
         if (features.isEmpty()) {
             return result.build();
@@ -0,0 +1,328 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app;
+
+import de.ii.ogcapi.tiles.domain.ImmutableMvtFeature;
+import de.ii.ogcapi.tiles.domain.MvtFeature;
+import de.ii.ogcapi.tiles.domain.PredefinedFilter;
+import de.ii.ogcapi.tiles.domain.Rule;
+import de.ii.ogcapi.tiles.domain.Tile;
+import de.ii.ogcapi.tiles.domain.TilesConfiguration;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import no.ecc.vectortile.VectorTileDecoder;
+import no.ecc.vectortile.VectorTileEncoder;
+import org.locationtech.jts.geom.CoordinateXY;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.geom.TopologyException;
+import org.locationtech.jts.geom.util.AffineTransformation;
+import org.locationtech.jts.operation.union.UnaryUnionOp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds a vector tile from the four tiles of the next zoom level that cover the tile, instead of querying the
+ * features again. The geometries of the child tiles are scaled to the tile, small pieces are dropped, the geometries
+ * are simplified and clipped with {@link TileGeometryUtil}. Parts of a feature that have been split across child
+ * tiles are joined again, if the feature has an id. Features without an id are joined, if they have the same
+ * properties and their parts intersect in the buffers along the boundaries of the child tiles. Finally, the rules of
+ * the zoom level for the properties and the merging of polygons are applied.
+ *
+ * The buffer of the child tiles is scaled with the child tiles, so the buffer of an overview tile is only half the
+ * buffer of a tile that is generated from the features.
+ */
+class OverviewTileEncoder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OverviewTileEncoder.class);
+    // the buffer of the child tiles, 8 pixels, scaled to the tile
+    private static final int BUFFER = 4;
+
+    private final Tile tile;
+    private final TilesConfiguration tilesConfiguration;
+    private final TileMatrixSet tileMatrixSet;
+    private final double minimumSizeInPixel;
+    private final PrecisionModel tilePrecisionModel;
+    private final GeometryFactory geometryFactoryTile;
+    private final Polygon clipGeometry;
+    private final double halfSize;
+    private final List<String> groupBy;
+    private final List<String> properties;
+    private final VectorTileDecoder decoder;
+    // the features by layer and, if the feature has an id, by id
+    private final Map<String, Map<Object, OverviewFeature>> layers;
+    // the features without an id that are in the buffers along the boundaries of the child tiles, by layer
+    private final Map<String, List<OverviewFeature>> boundaryFeatures;
+    private long nextKey = 0;
+
+    OverviewTileEncoder(Tile tile, TilesConfiguration tilesConfiguration) {
+        this.tile = tile;
+        this.tilesConfiguration = tilesConfiguration;
+        this.tileMatrixSet = tile.getTileMatrixSet();
+        this.minimumSizeInPixel = tilesConfiguration.getMinimumSizeInPixelDerived();
+        this.tilePrecisionModel = new PrecisionModel((double) tileMatrixSet.getTileExtent() / (double) tileMatrixSet.getTileSize());
+        this.geometryFactoryTile = new GeometryFactory(tilePrecisionModel);
+
+        final int size = tileMatrixSet.getTileSize();
+        CoordinateXY[] coords = new CoordinateXY[5];
+        coords[0] = new CoordinateXY(-BUFFER, size+BUFFER);
+        coords[1] = new CoordinateXY(size+BUFFER, size+BUFFER);
+        coords[2] = new CoordinateXY(size+BUFFER, -BUFFER);
+        coords[3] = new CoordinateXY(-BUFFER, -BUFFER);
+        coords[4] = coords[0];
+        this.clipGeometry = geometryFactoryTile.createPolygon(coords);
+        // the child tiles cover a quarter of the tile
+        this.halfSize = size / 2.0;
+
+        List<Rule> rules = getRules(tilesConfiguration, tileMatrixSet, tile.getTileLevel());
+        this.groupBy = rules.stream()
+                            .filter(rule -> rule.getMerge().orElse(false))
+                            .map(Rule::getGroupBy)
+                            .findAny()
+                            .orElse(null);
+        this.properties = rules.stream()
+                               .map(Rule::getProperties)
+                               .flatMap(Collection::stream)
+                               .collect(Collectors.toUnmodifiableList());
+        this.decoder = new VectorTileDecoder();
+        this.layers = new LinkedHashMap<>();
+        this.boundaryFeatures = new HashMap<>();
+    }
+
+    /**
+     * An overview tile has the same content as a tile generated from the features, unless a filter is applied
+     * for the zoom level that is not applied for the next zoom level, too.
+     *
+     * @return {@code true}, if tiles of the zoom level can be built from the tiles of the next zoom level
+     */
+    static boolean isApplicable(TilesConfiguration tilesConfiguration, TileMatrixSet tileMatrixSet, int level) {
+        if (level >= tileMatrixSet.getMaxLevel()
+            || tileMatrixSet.getCols(level + 1) != 2 * tileMatrixSet.getCols(level)
+            || tileMatrixSet.getRows(level + 1) != 2 * tileMatrixSet.getRows(level))
+            return false;
+        return Objects.equals(getFilter(tilesConfiguration, tileMatrixSet, level), getFilter(tilesConfiguration, tileMatrixSet, level + 1));
+    }
+
+    /**
+     * add the features of a child tile
+     *
+     * @param rowOffset 0 for the upper child tiles, 1 for the lower child tiles
+     * @param colOffset 0 for the left child tiles, 1 for the right child tiles
+     * @param content the encoded child tile
+     * @throws IOException the child tile cannot be decoded
+     */
+    void addChild(int rowOffset, int colOffset, byte[] content) throws IOException {
+        if (Objects.isNull(content) || content.length == 0)
+            return;
+
+        int child = 2 * rowOffset + colOffset;
+        AffineTransformation childToTile = new AffineTransformation(0.5, 0.0, colOffset * halfSize, 0.0, 0.5, rowOffset * halfSize);
+
+        for (VectorTileDecoder.Feature feature : decoder.decode(content)) {
+            Geometry tileGeometry = TileGeometryUtil.getTileGeometry(feature.getGeometry(), childToTile, clipGeometry, tilePrecisionModel, minimumSizeInPixel);
+            if (Objects.isNull(tileGeometry))
+                continue;
+
+            Map<Object, OverviewFeature> features = layers.computeIfAbsent(feature.getLayerName(), layerName -> new LinkedHashMap<>());
+            if (feature.getId() > 0) {
+                features.computeIfAbsent(feature.getId(), key -> new OverviewFeature(key, feature.getId(), getProperties(feature.getAttributes())))
+                        .add(child, tileGeometry);
+            } else {
+                addFeatureWithoutId(feature.getLayerName(), features, child, getProperties(feature.getAttributes()), tileGeometry);
+            }
+        }
+    }
+
+    /**
+     * A feature without an id that crosses the boundary of two child tiles is in both child tiles and the parts
+     * overlap in the buffers of the child tiles. The feature is joined with the features of the other child tiles that
+     * have the same properties and that intersect the feature.
+     */
+    private void addFeatureWithoutId(String layerName, Map<Object, OverviewFeature> features, int child,
+                                     Map<String, Object> featureProperties, Geometry tileGeometry) {
+        OverviewFeature joined = null;
+        boolean onBoundary = isOnChildBoundary(tileGeometry);
+        if (onBoundary) {
+            Iterator<OverviewFeature> candidates = boundaryFeatures.getOrDefault(layerName, List.of()).iterator();
+            while (candidates.hasNext()) {
+                OverviewFeature candidate = candidates.next();
+                if (candidate.children.contains(child) || !candidate.properties.equals(featureProperties) || !candidate.intersects(tileGeometry))
+                    continue;
+                if (Objects.isNull(joined)) {
+                    joined = candidate;
+                } else {
+                    // the feature connects the parts of two other child tiles
+                    joined.join(candidate);
+                    features.remove(candidate.key);
+                    candidates.remove();
+                }
+            }
+        }
+        if (Objects.isNull(joined)) {
+            joined = new OverviewFeature("_" + nextKey++, 0, featureProperties);
+            features.put(joined.key, joined);
+            if (onBoundary)
+                boundaryFeatures.computeIfAbsent(layerName, name -> new ArrayList<>()).add(joined);
+        }
+        joined.add(child, tileGeometry);
+    }
+
+    private boolean isOnChildBoundary(Geometry tileGeometry) {
+        Envelope envelope = tileGeometry.getEnvelopeInternal();
+        return (envelope.getMinX() <= halfSize + BUFFER && envelope.getMaxX() >= halfSize - BUFFER)
+            || (envelope.getMinY() <= halfSize + BUFFER && envelope.getMaxY() >= halfSize - BUFFER);
+    }
+
+    /**
+     * @return the encoded tile
+     */
+    byte[] encode() {
+        VectorTileEncoder encoder = new VectorTileEncoder(tileMatrixSet.getTileExtent());
+        layers.forEach((layerName, features) -> {
+            Set<MvtFeature> mergeFeatures = new HashSet<>();
+            long mergeCount = 0;
+            for (OverviewFeature feature : features.values()) {
+                Geometry geometry = feature.getGeometry();
+                if (Objects.isNull(geometry) || geometry.isEmpty())
+                    continue;
+
+                // if polygons have to be merged, store them for now and process at the end
+                if (Objects.nonNull(groupBy) && geometry.getGeometryType().contains("Polygon")) {
+                    mergeFeatures.add(new ImmutableMvtFeature.Builder()
+                                          .id(++mergeCount)
+                                          .properties(feature.properties)
+                                          .geometry(geometry)
+                                          .build());
+                    continue;
+                }
+
+                if (!geometry.isValid()) {
+                    LOGGER.warn("Feature {} in layer {} has an invalid geometry in overview tile {}/{}/{}/{}.", feature.id, layerName, tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol());
+                    if (tilesConfiguration.isIgnoreInvalidGeometriesDerived())
+                        continue;
+                }
+
+                if (feature.id > 0)
+                    encoder.addFeature(layerName, feature.properties, geometry, feature.id);
+                else
+                    encoder.addFeature(layerName, feature.properties, geometry);
+            }
+
+            if (mergeCount > 0) {
+                FeatureMerger merger = new FeatureMerger(groupBy, properties.isEmpty(), properties, geometryFactoryTile, tilePrecisionModel, String.format("Layer %s, overview tile %s/%d/%d/%d", layerName, tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol()));
+                merger.merge(mergeFeatures).forEach(mergedFeature -> {
+                    Geometry geometry = mergedFeature.getGeometry();
+                    if (!geometry.isValid()) {
+                        LOGGER.warn("A merged feature in layer {} has an invalid geometry in overview tile {}/{}/{}/{}. Properties: {}", layerName, tileMatrixSet.getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(), mergedFeature.getProperties());
+                        if (tilesConfiguration.isIgnoreInvalidGeometriesDerived())
+                            return;
+                    }
+                    encoder.addFeature(layerName, mergedFeature.getProperties(), geometry);
+                });
+            }
+        });
+        return encoder.encode();
+    }
+
+    private Map<String, Object> getProperties(Map<String, Object> attributes) {
+        // the rules of the zoom level may include fewer properties than the rules of the next zoom level
+        if (properties.isEmpty())
+            return attributes;
+        return attributes.entrySet()
+                         .stream()
+                         .filter(entry -> properties.contains(entry.getKey()))
+                         .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (value1, value2) -> value1, LinkedHashMap::new));
+    }
+
+    private static List<Rule> getRules(TilesConfiguration tilesConfiguration, TileMatrixSet tileMatrixSet, int level) {
+        final Map<String, List<Rule>> rules = tilesConfiguration.getRulesDerived();
+        if (Objects.isNull(rules) || !rules.containsKey(tileMatrixSet.getId()))
+            return List.of();
+        return rules.get(tileMatrixSet.getId())
+                    .stream()
+                    .filter(rule -> rule.getMax() >= level && rule.getMin() <= level)
+                    .collect(Collectors.toUnmodifiableList());
+    }
+
+    private static Optional<String> getFilter(TilesConfiguration tilesConfiguration, TileMatrixSet tileMatrixSet, int level) {
+        final Map<String, List<PredefinedFilter>> filters = tilesConfiguration.getFiltersDerived();
+        if (Objects.isNull(filters) || !filters.containsKey(tileMatrixSet.getId()))
+            return Optional.empty();
+        return filters.get(tileMatrixSet.getId())
+                      .stream()
+                      .filter(filter -> filter.getMax() >= level && filter.getMin() <= level && filter.getFilter().isPresent())
+                      .map(filter -> filter.getFilter().get())
+                      .findAny();
+    }
+
+    /**
+     * the parts of a feature from the child tiles
+     */
+    private final class OverviewFeature {
+
+        private final Object key;
+        private final long id;
+        private final Map<String, Object> properties;
+        private final List<Geometry> parts;
+        // the child tiles with parts of the feature
+        private final Set<Integer> children;
+
+        OverviewFeature(Object key, long id, Map<String, Object> properties) {
+            this.key = key;
+            this.id = id;
+            this.properties = properties;
+            this.parts = new ArrayList<>();
+            this.children = new HashSet<>();
+        }
+
+        void add(int child, Geometry part) {
+            parts.add(part);
+            children.add(child);
+        }
+
+        void join(OverviewFeature other) {
+            parts.addAll(other.parts);
+            children.addAll(other.children);
+        }
+
+        boolean intersects(Geometry geometry) {
+            try {
+                return parts.stream().anyMatch(part -> part.intersects(geometry));
+            } catch (TopologyException e) {
+                // invalid parts are not joined
+                return false;
+            }
+        }
+
+        Geometry getGeometry() {
+            if (parts.size() == 1)
+                return parts.get(0);
+            try {
+                return UnaryUnionOp.union(parts, geometryFactoryTile);
+            } catch (TopologyException e) {
+                // keep the parts, the duplicates in the buffer of the child tiles are tolerated
+                return geometryFactoryTile.buildGeometry(parts);
+            }
+        }
+    }
+}
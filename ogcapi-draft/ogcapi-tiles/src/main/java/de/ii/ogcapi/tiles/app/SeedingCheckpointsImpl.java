@@ -0,0 +1,148 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app;
+
+import static de.ii.ogcapi.foundation.domain.FoundationConfiguration.CACHE_DIR;
+
+import com.github.azahnen.dagger.annotations.AutoBind;
+import de.ii.ogcapi.tiles.domain.SeedingCheckpoints;
+import de.ii.xtraplatform.base.domain.AppContext;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The checkpoint of each phase is a file in the tile cache directory of the API. The first line is the fingerprint of
+ * the tiles of the run, each further line the key of a completed block or tile matrix. When a run is resumed, the keys
+ * of blocks of completed tile matrices are dropped from the file.
+ */
+@Singleton
+@AutoBind
+public class SeedingCheckpointsImpl implements SeedingCheckpoints {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SeedingCheckpointsImpl.class);
+    private static final String TILES_DIR_NAME = "tiles";
+    private static final String CHECKPOINT_FILE_PREFIX = "__seeding__.";
+    private static final String CHECKPOINT_FILE_SUFFIX = ".checkpoint";
+
+    private final Path cacheStore;
+    // the checkpoint files that are in use, by API and phase
+    private final Map<String, Path> checkpoints;
+
+    @Inject
+    public SeedingCheckpointsImpl(AppContext appContext) {
+        this.cacheStore = appContext.getDataDir()
+            .resolve(CACHE_DIR)
+            .resolve(TILES_DIR_NAME);
+        this.checkpoints = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public synchronized Set<String> resume(String apiId, String phase, String fingerprint) {
+        Path checkpoint = cacheStore.resolve(apiId).resolve(CHECKPOINT_FILE_PREFIX + phase + CHECKPOINT_FILE_SUFFIX);
+        checkpoints.put(getKey(apiId, phase), checkpoint);
+        try {
+            Set<String> completed = load(checkpoint, fingerprint);
+            write(checkpoint, fingerprint, completed);
+            if (!completed.isEmpty())
+                LOGGER.debug("Seeding checkpoint '{}' restored with {} completed blocks and tile matrices.", checkpoint, completed.size());
+            return completed;
+        } catch (IOException e) {
+            LOGGER.warn("Could not read the seeding checkpoint '{}', the seeding starts from the beginning: {}", checkpoint, e.getMessage());
+            return Set.of();
+        }
+    }
+
+    @Override
+    public synchronized void completed(String apiId, String phase, String key) {
+        Path checkpoint = checkpoints.get(getKey(apiId, phase));
+        if (Objects.isNull(checkpoint))
+            return;
+        try (BufferedWriter writer = Files.newBufferedWriter(checkpoint, StandardCharsets.UTF_8,
+                                                             StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.append(key).append('\n');
+        } catch (IOException e) {
+            LOGGER.warn("Could not write the seeding checkpoint '{}': {}", checkpoint, e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void reset(String apiId) {
+        checkpoints.keySet().removeIf(key -> key.startsWith(apiId + "/"));
+        Path apiDir = cacheStore.resolve(apiId);
+        if (!Files.isDirectory(apiDir))
+            return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(apiDir, CHECKPOINT_FILE_PREFIX + "*" + CHECKPOINT_FILE_SUFFIX)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not remove the seeding checkpoints of API '{}': {}", apiId, e.getMessage());
+        }
+    }
+
+    private static String getKey(String apiId, String phase) {
+        return apiId + "/" + phase;
+    }
+
+    private static Set<String> load(Path checkpoint, String fingerprint) throws IOException {
+        if (!Files.exists(checkpoint))
+            return new TreeSet<>();
+        List<String> lines = Files.readAllLines(checkpoint, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(fingerprint)) {
+            LOGGER.debug("Seeding checkpoint '{}' is discarded, the tiles of the seeding have changed.", checkpoint);
+            return new TreeSet<>();
+        }
+        // sorted, a tile matrix precedes its blocks
+        TreeSet<String> completed = new TreeSet<>();
+        lines.stream()
+             .skip(1)
+             .filter(line -> !line.isBlank())
+             .forEach(completed::add);
+        String tileMatrix = null;
+        for (String key : List.copyOf(completed)) {
+            if (Objects.nonNull(tileMatrix) && key.startsWith(tileMatrix + "/"))
+                completed.remove(key);
+            else
+                tileMatrix = key;
+        }
+        return completed;
+    }
+
+    private static void write(Path checkpoint, String fingerprint, Set<String> completed) throws IOException {
+        Files.createDirectories(checkpoint.getParent());
+        Path tmp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.append(fingerprint).append('\n');
+            for (String key : completed) {
+                writer.append(key).append('\n');
+            }
+        }
+        try {
+            Files.move(tmp, checkpoint, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
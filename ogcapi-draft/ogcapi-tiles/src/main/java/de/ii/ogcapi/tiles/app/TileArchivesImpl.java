@@ -0,0 +1,258 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app;
+
+import static de.ii.ogcapi.foundation.domain.FoundationConfiguration.CACHE_DIR;
+
+import com.github.azahnen.dagger.annotations.AutoBind;
+import de.ii.ogcapi.foundation.domain.OgcApiDataV2;
+import de.ii.ogcapi.tiles.app.mbtiles.MbtilesTileset;
+import de.ii.ogcapi.tiles.app.pmtiles.PmtilesArchive;
+import de.ii.ogcapi.tiles.app.pmtiles.PmtilesWriter;
+import de.ii.ogcapi.tiles.domain.CachedTile;
+import de.ii.ogcapi.tiles.domain.Tile;
+import de.ii.ogcapi.tiles.domain.TileArchives;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
+import de.ii.xtraplatform.base.domain.AppContext;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The archive of a tile set is {@code {tileMatrixSetId}.pmtiles} next to the Mbtiles cache file of the tile set.
+ * Changed tiles are collected for {@value #ARCHIVE_EXPORT_DELAY_MINUTES} minutes, before the archive is exported
+ * again; the exports run one after the other in a background thread.
+ */
+@Singleton
+@AutoBind
+public class TileArchivesImpl implements TileArchives {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TileArchivesImpl.class);
+    private static final String TILES_DIR_NAME = "tiles";
+    // changed tiles are collected for this time, before the archive is exported again
+    private static final long ARCHIVE_EXPORT_DELAY_MINUTES = 5;
+
+    private final Path cacheStore;
+    private final Map<String, PmtilesArchive> pmtiles;
+    // the tiles that have been written or deleted since the export of the archive, by archive; these tiles
+    // are served from the Mbtiles cache file, the value is the version of the change
+    private final Map<String, Map<String, Long>> archiveOverrides;
+    private final AtomicLong overrideVersion;
+    private final ScheduledExecutorService archiveExport;
+    // the archives with a pending export
+    private final Set<String> scheduledExports;
+
+    @Inject
+    public TileArchivesImpl(AppContext appContext) {
+        this.cacheStore = appContext.getDataDir()
+            .resolve(CACHE_DIR)
+            .resolve(TILES_DIR_NAME);
+        this.pmtiles = new ConcurrentHashMap<>();
+        this.archiveOverrides = new ConcurrentHashMap<>();
+        this.overrideVersion = new AtomicLong();
+        this.archiveExport = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pmtiles-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduledExports = ConcurrentHashMap.newKeySet();
+    }
+
+    @Override
+    public void open(OgcApiDataV2 apiData, Optional<String> collectionId, String tileMatrixSetId) throws IOException {
+        String key = getArchiveKey(apiData, collectionId, tileMatrixSetId);
+        Path path = getArchivePath(apiData, collectionId, tileMatrixSetId);
+        synchronized (pmtiles) {
+            if (!pmtiles.containsKey(key) && Files.exists(path))
+                pmtiles.put(key, new PmtilesArchive(path));
+        }
+    }
+
+    @Override
+    public void export(OgcApiDataV2 apiData, Optional<String> collectionId, TileMatrixSet tileMatrixSet, MbtilesTileset tileset) throws IOException, SQLException {
+        String key = getArchiveKey(apiData, collectionId, tileMatrixSet.getId());
+        // exports of the same tile set run one after the other
+        synchronized (tileset) {
+            Path path = getArchivePath(apiData, collectionId, tileMatrixSet.getId());
+            // the changes up to now are included in the export, the tile set is flushed before it is read
+            Map<String, Long> overrides = archiveOverrides.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+            Map<String, Long> exported = Map.copyOf(overrides);
+            long numberOfTiles;
+            try {
+                numberOfTiles = tileset.readSnapshot(snapshot -> PmtilesWriter.write(path, new PmtilesWriter.TileSource() {
+                    @Override
+                    public void visitTiles(PmtilesWriter.TileVisitor visitor) throws SQLException {
+                        snapshot.visitTileMap((level, col, tmsRow, tileId) -> visitor.visit(level, col, tileMatrixSet.getTmsRow(level, tmsRow), tileId));
+                    }
+
+                    @Override
+                    public Optional<byte[]> getContent(long contentId) throws SQLException {
+                        return snapshot.getTileContent(contentId);
+                    }
+
+                    @Override
+                    public Optional<Long> getEmptyContentId() {
+                        return Optional.of(snapshot.getEmptyTileId());
+                    }
+                }, tileset.getMetadata()));
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("The PMTiles archive for tile set '{}' could not be written: {}", key, e.getMessage());
+                return;
+            }
+            if (numberOfTiles == 0) {
+                // there is nothing to export, a previous archive is outdated
+                drop(apiData, collectionId, tileMatrixSet.getId());
+                return;
+            }
+            synchronized (pmtiles) {
+                if (archiveOverrides.get(key) != overrides) {
+                    // the tiles have been deleted during the export
+                    Files.deleteIfExists(path);
+                    LOGGER.debug("PMTiles archive '{}' is outdated and has been removed.", path);
+                    return;
+                }
+                PmtilesArchive previous = pmtiles.put(key, new PmtilesArchive(path));
+                // tiles that have been changed again during the export are still served from the Mbtiles cache file
+                exported.forEach((tileKey, version) -> overrides.remove(tileKey, version));
+                if (Objects.nonNull(previous))
+                    previous.close();
+            }
+            LOGGER.info("PMTiles archive '{}' has been written with {} tiles.", path, numberOfTiles);
+        }
+    }
+
+    @Override
+    public void scheduleExport(OgcApiDataV2 apiData, Optional<String> collectionId, TileMatrixSet tileMatrixSet, MbtilesTileset tileset) {
+        String key = getArchiveKey(apiData, collectionId, tileMatrixSet.getId());
+        if (!scheduledExports.add(key))
+            return;
+        try {
+            archiveExport.schedule(() -> {
+                // changes from now on need another export
+                scheduledExports.remove(key);
+                try {
+                    export(apiData, collectionId, tileMatrixSet, tileset);
+                } catch (Exception e) {
+                    LOGGER.warn("The PMTiles archive for tile set '{}' could not be exported: {}", key, e.getMessage());
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Stacktrace:", e);
+                    }
+                }
+            }, ARCHIVE_EXPORT_DELAY_MINUTES, TimeUnit.MINUTES);
+        } catch (RejectedExecutionException e) {
+            // the application stops
+            scheduledExports.remove(key);
+        }
+    }
+
+    @Override
+    public Optional<CachedTile> getTile(Tile tile) throws IOException {
+        Optional<PmtilesArchive> archive = getArchive(tile);
+        if (archive.isEmpty())
+            return Optional.empty();
+        return archive.get()
+                      .getTile(tile.getTileLevel(), tile.getTileCol(), tile.getTileRow())
+                      .map(content -> new CachedTile(content, archive.get().isGzipped()));
+    }
+
+    @Override
+    public Optional<Boolean> isEmptyTile(Tile tile) throws IOException {
+        Optional<PmtilesArchive> archive = getArchive(tile);
+        if (archive.isEmpty())
+            return Optional.empty();
+        return archive.get().isEmptyTile(tile.getTileLevel(), tile.getTileCol(), tile.getTileRow());
+    }
+
+    @Override
+    public void override(Tile tile, MbtilesTileset tileset) {
+        String key = getArchiveKey(tile);
+        if (!pmtiles.containsKey(key))
+            return;
+        archiveOverrides.computeIfAbsent(key, k -> new ConcurrentHashMap<>())
+                        .put(getTileKey(tile), overrideVersion.incrementAndGet());
+        scheduleExport(tile.getApiData(), tile.isDatasetTile() ? Optional.empty() : Optional.of(tile.getCollectionId()), tile.getTileMatrixSet(), tileset);
+    }
+
+    @Override
+    public boolean drop(OgcApiDataV2 apiData, Optional<String> collectionId, String tileMatrixSetId) throws IOException {
+        String key = getArchiveKey(apiData, collectionId, tileMatrixSetId);
+        PmtilesArchive archive;
+        synchronized (pmtiles) {
+            archive = pmtiles.remove(key);
+            // a running export must not install an archive with the removed tiles
+            archiveOverrides.remove(key);
+        }
+        if (Objects.isNull(archive))
+            return false;
+        archive.close();
+        Files.deleteIfExists(archive.getPath());
+        LOGGER.debug("PMTiles archive '{}' has been removed.", archive.getPath());
+        return true;
+    }
+
+    @Override
+    public void close() {
+        archiveExport.shutdownNow();
+        for (Map.Entry<String, PmtilesArchive> entry : pmtiles.entrySet()) {
+            PmtilesArchive archive = entry.getValue();
+            try {
+                archive.close();
+                // the changes since the export are not recorded in the archive, serve the tiles from the Mbtiles
+                // cache file until the next export
+                if (!archiveOverrides.getOrDefault(entry.getKey(), Map.of()).isEmpty())
+                    Files.deleteIfExists(archive.getPath());
+            } catch (IOException e) {
+                LOGGER.error("Could not close the PMTiles archive '{}': {}", archive.getPath(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * the archive of the tile set of a tile, unless the tile has been changed since the export
+     * @param tile the tile
+     * @return the archive, if it exists and is current for the tile
+     */
+    private Optional<PmtilesArchive> getArchive(Tile tile) {
+        String key = getArchiveKey(tile);
+        PmtilesArchive archive = pmtiles.get(key);
+        if (Objects.isNull(archive) || archiveOverrides.getOrDefault(key, Map.of()).containsKey(getTileKey(tile)))
+            return Optional.empty();
+        return Optional.of(archive);
+    }
+
+    private String getArchiveKey(Tile tile) {
+        return getArchiveKey(tile.getApiData(), tile.isDatasetTile() ? Optional.empty() : Optional.of(tile.getCollectionId()), tile.getTileMatrixSet().getId());
+    }
+
+    private String getTileKey(Tile tile) {
+        return String.join("/", String.valueOf(tile.getTileLevel()), String.valueOf(tile.getTileRow()), String.valueOf(tile.getTileCol()));
+    }
+
+    private String getArchiveKey(OgcApiDataV2 apiData, Optional<String> collectionId, String tileMatrixSetId) {
+        return String.join("/", apiData.getId(), collectionId.orElse("__all__"), tileMatrixSetId);
+    }
+
+    private Path getArchivePath(OgcApiDataV2 apiData, Optional<String> collectionId, String tileMatrixSetId) {
+        return cacheStore.resolve(apiData.getId()).resolve(collectionId.orElse("__all__")).resolve(tileMatrixSetId+".pmtiles");
+    }
+}
@@ -11,6 +11,7 @@ import static de.ii.ogcapi.foundation.domain.FoundationConfiguration.CACHE_DIR;
 
 import com.github.azahnen.dagger.annotations.AutoBind;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import de.ii.ogcapi.features.core.domain.FeaturesCoreProviders;
 import de.ii.ogcapi.features.core.domain.SchemaInfo;
 import de.ii.ogcapi.foundation.domain.ExtensionRegistry;
@@ -20,38 +21,59 @@ import de.ii.ogcapi.foundation.domain.OgcApiDataV2;
 import de.ii.ogcapi.tiles.app.mbtiles.ImmutableMbtilesMetadata;
 import de.ii.ogcapi.tiles.app.mbtiles.MbtilesMetadata;
 import de.ii.ogcapi.tiles.app.mbtiles.MbtilesTileset;
+import de.ii.ogcapi.tiles.domain.CachedTile;
+import de.ii.ogcapi.tiles.domain.ImmutableStoredTiles;
 import de.ii.ogcapi.tiles.domain.MinMax;
+import de.ii.ogcapi.tiles.domain.SeedingCheckpoints;
+import de.ii.ogcapi.tiles.domain.StoredTiles;
 import de.ii.ogcapi.tiles.domain.Tile;
+import de.ii.ogcapi.tiles.domain.TileArchives;
+import de.ii.ogcapi.tiles.domain.TileBitmap;
 import de.ii.ogcapi.tiles.domain.TileCache;
+import de.ii.ogcapi.tiles.domain.TileCacheQuota;
+import de.ii.ogcapi.tiles.domain.TileEviction;
 import de.ii.ogcapi.tiles.domain.TileFormatExtension;
 import de.ii.ogcapi.tiles.domain.TileFormatWithQuerySupportExtension;
+import de.ii.ogcapi.tiles.domain.TileInvalidation;
 import de.ii.ogcapi.tiles.domain.TileSet;
+import de.ii.ogcapi.tiles.domain.TileStatistics;
 import de.ii.ogcapi.tiles.domain.TilesConfiguration;
 import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
 import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimits;
 import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimitsGenerator;
 import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetRepository;
 import de.ii.xtraplatform.base.domain.AppContext;
+import de.ii.xtraplatform.base.domain.AppLifeCycle;
 import de.ii.xtraplatform.crs.domain.BoundingBox;
 import de.ii.xtraplatform.crs.domain.CrsTransformerFactory;
 import de.ii.xtraplatform.store.domain.entities.EntityRegistry;
 import de.ii.xtraplatform.store.domain.entities.ImmutableValidationResult;
 import de.ii.xtraplatform.store.domain.entities.ValidationResult;
 import de.ii.xtraplatform.store.domain.entities.ValidationResult.MODE;
-import java.io.BufferedInputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
 import java.sql.SQLException;
 import java.text.MessageFormat;
 import java.time.Instant;
 import java.util.AbstractMap.SimpleImmutableEntry;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -59,6 +81,13 @@ import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.inject.Inject;
@@ -71,15 +100,30 @@ import org.slf4j.LoggerFactory;
  */
 @Singleton
 @AutoBind
-public class TileCacheImpl implements TileCache {
+public class TileCacheImpl implements TileCache, AppLifeCycle {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TileCacheImpl.class);
     private static final String TILES_DIR_NAME = "tiles";
     private static final String TMP_DIR_NAME = "__tmp__";
     private static final long TEN_MINUTES = 10 * 60 * 1000;
+    private static final long MEMORY_CACHE_MAX_BYTES = 64 * 1024 * 1024;
+    // the extended file attribute with the entity tag of a tile file
+    private static final String ETAG_ATTRIBUTE = "ldproxy.etag";
+    // the access time of a tile file is only updated, if it is older
+    private static final long ACCESS_TIME_RESOLUTION = 60 * 60 * 1000;
+    // up to this number of tiles, the tile files to delete are resolved directly instead of walking the cache directory
+    private static final long MAX_TILES_FOR_DIRECT_DELETE = 10_000;
+    // FILES: a stale tile file is renamed with this suffix
+    static final String STALE_SUFFIX = ".stale";
+    private static final String EMPTY_TILES_PREFIX = "__empty__.";
+    private static final String EMPTY_TILES_SUFFIX = ".bitmap";
+    private static final int REVALIDATION_THREADS = 2;
+    private static final int MAX_PENDING_REVALIDATIONS = 1000;
     private final Path cacheStore;
-    private long lastCleanup = System.currentTimeMillis();
+    private volatile long lastCleanup = System.currentTimeMillis();
     private final Map<String, MbtilesTileset> mbtiles;
+    private final Map<Path, EmptyTileBitmap> emptyTiles;
+    private final TileMemoryCache memoryCache;
     private final TileMatrixSetLimitsGenerator limitsGenerator;
     private final FeaturesCoreProviders providers;
     private final SchemaInfo schemaInfo;
@@ -87,6 +131,14 @@ public class TileCacheImpl implements TileCache {
     private final EntityRegistry entityRegistry;
     private final TileMatrixSetRepository tileMatrixSetRepository;
     private final CrsTransformerFactory crsTransformerFactory;
+    private final TileStatistics statistics;
+    private final SeedingCheckpoints seedingCheckpoints;
+    private final TileEviction eviction;
+    private final TileArchives archives;
+    private final TileInvalidation invalidation;
+    private final ExecutorService revalidation;
+    // the stale tiles that are currently generated again
+    private final Set<String> revalidating;
 
     /**
      * set data directory
@@ -99,7 +151,12 @@ public class TileCacheImpl implements TileCache {
                          ExtensionRegistry extensionRegistry,
                          EntityRegistry entityRegistry,
                          TileMatrixSetRepository tileMatrixSetRepository,
-                         CrsTransformerFactory crsTransformerFactory) {
+                         CrsTransformerFactory crsTransformerFactory,
+                         TileStatistics statistics,
+                         SeedingCheckpoints seedingCheckpoints,
+                         TileEviction eviction,
+                         TileArchives archives,
+                         TileInvalidation invalidation) {
         // the ldproxy data directory, in development environment this would be ./build/data
         this.cacheStore = appContext.getDataDir()
             .resolve(CACHE_DIR)
@@ -111,7 +168,23 @@ public class TileCacheImpl implements TileCache {
         this.entityRegistry = entityRegistry;
         this.tileMatrixSetRepository = tileMatrixSetRepository;
         this.crsTransformerFactory = crsTransformerFactory;
-        this.mbtiles = new HashMap<>();
+        this.statistics = statistics;
+        this.seedingCheckpoints = seedingCheckpoints;
+        this.eviction = eviction;
+        this.archives = archives;
+        this.invalidation = invalidation;
+        this.mbtiles = new ConcurrentHashMap<>();
+        this.emptyTiles = new ConcurrentHashMap<>();
+        this.memoryCache = new TileMemoryCache(MEMORY_CACHE_MAX_BYTES);
+        this.revalidation = new ThreadPoolExecutor(REVALIDATION_THREADS, REVALIDATION_THREADS, 60, TimeUnit.SECONDS,
+                                                   new LinkedBlockingQueue<>(MAX_PENDING_REVALIDATIONS),
+                                                   runnable -> {
+                                                       Thread thread = new Thread(runnable, "tile-revalidation");
+                                                       thread.setDaemon(true);
+                                                       return thread;
+                                                   });
+        ((ThreadPoolExecutor) revalidation).allowCoreThreadTimeOut(true);
+        this.revalidating = ConcurrentHashMap.newKeySet();
     }
 
     /**
@@ -177,6 +250,15 @@ public class TileCacheImpl implements TileCache {
                 }
                 break;
 
+            case PMTILES:
+                try {
+                    getOrInitTileset(api, collectionId, tileMatrixSet);
+                    archives.open(api.getData(), collectionId, tileMatrixSet.getId());
+                } catch (IOException e) {
+                    builder.addErrors(MessageFormat.format("The PMTiles archive for the tile cache for collection ''{0}'' could not be initialized.", collectionId.orElse("__all__")));
+                }
+                break;
+
             default:
             case FILES:
                 try {
@@ -189,9 +271,181 @@ public class TileCacheImpl implements TileCache {
         return builder;
     }
 
+    /**
+     * write pending tiles before the application stops
+     */
+    @Override
+    public void onStop() {
+        // finish the invalidation of tiles after changes of features
+        invalidation.shutdown();
+        try {
+            flush();
+        } catch (IOException | SQLException e) {
+            LOGGER.error("Could not write pending tiles to the tile cache: {}", e.getMessage());
+        }
+        for (MbtilesTileset tileset : mbtiles.values()) {
+            tileset.saveEmptyTiles();
+        }
+        for (EmptyTileBitmap bitmap : emptyTiles.values()) {
+            bitmap.save(true);
+        }
+        archives.close();
+    }
+
+    @Override
+    public void flush() throws IOException, SQLException {
+        for (MbtilesTileset tileset : mbtiles.values()) {
+            tileset.flush();
+        }
+        for (EmptyTileBitmap bitmap : emptyTiles.values()) {
+            bitmap.save(false);
+        }
+    }
+
+    @Override
+    public void exportArchives(OgcApi api) throws IOException, SQLException {
+        OgcApiDataV2 apiData = api.getData();
+        Map<String, TileMatrixSet> tileMatrixSets = tileMatrixSetRepository.getAll();
+        Optional<TilesConfiguration> config = apiData.getExtension(TilesConfiguration.class);
+        if (config.isPresent()
+                && config.get().isEnabled()
+                && config.get().isMultiCollectionEnabled()
+                && config.get().getCache() == TilesConfiguration.TileCacheType.PMTILES) {
+            for (String tileMatrixSetId : config.get().getZoomLevelsDerived().keySet()) {
+                exportArchive(api, Optional.empty(), tileMatrixSets.get(tileMatrixSetId));
+            }
+        }
+
+        for (String collectionId : apiData.getCollections().keySet()) {
+            config = apiData.getExtension(TilesConfiguration.class, collectionId);
+            if (config.isPresent()
+                    && config.get().isEnabled()
+                    && config.get().getCache() == TilesConfiguration.TileCacheType.PMTILES) {
+                for (String tileMatrixSetId : config.get().getZoomLevelsDerived().keySet()) {
+                    exportArchive(api, Optional.of(collectionId), tileMatrixSets.get(tileMatrixSetId));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void evictTiles(OgcApi api) throws IOException, SQLException {
+        OgcApiDataV2 apiData = api.getData();
+        Map<String, TileMatrixSet> tileMatrixSets = tileMatrixSetRepository.getAll();
+        Optional<TilesConfiguration> config = apiData.getExtension(TilesConfiguration.class);
+        if (config.isPresent()
+                && config.get().isEnabled()
+                && config.get().isMultiCollectionEnabled()
+                && config.get().getCacheQuotaDerived().isPresent()) {
+            for (String tileMatrixSetId : config.get().getZoomLevelsDerived().keySet()) {
+                evictTiles(api, Optional.empty(), tileMatrixSets.get(tileMatrixSetId), config.get().getCacheQuotaDerived().get());
+            }
+        }
+
+        for (String collectionId : apiData.getCollections().keySet()) {
+            config = apiData.getExtension(TilesConfiguration.class, collectionId);
+            if (config.isPresent()
+                    && config.get().isEnabled()
+                    && config.get().getCacheQuotaDerived().isPresent()) {
+                for (String tileMatrixSetId : config.get().getZoomLevelsDerived().keySet()) {
+                    evictTiles(api, Optional.of(collectionId), tileMatrixSets.get(tileMatrixSetId), config.get().getCacheQuotaDerived().get());
+                }
+            }
+        }
+    }
+
+    @Override
+    public Map<Integer, StoredTiles> getStoredTiles(OgcApi api, Optional<String> collectionId, TileMatrixSet tileMatrixSet) throws IOException, SQLException {
+        OgcApiDataV2 apiData = api.getData();
+        Path tileSetPath = cacheStore.resolve(apiData.getId())
+                                     .resolve(collectionId.orElse("__all__"));
+        switch (getType(apiData, collectionId)) {
+            case MBTILES:
+            case PMTILES:
+                // the statistics do not create a cache file
+                if (Files.notExists(tileSetPath.resolve(tileMatrixSet.getId() + ".mbtiles")))
+                    return ImmutableMap.of();
+                return getOrInitTileset(api, collectionId, tileMatrixSet).getStoredTiles();
+            case FILES:
+                return addEmptyTiles(getStoredTilesFiles(tileSetPath.resolve(tileMatrixSet.getId())), tileSetPath.resolve(tileMatrixSet.getId()));
+            default:
+                return ImmutableMap.of();
+        }
+    }
+
+    /**
+     * FILES: add the empty tiles of all tile formats, which are not stored as tile files, with a size of zero bytes
+     * @param storedTiles the tile files per zoom level
+     * @param tileSetDirectory the directory of the tile set
+     */
+    private Map<Integer, StoredTiles> addEmptyTiles(Map<Integer, StoredTiles> storedTiles, Path tileSetDirectory) throws IOException {
+        if (!Files.isDirectory(tileSetDirectory))
+            return storedTiles;
+
+        Map<Integer, StoredTiles> result = new TreeMap<>(storedTiles);
+        try (Stream<Path> files = Files.list(tileSetDirectory)) {
+            files.filter(path -> path.getFileName().toString().startsWith(EMPTY_TILES_PREFIX)
+                                 && path.getFileName().toString().endsWith(EMPTY_TILES_SUFFIX))
+                 .forEach(path -> emptyTiles.computeIfAbsent(path, EmptyTileBitmap::load)
+                                            .getNumberOfTiles()
+                                            .forEach((level, tiles) -> result.merge(level, new ImmutableStoredTiles.Builder().tiles(tiles).bytes(0).build(),
+                                                                                    StoredTiles::add)));
+        }
+        return result;
+    }
+
+    /**
+     * FILES: count the tile files per zoom level, stale tiles and files that are currently written are ignored
+     * @param tileSetDirectory the directory of the tile set
+     */
+    private static Map<Integer, StoredTiles> getStoredTilesFiles(Path tileSetDirectory) throws IOException {
+        if (!Files.isDirectory(tileSetDirectory))
+            return ImmutableMap.of();
+
+        // number of tiles and bytes per zoom level
+        Map<Integer, long[]> counts = new TreeMap<>();
+        Files.walkFileTree(tileSetDirectory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                String fileName = file.getFileName().toString();
+                Path relativePath = tileSetDirectory.relativize(file);
+                if (!attributes.isRegularFile() || relativePath.getNameCount() != 3
+                    || fileName.endsWith(".tmp") || fileName.endsWith(STALE_SUFFIX))
+                    return FileVisitResult.CONTINUE;
+                try {
+                    long[] count = counts.computeIfAbsent(Integer.parseInt(relativePath.getName(0).toString()), level -> new long[2]);
+                    count[0]++;
+                    count[1] += attributes.size();
+                } catch (NumberFormatException e) {
+                    // not a tile, ignore
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // deleted in the meantime
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return counts.entrySet()
+                     .stream()
+                     .collect(ImmutableMap.toImmutableMap(Map.Entry::getKey,
+                                                          entry -> new ImmutableStoredTiles.Builder().tiles(entry.getValue()[0])
+                                                                                                     .bytes(entry.getValue()[1])
+                                                                                                     .build()));
+    }
+
     @Override
     public void cleanup() {
+        // only one clean-up is started per interval
+        lastCleanup = System.currentTimeMillis();
         Runnable cleanup = () -> {
+            // the bitmaps of empty tiles that have changed since they have been written
+            for (EmptyTileBitmap bitmap : emptyTiles.values()) {
+                bitmap.save(false);
+            }
             try {
                 Path tmpDirectory = getTmpDirectory();
                 long cutoff = FileTime.from(Instant.now()).toMillis() - TEN_MINUTES;
@@ -210,7 +464,6 @@ public class TileCacheImpl implements TileCache {
                              throw new RuntimeException("Error while cleaning the tile cache.", e);
                          }
                      });
-                lastCleanup = System.currentTimeMillis();
             } catch (IOException e) {
                 throw new RuntimeException("Error while cleaning the tile cache.", e);
             }
@@ -222,41 +475,206 @@ public class TileCacheImpl implements TileCache {
     @Override
     public boolean tileExists(Tile tile) throws IOException, SQLException {
         switch (getType(tile)) {
+            case PMTILES:
+                if (!tile.getTemporary() && archives.getTile(tile).isPresent())
+                    return true;
             case MBTILES:
                 if (!tile.getTemporary())
                     return getTileset(tile).tileExists(tile);
 
             case FILES:
             default:
-                return Files.exists(getPath(tile));
+                return isEmptyTile(tile) || Files.exists(getPath(tile));
+        }
+    }
+
+    @Override
+    public TileBitmap getCachedTiles(OgcApi api, Optional<String> collectionId, TileMatrixSet tileMatrixSet,
+                                     TileMatrixSetLimits limits, TileFormatExtension outputFormat) throws IOException, SQLException {
+        switch (getType(api.getData(), collectionId)) {
+            case MBTILES:
+            case PMTILES:
+                return getOrInitTileset(api, collectionId, tileMatrixSet).getCachedTiles(tileMatrixSet, limits);
+
+            case NONE:
+                return new TileBitmap(limits);
+
+            case FILES:
+            default:
+                return getCachedTilesFiles(api.getData(), collectionId, tileMatrixSet, limits, outputFormat);
         }
     }
 
     @Override
     public Optional<InputStream> getTile(Tile tile) throws IOException, SQLException {
+        Optional<CachedTile> cachedTile = getCachedTile(tile);
+        if (cachedTile.isEmpty())
+            return Optional.empty();
+        if (cachedTile.get().isStale()) {
+            cachedTile.get().close();
+            return Optional.empty();
+        }
+        return Optional.of(cachedTile.get().getContentStream());
+    }
+
+    @Override
+    public Optional<CachedTile> getCachedTile(Tile tile) throws IOException, SQLException {
+        Optional<CachedTile> cachedTile = memoryCache.get(tile);
+        if (cachedTile.isEmpty()) {
+            cachedTile = getTileFromStore(tile);
+            // tile files are served from the file system cache, stale tiles are replaced soon
+            cachedTile.filter(content -> content.getFile().isEmpty() && !content.isStale())
+                      .ifPresent(content -> memoryCache.put(tile, content));
+        }
+        if (cachedTile.isPresent())
+            recordAccess(tile, cachedTile.get());
+        if (!tile.getTemporary())
+            statistics.recordCacheAccess(tile, cachedTile.isPresent());
+        return cachedTile;
+    }
+
+    /**
+     * FILES, MBTILES: track the access time of a tile, if the tile set has a quota
+     * @param tile the tile
+     * @param cachedTile the tile from the cache
+     */
+    private void recordAccess(Tile tile, CachedTile cachedTile) throws IOException {
+        if (tile.getTemporary() || getQuota(tile.getApiData(), tile.isDatasetTile() ? Optional.empty() : Optional.of(tile.getCollectionId())).isEmpty())
+            return;
         switch (getType(tile)) {
+            case MBTILES:
+                getTileset(tile).recordAccess(tile);
+                break;
+
+            case FILES:
+            default:
+                if (cachedTile.getFile().isPresent()) {
+                    // file systems are often mounted without updating access times on reads
+                    BasicFileAttributeView view = Files.getFileAttributeView(cachedTile.getFile().get(), BasicFileAttributeView.class);
+                    long now = System.currentTimeMillis();
+                    try {
+                        if (now - view.readAttributes().lastAccessTime().toMillis() > ACCESS_TIME_RESOLUTION)
+                            view.setTimes(null, FileTime.fromMillis(now), null);
+                    } catch (NoSuchFileException e) {
+                        // deleted in the meantime
+                    }
+                }
+                break;
+        }
+    }
+
+    private Optional<CachedTile> getTileFromStore(Tile tile) throws IOException, SQLException {
+        switch (getType(tile)) {
+            case PMTILES:
+                if (!tile.getTemporary()) {
+                    Optional<CachedTile> archivedTile = archives.getTile(tile);
+                    if (archivedTile.isPresent())
+                        return archivedTile;
+                }
             case MBTILES:
                 if (!tile.getTemporary())
-                    return getTileset(tile).getTile(tile);
+                    return getTileset(tile).getCachedTile(tile);
 
             case FILES:
             default:
+                if (isEmptyTile(tile))
+                    return Optional.of(new CachedTile(new byte[0]));
                 Path path = getPath(tile);
-                if (Files.notExists(path))
-                    return Optional.empty();
-                return Optional.of(new BufferedInputStream(new FileInputStream(path.toFile())));
+                Optional<CachedTile> cachedTile = getTileFromFile(path);
+                if (cachedTile.isEmpty() && !tile.getTemporary() && isStaleWhileRevalidate(tile))
+                    return getTileFromFile(getStalePath(path)).map(CachedTile::asStale);
+                return cachedTile;
+        }
+    }
+
+    @Override
+    public void revalidate(Tile tile, Runnable generation) {
+        String key = TileMemoryCache.getKey(tile);
+        if (!revalidating.add(key))
+            return;
+        try {
+            revalidation.execute(() -> {
+                try {
+                    generation.run();
+                } catch (Throwable e) {
+                    LOGGER.warn("Stale tile {}/{}/{}/{} could not be generated again: {}", tile.getTileMatrixSet().getId(),
+                                tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(), e.getMessage());
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Stacktrace:", e);
+                    }
+                } finally {
+                    revalidating.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // too many pending revalidations, a later request will try again
+            revalidating.remove(key);
+        }
+    }
+
+    private boolean isStaleWhileRevalidate(Tile tile) {
+        return isStaleWhileRevalidate(tile.getApiData(), tile.isDatasetTile() ? Optional.empty() : Optional.of(tile.getCollectionId()));
+    }
+
+    private boolean isStaleWhileRevalidate(OgcApiDataV2 apiData, Optional<String> collectionId) {
+        Optional<TilesConfiguration> config = collectionId.isEmpty()
+                ? apiData.getExtension(TilesConfiguration.class)
+                : apiData.getExtension(TilesConfiguration.class, collectionId.get());
+        return config.filter(TilesConfiguration::isStaleWhileRevalidate)
+                     .isPresent();
+    }
+
+    private static Path getStalePath(Path path) {
+        return path.resolveSibling(path.getFileName() + STALE_SUFFIX);
+    }
+
+    /**
+     * FILES cache or temporary tiles: fetch a tile file; the content is only read, if the entity tag is not
+     * stored with the file or if the file has been replaced while it was opened
+     * @param path the file path of the tile
+     * @return the tile, if the file exists
+     */
+    private Optional<CachedTile> getTileFromFile(Path path) throws IOException {
+        FileChannel channel;
+        Optional<String> etag;
+        try {
+            etag = readEtag(path);
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+        try {
+            // the entity tag is read from the path, it belongs to the open file, if it has not changed
+            if (etag.isPresent() && etag.equals(readEtag(path)))
+                return Optional.of(new CachedTile(path, channel, etag.get()));
+        } catch (NoSuchFileException e) {
+            // deleted in the meantime, the open file is still readable
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        try (InputStream content = Channels.newInputStream(channel)) {
+            return Optional.of(new CachedTile(content.readAllBytes()));
         }
     }
 
     @Override
     public Optional<Boolean> tileIsEmpty(Tile tile) throws IOException, SQLException {
         switch (getType(tile)) {
+            case PMTILES:
+                if (!tile.getTemporary()) {
+                    Optional<Boolean> archivedTileIsEmpty = archives.isEmptyTile(tile);
+                    if (archivedTileIsEmpty.isPresent())
+                        return archivedTileIsEmpty;
+                }
             case MBTILES:
                 if (!tile.getTemporary())
                     return getTileset(tile).tileIsEmpty(tile);
 
             case FILES:
             default:
+                if (isEmptyTile(tile))
+                    return Optional.of(true);
                 Path path = getPath(tile);
                 if (Files.notExists(path))
                     return Optional.empty();
@@ -266,7 +684,15 @@ public class TileCacheImpl implements TileCache {
 
     @Override
     public void deleteTile(Tile tile) throws IOException, SQLException {
+        memoryCache.invalidate(tile);
         switch (getType(tile)) {
+            case PMTILES:
+                if (!tile.getTemporary()) {
+                    MbtilesTileset tileset = getTileset(tile);
+                    tileset.deleteTile(tile);
+                    archives.override(tile, tileset);
+                    break;
+                }
             case MBTILES:
                 if (!tile.getTemporary()) {
                     getTileset(tile).deleteTile(tile);
@@ -276,7 +702,15 @@ public class TileCacheImpl implements TileCache {
             case FILES:
             default:
                 Path path = getPath(tile);
-                Files.delete(path);
+                long previousSize = tile.getTemporary() ? 0 : getSizeIfExists(path);
+                if (!tile.getTemporary() && getEmptyTiles(tile).remove(tile.getTileLevel(), tile.getTileRow(), tile.getTileCol()))
+                    Files.deleteIfExists(path);
+                else
+                    Files.delete(path);
+                if (!tile.getTemporary()) {
+                    Files.deleteIfExists(getStalePath(path));
+                    eviction.updateTileFilesSize(path, -previousSize);
+                }
                 break;
         }
     }
@@ -291,6 +725,29 @@ public class TileCacheImpl implements TileCache {
                 boundingBox.get().getXmin(), boundingBox.get().getYmin(),
                 boundingBox.get().getXmax(), boundingBox.get().getYmax()));
 
+        deleteTiles(api, collectionId, tileMatrixSetId, boundingBox, false);
+
+        LOGGER.info("Purging tile cache has finished");
+    }
+
+    @Override
+    public void invalidateTiles(OgcApi api, String collectionId, Optional<BoundingBox> boundingBox) throws IOException, SQLException {
+        deleteTiles(api, Optional.of(collectionId), Optional.empty(), boundingBox, true);
+    }
+
+    /**
+     * @param includeAdjacentTiles also delete the tiles next to the bounding box, since the content of a tile
+     *                             includes features in the buffer around the tile
+     */
+    private void deleteTiles(OgcApi api, Optional<String> collectionId, Optional<String> tileMatrixSetId,
+                             Optional<BoundingBox> boundingBox, boolean includeAdjacentTiles) throws IOException, SQLException {
+        if (LOGGER.isDebugEnabled() && includeAdjacentTiles) {
+            LOGGER.debug("Invalidating cached tiles for collection '{}', bounding box '{}'", collectionId.orElse("*"),
+                         boundingBox.isEmpty() ? "*" : String.format(Locale.US, "%f,%f,%f,%f",
+                             boundingBox.get().getXmin(), boundingBox.get().getYmin(),
+                             boundingBox.get().getXmax(), boundingBox.get().getYmax()));
+        }
+
         OgcApiDataV2 apiData = api.getData();
         Optional<TilesConfiguration> config = collectionId.isEmpty()
                 ? apiData.getExtension(TilesConfiguration.class)
@@ -315,21 +772,46 @@ public class TileCacheImpl implements TileCache {
             })
             .collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, Map.Entry::getValue));
 
+        // a seeding run that is resumed must not skip the deleted tiles
+        seedingCheckpoints.reset(api.getId());
+
+        memoryCache.invalidate(apiData.getId(), collectionId.orElse("__all__"), tileMatrixSetId);
+        if (collectionId.isPresent()) {
+            // the multi-collection tiles include the collection
+            memoryCache.invalidate(apiData.getId(), "__all__", tileMatrixSetId);
+        }
+
+        // tiles invalidated by changes of the data are kept and served until they have been generated again,
+        // a purge of the cache always removes the tiles
+        boolean markStale = includeAdjacentTiles && config.get().isStaleWhileRevalidate();
+
         switch (getType(apiData, collectionId)) {
             case MBTILES:
-                deleteTilesMbtiles(api, collectionId, relevantZoomLevels, relevantBoundingBoxes);
+                deleteTilesMbtiles(api, collectionId, relevantZoomLevels, relevantBoundingBoxes, includeAdjacentTiles, markStale);
+                break;
+            case PMTILES:
+                deleteTilesMbtiles(api, collectionId, relevantZoomLevels, relevantBoundingBoxes, includeAdjacentTiles, markStale);
+                dropArchives(api, collectionId, relevantZoomLevels.keySet());
                 break;
             case FILES:
-                deleteTilesFiles(apiData, collectionId, relevantZoomLevels, relevantBoundingBoxes);
+                deleteTilesFiles(apiData, collectionId, relevantZoomLevels, relevantBoundingBoxes, includeAdjacentTiles, markStale);
                 break;
         }
 
-        LOGGER.info("Purging tile cache has finished");
+        invalidation.enqueueForReseeding(apiData, collectionId, relevantBoundingBoxes, includeAdjacentTiles);
     }
 
     @Override
     public void storeTile(Tile tile, byte[] content) throws IOException, SQLException {
         switch (getType(tile)) {
+            case PMTILES:
+                if (!tile.getTemporary()) {
+                    MbtilesTileset tileset = getTileset(tile);
+                    tileset.writeTile(tile, content);
+                    // the archive has a previous version of the tile, if any
+                    archives.override(tile, tileset);
+                    break;
+                }
             case MBTILES:
                 if (!tile.getTemporary()) {
                     getTileset(tile).writeTile(tile, content);
@@ -340,10 +822,80 @@ public class TileCacheImpl implements TileCache {
             default:
                 Path path = getPath(tile);
                 if (Files.notExists(path) || Files.isWritable(path)) {
-                    Files.write(path, content);
+                    long previousSize = tile.getTemporary() ? 0 : getSizeIfExists(path);
+                    long size = 0;
+                    if (!tile.getTemporary() && content.length == 0 && tile.getOutputFormat().getSupportsEmptyTile()) {
+                        // empty tiles are only recorded in the bitmap of empty tiles, the bitmap is written with
+                        // the next flush or clean-up
+                        getEmptyTiles(tile).add(tile.getTileLevel(), tile.getTileRow(), tile.getTileCol());
+                        Files.deleteIfExists(path);
+                    } else {
+                        if (!tile.getTemporary())
+                            getEmptyTiles(tile).remove(tile.getTileLevel(), tile.getTileRow(), tile.getTileCol());
+                        writeTileFile(path, content);
+                        size = content.length;
+                    }
+                    if (!tile.getTemporary()) {
+                        Files.deleteIfExists(getStalePath(path));
+                        eviction.updateTileFilesSize(path, size - previousSize);
+                    }
                 }
                 break;
         }
+        memoryCache.invalidate(tile);
+    }
+
+    /**
+     * FILES cache or temporary tiles: write the tile to a temporary file in the same directory and rename it,
+     * so that readers see either the previous or the new tile, but never a partially written file; the entity
+     * tag is stored as an extended attribute of the file, if the file system supports this
+     * @param path the file path of the tile
+     * @param content the tile content
+     */
+    private void writeTileFile(Path path, byte[] content) throws IOException {
+        Path tmpPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmpPath, content);
+            writeEtag(tmpPath, new CachedTile(content).getEtag());
+            try {
+                Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmpPath);
+        }
+    }
+
+    private Optional<String> readEtag(Path path) throws IOException {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+        if (Objects.isNull(view))
+            return Optional.empty();
+        try {
+            if (!view.list().contains(ETAG_ATTRIBUTE))
+                return Optional.empty();
+            ByteBuffer buffer = ByteBuffer.allocate(view.size(ETAG_ATTRIBUTE));
+            view.read(ETAG_ATTRIBUTE, buffer);
+            buffer.flip();
+            return Optional.of(StandardCharsets.US_ASCII.decode(buffer).toString());
+        } catch (NoSuchFileException e) {
+            throw e;
+        } catch (IOException | UnsupportedOperationException e) {
+            // extended attributes are not supported
+            return Optional.empty();
+        }
+    }
+
+    private void writeEtag(Path path, String etag) {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+        if (Objects.isNull(view))
+            return;
+        try {
+            view.write(ETAG_ATTRIBUTE, StandardCharsets.US_ASCII.encode(etag));
+        } catch (IOException | UnsupportedOperationException e) {
+            // extended attributes are not supported, the entity tag is computed when the tile is read
+            LOGGER.trace("Could not store the entity tag of tile file '{}': {}", path, e.getMessage());
+        }
     }
 
     /**
@@ -367,7 +919,7 @@ public class TileCacheImpl implements TileCache {
     /**
      * identifies the type of the cache for this tile (set)
      * @param tile a tile in a tile set
-     * @return {@code MBTILES} or {@code FILES} (the default)
+     * @return {@code MBTILES}, {@code PMTILES}, {@code NONE} or {@code FILES} (the default)
      */
     private TilesConfiguration.TileCacheType getType(Tile tile) {
         return getType(tile.getApiData(), tile.isDatasetTile() ? Optional.empty() : Optional.of(tile.getCollectionId()));
@@ -377,7 +929,7 @@ public class TileCacheImpl implements TileCache {
      * identifies the type of the cache for this tile (set)
      * @param apiData the API
      * @param collectionId the collection, empty=dataset
-     * @return {@code MBTILES} or {@code FILES} (the default)
+     * @return {@code MBTILES}, {@code PMTILES}, {@code NONE} or {@code FILES} (the default)
      */
     private TilesConfiguration.TileCacheType getType(OgcApiDataV2 apiData, Optional<String> collectionId) {
         return (collectionId.isEmpty()
@@ -387,12 +939,12 @@ public class TileCacheImpl implements TileCache {
     }
 
     /**
-     * MBTILES: open an existing Mbtiles cache file
+     * MBTILES, PMTILES: open an existing Mbtiles cache file
      * @param tile the tile
      * @return the Tileset
      */
     private MbtilesTileset getTileset(Tile tile) throws IOException {
-        if (getType(tile)!= TilesConfiguration.TileCacheType.MBTILES)
+        if (getType(tile)!= TilesConfiguration.TileCacheType.MBTILES && getType(tile)!= TilesConfiguration.TileCacheType.PMTILES)
             throw new IllegalStateException(String.format("Cannot get an Mbtiles cache. Found cache type: %s", getType(tile).toString()));
         OgcApi api = tile.getApi();
         Optional<String> collectionId = tile.isDatasetTile() ? Optional.empty() : Optional.of(tile.getCollectionId());
@@ -401,7 +953,7 @@ public class TileCacheImpl implements TileCache {
     }
 
     /**
-     * MBTILES: create a new, empty Mbtiles cache file
+     * MBTILES, PMTILES: create a new, empty Mbtiles cache file
      * @param api the API
      * @param collectionId the collection; an empty value represents the dataset
      * @param tileMatrixSet the tile matrix set
@@ -412,62 +964,69 @@ public class TileCacheImpl implements TileCache {
         String apiId = apiData.getId();
         String tileMatrixSetId = tileMatrixSet.getId();
         String key = String.join("/", apiId, collectionId.orElse("__all__"), tileMatrixSetId);
-        if (!mbtiles.containsKey(key)) {
-            Files.createDirectories(cacheStore.resolve(apiId).resolve(collectionId.orElse("__all__")));
-            Path path = cacheStore.resolve(apiId).resolve(collectionId.orElse("__all__")).resolve(tileMatrixSetId+".mbtiles");
-            if (Files.exists(path)) {
-                mbtiles.put(key, new MbtilesTileset(path));
-            } else {
-                TilesConfiguration config = collectionId.isEmpty()
-                        ? apiData.getExtension(TilesConfiguration.class).get()
-                        : apiData.getExtension(TilesConfiguration.class, collectionId.get()).get();
-
-                // test, if tiles will be created for this tileset, otherwise log this information
-                MinMax range = config.getZoomLevelsDerived().get(tileMatrixSetId);
-                if (Objects.isNull(range)) {
-                    LOGGER.debug("The configuration does not include tiles for tile matrix set '{}'{}, but other parts of the configuration require that the MBTiles file cache '{}' is created. Review the configuration for TILES on the API level and for each collection.", tileMatrixSetId, collectionId.map(s -> " for collection '" + s + "'").orElse(""), key);
-                }
+        MbtilesTileset tileset = mbtiles.get(key);
+        if (Objects.nonNull(tileset)) {
+            return tileset;
+        }
+        // tilesets are registered lazily from request threads, only one thread may open or create the file
+        synchronized (mbtiles) {
+            if (!mbtiles.containsKey(key)) {
+                Files.createDirectories(cacheStore.resolve(apiId).resolve(collectionId.orElse("__all__")));
+                Path path = cacheStore.resolve(apiId).resolve(collectionId.orElse("__all__")).resolve(tileMatrixSetId+".mbtiles");
+                if (Files.exists(path)) {
+                    mbtiles.put(key, new MbtilesTileset(path));
+                } else {
+                    TilesConfiguration config = collectionId.isEmpty()
+                            ? apiData.getExtension(TilesConfiguration.class).get()
+                            : apiData.getExtension(TilesConfiguration.class, collectionId.get()).get();
+
+                    // test, if tiles will be created for this tileset, otherwise log this information
+                    MinMax range = config.getZoomLevelsDerived().get(tileMatrixSetId);
+                    if (Objects.isNull(range)) {
+                        LOGGER.debug("The configuration does not include tiles for tile matrix set '{}'{}, but other parts of the configuration require that the MBTiles file cache '{}' is created. Review the configuration for TILES on the API level and for each collection.", tileMatrixSetId, collectionId.map(s -> " for collection '" + s + "'").orElse(""), key);
+                    }
 
-                // get the tile set metadata
-                TileSet tileSetMetadata = TilesHelper.buildTileSet(api,
-                                                                   tileMatrixSet,
-                                                                   range,
-                                                                   config.getCenterDerived(),
-                                                                   collectionId,
-                                                                   TileSet.DataType.vector,
-                                                                   ImmutableList.of(),
-                                                                   Optional.empty(),
-                                                                   crsTransformerFactory,
-                                                                   limitsGenerator,
-                                                                   providers,
-                                                                   entityRegistry);
-
-                // convert to Mbtiles metadata
-                // TODO support type, version
-                MbtilesMetadata md = ImmutableMbtilesMetadata.builder()
-                                                             .name(apiData.getLabel())
-                                                             .format(MbtilesMetadata.MbtilesFormat.pbf)
-                                                             .description(apiData.getDescription())
-                                                             .attribution(apiData.getMetadata()
-                                                                              .flatMap(Metadata::getAttribution))
-                                                             .minzoom(TilesHelper.getMinzoom(tileSetMetadata))
-                                                             .maxzoom(TilesHelper.getMaxzoom(tileSetMetadata))
-                                                             .bounds(TilesHelper.getBounds(tileSetMetadata))
-                                                             .center(TilesHelper.getCenter(tileSetMetadata))
-                                                             .vectorLayers(TilesHelper.getVectorLayers(apiData,
-                                                                                                       collectionId,
-                                                                                                       tileMatrixSet.getId(),
-                                                                                                       providers,
-                                                                                                       schemaInfo))
-                                                             .build();
-                try {
-                    mbtiles.put(key, new MbtilesTileset(path, md));
-                } catch (FileAlreadyExistsException e) {
-                    // The file could have been created by a parallel thread
-                    LOGGER.debug("MBTiles file '{}' already exists.", path);
-                    if (!mbtiles.containsKey(key)) {
-                        // reuse the existing file
-                        mbtiles.put(key, new MbtilesTileset(path));
+                    // get the tile set metadata
+                    TileSet tileSetMetadata = TilesHelper.buildTileSet(api,
+                                                                       tileMatrixSet,
+                                                                       range,
+                                                                       config.getCenterDerived(),
+                                                                       collectionId,
+                                                                       TileSet.DataType.vector,
+                                                                       ImmutableList.of(),
+                                                                       Optional.empty(),
+                                                                       crsTransformerFactory,
+                                                                       limitsGenerator,
+                                                                       providers,
+                                                                       entityRegistry);
+
+                    // convert to Mbtiles metadata
+                    // TODO support type, version
+                    MbtilesMetadata md = ImmutableMbtilesMetadata.builder()
+                                                                 .name(apiData.getLabel())
+                                                                 .format(MbtilesMetadata.MbtilesFormat.pbf)
+                                                                 .description(apiData.getDescription())
+                                                                 .attribution(apiData.getMetadata()
+                                                                                  .flatMap(Metadata::getAttribution))
+                                                                 .minzoom(TilesHelper.getMinzoom(tileSetMetadata))
+                                                                 .maxzoom(TilesHelper.getMaxzoom(tileSetMetadata))
+                                                                 .bounds(TilesHelper.getBounds(tileSetMetadata))
+                                                                 .center(TilesHelper.getCenter(tileSetMetadata))
+                                                                 .vectorLayers(TilesHelper.getVectorLayers(apiData,
+                                                                                                           collectionId,
+                                                                                                           tileMatrixSet.getId(),
+                                                                                                           providers,
+                                                                                                           schemaInfo))
+                                                                 .build();
+                    try {
+                        mbtiles.put(key, new MbtilesTileset(path, md));
+                    } catch (FileAlreadyExistsException e) {
+                        // The file could have been created by a parallel thread
+                        LOGGER.debug("MBTiles file '{}' already exists.", path);
+                        if (!mbtiles.containsKey(key)) {
+                            // reuse the existing file
+                            mbtiles.put(key, new MbtilesTileset(path));
+                        }
                     }
                 }
             }
@@ -475,17 +1034,105 @@ public class TileCacheImpl implements TileCache {
         return mbtiles.get(key);
     }
 
+    /**
+     * FILES, MBTILES: reduce the size of a tile set, if it exceeds the quota
+     * @param api the API
+     * @param collectionId the collection; an empty value represents the dataset
+     * @param tileMatrixSet the tile matrix set
+     * @param quota the quota of the tile set
+     */
+    private void evictTiles(OgcApi api, Optional<String> collectionId, TileMatrixSet tileMatrixSet, TileCacheQuota quota) throws IOException, SQLException {
+        if (Objects.isNull(tileMatrixSet))
+            return;
+        OgcApiDataV2 apiData = api.getData();
+        String key = String.join("/", apiData.getId(), collectionId.orElse("__all__"), tileMatrixSet.getId());
+
+        int evicted;
+        switch (getType(apiData, collectionId)) {
+            case MBTILES:
+                evicted = eviction.evictTiles(getOrInitTileset(api, collectionId, tileMatrixSet), key, quota);
+                break;
+
+            case FILES:
+                evicted = eviction.evictTiles(getTilesStore().resolve(apiData.getId())
+                                                             .resolve(collectionId.orElse("__all__"))
+                                                             .resolve(tileMatrixSet.getId()), key, quota);
+                break;
+
+            default:
+                return;
+        }
+        if (evicted > 0) {
+            // tile files without a stored entity tag are also held in memory
+            memoryCache.invalidate(apiData.getId(), collectionId.orElse("__all__"), Optional.of(tileMatrixSet.getId()));
+            // a seeding run that is resumed must not skip the evicted tiles
+            seedingCheckpoints.reset(api.getId());
+        }
+    }
+
+    private static long getSizeIfExists(Path path) throws IOException {
+        try {
+            return Files.size(path);
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    private Optional<TileCacheQuota> getQuota(OgcApiDataV2 apiData, Optional<String> collectionId) {
+        return (collectionId.isEmpty()
+            ? apiData.getExtension(TilesConfiguration.class)
+            : apiData.getExtension(TilesConfiguration.class, collectionId.get())).flatMap(TilesConfiguration::getCacheQuotaDerived);
+    }
+
+    /**
+     * PMTILES: write the tiles in the Mbtiles cache file to a new PMTiles archive and replace the current archive
+     * @param api the API
+     * @param collectionId the collection; an empty value represents the dataset
+     * @param tileMatrixSet the tile matrix set
+     */
+    private void exportArchive(OgcApi api, Optional<String> collectionId, TileMatrixSet tileMatrixSet) throws IOException, SQLException {
+        if (Objects.isNull(tileMatrixSet))
+            return;
+        archives.export(api.getData(), collectionId, tileMatrixSet, getOrInitTileset(api, collectionId, tileMatrixSet));
+    }
+
+    /**
+     * PMTILES: remove the PMTiles archives of the tile sets, if tiles have been changed; the tiles are served from
+     * the Mbtiles cache file until the archives have been exported again in the background
+     * @param api the API
+     * @param collectionId the collection, empty = all collections
+     * @param tileMatrixSetIds the tile matrix sets
+     */
+    private void dropArchives(OgcApi api, Optional<String> collectionId, Set<String> tileMatrixSetIds) throws IOException {
+        OgcApiDataV2 apiData = api.getData();
+        for (String tileMatrixSetId : tileMatrixSetIds) {
+            List<Optional<String>> tileSets = new ArrayList<>();
+            tileSets.add(Optional.empty());
+            if (collectionId.isPresent()) {
+                tileSets.add(collectionId);
+            } else {
+                apiData.getCollections().keySet().forEach(colId -> tileSets.add(Optional.of(colId)));
+            }
+            for (Optional<String> tileSet : tileSets) {
+                if (archives.drop(apiData, tileSet, tileMatrixSetId)) {
+                    TileMatrixSet tileMatrixSet = getTileMatrixSetById(tileMatrixSetId);
+                    archives.scheduleExport(apiData, tileSet, tileMatrixSet, getOrInitTileset(api, tileSet, tileMatrixSet));
+                }
+            }
+        }
+    }
+
     /**
      * FILES cache or temporary tiles: determine the file path of a tile
      * @param tile the tile
      * @return the file path
      */
     private Path getPath(Tile tile) throws IOException {
+        if (FileTime.from(Instant.now()).toMillis() - lastCleanup > TEN_MINUTES)
+            cleanup();
         Path subDir;
         if (tile.getTemporary()) {
             subDir = getTmpDirectory();
-            if (FileTime.from(Instant.now()).toMillis() - lastCleanup > TEN_MINUTES)
-                cleanup();
         } else {
             subDir = getTilesStore().resolve(tile.getApiData().getId())
                                     .resolve(tile.isDatasetTile() ? "__all__" : tile.getCollectionId())
@@ -497,13 +1144,46 @@ public class TileCacheImpl implements TileCache {
         return path;
     }
 
+    /**
+     * FILES: the empty tiles of a tile set in a tile format, empty tiles are not stored as tile files
+     * @param apiData the API
+     * @param collection the collection or {@code __all__}
+     * @param tileMatrixSetId the tile matrix set
+     * @param extension the file extension of the tile format
+     * @return the bitmap of the empty tiles
+     */
+    private EmptyTileBitmap getEmptyTiles(OgcApiDataV2 apiData, String collection, String tileMatrixSetId, String extension) {
+        Path path = getTilesStore().resolve(apiData.getId())
+                                   .resolve(collection)
+                                   .resolve(tileMatrixSetId)
+                                   .resolve(EMPTY_TILES_PREFIX + extension + EMPTY_TILES_SUFFIX);
+        return emptyTiles.computeIfAbsent(path, EmptyTileBitmap::load);
+    }
+
+    private EmptyTileBitmap getEmptyTiles(Tile tile) {
+        return getEmptyTiles(tile.getApiData(), tile.isDatasetTile() ? "__all__" : tile.getCollectionId(), tile.getTileMatrixSet().getId(),
+                             tile.getOutputFormat().getExtension());
+    }
+
+    /**
+     * FILES: temporary tiles are never in the bitmap of empty tiles
+     */
+    private boolean isEmptyTile(Tile tile) {
+        return !tile.getTemporary()
+            && tile.getOutputFormat().getSupportsEmptyTile()
+            && getEmptyTiles(tile).contains(tile.getTileLevel(), tile.getTileRow(), tile.getTileCol());
+    }
+
     private TileMatrixSet getTileMatrixSetById(String tileMatrixSetId) {
         return tileMatrixSetRepository.get(tileMatrixSetId)
                                       .orElseThrow(() -> new IllegalArgumentException("TileMatrixSet not found: "+tileMatrixSetId));
     }
 
-    private List<TileMatrixSetLimits> getLimits(OgcApiDataV2 apiData, TileMatrixSet tileMatrixSet, MinMax minmax, Optional<String> collectionId, BoundingBox bbox) {
-        return limitsGenerator.getTileMatrixSetLimits(bbox, tileMatrixSet, minmax);
+    private List<TileMatrixSetLimits> getLimits(TileMatrixSet tileMatrixSet, MinMax minmax, BoundingBox bbox, boolean includeAdjacentTiles) {
+        List<TileMatrixSetLimits> limitsList = limitsGenerator.getTileMatrixSetLimits(bbox, tileMatrixSet, minmax);
+        if (!includeAdjacentTiles)
+            return limitsList;
+        return TilesHelper.withAdjacentTiles(limitsList, tileMatrixSet);
     }
 
     private List<TileFormatWithQuerySupportExtension> getTileFormats(OgcApiDataV2 apiData, Optional<String> collectionId) {
@@ -520,34 +1200,35 @@ public class TileCacheImpl implements TileCache {
 
     }
 
-    private void deleteTilesMbtiles(OgcApi api, Optional<String> collectionId, Map<String, MinMax> zoomLevels, Map<String, BoundingBox> boundingBoxes)
-        throws SQLException, IOException {
+    private void deleteTilesMbtiles(OgcApi api, Optional<String> collectionId, Map<String, MinMax> zoomLevels, Map<String, BoundingBox> boundingBoxes,
+                                    boolean includeAdjacentTiles, boolean markStale) throws SQLException, IOException {
         for (Map.Entry<String, MinMax> tileSet : zoomLevels.entrySet()) {
             TileMatrixSet tileMatrixSet = getTileMatrixSetById(tileSet.getKey());
             MinMax levels = tileSet.getValue();
             BoundingBox bbox = boundingBoxes.get(tileSet.getKey());
 
             // first the dataset tiles
-            deleteTilesMbtiles(api, Optional.empty(), tileMatrixSet, levels, bbox);
+            deleteTilesMbtiles(api, Optional.empty(), tileMatrixSet, levels, bbox, includeAdjacentTiles, markStale);
 
             if (collectionId.isPresent()) {
                 // also the single collection tiles for the collection
-                deleteTilesMbtiles(api, collectionId, tileMatrixSet, levels, bbox);
+                deleteTilesMbtiles(api, collectionId, tileMatrixSet, levels, bbox, includeAdjacentTiles, markStale);
             } else {
                 // all single collection tiles
                 for (String colId : api.getData().getCollections()
                     .keySet()) {
-                    deleteTilesMbtiles(api, Optional.of(colId), tileMatrixSet, levels, bbox);
+                    deleteTilesMbtiles(api, Optional.of(colId), tileMatrixSet, levels, bbox, includeAdjacentTiles, markStale);
                 }
             }
         }
     }
 
     private void deleteTilesMbtiles(OgcApi api, Optional<String> collectionId,
-                                    TileMatrixSet tileMatrixSet, MinMax levels, BoundingBox bbox) throws SQLException, IOException {
+                                    TileMatrixSet tileMatrixSet, MinMax levels, BoundingBox bbox,
+                                    boolean includeAdjacentTiles, boolean markStale) throws SQLException, IOException {
         OgcApiDataV2 apiData = api.getData();
         MbtilesTileset tileset = getOrInitTileset(api, collectionId, tileMatrixSet);
-        List<TileMatrixSetLimits> limitsList = getLimits(apiData, tileMatrixSet, levels, collectionId, bbox);
+        List<TileMatrixSetLimits> limitsList = getLimits(tileMatrixSet, levels, bbox, includeAdjacentTiles);
         for (TileMatrixSetLimits limits : limitsList) {
             if (LOGGER.isTraceEnabled()) {
                 LOGGER.trace(
@@ -560,12 +1241,51 @@ public class TileCacheImpl implements TileCache {
                     tileMatrixSet.getTmsRow(Integer.parseInt(limits.getTileMatrix()),
                         limits.getMinTileRow()));
             }
-            tileset.deleteTiles(tileMatrixSet, limits);
+            if (markStale)
+                tileset.markTilesStale(tileMatrixSet, limits);
+            else
+                tileset.deleteTiles(tileMatrixSet, limits);
+        }
+    }
+
+    private TileBitmap getCachedTilesFiles(OgcApiDataV2 apiData, Optional<String> collectionId, TileMatrixSet tileMatrixSet,
+                                           TileMatrixSetLimits limits, TileFormatExtension outputFormat) throws IOException {
+        TileBitmap cachedTiles = new TileBitmap(limits);
+        getEmptyTiles(apiData, collectionId.orElse("__all__"), tileMatrixSet.getId(), outputFormat.getExtension())
+            .visit(Integer.parseInt(limits.getTileMatrix()), limits.getMinTileRow(), limits.getMaxTileRow(), limits.getMinTileCol(), limits.getMaxTileCol(),
+                   (level, row, col) -> cachedTiles.add(row, col));
+        Path levelDirectory = getTilesStore().resolve(apiData.getId())
+                                             .resolve(collectionId.orElse("__all__"))
+                                             .resolve(tileMatrixSet.getId())
+                                             .resolve(limits.getTileMatrix());
+        if (!Files.isDirectory(levelDirectory))
+            return cachedTiles;
+
+        String extension = outputFormat.getExtension();
+        // one directory listing per row instead of one file lookup per tile
+        for (int row = limits.getMinTileRow(); row <= limits.getMaxTileRow(); row++) {
+            Path rowDirectory = levelDirectory.resolve(String.valueOf(row));
+            if (!Files.isDirectory(rowDirectory))
+                continue;
+            final int currentRow = row;
+            try (Stream<Path> files = Files.list(rowDirectory)) {
+                files.map(path -> path.getFileName().toString())
+                     .filter(file -> Objects.equals(com.google.common.io.Files.getFileExtension(file), extension))
+                     .map(com.google.common.io.Files::getNameWithoutExtension)
+                     .forEach(col -> {
+                         try {
+                             cachedTiles.add(currentRow, Integer.parseInt(col));
+                         } catch (NumberFormatException e) {
+                             // not a tile, ignore
+                         }
+                     });
+            }
         }
+        return cachedTiles;
     }
 
-    private void deleteTilesFiles(OgcApiDataV2 apiData, Optional<String> collectionId, Map<String, MinMax> zoomLevels, Map<String, BoundingBox> boundingBoxes)
-        throws IOException {
+    private void deleteTilesFiles(OgcApiDataV2 apiData, Optional<String> collectionId, Map<String, MinMax> zoomLevels, Map<String, BoundingBox> boundingBoxes,
+                                  boolean includeAdjacentTiles, boolean markStale) throws IOException {
         List<String> extensions = getTileFormats(apiData, collectionId).stream()
             .map(TileFormatExtension::getExtension)
             .collect(ImmutableList.toImmutableList());
@@ -573,9 +1293,8 @@ public class TileCacheImpl implements TileCache {
         Map<String, Map<String, TileMatrixSetLimits>> limits = zoomLevels.keySet()
             .stream()
             .map(tmsId -> {
-                Map<String, TileMatrixSetLimits> limitsMap = getLimits(apiData, getTileMatrixSetById(tmsId),
-                    zoomLevels.get(tmsId), collectionId,
-                    boundingBoxes.get(tmsId))
+                Map<String, TileMatrixSetLimits> limitsMap = getLimits(getTileMatrixSetById(tmsId), zoomLevels.get(tmsId),
+                    boundingBoxes.get(tmsId), includeAdjacentTiles)
                     .stream()
                     .map(l -> new SimpleImmutableEntry<>(l.getTileMatrix(), l))
                     .collect(Collectors.toUnmodifiableMap(Entry::getKey, Entry::getValue));
@@ -587,10 +1306,83 @@ public class TileCacheImpl implements TileCache {
 
         Path basePath = getTilesStore().resolve(apiData.getId());
 
+        // empty tiles are generated again, also when tiles are only marked as stale
+        List<String> collections = collectionId.isPresent()
+            ? ImmutableList.of(collectionId.get(), "__all__")
+            : ImmutableList.<String>builder().addAll(apiData.getCollections().keySet()).add("__all__").build();
+        for (String collection : collections) {
+            for (Map.Entry<String, Map<String, TileMatrixSetLimits>> tmsLimits : limits.entrySet()) {
+                for (String extension : extensions) {
+                    EmptyTileBitmap bitmap = getEmptyTiles(apiData, collection, tmsLimits.getKey(), extension);
+                    for (TileMatrixSetLimits l : tmsLimits.getValue().values()) {
+                        bitmap.remove(Integer.parseInt(l.getTileMatrix()), l.getMinTileRow(), l.getMaxTileRow(), l.getMinTileCol(), l.getMaxTileCol());
+                    }
+                }
+            }
+        }
+
+        long numberOfTiles = limits.values()
+                                   .stream()
+                                   .flatMap(levelLimits -> levelLimits.values().stream())
+                                   .mapToLong(l -> (long) (l.getMaxTileRow() - l.getMinTileRow() + 1) * (l.getMaxTileCol() - l.getMinTileCol() + 1))
+                                   .sum();
+        if (collectionId.isPresent() && numberOfTiles <= MAX_TILES_FOR_DIRECT_DELETE) {
+            // a small change, delete the tile files of the collection and the multi-collection tiles directly
+            for (String collection : ImmutableList.of(collectionId.get(), "__all__")) {
+                for (Map.Entry<String, Map<String, TileMatrixSetLimits>> tmsLimits : limits.entrySet()) {
+                    for (TileMatrixSetLimits l : tmsLimits.getValue().values()) {
+                        Path levelDirectory = basePath.resolve(collection)
+                                                      .resolve(tmsLimits.getKey())
+                                                      .resolve(l.getTileMatrix());
+                        if (!Files.isDirectory(levelDirectory))
+                            continue;
+                        for (int row = l.getMinTileRow(); row <= l.getMaxTileRow(); row++) {
+                            Path rowDirectory = levelDirectory.resolve(String.valueOf(row));
+                            if (!Files.isDirectory(rowDirectory))
+                                continue;
+                            for (int col = l.getMinTileCol(); col <= l.getMaxTileCol(); col++) {
+                                for (String extension : extensions) {
+                                    deleteTileFile(rowDirectory.resolve(String.format("%d.%s", col, extension)), markStale);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            return;
+        }
+
         try (Stream<Path> walk = Files.find(basePath, 5,
             (path, basicFileAttributes) -> basicFileAttributes.isRegularFile()
                 && shouldDeleteTileFile(basePath.relativize(path), collectionId, limits, extensions))){
-            walk.map(Path::toFile).forEach(File::delete);
+            for (Path path : (Iterable<Path>) walk::iterator) {
+                deleteTileFile(path, markStale);
+            }
+        }
+    }
+
+    /**
+     * FILES: delete a tile file or rename it to a stale tile file; stale tile files are deleted
+     */
+    private void deleteTileFile(Path path, boolean markStale) throws IOException {
+        if (path.getFileName().toString().endsWith(STALE_SUFFIX)) {
+            if (!markStale)
+                Files.deleteIfExists(path);
+            return;
+        }
+        // stale tile files do not count for the quota
+        eviction.updateTileFilesSize(path, -getSizeIfExists(path));
+        if (!markStale) {
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(getStalePath(path));
+            return;
+        }
+        try {
+            Files.move(path, getStalePath(path), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(path, getStalePath(path), StandardCopyOption.REPLACE_EXISTING);
+        } catch (NoSuchFileException e) {
+            // not cached or deleted in the meantime
         }
     }
 
@@ -629,14 +1421,18 @@ public class TileCacheImpl implements TileCache {
             return false;
         }
 
+        // check the extension first, temporary files of tiles that are currently written are ignored
         String file = tilePath.getName(4).toString();
-        int col = Integer.parseInt(com.google.common.io.Files.getNameWithoutExtension(file));
+        if (file.endsWith(STALE_SUFFIX))
+            file = file.substring(0, file.length() - STALE_SUFFIX.length());
         String extension = com.google.common.io.Files.getFileExtension(file);
 
         if (!extensions.contains(extension)) {
             return false;
         }
 
+        int col = Integer.parseInt(com.google.common.io.Files.getNameWithoutExtension(file));
+
         if (col < limits.getMinTileCol() || col > limits.getMaxTileCol()) {
             return false;
         }
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app;
+
+import com.github.azahnen.dagger.annotations.AutoBind;
+import de.ii.ogcapi.tiles.app.mbtiles.MbtilesTileset;
+import de.ii.ogcapi.tiles.domain.TileCacheQuota;
+import de.ii.ogcapi.tiles.domain.TileEviction;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.SQLException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A tile set that exceeds its quota is reduced to 90 percent of the quota. A Mbtiles cache file tracks
+ * the access times and the size of its tiles. For tile files, the access time of the file is used and the size of the
+ * tile files of a tile set is determined when the quota is checked for the first time; afterwards the size is updated
+ * when tiles are written or deleted, so that the cache directory is only walked again, if the quota is exceeded.
+ */
+@Singleton
+@AutoBind
+public class TileEvictionImpl implements TileEviction {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TileEvictionImpl.class);
+    // a tile set that exceeds its quota is reduced to this share of the quota
+    private static final double EVICTION_TARGET = 0.9;
+    private static final int EVICTION_BATCH_SIZE = 1000;
+
+    // FILES: the size of the tile files of a tile set with a quota, by tile set directory
+    private final Map<Path, AtomicLong> tileFilesSizes;
+
+    @Inject
+    public TileEvictionImpl() {
+        this.tileFilesSizes = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public int evictTiles(MbtilesTileset tileset, String tileSetKey, TileCacheQuota quota) throws IOException, SQLException {
+        long maxSize = quota.getMaxSizeBytes().orElseThrow();
+        long size = tileset.getUsedSize();
+        if (size <= maxSize)
+            return 0;
+
+        long targetSize = getTargetSize(maxSize);
+        int minLevel = quota.getEffectivePinnedMaxZoomLevel() + 1;
+        int evicted = 0;
+        while (size > targetSize) {
+            int deleted = tileset.evictTiles(minLevel, EVICTION_BATCH_SIZE);
+            if (deleted == 0)
+                break;
+            evicted += deleted;
+            size = tileset.getUsedSize();
+        }
+        LOGGER.info("Tile cache '{}' exceeded its quota of {} MB, {} tiles have been evicted, the size is now {} MB.", tileSetKey, quota.getMaxSizeMB(), evicted, size / 1024 / 1024);
+        return evicted;
+    }
+
+    @Override
+    public int evictTiles(Path tileSetDirectory, String tileSetKey, TileCacheQuota quota) throws IOException {
+        if (!Files.isDirectory(tileSetDirectory))
+            return 0;
+
+        // the cache directory is only walked, if the quota is exceeded or the size is not known yet
+        long maxSize = quota.getMaxSizeBytes().orElseThrow();
+        AtomicLong knownSize = tileFilesSizes.get(tileSetDirectory);
+        if (Objects.nonNull(knownSize) && knownSize.get() <= maxSize)
+            return 0;
+
+        // path, size and last access time of the tiles that may be evicted
+        int minLevel = quota.getEffectivePinnedMaxZoomLevel() + 1;
+        List<SimpleImmutableEntry<Path, long[]>> candidates = new ArrayList<>();
+        long[] size = {0};
+        Files.walkFileTree(tileSetDirectory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (!attributes.isRegularFile())
+                    return FileVisitResult.CONTINUE;
+                Path relativePath = tileSetDirectory.relativize(file);
+                String fileName = file.getFileName().toString();
+                // only tile files count, not the bitmaps of empty tiles, stale tiles that are replaced soon or
+                // temporary files of tiles that are currently written
+                if (relativePath.getNameCount() != 3 || fileName.endsWith(".tmp") || fileName.endsWith(TileCacheImpl.STALE_SUFFIX))
+                    return FileVisitResult.CONTINUE;
+                int level;
+                try {
+                    level = Integer.parseInt(relativePath.getName(0).toString());
+                } catch (NumberFormatException e) {
+                    // not a tile, ignore
+                    return FileVisitResult.CONTINUE;
+                }
+                size[0] += attributes.size();
+                if (level >= minLevel)
+                    candidates.add(new SimpleImmutableEntry<>(file, new long[]{attributes.size(), attributes.lastAccessTime().toMillis()}));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // deleted in the meantime
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        AtomicLong currentSize = new AtomicLong(size[0]);
+        tileFilesSizes.put(tileSetDirectory, currentSize);
+        if (currentSize.get() <= maxSize)
+            return 0;
+
+        long targetSize = getTargetSize(maxSize);
+        candidates.sort(Comparator.comparingLong(candidate -> candidate.getValue()[1]));
+        int evicted = 0;
+        for (SimpleImmutableEntry<Path, long[]> candidate : candidates) {
+            if (currentSize.get() <= targetSize)
+                break;
+            if (Files.deleteIfExists(candidate.getKey())) {
+                currentSize.addAndGet(-candidate.getValue()[0]);
+                evicted++;
+            }
+        }
+        LOGGER.info("Tile cache '{}' exceeded its quota of {} MB, {} tiles have been evicted, the size is now {} MB.",
+                    tileSetKey, quota.getMaxSizeMB(), evicted, currentSize.get() / 1024 / 1024);
+        return evicted;
+    }
+
+    @Override
+    public void updateTileFilesSize(Path tilePath, long delta) {
+        if (delta == 0)
+            return;
+        AtomicLong size = tileFilesSizes.get(tilePath.getParent().getParent().getParent());
+        if (Objects.nonNull(size))
+            size.addAndGet(delta);
+    }
+
+    private static long getTargetSize(long maxSize) {
+        return (long) (maxSize * EVICTION_TARGET);
+    }
+}
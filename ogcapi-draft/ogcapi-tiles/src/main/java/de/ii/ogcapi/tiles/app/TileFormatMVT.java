@@ -48,17 +48,23 @@ import de.ii.xtraplatform.crs.domain.EpsgCrs;
 import de.ii.xtraplatform.features.domain.FeatureQuery;
 import de.ii.xtraplatform.features.domain.FeatureTokenEncoder;
 import de.ii.xtraplatform.features.domain.ImmutableFeatureQuery;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.measure.Unit;
@@ -150,6 +156,37 @@ public class TileFormatMVT extends TileFormatWithQuerySupportExtension {
                                  Map<String, String> queryParameters,
                                  TilesConfiguration tilesConfiguration,
                                  URICustomizer uriCustomizer) {
+        return getQuery(tile, tile.getBoundingBox(), 1, allowedParameters, queryParameters, tilesConfiguration, uriCustomizer);
+    }
+
+    @Override
+    public Optional<FeatureQuery> getMetatileQuery(List<Tile> metatile,
+                                                   List<OgcApiQueryParameter> allowedParameters,
+                                                   Map<String, String> queryParameters,
+                                                   TilesConfiguration tilesConfiguration,
+                                                   URICustomizer uriCustomizer) {
+        // the bounding box of all tiles, the tiles are from the same tile matrix and collection
+        BoundingBox bbox = metatile.stream()
+            .map(Tile::getBoundingBox)
+            .reduce((bbox1, bbox2) -> BoundingBox.of(Math.min(bbox1.getXmin(), bbox2.getXmin()),
+                                                     Math.min(bbox1.getYmin(), bbox2.getYmin()),
+                                                     Math.max(bbox1.getXmax(), bbox2.getXmax()),
+                                                     Math.max(bbox1.getYmax(), bbox2.getYmax()),
+                                                     bbox1.getEpsgCrs()))
+            .orElseThrow(() -> new IllegalArgumentException("A metatile must have at least one tile."));
+        return Optional.of(getQuery(metatile.get(0), bbox, metatile.size(), allowedParameters, queryParameters, tilesConfiguration, uriCustomizer));
+    }
+
+    @Override
+    public boolean supportsMetatiles() { return true; }
+
+    private FeatureQuery getQuery(Tile tile,
+                                  BoundingBox bbox,
+                                  int numberOfTiles,
+                                  List<OgcApiQueryParameter> allowedParameters,
+                                  Map<String, String> queryParameters,
+                                  TilesConfiguration tilesConfiguration,
+                                  URICustomizer uriCustomizer) {
 
         String collectionId = tile.getCollectionId();
         String tileMatrixSetId = tile.getTileMatrixSet().getId();
@@ -172,8 +209,9 @@ public class TileFormatMVT extends TileFormatWithQuerySupportExtension {
                                    .orElse(collectionId);
         ImmutableFeatureQuery.Builder queryBuilder = ImmutableFeatureQuery.builder()
                                                                           .type(featureTypeId)
-                                                                          .limit(Objects.requireNonNullElse(tilesConfiguration.getLimitDerived(),
-                                                                              CapabilityTiles.LIMIT_DEFAULT))
+                                                                          // the limit applies to each tile
+                                                                          .limit((int) Math.min(Integer.MAX_VALUE, (long) numberOfTiles * Objects.requireNonNullElse(tilesConfiguration.getLimitDerived(),
+                                                                              CapabilityTiles.LIMIT_DEFAULT)))
                                                                           .offset(0)
                                                                           .crs(tile.getTileMatrixSet().getCrs())
                                                                           .maxAllowableOffset(getMaxAllowableOffset(tile));
@@ -214,7 +252,6 @@ public class TileFormatMVT extends TileFormatWithQuerySupportExtension {
             parameter.transformQuery(collectionData, queryBuilder, queryParameters, apiData);
         }
 
-        BoundingBox bbox = tile.getBoundingBox();
         // reduce bbox to the area in which there is data (to avoid coordinate transformation issues
         // with large scale and data that is stored in a regional, projected CRS)
         final EpsgCrs crs = bbox.getEpsgCrs();
@@ -275,56 +312,46 @@ public class TileFormatMVT extends TileFormatWithQuerySupportExtension {
 
     @Override
     public MultiLayerTileContent combineSingleLayerTilesToMultiLayerTile(TileMatrixSet tileMatrixSet, Map<String, Tile> singleLayerTileMap, Map<String, ByteArrayOutputStream> singleLayerByteArrayMap) throws IOException {
+        Optional<MultiLayerTileContent> concatenatedTile = concatenateSingleLayerTiles(tileMatrixSet, singleLayerTileMap, singleLayerByteArrayMap);
+        if (concatenatedTile.isPresent())
+            return concatenatedTile.get();
+
+        // decode the features of the single-layer tiles and encode them again
         VectorTileEncoder encoder = new VectorTileEncoder(tileMatrixSet.getTileExtent());
         VectorTileDecoder decoder = new VectorTileDecoder();
         Set<String> processedCollections = new TreeSet<>();
-        int count = 0;
-        while (count++ <= 3) {
-            for (String collectionId : singleLayerTileMap.keySet()) {
-                if (!processedCollections.contains(collectionId)) {
-                    Tile singleLayerTile = singleLayerTileMap.get(collectionId);
-                    ByteArrayOutputStream tileBytes = singleLayerByteArrayMap.get(collectionId);
-                    if (Objects.nonNull(tileBytes) && tileBytes.size()>0) {
-                        try {
-                            List<VectorTileDecoder.Feature> features = decoder.decode(tileBytes.toByteArray()).asList();
-                            features.forEach(feature -> encoder.addFeature(feature.getLayerName(),feature.getAttributes(),feature.getGeometry(),feature.getId()));
-                            processedCollections.add(collectionId);
-                        } catch (IOException e) {
-                            // maybe the file is still generated, try to wait once before giving up
-                            String msg = "Failure to access the single-layer tile {}/{}/{}/{} in dataset '{}', layer '{}', format '{}'. Trying again ...";
-                            LOGGER.warn(msg, tileMatrixSet.getId(), singleLayerTile.getTileLevel(), singleLayerTile.getTileRow(), singleLayerTile.getTileCol(),
-                                        singleLayerTile.getApiData().getId(), collectionId, getExtension());
-                        } catch (IllegalArgumentException e) {
-                            // another problem generating the tile, remove the problematic tile file from the cache
-                            try {
-                                tileCache.deleteTile(singleLayerTile);
-                            } catch (SQLException throwables) {
-                                // ignore
-                            }
-                            throw new RuntimeException(String.format("Failure to process the single-layer tile %s/%d/%d/%d in dataset '%s', layer '%s', format '%s'.",
-                                                                     tileMatrixSet.getId(), singleLayerTile.getTileLevel(), singleLayerTile.getTileRow(), singleLayerTile.getTileCol(),
-                                                                     singleLayerTile.getApiData().getId(), collectionId, getExtension()), e);
-                        }
-                    } else {
-                        try {
-                            if (tileCache.tileIsEmpty(singleLayerTile).orElse(false)) {
-                        // an empty tile, so we are done for this collection
-                        processedCollections.add(collectionId);
-                    }
-                        } catch (Exception e) {
-                            LOGGER.warn("Failed to retrieve tile {}/{}/{}/{} for collection {} from the cache. Reason: {}",
-                                        singleLayerTile.getTileMatrixSet().getId(), singleLayerTile.getTileLevel(), singleLayerTile.getTileRow(),
-                                        singleLayerTile.getTileCol(), collectionId, e.getMessage());
-                        }
+        // the single-layer tiles are complete: either read from the cache or generated by a (possibly shared)
+        // generation that has finished, so there is no need to wait for tiles that are still being written
+        for (String collectionId : singleLayerTileMap.keySet()) {
+            Tile singleLayerTile = singleLayerTileMap.get(collectionId);
+            ByteArrayOutputStream tileBytes = singleLayerByteArrayMap.get(collectionId);
+            if (Objects.nonNull(tileBytes) && tileBytes.size()>0) {
+                try {
+                    List<VectorTileDecoder.Feature> features = decoder.decode(tileBytes.toByteArray()).asList();
+                    features.forEach(feature -> encoder.addFeature(feature.getLayerName(),feature.getAttributes(),feature.getGeometry(),feature.getId()));
+                    processedCollections.add(collectionId);
+                } catch (IOException e) {
+                    // the multi-layer tile is incomplete and will not be cached
+                    String msg = "Failure to access the single-layer tile {}/{}/{}/{} in dataset '{}', layer '{}', format '{}'.";
+                    LOGGER.warn(msg, tileMatrixSet.getId(), singleLayerTile.getTileLevel(), singleLayerTile.getTileRow(), singleLayerTile.getTileCol(),
+                                singleLayerTile.getApiData().getId(), collectionId, getExtension());
+                } catch (IllegalArgumentException e) {
+                    // another problem generating the tile, remove the problematic tile file from the cache
+                    try {
+                        tileCache.deleteTile(singleLayerTile);
+                    } catch (SQLException throwables) {
+                        // ignore
                     }
+                    throw new RuntimeException(String.format("Failure to process the single-layer tile %s/%d/%d/%d in dataset '%s', layer '%s', format '%s'.",
+                                                             tileMatrixSet.getId(), singleLayerTile.getTileLevel(), singleLayerTile.getTileRow(), singleLayerTile.getTileCol(),
+                                                             singleLayerTile.getApiData().getId(), collectionId, getExtension()), e);
                 }
-            }
-            if (processedCollections.size()==singleLayerTileMap.size())
-                break;
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException ex) {
-                // ignore and just continue
+            } else if (Objects.nonNull(tileBytes)) {
+                // a generated tile without features
+                processedCollections.add(collectionId);
+            } else if (isEmptyInCache(singleLayerTile, collectionId)) {
+                // an empty tile, so we are done for this collection
+                processedCollections.add(collectionId);
             }
         }
 
@@ -335,6 +362,135 @@ public class TileFormatMVT extends TileFormatWithQuerySupportExtension {
         return result;
     }
 
+    /**
+     * An MVT tile is a sequence of layer messages, so the layers of the single-layer tiles are concatenated
+     * without decoding the features, if each tile consists of layers with the extent of the tile matrix set and
+     * the layer names are unique.
+     *
+     * @return the multi-layer tile or empty, if the features have to be decoded and encoded again
+     */
+    private Optional<MultiLayerTileContent> concatenateSingleLayerTiles(TileMatrixSet tileMatrixSet, Map<String, Tile> singleLayerTileMap,
+                                                                        Map<String, ByteArrayOutputStream> singleLayerByteArrayMap) throws IOException {
+        ByteArrayOutputStream layers = new ByteArrayOutputStream();
+        Set<String> layerNames = new HashSet<>();
+        Set<String> processedCollections = new TreeSet<>();
+        for (String collectionId : singleLayerTileMap.keySet()) {
+            ByteArrayOutputStream tileBytes = singleLayerByteArrayMap.get(collectionId);
+            if (Objects.nonNull(tileBytes) && tileBytes.size()>0) {
+                byte[] bytes = tileBytes.toByteArray();
+                if (bytes.length > 1 && bytes[0] == (byte) 0x1f && bytes[1] == (byte) 0x8b) {
+                    try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+                        bytes = gzip.readAllBytes();
+                    } catch (IOException e) {
+                        return Optional.empty();
+                    }
+                }
+                Optional<List<String>> names = getLayerNames(bytes, tileMatrixSet.getTileExtent());
+                if (names.isEmpty() || !names.get().stream().allMatch(layerNames::add))
+                    return Optional.empty();
+                layers.write(bytes);
+                processedCollections.add(collectionId);
+            } else if (Objects.nonNull(tileBytes)) {
+                // a generated tile without features
+                processedCollections.add(collectionId);
+            } else if (isEmptyInCache(singleLayerTileMap.get(collectionId), collectionId)) {
+                // an empty tile, so we are done for this collection
+                processedCollections.add(collectionId);
+            }
+        }
+
+        MultiLayerTileContent result = new MultiLayerTileContent();
+        result.byteArray = layers.toByteArray();
+        result.isComplete = processedCollections.size()==singleLayerTileMap.size();
+
+        return Optional.of(result);
+    }
+
+    private boolean isEmptyInCache(Tile singleLayerTile, String collectionId) {
+        try {
+            return tileCache.tileIsEmpty(singleLayerTile).orElse(false);
+        } catch (Exception e) {
+            LOGGER.warn("Failed to retrieve tile {}/{}/{}/{} for collection {} from the cache. Reason: {}",
+                        singleLayerTile.getTileMatrixSet().getId(), singleLayerTile.getTileLevel(), singleLayerTile.getTileRow(),
+                        singleLayerTile.getTileCol(), collectionId, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Read the names of the layers of an uncompressed MVT tile from the protobuf message without decoding
+     * the features.
+     *
+     * @param tile the tile
+     * @param extent the expected extent of the layers
+     * @return the layer names or empty, if the tile is not a valid sequence of layers with the extent and with
+     *     unique names
+     */
+    static Optional<List<String>> getLayerNames(byte[] tile, int extent) {
+        List<String> names = new ArrayList<>();
+        int[] pos = {0};
+        try {
+            while (pos[0] < tile.length) {
+                // field 3 "layers", length-delimited
+                if (readVarint(tile, pos) != ((3 << 3) | 2))
+                    return Optional.empty();
+                long length = readVarint(tile, pos);
+                if (length < 0 || length > tile.length - pos[0])
+                    return Optional.empty();
+                int end = pos[0] + (int) length;
+                String name = null;
+                // the default extent of a layer
+                long layerExtent = 4096;
+                while (pos[0] < end) {
+                    long key = readVarint(tile, pos);
+                    int field = (int) (key >>> 3);
+                    switch ((int) (key & 0x7)) {
+                        case 0:
+                            long value = readVarint(tile, pos);
+                            if (field == 5)
+                                layerExtent = value;
+                            break;
+                        case 1:
+                            pos[0] += 8;
+                            break;
+                        case 2:
+                            long fieldLength = readVarint(tile, pos);
+                            if (fieldLength < 0 || fieldLength > end - pos[0])
+                                return Optional.empty();
+                            if (field == 1)
+                                name = new String(tile, pos[0], (int) fieldLength, StandardCharsets.UTF_8);
+                            pos[0] += (int) fieldLength;
+                            break;
+                        case 5:
+                            pos[0] += 4;
+                            break;
+                        default:
+                            return Optional.empty();
+                    }
+                }
+                if (pos[0] != end || Objects.isNull(name) || layerExtent != extent || names.contains(name))
+                    return Optional.empty();
+                names.add(name);
+            }
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+        return Optional.of(names);
+    }
+
+    private static long readVarint(byte[] bytes, int[] pos) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos[0] >= bytes.length)
+                throw new IllegalArgumentException("Truncated varint.");
+            byte b = bytes[pos[0]++];
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed varint.");
+    }
+
     @Override
     public double getMaxAllowableOffset(Tile tile) {
         double maxAllowableOffsetTileMatrixSet = tile.getTileMatrixSet().getMaxAllowableOffset(tile.getTileLevel(), tile.getTileRow(), tile.getTileCol());
@@ -352,6 +508,27 @@ public class TileFormatMVT extends TileFormatWithQuerySupportExtension {
         return 0;
     }
 
+    @Override
+    public boolean supportsOverviews(TilesConfiguration tilesConfiguration, TileMatrixSet tileMatrixSet, int level) {
+        return OverviewTileEncoder.isApplicable(tilesConfiguration, tileMatrixSet, level);
+    }
+
+    @Override
+    public byte[] getOverviewTile(Tile tile, List<byte[]> childTiles, TilesConfiguration tilesConfiguration) throws IOException {
+        OverviewTileEncoder encoder = new OverviewTileEncoder(tile, tilesConfiguration);
+        for (int i = 0; i < childTiles.size(); i++) {
+            encoder.addChild(i / 2, i % 2, childTiles.get(i));
+        }
+        return encoder.encode();
+    }
+
+    @Override
+    public OptionalLong getNumberOfFeatures(byte[] content) throws IOException {
+        if (Objects.isNull(content) || content.length == 0)
+            return OptionalLong.of(0);
+        return OptionalLong.of(new VectorTileDecoder().decode(content).asList().size());
+    }
+
     /**
      * If the zoom Level is not valid generate empty JSON Tile or empty MVT.
      *
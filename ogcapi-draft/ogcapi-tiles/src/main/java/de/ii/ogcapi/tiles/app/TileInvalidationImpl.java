@@ -0,0 +1,244 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app;
+
+import com.github.azahnen.dagger.annotations.AutoBind;
+import dagger.Lazy;
+import de.ii.ogcapi.features.core.domain.FeaturesCoreConfiguration;
+import de.ii.ogcapi.features.core.domain.FeaturesCoreProviders;
+import de.ii.ogcapi.foundation.domain.ExtensionConfiguration;
+import de.ii.ogcapi.foundation.domain.OgcApi;
+import de.ii.ogcapi.foundation.domain.OgcApiDataV2;
+import de.ii.ogcapi.tiles.domain.MinMax;
+import de.ii.ogcapi.tiles.domain.TileCache;
+import de.ii.ogcapi.tiles.domain.TileInvalidation;
+import de.ii.ogcapi.tiles.domain.TileReseedQueue;
+import de.ii.ogcapi.tiles.domain.TilesConfiguration;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimits;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimitsGenerator;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetRepository;
+import de.ii.xtraplatform.crs.domain.BoundingBox;
+import de.ii.xtraplatform.features.domain.FeatureChange;
+import de.ii.xtraplatform.features.domain.FeatureChangeHandler;
+import de.ii.xtraplatform.features.domain.FeatureChangeListener;
+import de.ii.xtraplatform.store.domain.entities.ValidationResult;
+import de.ii.xtraplatform.store.domain.entities.ValidationResult.MODE;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A feature change listener is registered for each API with tiles. The tiles are invalidated in a single background
+ * thread, so that the feature provider is not blocked; changes of a collection that arrive while an invalidation is
+ * pending are combined into a single invalidation with the union of the bounding boxes.
+ */
+@Singleton
+@AutoBind
+public class TileInvalidationImpl implements TileInvalidation {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TileInvalidationImpl.class);
+
+    private final Lazy<TileCache> tileCache;
+    private final FeaturesCoreProviders providers;
+    private final TileReseedQueue reseedQueue;
+    private final TileMatrixSetLimitsGenerator limitsGenerator;
+    private final TileMatrixSetRepository tileMatrixSetRepository;
+    private final ExecutorService invalidation;
+    // changes of features that still have to be processed, by API and collection; an empty bounding box
+    // invalidates all tiles of the collection
+    private final Map<String, Optional<BoundingBox>> pendingInvalidations;
+    // the feature change listener of each API with the handler it is registered with
+    private final Map<String, Entry<FeatureChangeHandler, FeatureChangeListener>> listeners;
+
+    @Inject
+    public TileInvalidationImpl(Lazy<TileCache> tileCache,
+                                FeaturesCoreProviders providers,
+                                TileReseedQueue reseedQueue,
+                                TileMatrixSetLimitsGenerator limitsGenerator,
+                                TileMatrixSetRepository tileMatrixSetRepository) {
+        this.tileCache = tileCache;
+        this.providers = providers;
+        this.reseedQueue = reseedQueue;
+        this.limitsGenerator = limitsGenerator;
+        this.tileMatrixSetRepository = tileMatrixSetRepository;
+        this.invalidation = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tile-invalidation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pendingInvalidations = new ConcurrentHashMap<>();
+        this.listeners = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public Class<? extends ExtensionConfiguration> getBuildingBlockConfigurationType() {
+        return TilesConfiguration.class;
+    }
+
+    /**
+     * register the feature change listener of the API
+     */
+    @Override
+    public ValidationResult onStartup(OgcApi api, MODE apiValidation) {
+        // the listener of a previous start of the API refers to the previous configuration
+        Optional.ofNullable(listeners.remove(api.getId()))
+                .ifPresent(registration -> registration.getKey().removeListener(registration.getValue()));
+
+        OgcApiDataV2 apiData = api.getData();
+        if (apiData.getExtension(TilesConfiguration.class)
+                   .filter(TilesConfiguration::isEnabled)
+                   .isPresent()) {
+            providers.getFeatureProvider(apiData)
+                     .ifPresent(provider -> {
+                         FeatureChangeHandler handler = provider.getFeatureChangeHandler();
+                         FeatureChangeListener listener = onFeatureChange(api);
+                         handler.addListener(listener);
+                         listeners.put(api.getId(), new SimpleImmutableEntry<>(handler, listener));
+                     });
+        }
+
+        return ValidationResult.of();
+    }
+
+    /**
+     * invalidate the cached tiles that are affected by a change of a feature, both the tiles of the collection
+     * and the multi-collection tiles
+     */
+    private FeatureChangeListener onFeatureChange(OgcApi api) {
+        return change -> {
+            OgcApiDataV2 apiData = api.getData();
+            apiData.getCollections()
+                   .entrySet()
+                   .stream()
+                   .filter(entry -> Objects.equals(change.getFeatureType(), entry.getValue()
+                                                                               .getExtension(FeaturesCoreConfiguration.class)
+                                                                               .flatMap(FeaturesCoreConfiguration::getFeatureType)
+                                                                               .orElse(entry.getKey())))
+                   .map(Map.Entry::getKey)
+                   .filter(collectionId -> apiData.getExtension(TilesConfiguration.class, collectionId)
+                                                  .filter(TilesConfiguration::isEnabled)
+                                                  .isPresent())
+                   .forEach(collectionId -> invalidateTiles(api, collectionId, getInvalidatedBoundingBox(change)));
+        };
+    }
+
+    /**
+     * @return the bounding box of the tiles that are affected by the change, empty, if all tiles of the collection
+     *     are affected; this is the case for deleted features and for updated features, since the change only has
+     *     the new location of the feature, but the tiles at the previous location are affected, too; the spatial
+     *     extent of the collection, which is used instead, still includes the previous location
+     */
+    static Optional<BoundingBox> getInvalidatedBoundingBox(FeatureChange change) {
+        switch (change.getAction()) {
+            case CREATE:
+                return change.getBoundingBox();
+            case UPDATE:
+            case DELETE:
+            default:
+                return Optional.empty();
+        }
+    }
+
+    private void invalidateTiles(OgcApi api, String collectionId, Optional<BoundingBox> boundingBox) {
+        String key = String.join("/", api.getId(), collectionId);
+        boolean[] queued = {false};
+        pendingInvalidations.compute(key, (k, pending) -> {
+            if (Objects.isNull(pending)) {
+                queued[0] = true;
+                return boundingBox;
+            }
+            if (pending.isEmpty() || boundingBox.isEmpty() || !pending.get().getEpsgCrs().equals(boundingBox.get().getEpsgCrs()))
+                return Optional.empty();
+            return Optional.of(BoundingBox.of(Math.min(pending.get().getXmin(), boundingBox.get().getXmin()),
+                                              Math.min(pending.get().getYmin(), boundingBox.get().getYmin()),
+                                              Math.max(pending.get().getXmax(), boundingBox.get().getXmax()),
+                                              Math.max(pending.get().getYmax(), boundingBox.get().getYmax()),
+                                              pending.get().getEpsgCrs()));
+        });
+        if (!queued[0])
+            return;
+
+        invalidation.execute(() -> {
+            // changes from now on are processed in the next run
+            Optional<BoundingBox> changed = pendingInvalidations.remove(key);
+            try {
+                tileCache.get().invalidateTiles(api, collectionId, changed);
+            } catch (Exception e) {
+                LOGGER.warn("Cached tiles of collection '{}' could not be invalidated after a change of features: {}",
+                            collectionId, e.getMessage());
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Stacktrace:", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void enqueueForReseeding(OgcApiDataV2 apiData, Optional<String> collectionId, Map<String, BoundingBox> boundingBoxes,
+                                    boolean includeAdjacentTiles) {
+        List<Optional<String>> tileSets = Stream.concat(Stream.of(Optional.<String>empty()),
+                                                        collectionId.isPresent()
+                                                            ? Stream.of(collectionId)
+                                                            : apiData.getCollections().keySet().stream().map(Optional::of))
+                                                .collect(Collectors.toUnmodifiableList());
+        long queued = 0;
+        for (Optional<String> tileSet : tileSets) {
+            Optional<TilesConfiguration> config = (tileSet.isEmpty()
+                ? apiData.getExtension(TilesConfiguration.class).filter(TilesConfiguration::isMultiCollectionEnabled)
+                : apiData.getExtension(TilesConfiguration.class, tileSet.get()).filter(TilesConfiguration::isSingleCollectionEnabled))
+                .filter(TilesConfiguration::isEnabled)
+                .filter(cfg -> cfg.getTileProvider().requiresQuerySupport())
+                .filter(cfg -> cfg.getCache() != TilesConfiguration.TileCacheType.NONE);
+            if (config.isEmpty())
+                continue;
+
+            Map<String, MinMax> seeding = config.get().getEffectiveSeeding();
+            for (Map.Entry<String, BoundingBox> boundingBox : boundingBoxes.entrySet()) {
+                String tileMatrixSetId = boundingBox.getKey();
+                if (!seeding.containsKey(tileMatrixSetId))
+                    continue;
+                TileMatrixSet tileMatrixSet = tileMatrixSetRepository.get(tileMatrixSetId)
+                                                                     .orElseThrow(() -> new IllegalArgumentException("TileMatrixSet not found: "+tileMatrixSetId));
+                List<TileMatrixSetLimits> limitsList = limitsGenerator.getTileMatrixSetLimits(boundingBox.getValue(), tileMatrixSet, seeding.get(tileMatrixSetId));
+                if (includeAdjacentTiles)
+                    limitsList = TilesHelper.withAdjacentTiles(limitsList, tileMatrixSet);
+                for (TileMatrixSetLimits limits : limitsList) {
+                    queued += reseedQueue.enqueue(apiData.getId(), tileSet, tileMatrixSetId, limits);
+                }
+            }
+        }
+        if (queued > 0 && LOGGER.isDebugEnabled()) {
+            LOGGER.debug("{} deleted tiles of API '{}' queued for re-seeding.", queued, apiData.getId());
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        invalidation.shutdown();
+        try {
+            if (!invalidation.awaitTermination(30, TimeUnit.SECONDS))
+                LOGGER.warn("Not all cached tiles have been invalidated after changes of features.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import de.ii.ogcapi.tiles.domain.CachedTile;
+import de.ii.ogcapi.tiles.domain.Tile;
+import java.util.Optional;
+
+/**
+ * In-memory cache of frequently requested tiles in front of the tile cache. The cache is bounded by the total size
+ * of the tile content, the least recently used tiles are evicted first.
+ */
+class TileMemoryCache {
+
+    // approximate memory overhead of an entry in addition to the tile content
+    private static final int ENTRY_OVERHEAD = 200;
+    // tiles larger than this are not kept in memory
+    private static final int MAX_TILE_SIZE = 1024 * 1024;
+
+    private final Cache<String, CachedTile> tiles;
+
+    TileMemoryCache(long maxBytes) {
+        this.tiles = CacheBuilder.newBuilder()
+                                 .maximumWeight(maxBytes)
+                                 .weigher((String key, CachedTile tile) -> ENTRY_OVERHEAD + key.length() * 2 + tile.size())
+                                 .recordStats()
+                                 .build();
+    }
+
+    Optional<CachedTile> get(Tile tile) {
+        if (tile.getTemporary())
+            return Optional.empty();
+        return Optional.ofNullable(tiles.getIfPresent(getKey(tile)));
+    }
+
+    void put(Tile tile, CachedTile content) {
+        if (!tile.getTemporary() && content.size() <= MAX_TILE_SIZE)
+            tiles.put(getKey(tile), content);
+    }
+
+    void invalidate(Tile tile) {
+        tiles.invalidate(getKey(tile));
+    }
+
+    /**
+     * remove all single-layer tiles of a collection (or the multi-layer tiles of the dataset, if the collection
+     * is "__all__"), optionally restricted to a tiling scheme
+     */
+    void invalidate(String apiId, String collectionId, Optional<String> tileMatrixSetId) {
+        String prefix = tileMatrixSetId.map(tms -> String.join("/", apiId, collectionId, tms, ""))
+                                       .orElse(String.join("/", apiId, collectionId, ""));
+        tiles.asMap()
+             .keySet()
+             .removeIf(key -> key.startsWith(prefix));
+    }
+
+    CacheStats getStats() {
+        return tiles.stats();
+    }
+
+    long getNumberOfTiles() {
+        return tiles.size();
+    }
+
+    static String getKey(Tile tile) {
+        return String.join("/",
+                           tile.getApiData().getId(),
+                           tile.isDatasetTile() ? "__all__" : tile.getCollectionId(),
+                           tile.getTileMatrixSet().getId(),
+                           String.valueOf(tile.getTileLevel()),
+                           String.valueOf(tile.getTileRow()),
+                           String.valueOf(tile.getTileCol()))
+            + "." + tile.getOutputFormat().getExtension();
+    }
+}
@@ -0,0 +1,405 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app;
+
+import com.github.azahnen.dagger.annotations.AutoBind;
+import de.ii.ogcapi.features.core.domain.FeatureSfFlat;
+import de.ii.ogcapi.features.core.domain.FeaturesCollectionQueryables;
+import de.ii.ogcapi.features.core.domain.FeaturesCoreConfiguration;
+import de.ii.ogcapi.features.core.domain.FeaturesCoreProviders;
+import de.ii.ogcapi.features.core.domain.ModifiableFeatureSfFlat;
+import de.ii.ogcapi.features.core.domain.ModifiablePropertySfFlat;
+import de.ii.ogcapi.features.core.domain.PropertySfFlat;
+import de.ii.ogcapi.foundation.domain.ExtensionConfiguration;
+import de.ii.ogcapi.foundation.domain.FeatureTypeConfigurationOgcApi;
+import de.ii.ogcapi.foundation.domain.OgcApi;
+import de.ii.ogcapi.foundation.domain.OgcApiDataV2;
+import de.ii.ogcapi.tiles.domain.Tile;
+import de.ii.ogcapi.tiles.domain.TileFormatWithQuerySupportExtension;
+import de.ii.ogcapi.tiles.domain.TileOccupancy;
+import de.ii.ogcapi.tiles.domain.TilesConfiguration;
+import de.ii.xtraplatform.crs.domain.BoundingBox;
+import de.ii.xtraplatform.crs.domain.CrsTransformationException;
+import de.ii.xtraplatform.crs.domain.CrsTransformer;
+import de.ii.xtraplatform.crs.domain.CrsTransformerFactory;
+import de.ii.xtraplatform.crs.domain.OgcCrs;
+import de.ii.xtraplatform.features.domain.FeatureChangeHandler;
+import de.ii.xtraplatform.features.domain.FeatureChangeListener;
+import de.ii.xtraplatform.features.domain.FeatureObjectEncoder;
+import de.ii.xtraplatform.features.domain.FeatureProvider2;
+import de.ii.xtraplatform.features.domain.FeatureQuery;
+import de.ii.xtraplatform.features.domain.FeatureStream.ResultReduced;
+import de.ii.xtraplatform.features.domain.ImmutableFeatureQuery;
+import de.ii.xtraplatform.store.domain.entities.ValidationResult;
+import de.ii.xtraplatform.store.domain.entities.ValidationResult.MODE;
+import de.ii.xtraplatform.streams.domain.Reactive.Sink;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The occupancy grid of a collection covers the world in CRS84 with cells of about 0.18 degrees. A cell is occupied,
+ * if the bounding box of a feature intersects the cell. A tile is empty, if no occupied cell intersects the bounding
+ * box of the tile extended by the buffer of the tile.
+ *
+ * The grids are built with a feature query per collection in a background thread after the start of the API. Created
+ * or updated features mark the cells of their bounding box as occupied; deleted features are not removed from the grid,
+ * so the grid may only claim too many features, until the next start of the API. If the bounding box of a change is
+ * unknown, the grid of the collection is discarded.
+ */
+@Singleton
+@AutoBind
+public class TileOccupancyImpl implements TileOccupancy {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TileOccupancyImpl.class);
+    private static final int COLUMNS = 2048;
+    private static final int ROWS = 1024;
+    private static final double CELL_WIDTH = 360.0 / COLUMNS;
+    private static final double CELL_HEIGHT = 180.0 / ROWS;
+    // the share of the width and height of a tile that is added on each side for the buffer of the tile
+    private static final double TILE_BUFFER = 1.0 / 16.0;
+
+    private final FeaturesCoreProviders providers;
+    private final CrsTransformerFactory crsTransformerFactory;
+    // the complete grids, by API and collection
+    private final Map<String, OccupancyGrid> grids;
+    // the grids that are currently built, by API and collection; changes are recorded while the features are read
+    private final Map<String, OccupancyGrid> pendingGrids;
+    // the feature change listener of each API with the handler it is registered with
+    private final Map<String, Map.Entry<FeatureChangeHandler, FeatureChangeListener>> listeners;
+    private final ExecutorService executor;
+
+    @Inject
+    public TileOccupancyImpl(FeaturesCoreProviders providers,
+                             CrsTransformerFactory crsTransformerFactory) {
+        this.providers = providers;
+        this.crsTransformerFactory = crsTransformerFactory;
+        this.grids = new ConcurrentHashMap<>();
+        this.pendingGrids = new ConcurrentHashMap<>();
+        this.listeners = new ConcurrentHashMap<>();
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tile-occupancy");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public Class<? extends ExtensionConfiguration> getBuildingBlockConfigurationType() {
+        return TilesConfiguration.class;
+    }
+
+    /**
+     * start building the grids of all collections that skip empty tiles
+     */
+    @Override
+    public ValidationResult onStartup(OgcApi api, MODE apiValidation) {
+        // the listener of a previous start of the API refers to the previous configuration
+        removeListener(api.getId());
+
+        OgcApiDataV2 apiData = api.getData();
+        Optional<FeatureProvider2> provider = providers.getFeatureProvider(apiData);
+        if (provider.filter(FeatureProvider2::supportsQueries).isEmpty())
+            return ValidationResult.of();
+
+        boolean anyCollection = false;
+        for (String collectionId : apiData.getCollections().keySet()) {
+            if (!isSkipEmptyTiles(apiData, collectionId))
+                continue;
+            String key = getKey(api.getId(), collectionId);
+            grids.remove(key);
+            pendingGrids.put(key, new OccupancyGrid());
+            executor.execute(() -> build(apiData, collectionId, provider.get()));
+            anyCollection = true;
+        }
+
+        if (anyCollection) {
+            FeatureChangeHandler handler = provider.get().getFeatureChangeHandler();
+            FeatureChangeListener listener = onFeatureChange(api);
+            handler.addListener(listener);
+            listeners.put(api.getId(), new SimpleImmutableEntry<>(handler, listener));
+        }
+
+        return ValidationResult.of();
+    }
+
+    @Override
+    public boolean isEmpty(Tile tile) {
+        // only tiles that are generated from the features are skipped
+        List<String> collectionIds = tile.getCollectionIds();
+        if (collectionIds.isEmpty() || !(tile.getOutputFormat() instanceof TileFormatWithQuerySupportExtension))
+            return false;
+
+        Optional<double[]> bbox = getTileBbox(tile);
+        if (bbox.isEmpty())
+            return false;
+
+        for (String collectionId : collectionIds) {
+            OgcApiDataV2 apiData = tile.getApiData();
+            OccupancyGrid grid = isSkipEmptyTiles(apiData, collectionId) ? grids.get(getKey(apiData.getId(), collectionId)) : null;
+            if (Objects.isNull(grid) || grid.intersects(bbox.get()))
+                return false;
+        }
+        return true;
+    }
+
+    private void build(OgcApiDataV2 apiData, String collectionId, FeatureProvider2 provider) {
+        String key = getKey(apiData.getId(), collectionId);
+        OccupancyGrid grid = pendingGrids.get(key);
+        if (Objects.isNull(grid))
+            return;
+
+        FeatureTypeConfigurationOgcApi collectionData = apiData.getCollections().get(collectionId);
+        Optional<FeaturesCoreConfiguration> coreConfiguration = collectionData.getExtension(FeaturesCoreConfiguration.class);
+        String featureTypeId = coreConfiguration.flatMap(FeaturesCoreConfiguration::getFeatureType).orElse(collectionId);
+        List<String> spatialProperties = coreConfiguration.flatMap(FeaturesCoreConfiguration::getQueryables)
+                                                          .map(FeaturesCollectionQueryables::getSpatial)
+                                                          .orElse(List.of());
+        if (spatialProperties.isEmpty()) {
+            pendingGrids.remove(key);
+            return;
+        }
+
+        long start = System.nanoTime();
+        // only the geometry is needed, the coordinates are requested in CRS84 with longitude before latitude
+        FeatureQuery query = ImmutableFeatureQuery.builder()
+                                                  .type(featureTypeId)
+                                                  .crs(OgcCrs.CRS84)
+                                                  .fields(spatialProperties)
+                                                  .build();
+        OccupancyEncoder encoder = new OccupancyEncoder(grid);
+        try {
+            ResultReduced<byte[]> result = provider.queries()
+                                                   .getFeatureStream(query)
+                                                   .runWith(encoder.to(Sink.reduceByteArray()), Optional.empty())
+                                                   .toCompletableFuture()
+                                                   .join();
+            if (!result.isSuccess()) {
+                result.getError().ifPresent(error -> LOGGER.warn("The occupancy grid of collection '{}' could not be built, empty tiles are generated from the features: {}",
+                                                                 collectionId, error.getMessage()));
+                pendingGrids.remove(key);
+                return;
+            }
+        } catch (Throwable e) {
+            LOGGER.warn("The occupancy grid of collection '{}' could not be built, empty tiles are generated from the features: {}",
+                        collectionId, e.getMessage());
+            pendingGrids.remove(key);
+            return;
+        }
+
+        // a feature without a geometry is never included in a tile, but if no feature has a geometry, the geometry
+        // has not been returned by the query and the grid would prove too many tiles empty
+        if (encoder.features > 0 && encoder.featuresWithoutGeometry == encoder.features) {
+            LOGGER.warn("The occupancy grid of collection '{}' could not be built, empty tiles are generated from the features: no feature has a geometry.", collectionId);
+            pendingGrids.remove(key);
+            return;
+        }
+
+        // the grid is only published, if it has not been discarded by a change in the meantime
+        if (pendingGrids.remove(key, grid)) {
+            grids.put(key, grid);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Occupancy grid of collection '{}' built from {} features in {}ms, {} of {} cells are occupied.", collectionId,
+                             encoder.features, (System.nanoTime() - start) / 1000000, grid.getNumberOfOccupiedCells(), COLUMNS * ROWS);
+            }
+        }
+    }
+
+    private void removeListener(String apiId) {
+        Optional.ofNullable(listeners.remove(apiId))
+                .ifPresent(registration -> registration.getKey().removeListener(registration.getValue()));
+    }
+
+    /**
+     * mark the cells of created and updated features as occupied
+     */
+    private FeatureChangeListener onFeatureChange(OgcApi api) {
+        return change -> {
+            OgcApiDataV2 apiData = api.getData();
+            apiData.getCollections()
+                   .entrySet()
+                   .stream()
+                   .filter(entry -> Objects.equals(change.getFeatureType(), entry.getValue()
+                                                                               .getExtension(FeaturesCoreConfiguration.class)
+                                                                               .flatMap(FeaturesCoreConfiguration::getFeatureType)
+                                                                               .orElse(entry.getKey())))
+                   .map(Map.Entry::getKey)
+                   .forEach(collectionId -> {
+                       String key = getKey(api.getId(), collectionId);
+                       switch (change.getAction()) {
+                           case CREATE:
+                           case UPDATE:
+                               Optional<double[]> bbox = change.getBoundingBox().flatMap(this::toCrs84);
+                               if (bbox.isPresent()) {
+                                   Optional.ofNullable(pendingGrids.get(key)).ifPresent(grid -> grid.add(bbox.get()));
+                                   Optional.ofNullable(grids.get(key)).ifPresent(grid -> grid.add(bbox.get()));
+                               } else {
+                                   // the location of the feature is unknown
+                                   pendingGrids.remove(key);
+                                   grids.remove(key);
+                               }
+                               break;
+                           case DELETE:
+                               break;
+                       }
+                   });
+        };
+    }
+
+    /**
+     * @return the bounding box of the tile in CRS84 including the buffer of the tile, empty, if the bounding box
+     *     cannot be determined
+     */
+    private Optional<double[]> getTileBbox(Tile tile) {
+        BoundingBox bbox;
+        try {
+            bbox = tile.getBoundingBox(OgcCrs.CRS84, crsTransformerFactory);
+        } catch (CrsTransformationException e) {
+            return Optional.empty();
+        }
+        double bufferX = (bbox.getXmax() - bbox.getXmin()) * TILE_BUFFER;
+        double bufferY = (bbox.getYmax() - bbox.getYmin()) * TILE_BUFFER;
+        if (!(bufferX >= 0.0 && bufferY >= 0.0))
+            return Optional.empty();
+        return Optional.of(new double[]{bbox.getXmin() - bufferX, bbox.getYmin() - bufferY, bbox.getXmax() + bufferX, bbox.getYmax() + bufferY});
+    }
+
+    private Optional<double[]> toCrs84(BoundingBox bbox) {
+        if (!bbox.getEpsgCrs().equals(OgcCrs.CRS84) && !bbox.getEpsgCrs().equals(OgcCrs.CRS84h)) {
+            Optional<CrsTransformer> transformer = crsTransformerFactory.getTransformer(bbox.getEpsgCrs(), OgcCrs.CRS84);
+            if (transformer.isEmpty())
+                return Optional.empty();
+            try {
+                bbox = transformer.get().transformBoundingBox(bbox);
+            } catch (CrsTransformationException e) {
+                return Optional.empty();
+            }
+        }
+        return Optional.of(new double[]{bbox.getXmin(), bbox.getYmin(), bbox.getXmax(), bbox.getYmax()});
+    }
+
+    private static boolean isSkipEmptyTiles(OgcApiDataV2 apiData, String collectionId) {
+        return apiData.isCollectionEnabled(collectionId)
+            && apiData.getExtension(TilesConfiguration.class, collectionId)
+                      .filter(TilesConfiguration::isEnabled)
+                      .filter(TilesConfiguration::isSkipEmptyTiles)
+                      .isPresent();
+    }
+
+    private static String getKey(String apiId, String collectionId) {
+        return String.join("/", apiId, collectionId);
+    }
+
+    /**
+     * the occupied cells of a collection, one bit per cell
+     */
+    private static class OccupancyGrid {
+
+        private final BitSet cells = new BitSet(COLUMNS * ROWS);
+
+        synchronized void add(double[] bbox) {
+            int minCol = getCol(bbox[0]);
+            int maxCol = getCol(bbox[2]);
+            for (int row = getRow(bbox[1]); row <= getRow(bbox[3]); row++) {
+                if (minCol <= maxCol) {
+                    cells.set(row * COLUMNS + minCol, row * COLUMNS + maxCol + 1);
+                } else {
+                    // the bounding box crosses the antimeridian
+                    cells.set(row * COLUMNS + minCol, (row + 1) * COLUMNS);
+                    cells.set(row * COLUMNS, row * COLUMNS + maxCol + 1);
+                }
+            }
+        }
+
+        synchronized boolean intersects(double[] bbox) {
+            // the cells at the border of the bounding box are included, so features on a cell boundary are never missed
+            int minCol = Math.max(0, getCol(bbox[0]) - 1);
+            int maxCol = Math.min(COLUMNS - 1, getCol(bbox[2]) + 1);
+            int minRow = Math.max(0, getRow(bbox[1]) - 1);
+            int maxRow = Math.min(ROWS - 1, getRow(bbox[3]) + 1);
+            for (int row = minRow; row <= maxRow; row++) {
+                int next = cells.nextSetBit(row * COLUMNS + minCol);
+                if (next >= 0 && next <= row * COLUMNS + maxCol)
+                    return true;
+            }
+            return false;
+        }
+
+        synchronized int getNumberOfOccupiedCells() {
+            return cells.cardinality();
+        }
+
+        private static int getCol(double lon) {
+            return (int) Math.max(0, Math.min(COLUMNS - 1, Math.floor((lon + 180.0) / CELL_WIDTH)));
+        }
+
+        private static int getRow(double lat) {
+            return (int) Math.max(0, Math.min(ROWS - 1, Math.floor((lat + 90.0) / CELL_HEIGHT)));
+        }
+    }
+
+    /**
+     * adds the bounding box of each feature to an occupancy grid, the encoder writes no output
+     */
+    private static class OccupancyEncoder extends FeatureObjectEncoder<PropertySfFlat, FeatureSfFlat> {
+
+        private final OccupancyGrid grid;
+        private final GeometryFactory geometryFactory;
+        private long features;
+        private long featuresWithoutGeometry;
+
+        OccupancyEncoder(OccupancyGrid grid) {
+            this.grid = grid;
+            this.geometryFactory = new GeometryFactory();
+        }
+
+        @Override
+        public FeatureSfFlat createFeature() {
+            return ModifiableFeatureSfFlat.create();
+        }
+
+        @Override
+        public PropertySfFlat createProperty() {
+            return ModifiablePropertySfFlat.create();
+        }
+
+        @Override
+        public void onStart(ModifiableContext context) {
+        }
+
+        @Override
+        public void onFeature(FeatureSfFlat feature) {
+            features++;
+            Optional<Geometry> geometry = feature.getJtsGeometry(geometryFactory);
+            if (geometry.isEmpty() || geometry.get().isEmpty()) {
+                featuresWithoutGeometry++;
+                return;
+            }
+            Envelope envelope = geometry.get().getEnvelopeInternal();
+            grid.add(new double[]{envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY()});
+        }
+
+        @Override
+        public void onEnd(ModifiableContext context) {
+            push(new byte[0]);
+        }
+    }
+}
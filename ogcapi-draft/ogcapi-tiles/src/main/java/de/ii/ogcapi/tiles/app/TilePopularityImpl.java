@@ -0,0 +1,234 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app;
+
+import static de.ii.ogcapi.foundation.domain.FoundationConfiguration.CACHE_DIR;
+
+import com.github.azahnen.dagger.annotations.AutoBind;
+import de.ii.ogcapi.foundation.domain.ExtensionConfiguration;
+import de.ii.ogcapi.foundation.domain.OgcApi;
+import de.ii.ogcapi.tiles.domain.Tile;
+import de.ii.ogcapi.tiles.domain.TilePopularity;
+import de.ii.ogcapi.tiles.domain.TileReseedQueue.QueuedTile;
+import de.ii.ogcapi.tiles.domain.TilesConfiguration;
+import de.ii.xtraplatform.base.domain.AppContext;
+import de.ii.xtraplatform.base.domain.AppLifeCycle;
+import de.ii.xtraplatform.store.domain.entities.EntityRegistry;
+import de.ii.xtraplatform.store.domain.entities.ValidationResult;
+import de.ii.xtraplatform.store.domain.entities.ValidationResult.MODE;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The number of requests of each tile is estimated with a count-min sketch per API. Tiles whose estimate reaches the
+ * least requested candidate are added to a bounded set of candidates; when the set has grown to twice its capacity,
+ * only the most requested candidates are kept. The candidates are written to a file in the tile cache directory of
+ * the API at most every five minutes and restored after a restart. When the API is started again or the application
+ * stops, the candidates are written and the sketch is released; the sketch of a removed API is released without
+ * writing the file, when the candidates of another API are written.
+ */
+@Singleton
+@AutoBind
+public class TilePopularityImpl implements TilePopularity, AppLifeCycle {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TilePopularityImpl.class);
+    private static final String TILES_DIR_NAME = "tiles";
+    private static final String POPULARITY_FILE_NAME = "__popularity__.tiles";
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 1 << 14;
+    private static final int MAX_CANDIDATES = 10_000;
+    private static final long WRITE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final Path cacheStore;
+    private final EntityRegistry entityRegistry;
+    private final Map<String, ApiPopularity> apis;
+
+    @Inject
+    public TilePopularityImpl(AppContext appContext,
+                              EntityRegistry entityRegistry) {
+        this.cacheStore = appContext.getDataDir()
+            .resolve(CACHE_DIR)
+            .resolve(TILES_DIR_NAME);
+        this.entityRegistry = entityRegistry;
+        this.apis = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public Class<? extends ExtensionConfiguration> getBuildingBlockConfigurationType() {
+        return TilesConfiguration.class;
+    }
+
+    /**
+     * write and release the request frequencies of a previous start of the API, they are restored from the file
+     * with the next request
+     */
+    @Override
+    public ValidationResult onStartup(OgcApi api, MODE apiValidation) {
+        Optional.ofNullable(apis.remove(api.getId()))
+                .ifPresent(popularity -> popularity.write(api.getId()));
+        return ValidationResult.of();
+    }
+
+    /**
+     * write the request frequencies of all APIs before the application stops
+     */
+    @Override
+    public void onStop() {
+        apis.forEach((apiId, popularity) -> popularity.write(apiId));
+        apis.clear();
+    }
+
+    @Override
+    public void recordRequest(Tile tile) {
+        QueuedTile key = new QueuedTile(tile.isDatasetTile() ? Optional.empty() : Optional.ofNullable(tile.getCollectionId()),
+                                        tile.getTileMatrixSet().getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol());
+        String apiId = tile.getApiData().getId();
+        ApiPopularity popularity = getPopularity(apiId);
+        popularity.add(key, 1);
+        if (popularity.writeIfDue(apiId)) {
+            // the APIs that have been removed since the last write
+            apis.keySet().removeIf(id -> entityRegistry.getEntity(OgcApi.class, id).isEmpty());
+        }
+    }
+
+    @Override
+    public List<QueuedTile> getPopularTiles(String apiId, int limit) {
+        return getPopularity(apiId).getTop(limit);
+    }
+
+    private ApiPopularity getPopularity(String apiId) {
+        return apis.computeIfAbsent(apiId, id -> new ApiPopularity(cacheStore.resolve(id).resolve(POPULARITY_FILE_NAME)));
+    }
+
+    private static class ApiPopularity {
+
+        private final Path file;
+        private final AtomicIntegerArray sketch;
+        private final Map<QueuedTile, Long> candidates;
+        private final AtomicLong lastWrite;
+        private volatile long minCandidate;
+
+        ApiPopularity(Path file) {
+            this.file = file;
+            this.sketch = new AtomicIntegerArray(SKETCH_DEPTH * SKETCH_WIDTH);
+            this.candidates = new ConcurrentHashMap<>();
+            this.lastWrite = new AtomicLong(System.currentTimeMillis());
+            load();
+        }
+
+        void add(QueuedTile tile, int count) {
+            long estimate = Long.MAX_VALUE;
+            int hash1 = tile.hashCode() * 0x9E3779B9;
+            int hash2 = Integer.rotateLeft(hash1, 16) ^ 0x85EBCA6B;
+            for (int i = 0; i < SKETCH_DEPTH; i++) {
+                int index = Math.floorMod(hash1 + i * hash2, SKETCH_WIDTH);
+                estimate = Math.min(estimate, sketch.addAndGet(i * SKETCH_WIDTH + index, count));
+            }
+            if (estimate >= minCandidate || candidates.containsKey(tile)) {
+                candidates.put(tile, estimate);
+                if (candidates.size() > 2 * MAX_CANDIDATES)
+                    prune();
+            }
+        }
+
+        List<QueuedTile> getTop(int limit) {
+            return candidates.entrySet()
+                             .stream()
+                             .sorted(Map.Entry.<QueuedTile, Long>comparingByValue().reversed()
+                                         .thenComparing(Map.Entry.comparingByKey()))
+                             .limit(limit)
+                             .map(Map.Entry::getKey)
+                             .collect(Collectors.toUnmodifiableList());
+        }
+
+        private synchronized void prune() {
+            if (candidates.size() <= 2 * MAX_CANDIDATES)
+                return;
+            List<Map.Entry<QueuedTile, Long>> sorted = candidates.entrySet()
+                                                                 .stream()
+                                                                 .sorted(Map.Entry.<QueuedTile, Long>comparingByValue().reversed())
+                                                                 .collect(Collectors.toList());
+            sorted.subList(MAX_CANDIDATES, sorted.size())
+                  .forEach(entry -> candidates.remove(entry.getKey()));
+            minCandidate = sorted.get(MAX_CANDIDATES - 1).getValue();
+        }
+
+        private synchronized void load() {
+            if (!Files.exists(file))
+                return;
+            try {
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    int separator = line.indexOf(' ');
+                    if (separator < 1)
+                        continue;
+                    Optional<QueuedTile> tile = QueuedTile.parse(line.substring(separator + 1));
+                    if (tile.isEmpty())
+                        continue;
+                    try {
+                        add(tile.get(), (int) Math.min(Integer.MAX_VALUE, Long.parseLong(line.substring(0, separator))));
+                    } catch (NumberFormatException e) {
+                        // ignore the line
+                    }
+                }
+                LOGGER.debug("Tile request frequencies '{}' restored with {} tiles.", file, candidates.size());
+            } catch (IOException e) {
+                LOGGER.warn("Could not read the tile request frequencies '{}': {}", file, e.getMessage());
+            }
+        }
+
+        /**
+         * @return {@code true}, if the file has been written
+         */
+        boolean writeIfDue(String apiId) {
+            long last = lastWrite.get();
+            long now = System.currentTimeMillis();
+            if (now - last < WRITE_INTERVAL_MILLIS || !lastWrite.compareAndSet(last, now))
+                return false;
+            write(apiId);
+            return true;
+        }
+
+        synchronized void write(String apiId) {
+            try {
+                Files.createDirectories(file.getParent());
+                Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    for (QueuedTile tile : getTop(MAX_CANDIDATES)) {
+                        Long count = candidates.get(tile);
+                        if (count != null)
+                            writer.append(String.valueOf(count)).append(' ').append(tile.toString()).append('\n');
+                    }
+                }
+                try {
+                    Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Could not write the tile request frequencies of API '{}': {}", apiId, e.getMessage());
+            }
+        }
+    }
+}
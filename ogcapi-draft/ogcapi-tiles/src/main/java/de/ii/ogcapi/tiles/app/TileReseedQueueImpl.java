@@ -0,0 +1,232 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app;
+
+import static de.ii.ogcapi.foundation.domain.FoundationConfiguration.CACHE_DIR;
+
+import com.github.azahnen.dagger.annotations.AutoBind;
+import com.google.common.base.Splitter;
+import de.ii.ogcapi.tiles.domain.TileReseedQueue;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimits;
+import de.ii.xtraplatform.base.domain.AppContext;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The queue of each API is kept in memory and in a journal file in the tile cache directory of the API. Each line
+ * of the journal adds ("+") or removes ("-") a tile. The journal is replayed on the first access after a restart
+ * and compacted, when it has grown too large. An incomplete last line, e.g. after a crash, is ignored.
+ */
+@Singleton
+@AutoBind
+public class TileReseedQueueImpl implements TileReseedQueue {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TileReseedQueueImpl.class);
+    private static final String TILES_DIR_NAME = "tiles";
+    private static final String JOURNAL_FILE_NAME = "__reseed__.queue";
+    // more tiles are not queued, these are generated on request or by the next seeding
+    private static final int MAX_QUEUED_TILES = 100_000;
+    private static final int MIN_JOURNAL_LINES_FOR_COMPACTION = 10_000;
+
+    private final Path cacheStore;
+    private final Map<String, ApiQueue> queues;
+
+    @Inject
+    public TileReseedQueueImpl(AppContext appContext) {
+        this.cacheStore = appContext.getDataDir()
+            .resolve(CACHE_DIR)
+            .resolve(TILES_DIR_NAME);
+        this.queues = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public long enqueue(String apiId, Optional<String> collectionId, String tileMatrixSetId, TileMatrixSetLimits limits) {
+        ApiQueue queue = getQueue(apiId);
+        int level = Integer.parseInt(limits.getTileMatrix());
+        StringBuilder lines = new StringBuilder();
+        long added = 0;
+        for (int row = limits.getMinTileRow(); row <= limits.getMaxTileRow(); row++) {
+            for (int col = limits.getMinTileCol(); col <= limits.getMaxTileCol(); col++) {
+                if (queue.size.get() >= MAX_QUEUED_TILES) {
+                    LOGGER.debug("The re-seeding queue of API '{}' is full, tiles of tile matrix {}/{} are not queued.",
+                                 apiId, tileMatrixSetId, level);
+                    queue.append(apiId, lines);
+                    return added;
+                }
+                QueuedTile tile = new QueuedTile(collectionId, tileMatrixSetId, level, row, col);
+                if (queue.add(tile)) {
+                    lines.append('+').append(tile).append('\n');
+                    added++;
+                }
+            }
+        }
+        queue.append(apiId, lines);
+        return added;
+    }
+
+    @Override
+    public Optional<QueuedTile> poll(String apiId) {
+        ApiQueue queue = getQueue(apiId);
+        QueuedTile tile = queue.poll();
+        if (tile != null)
+            queue.inProgress.add(tile);
+        return Optional.ofNullable(tile);
+    }
+
+    @Override
+    public void done(String apiId, QueuedTile tile) {
+        ApiQueue queue = getQueue(apiId);
+        if (!queue.inProgress.remove(tile))
+            return;
+        // the tile may have been queued again in the meantime
+        if (!queue.tiles.contains(tile))
+            queue.append(apiId, new StringBuilder().append('-').append(tile).append('\n'));
+    }
+
+    @Override
+    public void release(String apiId, QueuedTile tile) {
+        ApiQueue queue = getQueue(apiId);
+        if (queue.inProgress.remove(tile))
+            queue.add(tile);
+    }
+
+    @Override
+    public long size(String apiId) {
+        return getQueue(apiId).size.get();
+    }
+
+    private ApiQueue getQueue(String apiId) {
+        return queues.computeIfAbsent(apiId, id -> new ApiQueue(cacheStore.resolve(id).resolve(JOURNAL_FILE_NAME)));
+    }
+
+    private static class ApiQueue {
+
+        private final Path journal;
+        private final NavigableSet<QueuedTile> tiles;
+        private final Set<QueuedTile> inProgress;
+        // the size of the skip list is not constant-time, the number of queued tiles is counted
+        private final AtomicInteger size;
+        private long journalLines;
+
+        ApiQueue(Path journal) {
+            this.journal = journal;
+            this.tiles = new ConcurrentSkipListSet<>();
+            this.inProgress = ConcurrentHashMap.newKeySet();
+            this.size = new AtomicInteger();
+            load();
+        }
+
+        boolean add(QueuedTile tile) {
+            if (!tiles.add(tile))
+                return false;
+            size.incrementAndGet();
+            return true;
+        }
+
+        QueuedTile poll() {
+            QueuedTile tile = tiles.pollFirst();
+            if (tile != null)
+                size.decrementAndGet();
+            return tile;
+        }
+
+        private synchronized void load() {
+            if (!Files.exists(journal))
+                return;
+            Set<QueuedTile> replayed = new LinkedHashSet<>();
+            try {
+                List<String> lines = Splitter.on('\n').splitToList(Files.readString(journal, StandardCharsets.UTF_8));
+                // the last line is incomplete, if the journal was not written completely, e.g. "+__all__/tms/5/1/2"
+                // instead of "+__all__/tms/5/1/23\n"; after a complete line, the last line is empty
+                for (String line : lines.subList(0, lines.size() - 1)) {
+                    if (line.length() < 2)
+                        continue;
+                    Optional<QueuedTile> tile = QueuedTile.parse(line.substring(1));
+                    if (tile.isEmpty())
+                        continue;
+                    if (line.charAt(0) == '+')
+                        replayed.add(tile.get());
+                    else if (line.charAt(0) == '-')
+                        replayed.remove(tile.get());
+                }
+                replayed.forEach(this::add);
+                LOGGER.debug("Re-seeding queue '{}' restored with {} tiles.", journal, size.get());
+                compact();
+            } catch (IOException e) {
+                LOGGER.warn("Could not read the re-seeding queue '{}', the queued tiles are not generated: {}",
+                            journal, e.getMessage());
+            }
+        }
+
+        synchronized void append(String apiId, CharSequence lines) {
+            if (lines.length() == 0)
+                return;
+            try {
+                if (tiles.isEmpty() && inProgress.isEmpty()) {
+                    Files.deleteIfExists(journal);
+                    journalLines = 0;
+                    return;
+                }
+                if (journalLines > MIN_JOURNAL_LINES_FOR_COMPACTION
+                    && journalLines > 2L * (size.get() + inProgress.size())) {
+                    compact();
+                    return;
+                }
+                Files.createDirectories(journal.getParent());
+                try (BufferedWriter writer = Files.newBufferedWriter(journal, StandardCharsets.UTF_8,
+                                                                     StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    writer.append(lines);
+                }
+                journalLines += lines.chars().filter(c -> c == '\n').count();
+            } catch (IOException e) {
+                LOGGER.warn("Could not write the re-seeding queue of API '{}': {}", apiId, e.getMessage());
+            }
+        }
+
+        private void compact() throws IOException {
+            Files.createDirectories(journal.getParent());
+            Path tmp = journal.resolveSibling(journal.getFileName() + ".tmp");
+            long lines = 0;
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (QueuedTile tile : inProgress) {
+                    writer.append('+').append(tile.toString()).append('\n');
+                    lines++;
+                }
+                for (QueuedTile tile : tiles) {
+                    writer.append('+').append(tile.toString()).append('\n');
+                    lines++;
+                }
+            }
+            try {
+                Files.move(tmp, journal, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, journal, StandardCopyOption.REPLACE_EXISTING);
+            }
+            journalLines = lines;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app;
+
+import com.codahale.metrics.CachedGauge;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.azahnen.dagger.annotations.AutoBind;
+import com.google.common.collect.ImmutableMap;
+import dagger.Lazy;
+import de.ii.ogcapi.foundation.domain.ExtensionConfiguration;
+import de.ii.ogcapi.foundation.domain.OgcApi;
+import de.ii.ogcapi.foundation.domain.OgcApiDataV2;
+import de.ii.ogcapi.tiles.domain.StoredTiles;
+import de.ii.ogcapi.tiles.domain.Tile;
+import de.ii.ogcapi.tiles.domain.TileCache;
+import de.ii.ogcapi.tiles.domain.TileStatistics;
+import de.ii.ogcapi.tiles.domain.TilesConfiguration;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetRepository;
+import de.ii.xtraplatform.base.domain.AppConfiguration;
+import de.ii.xtraplatform.store.domain.entities.EntityRegistry;
+import de.ii.xtraplatform.store.domain.entities.ValidationResult;
+import de.ii.xtraplatform.store.domain.entities.ValidationResult.MODE;
+import de.ii.xtraplatform.web.domain.DropwizardPlugin;
+import io.dropwizard.servlets.tasks.Task;
+import io.dropwizard.setup.Environment;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The statistics are registered as metrics in the metrics registry of the server with the names
+ * "tiles.{apiId}.{collectionId|__all__}.{tileMatrixSetId}.{zoomLevel}.{metric}" and are also available as JSON
+ * from the admin task "tile-statistics" with the parameter "api" and the optional parameters "collection" and
+ * "tileMatrixSet". In the names of the metrics, "." in the ids is escaped as "%2E" and "%" as "%25". The number of
+ * stored tiles is determined from the tile cache, at most every 15 minutes for the metrics and on each request for
+ * the task.
+ *
+ * The metrics of an API are removed, when the API is started again, and with the next refresh of the stored tiles,
+ * after the API has been removed.
+ */
+@Singleton
+@AutoBind
+public class TileStatisticsImpl extends Task implements TileStatistics, DropwizardPlugin {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TileStatisticsImpl.class);
+    private static final String METRICS_PREFIX = "tiles";
+    private static final String DATASET_TILE_SET = "__all__";
+    private static final long STORED_TILES_REFRESH_MINUTES = 15;
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final Lazy<TileCache> tileCache;
+    private final EntityRegistry entityRegistry;
+    private final TileMatrixSetRepository tileMatrixSetRepository;
+    // the metrics per zoom level, the key is "{apiId}/{collectionId|__all__}/{tileMatrixSetId}/{zoomLevel}"
+    private final Map<String, LevelStatistics> levels;
+    // the stored tiles per tile set, the key is "{apiId}/{collectionId|__all__}/{tileMatrixSetId}"
+    private final Map<String, CachedGauge<StoredTiles>> storedTiles;
+    private MetricRegistry metrics;
+    private ObjectMapper objectMapper;
+
+    @Inject
+    public TileStatisticsImpl(Lazy<TileCache> tileCache,
+                              EntityRegistry entityRegistry,
+                              TileMatrixSetRepository tileMatrixSetRepository) {
+        super("tile-statistics");
+        this.tileCache = tileCache;
+        this.entityRegistry = entityRegistry;
+        this.tileMatrixSetRepository = tileMatrixSetRepository;
+        this.levels = new ConcurrentHashMap<>();
+        this.storedTiles = new ConcurrentHashMap<>();
+        this.metrics = new MetricRegistry();
+        this.objectMapper = new ObjectMapper();
+    }
+
+    @Override
+    public void init(AppConfiguration configuration, Environment environment) {
+        this.metrics = environment.metrics();
+        this.objectMapper = environment.getObjectMapper();
+        environment.admin().addTask(this);
+    }
+
+    @Override
+    public Class<? extends ExtensionConfiguration> getBuildingBlockConfigurationType() {
+        return TilesConfiguration.class;
+    }
+
+    /**
+     * the metrics of a previous start of the API refer to the previous configuration
+     */
+    @Override
+    public ValidationResult onStartup(OgcApi api, MODE apiValidation) {
+        removeMetrics(api.getId());
+        return ValidationResult.of();
+    }
+
+    @Override
+    public void recordCacheAccess(Tile tile, boolean hit) {
+        Optional<String> collectionId = tile.isDatasetTile() ? Optional.empty() : Optional.ofNullable(tile.getCollectionId());
+        LevelStatistics statistics = getLevelStatistics(tile.getApiData().getId(), collectionId, tile.getTileMatrixSet(), tile.getTileLevel());
+        if (hit)
+            statistics.hits.mark();
+        else
+            statistics.misses.mark();
+    }
+
+    @Override
+    public void recordGeneration(Tile tile, String collectionId, long durationNanos, int size, long features) {
+        LevelStatistics statistics = getLevelStatistics(tile.getApiData().getId(), Optional.ofNullable(collectionId), tile.getTileMatrixSet(), tile.getTileLevel());
+        statistics.generation.update(durationNanos, TimeUnit.NANOSECONDS);
+        statistics.sizes.update(size);
+        statistics.features.update(features);
+    }
+
+    @Override
+    public void execute(Map<String, List<String>> parameters, PrintWriter output) throws Exception {
+        Optional<String> apiId = getParameter(parameters, "api");
+        if (apiId.isEmpty()) {
+            output.println("No api id given");
+            output.flush();
+            return;
+        }
+
+        Optional<OgcApi> api = entityRegistry.getEntity(OgcApi.class, apiId.get());
+        if (api.isEmpty()) {
+            output.println("No api with the given id found");
+            output.flush();
+            return;
+        }
+
+        Optional<String> collectionId = getParameter(parameters, "collection");
+        Optional<String> tileMatrixSetId = getParameter(parameters, "tileMatrixSet");
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("apiId", apiId.get());
+        result.put("tileSets", getTileSets(api.get().getData(), collectionId)
+            .flatMap(tileSet -> getTileMatrixSets(api.get().getData(), tileSet, tileMatrixSetId)
+                .map(tileMatrixSet -> getStatistics(api.get(), tileSet, tileMatrixSet)))
+            .collect(Collectors.toUnmodifiableList()));
+
+        output.println(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(result));
+        output.flush();
+    }
+
+    /**
+     * the dataset, if multi-collection tiles are enabled, and the collections with single-collection tiles
+     */
+    private static Stream<Optional<String>> getTileSets(OgcApiDataV2 apiData, Optional<String> collectionId) {
+        return Stream.concat(Stream.of(Optional.<String>empty()),
+                             apiData.getCollections().keySet().stream().map(Optional::of))
+                     .filter(tileSet -> collectionId.isEmpty() || tileSet.equals(collectionId))
+                     .filter(tileSet -> getConfiguration(apiData, tileSet).isPresent());
+    }
+
+    private Stream<TileMatrixSet> getTileMatrixSets(OgcApiDataV2 apiData, Optional<String> tileSet, Optional<String> tileMatrixSetId) {
+        return getConfiguration(apiData, tileSet).map(config -> config.getZoomLevelsDerived().keySet().stream())
+                                                 .orElse(Stream.empty())
+                                                 .filter(tmsId -> tileMatrixSetId.isEmpty() || tmsId.equals(tileMatrixSetId.get()))
+                                                 .map(tileMatrixSetRepository::get)
+                                                 .flatMap(Optional::stream);
+    }
+
+    private static Optional<TilesConfiguration> getConfiguration(OgcApiDataV2 apiData, Optional<String> tileSet) {
+        return (tileSet.isEmpty()
+            ? apiData.getExtension(TilesConfiguration.class).filter(TilesConfiguration::isMultiCollectionEnabled)
+            : apiData.getExtension(TilesConfiguration.class, tileSet.get()).filter(TilesConfiguration::isSingleCollectionEnabled))
+            .filter(TilesConfiguration::isEnabled);
+    }
+
+    private Map<String, Object> getStatistics(OgcApi api, Optional<String> tileSet, TileMatrixSet tileMatrixSet) {
+        String apiId = api.getId();
+        Map<Integer, StoredTiles> stored = getStoredTiles(apiId, tileSet, tileMatrixSet);
+        StoredTiles total = stored.values().stream().reduce(StoredTiles.NONE, StoredTiles::add);
+
+        Map<String, Object> zoomLevels = new LinkedHashMap<>();
+        for (int level = tileMatrixSet.getMinLevel(); level <= tileMatrixSet.getMaxLevel(); level++) {
+            LevelStatistics statistics = levels.get(getKey(apiId, tileSet, tileMatrixSet.getId(), level));
+            StoredTiles storedOnLevel = stored.getOrDefault(level, StoredTiles.NONE);
+            if (Objects.isNull(statistics) && storedOnLevel.getTiles() == 0)
+                continue;
+
+            Map<String, Object> levelResult = new LinkedHashMap<>();
+            levelResult.put("storedTiles", storedOnLevel.getTiles());
+            levelResult.put("storedBytes", storedOnLevel.getBytes());
+            if (Objects.nonNull(statistics)) {
+                levelResult.put("cacheHits", statistics.hits.getCount());
+                levelResult.put("cacheMisses", statistics.misses.getCount());
+                levelResult.put("cacheHitRatio", statistics.getHitRatio());
+                levelResult.put("generationMillis", getSummary(statistics.generation.getCount(), statistics.generation.getSnapshot(), 1.0 / NANOS_PER_MILLI));
+                levelResult.put("sizeBytes", getSummary(statistics.sizes.getCount(), statistics.sizes.getSnapshot(), 1.0));
+                levelResult.put("features", getSummary(statistics.features.getCount(), statistics.features.getSnapshot(), 1.0));
+            }
+            zoomLevels.put(String.valueOf(level), levelResult);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("collectionId", tileSet.orElse(DATASET_TILE_SET));
+        result.put("tileMatrixSetId", tileMatrixSet.getId());
+        result.put("storedTiles", total.getTiles());
+        result.put("storedBytes", total.getBytes());
+        result.put("zoomLevels", zoomLevels);
+        return result;
+    }
+
+    private static Map<String, Object> getSummary(long count, Snapshot snapshot, double factor) {
+        return ImmutableMap.<String, Object>builder()
+                           .put("count", count)
+                           .put("mean", snapshot.getMean() * factor)
+                           .put("median", snapshot.getMedian() * factor)
+                           .put("p95", snapshot.get95thPercentile() * factor)
+                           .put("p99", snapshot.get99thPercentile() * factor)
+                           .put("max", snapshot.getMax() * factor)
+                           .build();
+    }
+
+    private LevelStatistics getLevelStatistics(String apiId, Optional<String> collectionId, TileMatrixSet tileMatrixSet, int level) {
+        registerStoredTiles(apiId, collectionId, tileMatrixSet);
+        return levels.computeIfAbsent(getKey(apiId, collectionId, tileMatrixSet.getId(), level), key -> {
+            String name = MetricRegistry.name(getMetricsName(apiId, collectionId, tileMatrixSet.getId()), String.valueOf(level));
+            LevelStatistics statistics = new LevelStatistics(metrics.meter(MetricRegistry.name(name, "cacheHits")),
+                                                             metrics.meter(MetricRegistry.name(name, "cacheMisses")),
+                                                             metrics.timer(MetricRegistry.name(name, "generation")),
+                                                             metrics.histogram(MetricRegistry.name(name, "sizeBytes")),
+                                                             metrics.histogram(MetricRegistry.name(name, "features")));
+            metrics.register(MetricRegistry.name(name, "cacheHitRatio"), new RatioGauge() {
+                @Override
+                protected Ratio getRatio() {
+                    return Ratio.of(statistics.hits.getCount(), statistics.hits.getCount() + statistics.misses.getCount());
+                }
+            });
+            return statistics;
+        });
+    }
+
+    private void registerStoredTiles(String apiId, Optional<String> collectionId, TileMatrixSet tileMatrixSet) {
+        storedTiles.computeIfAbsent(getKey(apiId, collectionId, tileMatrixSet.getId()), key -> {
+            CachedGauge<StoredTiles> total = new CachedGauge<>(STORED_TILES_REFRESH_MINUTES, TimeUnit.MINUTES) {
+                @Override
+                protected StoredTiles loadValue() {
+                    if (entityRegistry.getEntity(OgcApi.class, apiId).isEmpty()) {
+                        removeMetrics(apiId);
+                        return StoredTiles.NONE;
+                    }
+                    return getStoredTiles(apiId, collectionId, tileMatrixSet).values()
+                                                                             .stream()
+                                                                             .reduce(StoredTiles.NONE, StoredTiles::add);
+                }
+            };
+            String name = getMetricsName(apiId, collectionId, tileMatrixSet.getId());
+            metrics.register(MetricRegistry.name(name, "storedTiles"), (Gauge<Long>) () -> total.getValue().getTiles());
+            metrics.register(MetricRegistry.name(name, "storedBytes"), (Gauge<Long>) () -> total.getValue().getBytes());
+            return total;
+        });
+    }
+
+    private Map<Integer, StoredTiles> getStoredTiles(String apiId, Optional<String> collectionId, TileMatrixSet tileMatrixSet) {
+        Optional<OgcApi> api = entityRegistry.getEntity(OgcApi.class, apiId);
+        if (api.isEmpty())
+            return ImmutableMap.of();
+        try {
+            return tileCache.get().getStoredTiles(api.get(), collectionId, tileMatrixSet);
+        } catch (IOException | SQLException e) {
+            LOGGER.debug("Could not count the tiles of tile set '{}'. Reason: {}", getKey(apiId, collectionId, tileMatrixSet.getId()), e.getMessage());
+            return ImmutableMap.of();
+        }
+    }
+
+    private void removeMetrics(String apiId) {
+        String keyPrefix = apiId + "/";
+        levels.keySet().removeIf(key -> key.startsWith(keyPrefix));
+        storedTiles.keySet().removeIf(key -> key.startsWith(keyPrefix));
+        String namePrefix = MetricRegistry.name(METRICS_PREFIX, escape(apiId)) + ".";
+        metrics.removeMatching((name, metric) -> name.startsWith(namePrefix));
+    }
+
+    private static String getMetricsName(String apiId, Optional<String> collectionId, String tileMatrixSetId) {
+        return MetricRegistry.name(METRICS_PREFIX, escape(apiId), escape(collectionId.orElse(DATASET_TILE_SET)), escape(tileMatrixSetId));
+    }
+
+    // "." separates the parts of the names of the metrics
+    private static String escape(String id) {
+        return id.replace("%", "%25").replace(".", "%2E");
+    }
+
+    private static String getKey(String apiId, Optional<String> collectionId, String tileMatrixSetId) {
+        return String.join("/", apiId, collectionId.orElse(DATASET_TILE_SET), tileMatrixSetId);
+    }
+
+    private static String getKey(String apiId, Optional<String> collectionId, String tileMatrixSetId, int level) {
+        return String.join("/", apiId, collectionId.orElse(DATASET_TILE_SET), tileMatrixSetId, String.valueOf(level));
+    }
+
+    private static Optional<String> getParameter(Map<String, List<String>> parameters, String name) {
+        List<String> values = parameters.get(name);
+        return Objects.isNull(values) ? Optional.empty() : values.stream().findFirst();
+    }
+
+    private static class LevelStatistics {
+
+        private final Meter hits;
+        private final Meter misses;
+        private final Timer generation;
+        private final Histogram sizes;
+        private final Histogram features;
+
+        LevelStatistics(Meter hits, Meter misses, Timer generation, Histogram sizes, Histogram features) {
+            this.hits = hits;
+            this.misses = misses;
+            this.generation = generation;
+            this.sizes = sizes;
+            this.features = features;
+        }
+
+        double getHitRatio() {
+            long requests = hits.getCount() + misses.getCount();
+            return requests == 0 ? 0.0 : (double) hits.getCount() / requests;
+        }
+    }
+}
@@ -34,6 +34,7 @@ import de.ii.ogcapi.tiles.domain.TilePoint;
 import de.ii.ogcapi.tiles.domain.TileSet;
 import de.ii.ogcapi.tiles.domain.TilesConfiguration;
 import de.ii.ogcapi.tiles.domain.VectorLayer;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.ImmutableTileMatrixSetLimits;
 import de.ii.ogcapi.tiles.domain.tileMatrixSet.ImmutableTilesBoundingBox;
 import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
 import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimits;
@@ -255,6 +256,28 @@ public class TilesHelper {
         return Optional.empty();
     }
 
+    /**
+     * extend the ranges of tiles by the adjacent rows and columns, since the content of a tile includes the
+     * features in the buffer around the tile
+     * @param limitsList the ranges of tiles per tile matrix
+     * @param tileMatrixSet the tile matrix set
+     * @return the extended ranges, restricted to the tile matrices
+     */
+    public static List<TileMatrixSetLimits> withAdjacentTiles(List<TileMatrixSetLimits> limitsList, TileMatrixSet tileMatrixSet) {
+        return limitsList.stream()
+                         .map(limits -> {
+                             int level = Integer.parseInt(limits.getTileMatrix());
+                             return new ImmutableTileMatrixSetLimits.Builder()
+                                 .from(limits)
+                                 .minTileRow(Math.max(0, limits.getMinTileRow() - 1))
+                                 .maxTileRow(Math.min(tileMatrixSet.getRows(level) - 1, limits.getMaxTileRow() + 1))
+                                 .minTileCol(Math.max(0, limits.getMinTileCol() - 1))
+                                 .maxTileCol(Math.min(tileMatrixSet.getCols(level) - 1, limits.getMaxTileCol() + 1))
+                                 .build();
+                         })
+                         .collect(Collectors.toUnmodifiableList());
+    }
+
     /**
      * derive the bbox as a sequence left, bottom, right, upper
      * @param tileset the tile set metadata according to the OGC Tile Matrix Set standard
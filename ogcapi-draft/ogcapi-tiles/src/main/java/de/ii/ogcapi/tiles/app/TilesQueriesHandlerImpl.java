@@ -26,6 +26,7 @@ import de.ii.ogcapi.foundation.domain.QueriesHandler;
 import de.ii.ogcapi.foundation.domain.QueryHandler;
 import de.ii.ogcapi.foundation.domain.QueryInput;
 import de.ii.ogcapi.html.domain.HtmlConfiguration;
+import de.ii.ogcapi.tiles.domain.CachedTile;
 import de.ii.ogcapi.tiles.domain.FeatureTransformationContextTiles;
 import de.ii.ogcapi.tiles.domain.ImmutableFeatureTransformationContextTiles;
 import de.ii.ogcapi.tiles.domain.ImmutableTileSets;
@@ -41,6 +42,7 @@ import de.ii.ogcapi.tiles.domain.TileSet.DataType;
 import de.ii.ogcapi.tiles.domain.TileSetFormatExtension;
 import de.ii.ogcapi.tiles.domain.TileSets;
 import de.ii.ogcapi.tiles.domain.TileSetsFormatExtension;
+import de.ii.ogcapi.tiles.domain.TileStatistics;
 import de.ii.ogcapi.tiles.domain.TilesQueriesHandler;
 import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
 import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimitsGenerator;
@@ -61,7 +63,6 @@ import de.ii.xtraplatform.store.domain.entities.PersistentEntity;
 import de.ii.xtraplatform.streams.domain.OutputStreamToByteConsumer;
 import de.ii.xtraplatform.streams.domain.Reactive.Sink;
 import de.ii.xtraplatform.streams.domain.Reactive.SinkReduced;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -86,6 +87,7 @@ import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
@@ -108,6 +110,10 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
     private final StaticTileProviderStore staticTileProviderStore;
     private final FeaturesCoreProviders providers;
     private final TileMatrixSetRepository tileMatrixSetRepository;
+    private final TileStatistics tileStatistics;
+    // concurrent requests for the same tile share the generation of the tile
+    private final SingleFlight<List<Object>, ResultReduced<byte[]>> singleLayerTiles;
+    private final SingleFlight<List<Object>, TileFormatWithQuerySupportExtension.MultiLayerTileContent> multiLayerTiles;
 
     @Inject
     public TilesQueriesHandlerImpl(I18n i18n,
@@ -118,7 +124,8 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
                                    TileCache tileCache,
                                    StaticTileProviderStore staticTileProviderStore,
                                    FeaturesCoreProviders providers,
-                                   TileMatrixSetRepository tileMatrixSetRepository) {
+                                   TileMatrixSetRepository tileMatrixSetRepository,
+                                   TileStatistics tileStatistics) {
         this.i18n = i18n;
         this.crsTransformerFactory = crsTransformerFactory;
         this.entityRegistry = entityRegistry;
@@ -128,6 +135,9 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
         this.staticTileProviderStore = staticTileProviderStore;
         this.providers = providers;
         this.tileMatrixSetRepository = tileMatrixSetRepository;
+        this.tileStatistics = tileStatistics;
+        this.singleLayerTiles = new SingleFlight<>();
+        this.multiLayerTiles = new SingleFlight<>();
 
         this.queryHandlers = ImmutableMap.<Query, QueryHandler<? extends QueryInput>>builder()
             .put(Query.TILE_SETS, QueryHandler.with(QueryInputTileSets.class, this::getTileSetsResponse))
@@ -342,7 +352,9 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
                     .apiData(apiData)
                     .featureSchema(featureProvider.getData().getTypes().get(featureTypeId))
                     .tile(tile)
+                    .metatile(queryInput.getMetatile())
                     .tileCache(tileCache)
+                    .tileStatistics(tileStatistics)
                     .collectionId(collectionId)
                     .ogcApiRequest(requestContext)
                     .crsTransformer(crsTransformer)
@@ -366,10 +378,10 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
 
         if (outputFormat.supportsFeatureQuery() && encoder.isPresent()) {
 
-            FeatureStream featureStream = featureProvider.queries().getFeatureStream(query);
-
-            ResultReduced<byte[]> result = generateTile(featureStream, encoder.get(),
-                transformationContext, outputFormat);
+            ResultReduced<byte[]> result = singleLayerTiles.execute(getTileKey(tile, query), () -> {
+                FeatureStream featureStream = featureProvider.queries().getFeatureStream(query);
+                return generateTile(featureStream, encoder.get(), transformationContext, outputFormat);
+            });
 
             // internal processing, no need to process headers
             return prepareSuccessResponse(requestContext.getApi(), requestContext, null)
@@ -381,12 +393,8 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
     }
 
     private Response getMultiLayerTileResponse(QueryInputTileMultiLayer queryInput, ApiRequestContext requestContext) {
-        OgcApi api = requestContext.getApi();
-        OgcApiDataV2 apiData = api.getData();
         Tile multiLayerTile = queryInput.getTile();
-        List<String> collectionIds = multiLayerTile.getCollectionIds();
         Map<String, FeatureQuery> queryMap = queryInput.getQueryMap();
-        Map<String, Tile> singleLayerTileMap = queryInput.getSingleLayerTileMap();
         FeatureProvider2 featureProvider = multiLayerTile.getFeatureProvider().get();
         TileMatrixSet tileMatrixSet = multiLayerTile.getTileMatrixSet();
         int tileLevel = multiLayerTile.getTileLevel();
@@ -413,6 +421,47 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
                                                                      i18n,
                                                                      requestContext.getLanguage());
 
+        final Optional<CrsTransformer> finalCrsTransformer = crsTransformer;
+        TileFormatWithQuerySupportExtension.MultiLayerTileContent result = multiLayerTiles.execute(
+            getTileKey(multiLayerTile, queryMap),
+            () -> generateMultiLayerTile(queryInput, requestContext, outputFormat, finalCrsTransformer, links));
+
+        Date lastModified = null;
+        EntityTag etag = getEtag(result.byteArray);
+        Response.ResponseBuilder response = evaluatePreconditions(requestContext, lastModified, etag);
+        if (Objects.nonNull(response))
+            return response.build();
+
+        return prepareSuccessResponse(requestContext,
+                                      queryInput.getIncludeLinkHeader() ? links : null,
+                                      lastModified,
+                                      etag,
+                                      queryInput.getCacheControl().orElse(null),
+                                      queryInput.getExpires().orElse(null),
+                                      null,
+                                      true,
+                                      String.format("%s_%d_%d_%d.%s", tileMatrixSet.getId(), tileLevel, tileRow, tileCol, outputFormat.getMediaType().fileExtension()))
+                .entity(result.byteArray)
+                .build();
+    }
+
+    private TileFormatWithQuerySupportExtension.MultiLayerTileContent generateMultiLayerTile(QueryInputTileMultiLayer queryInput,
+                                                                                            ApiRequestContext requestContext,
+                                                                                            TileFormatWithQuerySupportExtension outputFormat,
+                                                                                            Optional<CrsTransformer> crsTransformer,
+                                                                                            List<Link> links) {
+        OgcApi api = requestContext.getApi();
+        OgcApiDataV2 apiData = api.getData();
+        Tile multiLayerTile = queryInput.getTile();
+        List<String> collectionIds = multiLayerTile.getCollectionIds();
+        Map<String, FeatureQuery> queryMap = queryInput.getQueryMap();
+        Map<String, Tile> singleLayerTileMap = queryInput.getSingleLayerTileMap();
+        FeatureProvider2 featureProvider = multiLayerTile.getFeatureProvider().get();
+        TileMatrixSet tileMatrixSet = multiLayerTile.getTileMatrixSet();
+        int tileLevel = multiLayerTile.getTileLevel();
+        int tileRow = multiLayerTile.getTileRow();
+        int tileCol = multiLayerTile.getTileCol();
+
         Map<String, ByteArrayOutputStream> byteArrayMap = new HashMap<>();
 
         for (String collectionId : collectionIds) {
@@ -450,6 +499,7 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
                         .featureSchema(featureProvider.getData().getTypes().get(featureTypeId))
                         .tile(tile)
                         .tileCache(tileCache)
+                        .tileStatistics(tileStatistics)
                         .collectionId(collectionId)
                         .ogcApiRequest(requestContext)
                         .crsTransformer(crsTransformer)
@@ -473,10 +523,10 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
 
             if (outputFormat.supportsFeatureQuery() && encoder.isPresent()) {
 
-                FeatureStream featureStream = featureProvider.queries().getFeatureStream(query);
-
-                ResultReduced<byte[]> result = generateTile(featureStream, encoder.get(),
-                    transformationContext, outputFormat);
+                ResultReduced<byte[]> result = singleLayerTiles.execute(getTileKey(tile, query), () -> {
+                    FeatureStream featureStream = featureProvider.queries().getFeatureStream(query);
+                    return generateTile(featureStream, encoder.get(), transformationContext, outputFormat);
+                });
 
                 if (result.isSuccess()) {
                     byte[] bytes = result.reduced();
@@ -506,36 +556,40 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
             }
         }
 
-        Date lastModified = null;
-        EntityTag etag = getEtag(result.byteArray);
-        Response.ResponseBuilder response = evaluatePreconditions(requestContext, lastModified, etag);
-        if (Objects.nonNull(response))
-            return response.build();
+        return result;
+    }
 
-        return prepareSuccessResponse(requestContext,
-                                      queryInput.getIncludeLinkHeader() ? links : null,
-                                      lastModified,
-                                      etag,
-                                      queryInput.getCacheControl().orElse(null),
-                                      queryInput.getExpires().orElse(null),
-                                      null,
-                                      true,
-                                      String.format("%s_%d_%d_%d.%s", tileMatrixSet.getId(), tileLevel, tileRow, tileCol, outputFormat.getMediaType().fileExtension()))
-                .entity(result.byteArray)
-                .build();
+    /**
+     * @return the key for the tile that identifies concurrent requests for the same tile, format and parameters
+     */
+    private static List<Object> getTileKey(Tile tile, Object query) {
+        return ImmutableList.of(tile.getApiData().getId(),
+                                tile.isDatasetTile() ? "__all__" : tile.getCollectionId(),
+                                tile.getTileMatrixSet().getId(),
+                                tile.getTileLevel(),
+                                tile.getTileRow(),
+                                tile.getTileCol(),
+                                tile.getOutputFormat().getExtension(),
+                                query);
     }
 
     private Response getTileStreamResponse(QueryInputTileStream queryInput, ApiRequestContext requestContext) {
 
-        byte[] content;
-        try {
-            content = queryInput.getTileContent().readAllBytes();
-        } catch (IOException e) {
-            throw new RuntimeException("Could not read tile from cache.",e);
+        // the tile is from the cache, no need to read and hash the content; the entity tag is the one of the
+        // uncompressed content, the same as for the generated tile, also if the gzip-compressed content is sent
+        CachedTile cachedTile = queryInput.getCachedTile();
+        EntityTag etag = new EntityTag(cachedTile.getEtag(), false);
+        StreamingOutput streamingOutput;
+        if (queryInput.getContentGzipped() || !cachedTile.isGzipped()) {
+            streamingOutput = cachedTile::writeStoredContent;
+        } else {
+            streamingOutput = outputStream -> {
+                try (InputStream content = cachedTile.getContentStream()) {
+                    ByteStreams.copy(content, outputStream);
+                }
+            };
         }
 
-        StreamingOutput streamingOutput = outputStream -> ByteStreams.copy(new ByteArrayInputStream(content), outputStream);
-
         List<Link> links = new DefaultLinksGenerator().generateLinks(requestContext.getUriCustomizer(),
                                                                      requestContext.getMediaType(),
                                                                      requestContext.getAlternateMediaTypes(),
@@ -544,22 +598,40 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
 
         Date lastModified = queryInput.getLastModified()
                                       .orElse(null);
-        EntityTag etag = getEtag(content);
         Response.ResponseBuilder response = evaluatePreconditions(requestContext, lastModified, etag);
-        if (Objects.nonNull(response))
+        if (Objects.nonNull(response)) {
+            // the content is not sent
+            try {
+                cachedTile.close();
+            } catch (IOException e) {
+                LOGGER.debug("Could not close the cached tile: {}", e.getMessage());
+            }
             return response.build();
+        }
 
         Tile tile = queryInput.getTile();
-        return prepareSuccessResponse(requestContext,
+        response = prepareSuccessResponse(requestContext,
                                       queryInput.getIncludeLinkHeader() ? links : null,
                                       lastModified, etag,
-                                      queryInput.getCacheControl().orElse(null),
-                                      queryInput.getExpires().orElse(null),
+                                      cachedTile.isStale() ? "no-cache" : queryInput.getCacheControl().orElse(null),
+                                      cachedTile.isStale() ? null : queryInput.getExpires().orElse(null),
                                       null,
                                       true,
                                       String.format("%s_%d_%d_%d.%s", tile.getTileMatrixSet().getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(), tile.getOutputFormat().getMediaType().fileExtension()))
-                .entity(streamingOutput)
-                .build();
+                .entity(streamingOutput);
+
+        if (cachedTile.isStale()) {
+            // the tile is generated again, clients and proxies must not reuse the response without revalidation
+            response.header("Warning", "110 - \"Response is Stale\"");
+        }
+
+        if (queryInput.getContentGzipped()) {
+            // pass the stored gzip-compressed content through as is
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+
+        return response.build();
     }
 
     private Response getMbtilesTileResponse(QueryInputTileMbtilesTile queryInput, ApiRequestContext requestContext) {
@@ -713,7 +785,8 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
                 .toCompletableFuture()
                 .join();
 
-            if (result.isSuccess()) {
+            // the tiles of a metatile have already been written by the encoder
+            if (result.isSuccess() && transformationContext.metatile().isEmpty()) {
                 Tile tile = transformationContext.tile();
                 try {
                     // write/update tile in cache
@@ -722,7 +795,7 @@ public class TilesQueriesHandlerImpl implements TilesQueriesHandler {
                     String msg = "Failure to write the multi-layer file of tile {}/{}/{}/{} in dataset '{}', format '{}' to the cache";
                     LogContext.errorAsInfo(LOGGER, e, msg, tile.getTileMatrixSet().getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(), transformationContext.getApiData().getId(), outputFormat.getExtension());
                 }
-            } else {
+            } else if (!result.isSuccess()) {
                 result.getError()
                     .ifPresent(QueriesHandler::processStreamError);
             }
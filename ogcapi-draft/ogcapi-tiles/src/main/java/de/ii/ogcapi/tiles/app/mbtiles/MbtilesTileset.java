@@ -13,7 +13,13 @@ import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import de.ii.ogcapi.tiles.app.EmptyTileBitmap;
+import de.ii.ogcapi.tiles.domain.CachedTile;
+import de.ii.ogcapi.tiles.domain.ImmutableStoredTiles;
+import de.ii.ogcapi.tiles.domain.StoredTiles;
 import de.ii.ogcapi.tiles.domain.Tile;
+import de.ii.ogcapi.tiles.domain.TileBitmap;
 import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
 import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimits;
 import org.slf4j.Logger;
@@ -30,30 +36,76 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
-import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 public class MbtilesTileset {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MbtilesTileset.class);
     private static final int EMPTY_TILE_ID = 1;
-    private Connection connection = null;
+    private static final int MAX_READ_CONNECTIONS = Math.max(2, Math.min(Runtime.getRuntime().availableProcessors(), 16));
+    private static final int BATCH_SIZE = 200;
+    private static final long BATCH_DELAY_MILLISECONDS = 1000;
+    private static final ScheduledExecutorService BATCH_WRITER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mbtiles-batch-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // the single connection that is used for all write operations, guarded by the mutex
+    private volatile Connection connection = null;
+    // pooled read-only connections, in WAL mode readers do not block the writer and vice versa
+    private final BlockingQueue<Connection> readConnections = new LinkedBlockingQueue<>();
+    private final AtomicInteger readConnectionCount = new AtomicInteger(0);
     private final Path tilesetPath;
     private final Semaphore mutex = new Semaphore(1);
     private final MbtilesMetadata metadata;
+    private boolean schemaChecked = false;
+    // MBTiles files of static tile providers or of older versions do not support stale tiles
+    private volatile Boolean hasStaleColumn = null;
+    // tiles that still have to be written to the file, the key is "level/tmsRow/col"
+    private final Map<String, PendingTile> pendingTiles = new ConcurrentHashMap<>();
+    // empty tiles are not stored in the tile map, rows are TMS rows
+    private final EmptyTileBitmap emptyTiles;
+    // access times (seconds since the epoch) of tiles that still have to be written to the file, same keys
+    private final Map<String, Long> pendingAccesses = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    private static final class PendingTile {
+        private final Tile tile;
+        private final byte[] content;
+
+        private PendingTile(Tile tile, byte[] content) {
+            this.tile = tile;
+            this.content = content;
+        }
+    }
 
     public MbtilesTileset(Path tilesetPath) {
         if (!Files.exists(tilesetPath)) {
             throw new RuntimeException(String.format("Mbtiles file does not exist: %s", tilesetPath));
         }
         this.tilesetPath = tilesetPath;
+        this.emptyTiles = EmptyTileBitmap.load(getEmptyTilesPath(tilesetPath));
         try {
             this.metadata = getMetadata();
         } catch (SQLException | IOException e) {
@@ -67,11 +119,23 @@ public class MbtilesTileset {
         }
         this.tilesetPath = tilesetPath;
         this.metadata = metadata;
+        // a left-over file of a previous MBTiles file must not be used
+        Files.deleteIfExists(getEmptyTilesPath(tilesetPath));
+        this.emptyTiles = EmptyTileBitmap.load(getEmptyTilesPath(tilesetPath));
 
         // create and init MBTiles DB
         releaseConnection(getConnection(true));
     }
 
+    private static Path getEmptyTilesPath(Path tilesetPath) {
+        return tilesetPath.resolveSibling(tilesetPath.getFileName() + ".empty");
+    }
+
+    private boolean isEmptyTile(Tile tile) {
+        int level = tile.getTileLevel();
+        return tile.getOutputFormat().getSupportsEmptyTile() && emptyTiles.contains(level, tile.getTileMatrixSet().getTmsRow(level, tile.getTileRow()), tile.getTileCol());
+    }
+
     private void initMbtilesDb(MbtilesMetadata metadata, Connection connection) {
         try {
             // create tables and views
@@ -79,7 +143,9 @@ public class MbtilesTileset {
             SqlHelper.execute(connection, "CREATE TABLE metadata (name text, value text)");
             SqlHelper.execute(connection, "CREATE TABLE tile_map (zoom_level integer, tile_column integer, tile_row integer, tile_id integer)");
             SqlHelper.execute(connection, "CREATE UNIQUE INDEX tile_index on tile_map (zoom_level, tile_column, tile_row)");
-            SqlHelper.execute(connection, "CREATE TABLE tile_blobs (tile_id integer primary key, tile_data blob)");
+            SqlHelper.execute(connection, "CREATE INDEX tile_id_index on tile_map (tile_id)");
+            SqlHelper.execute(connection, "CREATE TABLE tile_blobs (tile_id integer primary key, tile_data blob, tile_hash text)");
+            SqlHelper.execute(connection, "CREATE INDEX tile_hash_index on tile_blobs (tile_hash)");
             SqlHelper.execute(connection, "CREATE VIEW tiles AS SELECT zoom_level, tile_column, tile_row, tile_data FROM tile_map INNER JOIN tile_blobs ON tile_map.tile_id = tile_blobs.tile_id");
 
             // populate metadata
@@ -128,7 +194,7 @@ public class MbtilesTileset {
     }
 
     private Connection getConnection(boolean aquireMutexOnCreate) throws IOException {
-        // we use a single connection per database to avoid multi-threading conflicts
+        // we use a single write connection per database to avoid multi-threading conflicts
 
         // check, if the file exists
         if (!Files.exists(tilesetPath)) {
@@ -145,6 +211,9 @@ public class MbtilesTileset {
                 if (!Files.exists(tilesetPath)) {
                     // recreate an empty MBTiles container
                     LOGGER.trace("Creating MBTiles file '{}'.", tilesetPath);
+                    closeReadConnections();
+                    schemaChecked = false;
+                    hasStaleColumn = null;
                     Files.createDirectories(tilesetPath.getParent());
                     connection = SqlHelper.getConnection(tilesetPath.toFile());
                     initMbtilesDb(metadata, connection);
@@ -160,198 +229,801 @@ public class MbtilesTileset {
                 }
             }
         } else if (Objects.isNull(connection)) {
-            connection = SqlHelper.getConnection(tilesetPath.toFile());
+            openWriteConnection();
         }
 
         return connection;
     }
 
+    private synchronized void openWriteConnection() {
+        // the connection may have been opened by a parallel request
+        if (Objects.isNull(connection)) {
+            connection = SqlHelper.getConnection(tilesetPath.toFile());
+        }
+    }
+
+    /**
+     * Tile caches created by older versions do not support the deduplication of tile blobs. Before the first
+     * write operation, the hash column and the indexes are added, if necessary.
+     */
+    private void checkSchema(Connection connection) throws SQLException {
+        if (schemaChecked) {
+            return;
+        }
+        boolean hasHashColumn = false;
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("PRAGMA table_info(tile_blobs)")) {
+            while (rs.next()) {
+                if ("tile_hash".equals(rs.getString("name"))) {
+                    hasHashColumn = true;
+                }
+            }
+        }
+        if (!hasHashColumn) {
+            LOGGER.debug("Adding support for deduplicated tiles to MBTiles file '{}'.", tilesetPath);
+            SqlHelper.execute(connection, "ALTER TABLE tile_blobs ADD COLUMN tile_hash text");
+        }
+        SqlHelper.execute(connection, "CREATE INDEX IF NOT EXISTS tile_hash_index on tile_blobs (tile_hash)");
+        SqlHelper.execute(connection, "CREATE INDEX IF NOT EXISTS tile_id_index on tile_map (tile_id)");
+        boolean hasAccessColumn = false;
+        boolean hasStaleColumn = false;
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("PRAGMA table_info(tile_map)")) {
+            while (rs.next()) {
+                if ("last_access".equals(rs.getString("name"))) {
+                    hasAccessColumn = true;
+                } else if ("stale".equals(rs.getString("name"))) {
+                    hasStaleColumn = true;
+                }
+            }
+        }
+        if (!hasAccessColumn) {
+            LOGGER.debug("Adding support for access times of tiles to MBTiles file '{}'.", tilesetPath);
+            SqlHelper.execute(connection, "ALTER TABLE tile_map ADD COLUMN last_access integer");
+        }
+        SqlHelper.execute(connection, "CREATE INDEX IF NOT EXISTS tile_access_index on tile_map (last_access)");
+        if (!hasStaleColumn) {
+            LOGGER.debug("Adding support for stale tiles to MBTiles file '{}'.", tilesetPath);
+            SqlHelper.execute(connection, "ALTER TABLE tile_map ADD COLUMN stale integer");
+        }
+        this.hasStaleColumn = true;
+        schemaChecked = true;
+    }
+
+    private boolean hasStaleColumn(Connection connection) throws SQLException {
+        if (Objects.isNull(hasStaleColumn)) {
+            boolean found = false;
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery("PRAGMA table_info(tile_map)")) {
+                while (rs.next()) {
+                    if ("stale".equals(rs.getString("name"))) {
+                        found = true;
+                    }
+                }
+            }
+            hasStaleColumn = found;
+        }
+        return hasStaleColumn;
+    }
+
+    /**
+     * @return the SQL condition that excludes stale tiles, if the MBTiles file supports stale tiles
+     */
+    private String notStale(Connection connection) throws SQLException {
+        return hasStaleColumn(connection) ? " AND coalesce(stale,0)=0" : "";
+    }
+
+    private void deleteTileBlobIfUnused(Connection connection, int tile_id) throws SQLException {
+        // tile blobs are shared by all tiles with the same content, only delete the blob with the last reference
+        try (PreparedStatement statement = connection.prepareStatement("DELETE FROM tile_blobs WHERE tile_id=? AND NOT EXISTS (SELECT 1 FROM tile_map WHERE tile_id=?)")) {
+            statement.setInt(1, tile_id);
+            statement.setInt(2, tile_id);
+            statement.execute();
+        }
+    }
+
+    private String getPendingTileKey(Tile tile) {
+        int level = tile.getTileLevel();
+        return String.join("/", String.valueOf(level), String.valueOf(tile.getTileMatrixSet().getTmsRow(level, tile.getTileRow())), String.valueOf(tile.getTileCol()));
+    }
+
+    private void closeReadConnections() {
+        // connections to a file that no longer exists cannot be reused
+        Connection readConnection;
+        while (Objects.nonNull(readConnection = readConnections.poll())) {
+            readConnectionCount.decrementAndGet();
+            try {
+                readConnection.close();
+            } catch (SQLException e) {
+                LOGGER.debug("Could not close read connection for MBTiles file '{}': {}", tilesetPath, e.getMessage());
+            }
+        }
+    }
+
+    private Connection getReadConnection() throws IOException {
+        // make sure that the file exists before a read-only connection is opened; existing files are not
+        // modified, static Mbtiles files are only read
+        if (!Files.exists(tilesetPath)) {
+            getConnection(true);
+        }
+
+        Connection readConnection = readConnections.poll();
+        if (Objects.nonNull(readConnection)) {
+            return readConnection;
+        }
+
+        if (readConnectionCount.incrementAndGet() <= MAX_READ_CONNECTIONS) {
+            LOGGER.trace("Opening read connection {} for MBTiles file '{}'.", readConnectionCount.get(), tilesetPath);
+            try {
+                return SqlHelper.getConnection(tilesetPath.toFile(), true);
+            } catch (RuntimeException e) {
+                // the connection has not been opened, release the slot in the pool
+                readConnectionCount.decrementAndGet();
+                throw e;
+            }
+        }
+        readConnectionCount.decrementAndGet();
+
+        try {
+            readConnection = readConnections.poll(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            LOGGER.debug("getReadConnection: Thread has been interrupted.");
+            Thread.currentThread().interrupt();
+        }
+        if (Objects.isNull(readConnection))
+            throw new RuntimeException(String.format("Could not obtain a read connection for MBTiles file: %s", tilesetPath));
+        return readConnection;
+    }
+
     private void releaseConnection(@Nullable Connection connection) {
-        // nothing to do
+        // the write connection is kept open, read connections are returned to the pool
+        if (Objects.nonNull(connection) && connection != this.connection) {
+            readConnections.offer(connection);
+        }
     }
 
     public MbtilesMetadata getMetadata() throws SQLException, IOException {
         ImmutableMbtilesMetadata.Builder builder = ImmutableMbtilesMetadata.builder();
-        Connection connection = getConnection(true);
-        ResultSet rs = SqlHelper.executeQuery(connection, "SELECT name, value FROM metadata");
-        while (rs.next()) {
-            final String name = rs.getString("name");
-            final String value = rs.getString("value");
-            if (Objects.nonNull(value)) {
-                switch (name) {
-                    case "name":
-                        builder.name(value);
-                        break;
-                    case "format":
-                        MbtilesMetadata.MbtilesFormat format = MbtilesMetadata.MbtilesFormat.of(value);
-                        if (Objects.isNull(format))
-                            throw new IllegalArgumentException(String.format("The metadata entry '%s' in an Mbtiles container has an invalid value '%s'", name, value));
-                        builder.format(format);
-                        break;
-                    case "bounds":
-                        List<Double> bounds = Splitter.on(',')
-                                                      .trimResults()
-                                                      .omitEmptyStrings()
-                                                      .splitToStream(value)
-                                                      .map(Double::parseDouble)
-                                                      .collect(Collectors.toUnmodifiableList());
-                        if (bounds.size()!=4)
-                            throw new IllegalArgumentException(String.format("The metadata entry '%s' in an Mbtiles container has an invalid value '%s'", name, value));
-                        builder.bounds(bounds);
-                        break;
-                    case "center":
-                        List<Double> center = Splitter.on(',')
-                                                      .trimResults()
-                                                      .omitEmptyStrings()
-                                                      .splitToStream(value)
-                                                      .map(Double::parseDouble)
-                                                      .collect(Collectors.toUnmodifiableList());
-                        if (center.size()!=3)
-                            throw new IllegalArgumentException(String.format("The metadata entry '%s' in an Mbtiles container has an invalid value '%s'", name, value));
-                        builder.center(center);
-                        break;
-                    case "minzoom":
-                        builder.minzoom(Integer.parseInt(value));
-                        break;
-                    case "maxzoom":
-                        builder.maxzoom(Integer.parseInt(value));
-                        break;
-                    case "description":
-                        builder.description(value);
-                        break;
-                    case "attribution":
-                        builder.attribution(value);
-                        break;
-                    case "type":
-                        MbtilesMetadata.MbtilesType type = MbtilesMetadata.MbtilesType.of(value);
-                        if (Objects.isNull(type))
-                            throw new IllegalArgumentException(String.format("The metadata entry '%s' in an Mbtiles container has an invalid value '%s'", name, value));
-                        builder.type(type);
-                        break;
-                    case "version":
-                        try {
-                            int v = Integer.parseInt(value);
-                            builder.version(v);
-                        } catch (NumberFormatException e) {
-                            builder.version(Float.parseFloat(value));
-                        }
-                        break;
-                    case "vector_layers":
-                        // TODO vector_layers
-                        break;
+        Connection connection = getReadConnection();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT name, value FROM metadata");
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                final String name = rs.getString("name");
+                final String value = rs.getString("value");
+                if (Objects.nonNull(value)) {
+                    switch (name) {
+                        case "name":
+                            builder.name(value);
+                            break;
+                        case "format":
+                            MbtilesMetadata.MbtilesFormat format = MbtilesMetadata.MbtilesFormat.of(value);
+                            if (Objects.isNull(format))
+                                throw new IllegalArgumentException(String.format("The metadata entry '%s' in an Mbtiles container has an invalid value '%s'", name, value));
+                            builder.format(format);
+                            break;
+                        case "bounds":
+                            List<Double> bounds = Splitter.on(',')
+                                                          .trimResults()
+                                                          .omitEmptyStrings()
+                                                          .splitToStream(value)
+                                                          .map(Double::parseDouble)
+                                                          .collect(Collectors.toUnmodifiableList());
+                            if (bounds.size()!=4)
+                                throw new IllegalArgumentException(String.format("The metadata entry '%s' in an Mbtiles container has an invalid value '%s'", name, value));
+                            builder.bounds(bounds);
+                            break;
+                        case "center":
+                            List<Double> center = Splitter.on(',')
+                                                          .trimResults()
+                                                          .omitEmptyStrings()
+                                                          .splitToStream(value)
+                                                          .map(Double::parseDouble)
+                                                          .collect(Collectors.toUnmodifiableList());
+                            if (center.size()!=3)
+                                throw new IllegalArgumentException(String.format("The metadata entry '%s' in an Mbtiles container has an invalid value '%s'", name, value));
+                            builder.center(center);
+                            break;
+                        case "minzoom":
+                            builder.minzoom(Integer.parseInt(value));
+                            break;
+                        case "maxzoom":
+                            builder.maxzoom(Integer.parseInt(value));
+                            break;
+                        case "description":
+                            builder.description(value);
+                            break;
+                        case "attribution":
+                            builder.attribution(value);
+                            break;
+                        case "type":
+                            MbtilesMetadata.MbtilesType type = MbtilesMetadata.MbtilesType.of(value);
+                            if (Objects.isNull(type))
+                                throw new IllegalArgumentException(String.format("The metadata entry '%s' in an Mbtiles container has an invalid value '%s'", name, value));
+                            builder.type(type);
+                            break;
+                        case "version":
+                            try {
+                                int v = Integer.parseInt(value);
+                                builder.version(v);
+                            } catch (NumberFormatException e) {
+                                builder.version(Float.parseFloat(value));
+                            }
+                            break;
+                        case "vector_layers":
+                            // TODO vector_layers
+                            break;
+                    }
                 }
             }
+        } finally {
+            releaseConnection(connection);
         }
-        releaseConnection(connection);
         return builder.build();
     }
 
     public Optional<InputStream> getTile(Tile tile) throws SQLException, IOException {
-        Optional<InputStream> result = Optional.empty();
+        Optional<CachedTile> cachedTile = getCachedTile(tile);
+        if (cachedTile.isEmpty())
+            return Optional.empty();
+        return Optional.of(cachedTile.get().getContentStream());
+    }
+
+    /**
+     * Fetch a tile as stored in the MBTiles file, that is, gzip-compressed, if the tile format is stored gzipped.
+     * Stale tiles are included and marked as stale.
+     *
+     * @param tile the tile
+     * @return the stored tile, if it is available
+     */
+    public Optional<CachedTile> getCachedTile(Tile tile) throws SQLException, IOException {
+        PendingTile pendingTile = pendingTiles.get(getPendingTileKey(tile));
+        if (Objects.nonNull(pendingTile)) {
+            return Optional.of(new CachedTile(pendingTile.content, false));
+        }
+        if (isEmptyTile(tile)) {
+            return Optional.of(new CachedTile(new byte[0], false));
+        }
+        Optional<CachedTile> result = Optional.empty();
         int level = tile.getTileLevel();
         int row = tile.getTileMatrixSet().getTmsRow(level, tile.getTileRow());
         int col = tile.getTileCol();
         boolean gzip = tile.getOutputFormat().getGzippedInMbtiles();
-        Connection connection = getConnection(true);
-        String sql = String.format("SELECT tile_data FROM tiles WHERE zoom_level=%d AND tile_row=%d AND tile_column=%d", level, row, col);
-        ResultSet rs = SqlHelper.executeQuery(connection, sql);
-        if (rs.next()) {
-            result = Optional.of(gzip ? new GZIPInputStream(rs.getBinaryStream("tile_data")) : rs.getBinaryStream("tile_data"));
+        Connection connection = getReadConnection();
+        boolean supportsStaleTiles = hasStaleColumn(connection);
+        String sql = supportsStaleTiles
+            ? "SELECT tile_data, stale FROM tile_map INNER JOIN tile_blobs ON tile_map.tile_id = tile_blobs.tile_id WHERE zoom_level=? AND tile_row=? AND tile_column=?"
+            : "SELECT tile_data FROM tiles WHERE zoom_level=? AND tile_row=? AND tile_column=?";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, level);
+            statement.setInt(2, row);
+            statement.setInt(3, col);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (rs.next()) {
+                    // read the blob before the connection is returned to the pool
+                    CachedTile cachedTile = new CachedTile(rs.getBytes("tile_data"), gzip);
+                    result = Optional.of(supportsStaleTiles && rs.getInt("stale") == 1 ? cachedTile.asStale() : cachedTile);
+                }
+            }
+        } finally {
+            releaseConnection(connection);
         }
-        releaseConnection(connection);
         return result;
     }
 
     public Optional<Boolean> tileIsEmpty(Tile tile) throws SQLException, IOException {
+        PendingTile pendingTile = pendingTiles.get(getPendingTileKey(tile));
+        if (Objects.nonNull(pendingTile)) {
+            return Optional.of(pendingTile.content.length==0 && tile.getOutputFormat().getSupportsEmptyTile());
+        }
+        if (isEmptyTile(tile)) {
+            return Optional.of(true);
+        }
         Optional<Boolean> result = Optional.empty();
-        Connection connection = getConnection(true);
         int level = tile.getTileLevel();
         int row = tile.getTileMatrixSet().getTmsRow(level, tile.getTileRow());
         int col = tile.getTileCol();
-        String sql = String.format("SELECT tile_id FROM tile_map WHERE zoom_level=%d AND tile_row=%d AND tile_column=%d", level, row, col);
-        ResultSet rs = SqlHelper.executeQuery(connection, sql);
-        if (rs.next()) {
-            result = Optional.of(rs.getInt("tile_id")==EMPTY_TILE_ID && tile.getOutputFormat().getSupportsEmptyTile());
+        Connection connection = getReadConnection();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT tile_id FROM tile_map WHERE zoom_level=? AND tile_row=? AND tile_column=?")) {
+            statement.setInt(1, level);
+            statement.setInt(2, row);
+            statement.setInt(3, col);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (rs.next()) {
+                    result = Optional.of(rs.getInt("tile_id")==EMPTY_TILE_ID && tile.getOutputFormat().getSupportsEmptyTile());
+                }
+            }
+        } finally {
+            releaseConnection(connection);
         }
-        releaseConnection(connection);
         return result;
     }
 
     public boolean tileExists(Tile tile) throws SQLException, IOException {
-        Connection connection = getConnection(true);
+        if (pendingTiles.containsKey(getPendingTileKey(tile)) || isEmptyTile(tile)) {
+            return true;
+        }
         int level = tile.getTileLevel();
         int row = tile.getTileMatrixSet().getTmsRow(level, tile.getTileRow());
         int col = tile.getTileCol();
-        String sql = String.format("SELECT tile_data FROM tiles WHERE zoom_level=%d AND tile_row=%d AND tile_column=%d", level, row, col);
-        boolean exists = SqlHelper.executeQuery(connection, sql).next();
-        releaseConnection(connection);
+        boolean exists;
+        Connection connection = getReadConnection();
+        String sql = hasStaleColumn(connection)
+            ? "SELECT tile_map.tile_id FROM tile_map INNER JOIN tile_blobs ON tile_map.tile_id = tile_blobs.tile_id WHERE zoom_level=? AND tile_row=? AND tile_column=?" + notStale(connection)
+            : "SELECT tile_data FROM tiles WHERE zoom_level=? AND tile_row=? AND tile_column=?";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, level);
+            statement.setInt(2, row);
+            statement.setInt(3, col);
+            try (ResultSet rs = statement.executeQuery()) {
+                exists = rs.next();
+            }
+        } finally {
+            releaseConnection(connection);
+        }
         return exists;
     }
 
+    /**
+     * Determine all tiles of a tile matrix in a range of rows and columns that are in the MBTiles file,
+     * including pending tiles and empty tiles and excluding stale tiles, with a single range query.
+     *
+     * @param tileMatrixSet the tile matrix set
+     * @param limits the tile matrix and the range of rows and columns
+     * @return the tiles in the range that are available
+     */
+    public TileBitmap getCachedTiles(TileMatrixSet tileMatrixSet, TileMatrixSetLimits limits) throws SQLException, IOException {
+        int level = Integer.parseInt(limits.getTileMatrix());
+        TileBitmap cachedTiles = new TileBitmap(limits);
+        Connection connection = getReadConnection();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT tile_row, tile_column FROM tile_map WHERE zoom_level=? AND tile_row>=? AND tile_row<=? AND tile_column>=? AND tile_column<=?" + notStale(connection))) {
+            statement.setInt(1, level);
+            statement.setInt(2, tileMatrixSet.getTmsRow(level, limits.getMaxTileRow()));
+            statement.setInt(3, tileMatrixSet.getTmsRow(level, limits.getMinTileRow()));
+            statement.setInt(4, limits.getMinTileCol());
+            statement.setInt(5, limits.getMaxTileCol());
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    cachedTiles.add(tileMatrixSet.getTmsRow(level, rs.getInt(1)), rs.getInt(2));
+                }
+            }
+        } finally {
+            releaseConnection(connection);
+        }
+        pendingTiles.values()
+                    .stream()
+                    .map(pendingTile -> pendingTile.tile)
+                    .filter(tile -> tile.getTileLevel() == level)
+                    .forEach(tile -> cachedTiles.add(tile.getTileRow(), tile.getTileCol()));
+        emptyTiles.visit(level, tileMatrixSet.getTmsRow(level, limits.getMaxTileRow()), tileMatrixSet.getTmsRow(level, limits.getMinTileRow()),
+                         limits.getMinTileCol(), limits.getMaxTileCol(),
+                         (emptyLevel, tmsRow, col) -> cachedTiles.add(tileMatrixSet.getTmsRow(level, tmsRow), col));
+        return cachedTiles;
+    }
+
+    public interface TileMapVisitor {
+        void visit(int level, int col, int tmsRow, long tileId);
+    }
+
+    /**
+     * A consistent view of the tiles in the MBTiles file, see {@link #readSnapshot(SnapshotReader)}.
+     */
+    public interface TileMapSnapshot {
+        /**
+         * Visit all tiles that are not stale. Tiles with the same content share the tile id, empty tiles have the
+         * tile id of the empty tile.
+         *
+         * @param visitor the visitor
+         */
+        void visitTileMap(TileMapVisitor visitor) throws SQLException;
+
+        /**
+         * @param tileId the id of the tile content
+         * @return the tile content as stored in the MBTiles file, if it exists
+         */
+        Optional<byte[]> getTileContent(long tileId) throws SQLException;
+
+        /**
+         * @return the id of the content of empty tiles
+         */
+        long getEmptyTileId();
+    }
+
+    public interface SnapshotReader<T> {
+        T read(TileMapSnapshot snapshot) throws SQLException, IOException;
+    }
+
+    /**
+     * Read the tile map and the tile contents in a single read transaction, so that tiles that are written or
+     * deleted concurrently do not lead to an inconsistent result. Pending tiles are written first.
+     *
+     * @param reader the reader
+     * @return the result of the reader
+     */
+    public <T> T readSnapshot(SnapshotReader<T> reader) throws SQLException, IOException {
+        flush();
+        Connection connection = getReadConnection();
+        try {
+            SqlHelper.execute(connection, "BEGIN TRANSACTION");
+            try {
+                return reader.read(new TileMapSnapshot() {
+                    @Override
+                    public void visitTileMap(TileMapVisitor visitor) throws SQLException {
+                        try (PreparedStatement statement = connection.prepareStatement("SELECT zoom_level, tile_column, tile_row, tile_id FROM tile_map WHERE 1=1" + notStale(connection))) {
+                            try (ResultSet rs = statement.executeQuery()) {
+                                while (rs.next()) {
+                                    visitor.visit(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getLong(4));
+                                }
+                            }
+                        }
+                        emptyTiles.visit((level, tmsRow, col) -> visitor.visit(level, col, tmsRow, EMPTY_TILE_ID));
+                    }
+
+                    @Override
+                    public Optional<byte[]> getTileContent(long tileId) throws SQLException {
+                        try (PreparedStatement statement = connection.prepareStatement("SELECT tile_data FROM tile_blobs WHERE tile_id=?")) {
+                            statement.setLong(1, tileId);
+                            try (ResultSet rs = statement.executeQuery()) {
+                                if (rs.next()) {
+                                    return Optional.ofNullable(rs.getBytes(1));
+                                }
+                            }
+                        }
+                        return Optional.empty();
+                    }
+
+                    @Override
+                    public long getEmptyTileId() {
+                        return EMPTY_TILE_ID;
+                    }
+                });
+            } finally {
+                // ends the read transaction
+                SqlHelper.execute(connection, "COMMIT");
+            }
+        } finally {
+            releaseConnection(connection);
+        }
+    }
+
+    /**
+     * Tiles are not written immediately, but collected and written in a single transaction, either when
+     * {@value #BATCH_SIZE} tiles are pending or after {@value #BATCH_DELAY_MILLISECONDS} milliseconds. Pending tiles
+     * are visible to all read operations. Empty tiles are only recorded in the bitmap of empty tiles, which is
+     * updated when the pending tiles have been committed.
+     *
+     * @param tile the tile
+     * @param content the tile content, uncompressed
+     */
     public void writeTile(Tile tile, byte[] content) throws SQLException, IOException {
-        int level = tile.getTileLevel();
-        int row = tile.getTileMatrixSet().getTmsRow(level, tile.getTileRow());
-        int col = tile.getTileCol();
-        boolean gzip = tile.getOutputFormat().getGzippedInMbtiles();
-        boolean supportsEmtpyTile = tile.getOutputFormat().getSupportsEmptyTile();
-        LOGGER.trace("Write tile {}/{}/{}/{} to MBTiles cache {}.", tile.getTileMatrixSet().getId(), level, tile.getTileRow(), col, tilesetPath);
+        LOGGER.trace("Queue tile {}/{}/{}/{} for MBTiles cache {}.", tile.getTileMatrixSet().getId(), tile.getTileLevel(), tile.getTileRow(), tile.getTileCol(), tilesetPath);
+        // an empty tile is still queued to remove a previous version of the tile from the tile map
+        pendingTiles.put(getPendingTileKey(tile), new PendingTile(tile, content));
+        if (pendingTiles.size() >= BATCH_SIZE) {
+            flush();
+        } else {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Record that a tile has been accessed. Like tiles, the access times are written in batches.
+     *
+     * @param tile the tile
+     */
+    public void recordAccess(Tile tile) {
+        pendingAccesses.put(getPendingTileKey(tile), Instant.now().getEpochSecond());
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            BATCH_WRITER.schedule(() -> {
+                flushScheduled.set(false);
+                try {
+                    flush();
+                } catch (Throwable e) {
+                    LOGGER.error("Could not write tiles to MBTiles cache {}: {}", tilesetPath, e.getMessage());
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Stacktrace: ", e);
+                    }
+                    // the tiles are still queued, try again later
+                    scheduleFlush();
+                }
+            }, BATCH_DELAY_MILLISECONDS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Write all pending tiles to the MBTiles file.
+     */
+    public void flush() throws SQLException, IOException {
+        if (pendingTiles.isEmpty() && pendingAccesses.isEmpty()) {
+            emptyTiles.save(false);
+            return;
+        }
         Connection connection = null;
         boolean aquired = false;
         try {
             aquired = mutex.tryAcquire(5, TimeUnit.SECONDS);
-            LOGGER.trace("writeTile: Trying to aquite mutex: '{}'.", aquired);
+            LOGGER.trace("flush: Trying to aquite mutex: '{}'.", aquired);
             if (!aquired)
                 throw new RuntimeException(String.format("Could not aquire mutex to create MBTiles file: %s", tilesetPath));
+            List<Map.Entry<String, PendingTile>> batch = new ArrayList<>(pendingTiles.entrySet());
+            List<Map.Entry<String, Long>> accesses = new ArrayList<>(pendingAccesses.entrySet());
+            if (batch.isEmpty() && accesses.isEmpty()) {
+                return;
+            }
             connection = getConnection(false);
-            // do we have an old blob?
-            boolean exists = false;
-            Integer old_tile_id = null;
-            String sql = String.format("SELECT tile_id FROM tile_map WHERE zoom_level=%d AND tile_row=%d AND tile_column=%d", level, row, col);
-            ResultSet rs = SqlHelper.executeQuery(connection, sql);
-            if (rs.next()) {
-                exists = true;
-                old_tile_id = rs.getInt(1);
+            checkSchema(connection);
+            LOGGER.trace("Write {} tiles and {} access times to MBTiles cache {}.", batch.size(), accesses.size(), tilesetPath);
+            SqlHelper.execute(connection, "BEGIN TRANSACTION IMMEDIATE");
+            try {
+                writeTiles(connection, batch);
+                writeAccesses(connection, accesses);
+                SqlHelper.execute(connection, "COMMIT");
+            } catch (SQLException | IOException | RuntimeException e) {
+                // the tiles remain queued for the next attempt
+                SqlHelper.execute(connection, "ROLLBACK");
+                throw e;
+            }
+            // the bitmap is only updated for committed tiles, until then the pending tiles are read
+            batch.forEach(entry -> updateEmptyTiles(entry.getValue().tile, entry.getValue().content));
+            // remove the tiles from the queue, unless they have been updated in the meantime
+            batch.forEach(entry -> pendingTiles.remove(entry.getKey(), entry.getValue()));
+            accesses.forEach(entry -> pendingAccesses.remove(entry.getKey(), entry.getValue()));
+            emptyTiles.save(false);
+        } catch (InterruptedException e) {
+            LOGGER.debug("flush: Thread has been interrupted.");
+        } finally {
+            releaseConnection(connection);
+            if (aquired) {
+                LOGGER.trace("flush: Releasing mutex.");
+                mutex.release();
             }
-            // add the new tile
-            int tile_id = EMPTY_TILE_ID;
-            if (content.length>0 || !supportsEmtpyTile) {
-                PreparedStatement statement = connection.prepareStatement("INSERT INTO tile_blobs (tile_data) VALUES(?)");
-                ByteArrayOutputStream mvt = new ByteArrayOutputStream(content.length);
-                if (gzip) {
-                    GZIPOutputStream gzipStream = new GZIPOutputStream(mvt);
-                    gzipStream.write(content);
-                    gzipStream.close();
-                } else {
-                    mvt.write(content);
+        }
+    }
+
+    private void updateEmptyTiles(Tile tile, byte[] content) {
+        int level = tile.getTileLevel();
+        int row = tile.getTileMatrixSet().getTmsRow(level, tile.getTileRow());
+        if (content.length==0 && tile.getOutputFormat().getSupportsEmptyTile()) {
+            emptyTiles.add(level, row, tile.getTileCol());
+        } else {
+            emptyTiles.remove(level, row, tile.getTileCol());
+        }
+    }
+
+    /**
+     * Write the bitmap of empty tiles, e.g. before the application stops.
+     */
+    public void saveEmptyTiles() {
+        emptyTiles.save(true);
+    }
+
+    private void writeTiles(Connection connection, List<Map.Entry<String, PendingTile>> batch) throws SQLException, IOException {
+        try (PreparedStatement selectTileMap = connection.prepareStatement("SELECT tile_id FROM tile_map WHERE zoom_level=? AND tile_row=? AND tile_column=?");
+             PreparedStatement selectTileBlob = connection.prepareStatement("SELECT tile_id FROM tile_blobs WHERE tile_hash=? LIMIT 1");
+             PreparedStatement insertTileBlob = connection.prepareStatement("INSERT INTO tile_blobs (tile_data,tile_hash) VALUES(?,?)");
+             PreparedStatement selectTileId = connection.prepareStatement("SELECT last_insert_rowid()");
+             PreparedStatement updateTileMap = connection.prepareStatement("UPDATE tile_map SET tile_id=?, last_access=?, stale=0 WHERE zoom_level=? AND tile_row=? AND tile_column=?");
+             PreparedStatement insertTileMap = connection.prepareStatement("INSERT INTO tile_map (tile_id,last_access,zoom_level,tile_row,tile_column,stale) VALUES(?,?,?,?,?,0)");
+             PreparedStatement deleteTileMap = connection.prepareStatement("DELETE FROM tile_map WHERE zoom_level=? AND tile_row=? AND tile_column=?");
+             PreparedStatement deleteTileBlob = connection.prepareStatement("DELETE FROM tile_blobs WHERE tile_id=? AND NOT EXISTS (SELECT 1 FROM tile_map WHERE tile_id=?)")) {
+            for (Map.Entry<String, PendingTile> entry : batch) {
+                Tile tile = entry.getValue().tile;
+                byte[] content = entry.getValue().content;
+                int level = tile.getTileLevel();
+                int row = tile.getTileMatrixSet().getTmsRow(level, tile.getTileRow());
+                int col = tile.getTileCol();
+                boolean gzip = tile.getOutputFormat().getGzippedInMbtiles();
+                boolean supportsEmtpyTile = tile.getOutputFormat().getSupportsEmptyTile();
+
+                // do we have an old blob?
+                Integer old_tile_id = null;
+                selectTileMap.setInt(1, level);
+                selectTileMap.setInt(2, row);
+                selectTileMap.setInt(3, col);
+                try (ResultSet rs = selectTileMap.executeQuery()) {
+                    if (rs.next()) {
+                        old_tile_id = rs.getInt(1);
+                    }
+                }
+
+                // an empty tile is in the bitmap of empty tiles, only remove the previous version of the tile
+                if (content.length==0 && supportsEmtpyTile) {
+                    if (Objects.nonNull(old_tile_id)) {
+                        deleteTileMap.setInt(1, level);
+                        deleteTileMap.setInt(2, row);
+                        deleteTileMap.setInt(3, col);
+                        deleteTileMap.execute();
+                        if (old_tile_id != EMPTY_TILE_ID) {
+                            deleteTileBlob.setInt(1, old_tile_id);
+                            deleteTileBlob.setInt(2, old_tile_id);
+                            deleteTileBlob.execute();
+                        }
+                    }
+                    continue;
+                }
+
+                // add the new tile, if there is no tile with the same content yet
+                int tile_id = EMPTY_TILE_ID;
+                if (content.length>0 || !supportsEmtpyTile) {
+                    String hash = Hashing.sha256().hashBytes(content).toString();
+                    Integer existing_tile_id = null;
+                    selectTileBlob.setString(1, hash);
+                    try (ResultSet rs = selectTileBlob.executeQuery()) {
+                        if (rs.next()) {
+                            existing_tile_id = rs.getInt(1);
+                        }
+                    }
+                    if (Objects.nonNull(existing_tile_id)) {
+                        tile_id = existing_tile_id;
+                    } else {
+                        ByteArrayOutputStream mvt = new ByteArrayOutputStream(content.length);
+                        if (gzip) {
+                            GZIPOutputStream gzipStream = new GZIPOutputStream(mvt);
+                            gzipStream.write(content);
+                            gzipStream.close();
+                        } else {
+                            mvt.write(content);
+                        }
+                        insertTileBlob.setBytes(1, mvt.toByteArray());
+                        insertTileBlob.setString(2, hash);
+                        insertTileBlob.execute();
+                        try (ResultSet rs = selectTileId.executeQuery()) {
+                            rs.next();
+                            tile_id = rs.getInt(1);
+                        }
+                    }
                 }
-                statement.setBytes(1, mvt.toByteArray());
+
+                // a new tile counts as accessed
+                PreparedStatement statement = Objects.nonNull(old_tile_id) ? updateTileMap : insertTileMap;
+                statement.setInt(1, tile_id);
+                statement.setLong(2, Instant.now().getEpochSecond());
+                statement.setInt(3, level);
+                statement.setInt(4, row);
+                statement.setInt(5, col);
                 statement.execute();
-                statement.close();
-                rs = SqlHelper.executeQuery(connection, "SELECT last_insert_rowid()");
-                tile_id = rs.getInt(1);
+
+                // finally remove the old blob, unless it is still used by other tiles
+                if (Objects.nonNull(old_tile_id) && old_tile_id != tile_id && (old_tile_id != EMPTY_TILE_ID || !supportsEmtpyTile)) {
+                    deleteTileBlob.setInt(1, old_tile_id);
+                    deleteTileBlob.setInt(2, old_tile_id);
+                    deleteTileBlob.execute();
+                }
             }
-            PreparedStatement statement = exists
-                ? connection.prepareStatement("UPDATE tile_map SET tile_id=? WHERE zoom_level=? AND tile_row=? AND tile_column=?")
-                : connection.prepareStatement("INSERT INTO tile_map (tile_id,zoom_level,tile_row,tile_column) VALUES(?,?,?,?)");
-            statement.setInt(1, tile_id);
-            statement.setInt(2, level);
-            statement.setInt(3, row);
-            statement.setInt(4, col);
-            statement.execute();
-            statement.close();
-            // finally remove any old blob
-            if (Objects.nonNull(old_tile_id) && (old_tile_id != EMPTY_TILE_ID || !supportsEmtpyTile)) {
-                SqlHelper.execute(connection, String.format("DELETE FROM tile_map WHERE tile_id = %d", old_tile_id));
+        }
+    }
+
+    private void writeAccesses(Connection connection, List<Map.Entry<String, Long>> accesses) throws SQLException {
+        try (PreparedStatement updateAccess = connection.prepareStatement("UPDATE tile_map SET last_access=? WHERE zoom_level=? AND tile_row=? AND tile_column=?")) {
+            for (Map.Entry<String, Long> entry : accesses) {
+                List<String> key = Splitter.on('/').splitToList(entry.getKey());
+                updateAccess.setLong(1, entry.getValue());
+                updateAccess.setInt(2, Integer.parseInt(key.get(0)));
+                updateAccess.setInt(3, Integer.parseInt(key.get(1)));
+                updateAccess.setInt(4, Integer.parseInt(key.get(2)));
+                updateAccess.addBatch();
             }
+            updateAccess.executeBatch();
+        }
+    }
+
+    /**
+     * The size of the MBTiles file without unused pages. The file does not shrink when tiles are deleted, but
+     * unused pages are reused for new tiles.
+     *
+     * @return the number of bytes in use
+     */
+    public long getUsedSize() throws SQLException, IOException {
+        Connection connection = getReadConnection();
+        try {
+            return (getPragma(connection, "page_count") - getPragma(connection, "freelist_count")) * getPragma(connection, "page_size");
+        } finally {
+            releaseConnection(connection);
+        }
+    }
+
+    /**
+     * Count the tiles that are not stale per zoom level, pending tiles are not included. Empty tiles are counted
+     * with a size of zero bytes.
+     *
+     * @return the number of tiles and the sum of the tile sizes per zoom level
+     */
+    public Map<Integer, StoredTiles> getStoredTiles() throws SQLException, IOException {
+        Map<Integer, StoredTiles> storedTiles = new TreeMap<>();
+        Connection connection = getReadConnection();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT m.zoom_level, count(*), sum(length(b.tile_data)) FROM tile_map m INNER JOIN tile_blobs b ON m.tile_id = b.tile_id WHERE 1=1" + notStale(connection) + " GROUP BY m.zoom_level")) {
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    storedTiles.put(rs.getInt(1), new ImmutableStoredTiles.Builder().tiles(rs.getLong(2))
+                                                                                   .bytes(rs.getLong(3))
+                                                                                   .build());
+                }
+            }
+        } finally {
+            releaseConnection(connection);
+        }
+        emptyTiles.getNumberOfTiles()
+                  .forEach((level, tiles) -> storedTiles.merge(level, new ImmutableStoredTiles.Builder().tiles(tiles).bytes(0).build(),
+                                                               StoredTiles::add));
+        return storedTiles;
+    }
+
+    private long getPragma(Connection connection, String pragma) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(String.format("PRAGMA %s", pragma))) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Delete the tiles that have not been accessed for the longest time, pending tiles are written first.
+     *
+     * @param minLevel tiles on lower zoom levels are not deleted
+     * @param maxTiles the maximum number of tiles to delete
+     * @return the number of deleted tiles
+     */
+    public int evictTiles(int minLevel, int maxTiles) throws SQLException, IOException {
+        flush();
+        int deleted = 0;
+        Connection connection = null;
+        boolean aquired = false;
+        try {
+            aquired = mutex.tryAcquire(5, TimeUnit.SECONDS);
+            LOGGER.trace("evictTiles: Trying to aquite mutex: '{}'.", aquired);
+            if (!aquired)
+                throw new RuntimeException(String.format("Could not aquire mutex to create MBTiles file: %s", tilesetPath));
+            connection = getConnection(false);
+            checkSchema(connection);
+            List<int[]> tiles = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement("SELECT zoom_level, tile_row, tile_column, tile_id FROM tile_map WHERE zoom_level>=? ORDER BY last_access LIMIT ?")) {
+                statement.setInt(1, minLevel);
+                statement.setInt(2, maxTiles);
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        tiles.add(new int[]{rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4)});
+                    }
+                }
+            }
+            if (tiles.isEmpty()) {
+                return 0;
+            }
+            Set<Integer> tile_ids = new HashSet<>();
+            SqlHelper.execute(connection, "BEGIN TRANSACTION IMMEDIATE");
+            try (PreparedStatement deleteTileMap = connection.prepareStatement("DELETE FROM tile_map WHERE zoom_level=? AND tile_row=? AND tile_column=?")) {
+                for (int[] tile : tiles) {
+                    deleteTileMap.setInt(1, tile[0]);
+                    deleteTileMap.setInt(2, tile[1]);
+                    deleteTileMap.setInt(3, tile[2]);
+                    deleteTileMap.addBatch();
+                    tile_ids.add(tile[3]);
+                }
+                deleteTileMap.executeBatch();
+                // blobs may be shared with tiles that are not deleted
+                for (int tile_id : tile_ids) {
+                    if (tile_id != EMPTY_TILE_ID) {
+                        deleteTileBlobIfUnused(connection, tile_id);
+                    }
+                }
+                SqlHelper.execute(connection, "COMMIT");
+            } catch (SQLException | RuntimeException e) {
+                SqlHelper.execute(connection, "ROLLBACK");
+                throw e;
+            }
+            deleted = tiles.size();
+            LOGGER.trace("Evicted {} tiles from MBTiles cache {}.", deleted, tilesetPath);
         } catch (InterruptedException e) {
-            LOGGER.debug("writeTile: Thread has been interrupted.");
+            LOGGER.debug("evictTiles: Thread has been interrupted.");
         } finally {
             releaseConnection(connection);
             if (aquired) {
-                LOGGER.trace("writeTile: Releasing mutex.");
+                LOGGER.trace("evictTiles: Releasing mutex.");
                 mutex.release();
             }
         }
+        return deleted;
     }
 
     public void deleteTile(Tile tile) throws SQLException, IOException {
@@ -360,6 +1032,8 @@ public class MbtilesTileset {
         int row = tile.getTileMatrixSet().getTmsRow(level, tile.getTileRow());
         int col = tile.getTileCol();
         LOGGER.trace("Delete tile {}/{}/{}/{} from MBTiles cache {}.", tile.getTileMatrixSet().getId(), level, tile.getTileRow(), col, tilesetPath);
+        pendingTiles.remove(getPendingTileKey(tile));
+        emptyTiles.remove(level, row, col);
         Connection connection = null;
         boolean aquired = false;
         try {
@@ -368,14 +1042,32 @@ public class MbtilesTileset {
             if (!aquired)
                 throw new RuntimeException(String.format("Could not aquire mutex to create MBTiles file: %s", tilesetPath));
             connection = getConnection(false);
-            String sql = String.format("SELECT tile_id FROM tile_map WHERE zoom_level=%d AND tile_row=%d AND tile_column=%d", level, row, col);
-            ResultSet rs = SqlHelper.executeQuery(connection, sql);
-            if (rs.next()) {
-                int tile_id = rs.getInt(1);
-                SqlHelper.execute(connection, String.format("DELETE FROM tile_map WHERE zoom_level=%d AND tile_row=%d AND tile_column=%d", level, row, col));
-                if (tile_id != EMPTY_TILE_ID || !supportsEmtpyTile) {
-                    SqlHelper.execute(connection, String.format("DELETE FROM tile_blobs WHERE tile_id=%d", tile_id));
+            checkSchema(connection);
+            SqlHelper.execute(connection, "BEGIN TRANSACTION IMMEDIATE");
+            try (PreparedStatement selectTileMap = connection.prepareStatement("SELECT tile_id FROM tile_map WHERE zoom_level=? AND tile_row=? AND tile_column=?");
+                 PreparedStatement deleteTileMap = connection.prepareStatement("DELETE FROM tile_map WHERE zoom_level=? AND tile_row=? AND tile_column=?")) {
+                Integer tile_id = null;
+                selectTileMap.setInt(1, level);
+                selectTileMap.setInt(2, row);
+                selectTileMap.setInt(3, col);
+                try (ResultSet rs = selectTileMap.executeQuery()) {
+                    if (rs.next()) {
+                        tile_id = rs.getInt(1);
+                    }
                 }
+                if (Objects.nonNull(tile_id)) {
+                    deleteTileMap.setInt(1, level);
+                    deleteTileMap.setInt(2, row);
+                    deleteTileMap.setInt(3, col);
+                    deleteTileMap.execute();
+                    if (tile_id != EMPTY_TILE_ID || !supportsEmtpyTile) {
+                        deleteTileBlobIfUnused(connection, tile_id);
+                    }
+                }
+                SqlHelper.execute(connection, "COMMIT");
+            } catch (SQLException | RuntimeException e) {
+                SqlHelper.execute(connection, "ROLLBACK");
+                throw e;
             }
         } catch (InterruptedException e) {
             LOGGER.debug("deleteTile: Thread has been interrupted.");
@@ -388,9 +1080,51 @@ public class MbtilesTileset {
         }
     }
 
+    /**
+     * Mark the tiles in a range of rows and columns as stale instead of deleting them. Stale tiles are only
+     * returned by {@link #getCachedTile(Tile)}, until they are written again.
+     *
+     * @param tileMatrixSet the tile matrix set
+     * @param limits the tile matrix and the range of rows and columns
+     */
+    public void markTilesStale(TileMatrixSet tileMatrixSet, TileMatrixSetLimits limits) throws SQLException, IOException {
+        int level = Integer.parseInt(limits.getTileMatrix());
+        LOGGER.trace("Mark tiles {}/{}/*/* as stale in MBTiles cache {}.", tileMatrixSet.getId(), level, tilesetPath);
+        // write pending tiles first, so that they are marked, too; empty tiles are generated again
+        flush();
+        emptyTiles.remove(level, tileMatrixSet.getTmsRow(level, limits.getMaxTileRow()), tileMatrixSet.getTmsRow(level, limits.getMinTileRow()),
+                          limits.getMinTileCol(), limits.getMaxTileCol());
+        Connection connection = null;
+        boolean aquired = false;
+        try {
+            aquired = mutex.tryAcquire(5, TimeUnit.SECONDS);
+            LOGGER.trace("markTilesStale: Trying to aquite mutex: '{}'.", aquired);
+            if (!aquired)
+                throw new RuntimeException(String.format("Could not aquire mutex to create MBTiles file: %s", tilesetPath));
+            connection = getConnection(false);
+            checkSchema(connection);
+            try (PreparedStatement statement = connection.prepareStatement("UPDATE tile_map SET stale=1 WHERE zoom_level=? AND tile_row>=? AND tile_column>=? AND tile_row<=? AND tile_column<=?")) {
+                setRange(statement, tileMatrixSet, limits);
+                statement.execute();
+            }
+        } catch (InterruptedException e) {
+            LOGGER.debug("markTilesStale: Thread has been interrupted.");
+        } finally {
+            releaseConnection(connection);
+            if (aquired) {
+                LOGGER.trace("markTilesStale: Releasing mutex.");
+                mutex.release();
+            }
+        }
+    }
+
     public void deleteTiles(TileMatrixSet tileMatrixSet, TileMatrixSetLimits limits) throws SQLException, IOException {
         int level = Integer.parseInt(limits.getTileMatrix());
         LOGGER.trace("Delete tiles {}/{}/*/* from MBTiles cache {}.", tileMatrixSet.getId(), level, tilesetPath);
+        // write pending tiles first, so that they are deleted, too
+        flush();
+        emptyTiles.remove(level, tileMatrixSet.getTmsRow(level, limits.getMaxTileRow()), tileMatrixSet.getTmsRow(level, limits.getMinTileRow()),
+                          limits.getMinTileCol(), limits.getMaxTileCol());
         Connection connection = null;
         boolean aquired = false;
         try {
@@ -399,20 +1133,33 @@ public class MbtilesTileset {
             if (!aquired)
                 throw new RuntimeException(String.format("Could not aquire mutex to create MBTiles file: %s", tilesetPath));
             connection = getConnection(false);
-            String sqlFrom = String.format("FROM tile_map WHERE zoom_level=%d AND tile_row>=%d AND tile_column>=%d AND tile_row<=%d AND tile_column<=%d",
-                                           level,
-                                           tileMatrixSet.getTmsRow(level, limits.getMaxTileRow()), limits.getMinTileCol(),
-                                           tileMatrixSet.getTmsRow(level, limits.getMinTileRow()), limits.getMaxTileCol());
-            ResultSet rs = SqlHelper.executeQuery(connection, String.format("SELECT DISTINCT tile_id %s", sqlFrom));
-            while (rs.next()) {
-                int tile_id = rs.getInt(1);
-                if (tile_id != EMPTY_TILE_ID) {
-                    SqlHelper.execute(connection, String.format("DELETE FROM tile_blobs WHERE tile_id=%d", tile_id));
+            checkSchema(connection);
+            String where = "WHERE zoom_level=? AND tile_row>=? AND tile_column>=? AND tile_row<=? AND tile_column<=?";
+            SqlHelper.execute(connection, "BEGIN TRANSACTION IMMEDIATE");
+            try (PreparedStatement selectTileIds = connection.prepareStatement("SELECT DISTINCT tile_id FROM tile_map " + where);
+                 PreparedStatement deleteTileMap = connection.prepareStatement("DELETE FROM tile_map " + where)) {
+                List<Integer> tile_ids = new ArrayList<>();
+                setRange(selectTileIds, tileMatrixSet, limits);
+                try (ResultSet rs = selectTileIds.executeQuery()) {
+                    while (rs.next()) {
+                        tile_ids.add(rs.getInt(1));
+                    }
+                }
+                setRange(deleteTileMap, tileMatrixSet, limits);
+                deleteTileMap.execute();
+                // blobs may be shared with tiles outside of the deleted range
+                for (int tile_id : tile_ids) {
+                    if (tile_id != EMPTY_TILE_ID) {
+                        deleteTileBlobIfUnused(connection, tile_id);
+                    }
                 }
+                SqlHelper.execute(connection, "COMMIT");
+            } catch (SQLException | RuntimeException e) {
+                SqlHelper.execute(connection, "ROLLBACK");
+                throw e;
             }
-            SqlHelper.execute(connection, String.format("DELETE %s", sqlFrom));
         } catch (InterruptedException e) {
-            LOGGER.debug("deleteTile: Thread has been interrupted.");
+            LOGGER.debug("deleteTiles: Thread has been interrupted.");
         } finally {
             releaseConnection(connection);
             if (aquired) {
@@ -422,4 +1169,15 @@ public class MbtilesTileset {
         }
 
     }
+
+    // bind the tile matrix and the range of rows and columns to the parameters of a "zoom_level=? AND tile_row>=?
+    // AND tile_column>=? AND tile_row<=? AND tile_column<=?" condition
+    private static void setRange(PreparedStatement statement, TileMatrixSet tileMatrixSet, TileMatrixSetLimits limits) throws SQLException {
+        int level = Integer.parseInt(limits.getTileMatrix());
+        statement.setInt(1, level);
+        statement.setInt(2, tileMatrixSet.getTmsRow(level, limits.getMaxTileRow()));
+        statement.setInt(3, limits.getMinTileCol());
+        statement.setInt(4, tileMatrixSet.getTmsRow(level, limits.getMinTileRow()));
+        statement.setInt(5, limits.getMaxTileCol());
+    }
 }
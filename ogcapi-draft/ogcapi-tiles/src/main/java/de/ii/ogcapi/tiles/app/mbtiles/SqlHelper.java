@@ -13,13 +13,38 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Statement;
+import java.util.Properties;
 
 public class SqlHelper {
 
+    // the SQLite open mode flag for read-only connections (SQLITE_OPEN_READONLY)
+    private static final String OPEN_MODE_READONLY = "1";
+    private static final String BUSY_TIMEOUT_MILLISECONDS = "5000";
+
     public static Connection getConnection(File mbtilesFile) {
+        return getConnection(mbtilesFile, false);
+    }
+
+    /**
+     * Open a connection to an Mbtiles file. Write connections switch the database to the write-ahead log,
+     * so that read connections are not blocked by a writer and vice versa.
+     *
+     * @param mbtilesFile the Mbtiles file
+     * @param readOnly {@code true}, if the connection is only used to read from the database
+     * @return the connection
+     */
+    public static Connection getConnection(File mbtilesFile, boolean readOnly) {
         try {
             Class.forName("org.sqlite.JDBC");
-            return DriverManager.getConnection("jdbc:sqlite:" + mbtilesFile.getAbsolutePath());
+            Properties properties = new Properties();
+            properties.setProperty("busy_timeout", BUSY_TIMEOUT_MILLISECONDS);
+            if (readOnly) {
+                properties.setProperty("open_mode", OPEN_MODE_READONLY);
+            } else {
+                properties.setProperty("journal_mode", "WAL");
+                properties.setProperty("synchronous", "NORMAL");
+            }
+            return DriverManager.getConnection("jdbc:sqlite:" + mbtilesFile.getAbsolutePath(), properties);
         } catch (Exception e) {
             throw new RuntimeException("Connection to Mbtiles database could not be established.", e);
         }
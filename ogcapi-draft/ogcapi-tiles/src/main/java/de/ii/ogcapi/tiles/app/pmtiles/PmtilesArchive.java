@@ -0,0 +1,190 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app.pmtiles;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import de.ii.ogcapi.tiles.app.pmtiles.PmtilesDirectory.Entry;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read access to a PMTiles v3 archive. The file is memory-mapped and immutable, so lookups need no locks and
+ * no database.
+ */
+public class PmtilesArchive implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PmtilesArchive.class);
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final int MAX_DIRECTORY_DEPTH = 4;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long rootDirectoryOffset;
+    private final long leafDirectoriesOffset;
+    private final long tileDataOffset;
+    private final byte internalCompression;
+    private final byte tileCompression;
+    private final int minZoom;
+    private final int maxZoom;
+    // the offset of the content of empty tiles in the tile data section, -1 if unknown
+    private final long emptyTileOffset;
+    private final List<Entry> rootDirectory;
+    // leaf directories that have been decoded, by offset
+    private final Cache<Long, List<Entry>> leafDirectories;
+
+    public PmtilesArchive(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < PmtilesDirectory.HEADER_LENGTH)
+                throw new IOException(String.format("Not a PMTiles archive: %s", path));
+            int numberOfSegments = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            this.segments = new MappedByteBuffer[numberOfSegments];
+            for (int i = 0; i < numberOfSegments; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+
+            ByteBuffer header = ByteBuffer.wrap(read(0, PmtilesDirectory.HEADER_LENGTH))
+                                          .order(ByteOrder.LITTLE_ENDIAN);
+            byte[] magic = new byte[7];
+            header.get(magic);
+            if (!new String(magic, StandardCharsets.US_ASCII).equals("PMTiles") || header.get(7) != 3)
+                throw new IOException(String.format("Not a PMTiles v3 archive: %s", path));
+            this.rootDirectoryOffset = header.getLong(8);
+            long rootDirectoryLength = header.getLong(16);
+            this.leafDirectoriesOffset = header.getLong(40);
+            this.tileDataOffset = header.getLong(56);
+            this.internalCompression = header.get(97);
+            this.tileCompression = header.get(98);
+            this.minZoom = header.get(100) & 0xFF;
+            this.maxZoom = header.get(101) & 0xFF;
+            this.rootDirectory = PmtilesDirectory.deserialize(read(rootDirectoryOffset, (int) rootDirectoryLength), internalCompression);
+            JsonNode metadata = new ObjectMapper().readTree(PmtilesDirectory.decompress(read(header.getLong(24), (int) header.getLong(32)), internalCompression));
+            this.emptyTileOffset = metadata.path(PmtilesWriter.EMPTY_TILE_OFFSET_KEY).asLong(-1);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        this.leafDirectories = CacheBuilder.newBuilder()
+                                           .maximumSize(1024)
+                                           .build();
+    }
+
+    /**
+     *
+     * @return the path of the archive
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     *
+     * @return {@code true}, if the tile content is gzip-compressed
+     */
+    public boolean isGzipped() {
+        return tileCompression == PmtilesDirectory.COMPRESSION_GZIP;
+    }
+
+    /**
+     * Fetch the content of a tile as stored in the archive.
+     *
+     * @param level the zoom level
+     * @param col the column
+     * @param row the row, counted from the top
+     * @return the tile content, if the tile is in the archive
+     */
+    public Optional<byte[]> getTile(int level, int col, int row) throws IOException {
+        Optional<Entry> entry = findEntry(level, col, row);
+        if (entry.isEmpty())
+            return Optional.empty();
+        return Optional.of(read(tileDataOffset + entry.get().offset, entry.get().length));
+    }
+
+    /**
+     * Determine, if a tile is an empty tile, without reading the tile content.
+     *
+     * @param level the zoom level
+     * @param col the column
+     * @param row the row, counted from the top
+     * @return {@code true}, if the tile has the content of empty tiles, or empty, if the tile is not in the archive
+     */
+    public Optional<Boolean> isEmptyTile(int level, int col, int row) throws IOException {
+        return findEntry(level, col, row).map(entry -> entry.offset == emptyTileOffset);
+    }
+
+    private Optional<Entry> findEntry(int level, int col, int row) throws IOException {
+        if (level < minZoom || level > maxZoom)
+            return Optional.empty();
+        long tileId;
+        try {
+            tileId = PmtilesDirectory.zxyToTileId(level, col, row);
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+
+        List<Entry> directory = rootDirectory;
+        for (int depth = 0; depth < MAX_DIRECTORY_DEPTH; depth++) {
+            Optional<Entry> entry = PmtilesDirectory.findTile(directory, tileId);
+            if (entry.isEmpty() || entry.get().runLength > 0)
+                return entry;
+            directory = getLeafDirectory(entry.get());
+        }
+        LOGGER.debug("PMTiles archive '{}' exceeds the maximum directory depth for tile {}/{}/{}.", path, level, row, col);
+        return Optional.empty();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private List<Entry> getLeafDirectory(Entry entry) throws IOException {
+        try {
+            return leafDirectories.get(entry.offset, () -> PmtilesDirectory.deserialize(read(leafDirectoriesOffset + entry.offset, entry.length), internalCompression));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private byte[] read(long offset, int length) {
+        byte[] bytes = new byte[length];
+        int done = 0;
+        while (done < length) {
+            long position = offset + done;
+            int segment = (int) (position / SEGMENT_SIZE);
+            int segmentOffset = (int) (position % SEGMENT_SIZE);
+            // use a view of the shared buffer, the position of the shared buffer must not be changed concurrently
+            ByteBuffer view = segments[segment].duplicate();
+            view.position(segmentOffset);
+            int n = Math.min(length - done, view.remaining());
+            view.get(bytes, done, n);
+            done += n;
+        }
+        return bytes;
+    }
+}
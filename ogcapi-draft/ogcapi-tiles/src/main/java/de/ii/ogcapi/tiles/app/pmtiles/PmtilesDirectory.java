@@ -0,0 +1,209 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app.pmtiles;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Tile ids, directories and the binary encoding of PMTiles v3 archives.
+ *
+ * A directory is a list of entries ordered by tile id. An entry either references the content of one or more
+ * consecutive tiles with the same content (run length &gt; 0) or a leaf directory (run length = 0).
+ */
+final class PmtilesDirectory {
+
+    static final int HEADER_LENGTH = 127;
+    // the header and the root directory must fit into the first 16 KiB
+    static final int MAX_ROOT_DIRECTORY_LENGTH = 16384 - HEADER_LENGTH;
+    static final byte COMPRESSION_NONE = 1;
+    static final byte COMPRESSION_GZIP = 2;
+    static final byte TILE_TYPE_UNKNOWN = 0;
+    static final byte TILE_TYPE_MVT = 1;
+    static final byte TILE_TYPE_PNG = 2;
+    static final byte TILE_TYPE_JPEG = 3;
+    static final byte TILE_TYPE_WEBP = 4;
+
+    static final class Entry {
+        final long tileId;
+        final long offset;
+        final int length;
+        int runLength;
+
+        Entry(long tileId, long offset, int length, int runLength) {
+            this.tileId = tileId;
+            this.offset = offset;
+            this.length = length;
+            this.runLength = runLength;
+        }
+    }
+
+    private PmtilesDirectory() {
+    }
+
+    /**
+     * The tile id is the position of the tile on a Hilbert curve, counted across all zoom levels.
+     *
+     * @param z the zoom level
+     * @param x the column
+     * @param y the row, counted from the top
+     * @return the tile id
+     */
+    static long zxyToTileId(int z, long x, long y) {
+        if (z > 31)
+            throw new IllegalArgumentException(String.format("Zoom level %d is not supported in PMTiles archives.", z));
+        long n = 1L << z;
+        if (x < 0 || y < 0 || x >= n || y >= n)
+            throw new IllegalArgumentException(String.format("Tile %d/%d/%d is outside of the tile matrix.", z, y, x));
+        // number of tiles on all lower zoom levels
+        long tileId = ((1L << (2 * z)) - 1) / 3;
+        for (long s = n / 2; s > 0; s /= 2) {
+            long rx = (x & s) > 0 ? 1 : 0;
+            long ry = (y & s) > 0 ? 1 : 0;
+            tileId += s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = n - 1 - x;
+                    y = n - 1 - y;
+                }
+                long t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return tileId;
+    }
+
+    /**
+     * @param entries the directory entries, ordered by tile id
+     * @param tileId the tile id
+     * @return the entry with the tile content or the leaf directory that may contain the tile
+     */
+    static Optional<Entry> findTile(List<Entry> entries, long tileId) {
+        int m = 0;
+        int n = entries.size() - 1;
+        while (m <= n) {
+            int k = (n + m) >>> 1;
+            long cmp = tileId - entries.get(k).tileId;
+            if (cmp > 0) {
+                m = k + 1;
+            } else if (cmp < 0) {
+                n = k - 1;
+            } else {
+                return Optional.of(entries.get(k));
+            }
+        }
+        if (n >= 0) {
+            Entry entry = entries.get(n);
+            if (entry.runLength == 0 || tileId - entry.tileId < entry.runLength)
+                return Optional.of(entry);
+        }
+        return Optional.empty();
+    }
+
+    static byte[] serialize(List<Entry> entries, byte compression) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, entries.size());
+        long lastId = 0;
+        for (Entry entry : entries) {
+            writeVarint(out, entry.tileId - lastId);
+            lastId = entry.tileId;
+        }
+        for (Entry entry : entries)
+            writeVarint(out, entry.runLength);
+        for (Entry entry : entries)
+            writeVarint(out, entry.length);
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (i > 0 && entry.offset == entries.get(i - 1).offset + entries.get(i - 1).length) {
+                writeVarint(out, 0);
+            } else {
+                writeVarint(out, entry.offset + 1);
+            }
+        }
+        return compress(out.toByteArray(), compression);
+    }
+
+    static List<Entry> deserialize(byte[] bytes, byte compression) throws IOException {
+        InputStream in = new ByteArrayInputStream(decompress(bytes, compression));
+        int numEntries = (int) readVarint(in);
+        long[] tileIds = new long[numEntries];
+        long lastId = 0;
+        for (int i = 0; i < numEntries; i++) {
+            lastId += readVarint(in);
+            tileIds[i] = lastId;
+        }
+        int[] runLengths = new int[numEntries];
+        for (int i = 0; i < numEntries; i++)
+            runLengths[i] = (int) readVarint(in);
+        int[] lengths = new int[numEntries];
+        for (int i = 0; i < numEntries; i++)
+            lengths[i] = (int) readVarint(in);
+        List<Entry> entries = new ArrayList<>(numEntries);
+        for (int i = 0; i < numEntries; i++) {
+            long value = readVarint(in);
+            long offset = value == 0 && i > 0
+                ? entries.get(i - 1).offset + entries.get(i - 1).length
+                : value - 1;
+            entries.add(new Entry(tileIds[i], offset, lengths[i], runLengths[i]));
+        }
+        return entries;
+    }
+
+    static byte[] compress(byte[] bytes, byte compression) throws IOException {
+        if (compression == COMPRESSION_NONE)
+            return bytes;
+        if (compression != COMPRESSION_GZIP)
+            throw new IOException(String.format("Unsupported compression in PMTiles archive: %d", compression));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] decompress(byte[] bytes, byte compression) throws IOException {
+        if (compression == COMPRESSION_NONE)
+            return bytes;
+        if (compression != COMPRESSION_GZIP)
+            throw new IOException(String.format("Unsupported compression in PMTiles archive: %d", compression));
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return gzip.readAllBytes();
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (shift < 64) {
+            int b = in.read();
+            if (b < 0)
+                throw new IOException("Unexpected end of a PMTiles directory.");
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+            shift += 7;
+        }
+        throw new IOException("Invalid varint in a PMTiles directory.");
+    }
+}
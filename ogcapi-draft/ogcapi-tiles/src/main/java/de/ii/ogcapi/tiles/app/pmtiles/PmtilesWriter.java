@@ -0,0 +1,256 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app.pmtiles;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.google.common.collect.ImmutableMap;
+import de.ii.ogcapi.tiles.app.mbtiles.MbtilesMetadata;
+import de.ii.ogcapi.tiles.app.pmtiles.PmtilesDirectory.Entry;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes a PMTiles v3 archive with a clustered directory, that is, the tile data is ordered by the Hilbert tile id.
+ * Identical tile contents are stored only once and runs of consecutive tiles with the same content share a single
+ * directory entry. The archive is written to a temporary file that replaces the target when complete.
+ */
+public class PmtilesWriter {
+
+    // the key in the JSON metadata with the offset of the content of empty tiles in the tile data section
+    static final String EMPTY_TILE_OFFSET_KEY = "ldproxy:empty_tile_offset";
+    private static final Logger LOGGER = LoggerFactory.getLogger(PmtilesWriter.class);
+    private static final int INITIAL_LEAF_SIZE = 4096;
+
+    public interface TileVisitor {
+        /**
+         * @param level the zoom level
+         * @param col the column
+         * @param row the row, counted from the top
+         * @param contentId the id of the tile content in the source; tiles with the same content have the same id
+         */
+        void visit(int level, int col, int row, long contentId);
+    }
+
+    public interface TileSource {
+        void visitTiles(TileVisitor visitor) throws IOException, SQLException;
+
+        Optional<byte[]> getContent(long contentId) throws IOException, SQLException;
+
+        /**
+         * @return the id of the content of empty tiles, if the source distinguishes empty tiles
+         */
+        default Optional<Long> getEmptyContentId() {
+            return Optional.empty();
+        }
+    }
+
+    private PmtilesWriter() {
+    }
+
+    /**
+     * The source has to provide a consistent view of the tiles, a tile content that cannot be read is an error.
+     * If the source has no tiles, no archive is written and an existing archive is not changed.
+     *
+     * @param target the path of the archive
+     * @param source the tiles
+     * @param metadata the tile set metadata
+     * @return the number of tiles in the archive
+     */
+    public static long write(Path target, TileSource source, MbtilesMetadata metadata) throws IOException, SQLException {
+        // tile id and content id
+        List<long[]> tiles = new ArrayList<>();
+        int[] zoomLevels = {Integer.MAX_VALUE, Integer.MIN_VALUE};
+        source.visitTiles((level, col, row, contentId) -> {
+            tiles.add(new long[]{PmtilesDirectory.zxyToTileId(level, col, row), contentId});
+            zoomLevels[0] = Math.min(zoomLevels[0], level);
+            zoomLevels[1] = Math.max(zoomLevels[1], level);
+        });
+        if (tiles.isEmpty()) {
+            LOGGER.debug("PMTiles archive '{}' not written, there are no tiles.", target);
+            return 0;
+        }
+        tiles.sort(Comparator.comparingLong(tile -> tile[0]));
+        Optional<Long> emptyContentId = source.getEmptyContentId();
+
+        Path directory = target.toAbsolutePath().getParent();
+        Path dataFile = Files.createTempFile(directory, target.getFileName().toString(), ".data");
+        Path archiveFile = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+        try {
+            List<Entry> entries = new ArrayList<>();
+            // offset and length of each content in the tile data section
+            Map<Long, long[]> contents = new HashMap<>();
+            long addressedTiles = 0;
+            long dataLength = 0;
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(dataFile))) {
+                for (long[] tile : tiles) {
+                    long[] content = contents.get(tile[1]);
+                    if (content == null) {
+                        Optional<byte[]> bytes = source.getContent(tile[1]);
+                        if (bytes.isEmpty())
+                            throw new IOException(String.format("The content %d of tile %d is missing in the tile source.", tile[1], tile[0]));
+                        out.write(bytes.get());
+                        content = new long[]{dataLength, bytes.get().length};
+                        contents.put(tile[1], content);
+                        dataLength += bytes.get().length;
+                    }
+                    addressedTiles++;
+                    Entry last = entries.isEmpty() ? null : entries.get(entries.size() - 1);
+                    if (last != null && last.offset == content[0] && last.tileId + last.runLength == tile[0]) {
+                        last.runLength++;
+                    } else {
+                        entries.add(new Entry(tile[0], content[0], (int) content[1], 1));
+                    }
+                }
+            }
+
+            byte[] rootDirectory = PmtilesDirectory.serialize(entries, PmtilesDirectory.COMPRESSION_GZIP);
+            byte[] leafDirectories = new byte[0];
+            int leafSize = INITIAL_LEAF_SIZE;
+            while (rootDirectory.length > PmtilesDirectory.MAX_ROOT_DIRECTORY_LENGTH) {
+                ByteArrayOutputStream leaves = new ByteArrayOutputStream();
+                List<Entry> root = new ArrayList<>();
+                for (int i = 0; i < entries.size(); i += leafSize) {
+                    List<Entry> leaf = entries.subList(i, Math.min(i + leafSize, entries.size()));
+                    byte[] bytes = PmtilesDirectory.serialize(leaf, PmtilesDirectory.COMPRESSION_GZIP);
+                    root.add(new Entry(leaf.get(0).tileId, leaves.size(), bytes.length, 0));
+                    leaves.write(bytes);
+                }
+                rootDirectory = PmtilesDirectory.serialize(root, PmtilesDirectory.COMPRESSION_GZIP);
+                leafDirectories = leaves.toByteArray();
+                leafSize = (int) (leafSize * 1.2);
+            }
+
+            Optional<Long> emptyTileOffset = emptyContentId.map(contents::get).map(content -> content[0]);
+            byte[] json = PmtilesDirectory.compress(getJsonMetadata(metadata, emptyTileOffset), PmtilesDirectory.COMPRESSION_GZIP);
+
+            long rootDirectoryOffset = PmtilesDirectory.HEADER_LENGTH;
+            long metadataOffset = rootDirectoryOffset + rootDirectory.length;
+            long leafDirectoriesOffset = metadataOffset + json.length;
+            long tileDataOffset = leafDirectoriesOffset + leafDirectories.length;
+
+            ByteBuffer header = ByteBuffer.allocate(PmtilesDirectory.HEADER_LENGTH)
+                                          .order(ByteOrder.LITTLE_ENDIAN);
+            header.put("PMTiles".getBytes(StandardCharsets.US_ASCII));
+            header.put((byte) 3);
+            header.putLong(rootDirectoryOffset);
+            header.putLong(rootDirectory.length);
+            header.putLong(metadataOffset);
+            header.putLong(json.length);
+            header.putLong(leafDirectoriesOffset);
+            header.putLong(leafDirectories.length);
+            header.putLong(tileDataOffset);
+            header.putLong(dataLength);
+            header.putLong(addressedTiles);
+            header.putLong(entries.size());
+            header.putLong(contents.size());
+            // clustered
+            header.put((byte) 1);
+            header.put(PmtilesDirectory.COMPRESSION_GZIP);
+            header.put(metadata.getFormat() == MbtilesMetadata.MbtilesFormat.pbf
+                           ? PmtilesDirectory.COMPRESSION_GZIP
+                           : PmtilesDirectory.COMPRESSION_NONE);
+            header.put(getTileType(metadata.getFormat()));
+            header.put((byte) zoomLevels[0]);
+            header.put((byte) zoomLevels[1]);
+            List<Double> bounds = metadata.getBounds().size() == 4
+                ? metadata.getBounds()
+                : List.of(-180.0, -85.0511287, 180.0, 85.0511287);
+            for (Double value : bounds)
+                header.putInt(toE7(value));
+            if (metadata.getCenter().size() == 3) {
+                header.put(metadata.getCenter().get(2).byteValue());
+                header.putInt(toE7(metadata.getCenter().get(0).doubleValue()));
+                header.putInt(toE7(metadata.getCenter().get(1).doubleValue()));
+            } else {
+                header.put((byte) zoomLevels[0]);
+                header.putInt(toE7((bounds.get(0) + bounds.get(2)) / 2));
+                header.putInt(toE7((bounds.get(1) + bounds.get(3)) / 2));
+            }
+            header.flip();
+
+            try (FileChannel out = FileChannel.open(archiveFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 FileChannel data = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+                writeFully(out, header);
+                writeFully(out, ByteBuffer.wrap(rootDirectory));
+                writeFully(out, ByteBuffer.wrap(json));
+                writeFully(out, ByteBuffer.wrap(leafDirectories));
+                long position = 0;
+                while (position < dataLength) {
+                    position += data.transferTo(position, dataLength - position, out);
+                }
+                out.force(true);
+            }
+
+            Files.move(archiveFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            LOGGER.debug("PMTiles archive '{}' written: {} tiles, {} entries, {} distinct tiles.", target, addressedTiles, entries.size(), contents.size());
+            return addressedTiles;
+        } finally {
+            Files.deleteIfExists(dataFile);
+            Files.deleteIfExists(archiveFile);
+        }
+    }
+
+    private static byte[] getJsonMetadata(MbtilesMetadata metadata, Optional<Long> emptyTileOffset) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule(new Jdk8Module());
+        ImmutableMap.Builder<String, Object> json = ImmutableMap.<String, Object>builder()
+                                                                .put("name", metadata.getName())
+                                                                .put("format", metadata.getFormat().toString());
+        metadata.getDescription().ifPresent(value -> json.put("description", value));
+        metadata.getAttribution().ifPresent(value -> json.put("attribution", value));
+        if (metadata.getFormat() == MbtilesMetadata.MbtilesFormat.pbf)
+            json.put("vector_layers", metadata.getVectorLayers());
+        emptyTileOffset.ifPresent(value -> json.put(EMPTY_TILE_OFFSET_KEY, value));
+        return mapper.writeValueAsBytes(json.build());
+    }
+
+    private static byte getTileType(MbtilesMetadata.MbtilesFormat format) {
+        switch (format) {
+            case pbf:
+                return PmtilesDirectory.TILE_TYPE_MVT;
+            case png:
+                return PmtilesDirectory.TILE_TYPE_PNG;
+            case jpg:
+                return PmtilesDirectory.TILE_TYPE_JPEG;
+            case webp:
+                return PmtilesDirectory.TILE_TYPE_WEBP;
+            default:
+                return PmtilesDirectory.TILE_TYPE_UNKNOWN;
+        }
+    }
+
+    private static int toE7(double value) {
+        return (int) Math.round(value * 10_000_000);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.domain;
+
+import com.google.common.base.Splitter;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The content of a tile from the tile cache together with its entity tag. The content is kept as stored in the
+ * cache, that is, it may be gzip-compressed. The content is either held in memory or, for tiles in the file
+ * system, it remains in the tile file, which is opened when the tile is looked up, and is only read when it is
+ * written to the response. The content of a tile file can only be read once, a tile that is not written has to be
+ * closed. The content is not copied, it must not be modified. A stale tile has been invalidated, but it may still
+ * be served while the tile is generated again.
+ */
+public class CachedTile implements Closeable {
+
+    private final byte[] content;
+    private final Path file;
+    // the open tile file, so that the size and the content are those of the file the entity tag belongs to,
+    // even if the file is replaced in the meantime
+    private final FileChannel channel;
+    private final int size;
+    private final String etag;
+    private final boolean gzipped;
+    private final boolean stale;
+
+    public CachedTile(byte[] content) {
+        this(content, false);
+    }
+
+    public CachedTile(byte[] content, boolean gzipped) {
+        this(content, getEtag(content, gzipped), gzipped);
+    }
+
+    public CachedTile(byte[] content, String etag, boolean gzipped) {
+        this.content = content;
+        this.file = null;
+        this.channel = null;
+        this.size = content.length;
+        this.etag = etag;
+        this.gzipped = gzipped;
+        this.stale = false;
+    }
+
+    /**
+     * a tile with uncompressed content in a file
+     * @param file the tile file
+     * @param channel the tile file, opened for reading; the tile takes ownership of the channel
+     * @param etag the entity tag of the file content
+     * @throws IOException the size of the file cannot be determined
+     */
+    public CachedTile(Path file, FileChannel channel, String etag) throws IOException {
+        this.content = null;
+        this.file = file;
+        this.channel = channel;
+        this.size = Math.toIntExact(channel.size());
+        this.etag = etag;
+        this.gzipped = false;
+        this.stale = false;
+    }
+
+    private CachedTile(CachedTile tile, boolean stale) {
+        this.content = tile.content;
+        this.file = tile.file;
+        this.channel = tile.channel;
+        this.size = tile.size;
+        this.etag = tile.etag;
+        this.gzipped = tile.gzipped;
+        this.stale = stale;
+    }
+
+    /**
+     *
+     * @return the same tile, marked as stale
+     */
+    public CachedTile asStale() {
+        return new CachedTile(this, true);
+    }
+
+    /**
+     *
+     * @return a new stream of the uncompressed tile content
+     * @throws IOException the tile file cannot be read or the gzip-compressed content is invalid
+     */
+    public InputStream getContentStream() throws IOException {
+        return gzipped ? new GZIPInputStream(getStoredContentStream()) : getStoredContentStream();
+    }
+
+    /**
+     *
+     * @return a new stream of the tile content as stored in the cache; for a tile file, closing the stream closes
+     * the tile
+     * @throws IOException the tile file cannot be read
+     */
+    public InputStream getStoredContentStream() throws IOException {
+        return Objects.nonNull(channel) ? Channels.newInputStream(channel) : new ByteArrayInputStream(content);
+    }
+
+    /**
+     * write the tile content as stored in the cache; the content of a tile file is transferred in chunks from
+     * the file channel, it is not read into memory as a whole; the tile is closed afterwards
+     * @param outputStream the target
+     * @throws IOException the tile file cannot be read or the content cannot be written
+     */
+    public void writeStoredContent(OutputStream outputStream) throws IOException {
+        if (Objects.isNull(channel)) {
+            outputStream.write(content);
+            return;
+        }
+        try (channel) {
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long length = channel.size();
+            long position = 0;
+            while (position < length) {
+                long transferred = channel.transferTo(position, length - position, target);
+                if (transferred <= 0)
+                    throw new IOException(String.format("Could not read the tile file '%s'.", file));
+                position += transferred;
+            }
+        }
+    }
+
+    /**
+     * release the tile file, if the content is not written
+     * @throws IOException the tile file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (Objects.nonNull(channel))
+            channel.close();
+    }
+
+    /**
+     *
+     * @return the tile file, if the content is not held in memory
+     */
+    public Optional<Path> getFile() {
+        return Optional.ofNullable(file);
+    }
+
+    /**
+     *
+     * @return {@code true}, if the stored content is gzip-compressed
+     */
+    public boolean isGzipped() {
+        return gzipped;
+    }
+
+    /**
+     *
+     * @return {@code true}, if the tile has been invalidated and should be generated again
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     *
+     * @return the (strong) entity tag of the uncompressed tile content, the same value as {@code QueriesHandler.getEtag(byte[])}
+     * for the generated tile; the entity tag does not depend on whether the content is stored gzip-compressed
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     *
+     * @return the size of the stored tile content in bytes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * the entity tag is always computed from the uncompressed content, so that a tile has the same entity tag
+     * when it is generated and when it is read from the cache
+     * @param content the stored content
+     * @param gzipped {@code true}, if the stored content is gzip-compressed
+     * @return the entity tag
+     */
+    @SuppressWarnings("UnstableApiUsage")
+    public static String getEtag(byte[] content, boolean gzipped) {
+        if (gzipped) {
+            try (HashingInputStream uncompressed = new HashingInputStream(Hashing.murmur3_128(), new GZIPInputStream(new ByteArrayInputStream(content)))) {
+                ByteStreams.exhaust(uncompressed);
+                return uncompressed.hash().toString();
+            } catch (IOException e) {
+                // invalid content, the entity tag of the stored bytes is still unique
+            }
+        }
+        return Hashing.murmur3_128()
+                      .hashBytes(content)
+                      .toString();
+    }
+
+    /**
+     * checks whether a client accepts gzip-compressed content
+     * @param acceptEncoding the values of the Accept-Encoding header of the request, may be {@code null}
+     * @return {@code true}, if "gzip" (or "*") is accepted with a quality value larger than zero
+     */
+    public static boolean isGzipAccepted(List<String> acceptEncoding) {
+        if (Objects.isNull(acceptEncoding))
+            return false;
+        return acceptEncoding.stream()
+                             .flatMap(value -> Splitter.on(',').trimResults().omitEmptyStrings().splitToStream(value))
+                             .anyMatch(coding -> {
+                                 List<String> parts = Splitter.on(';').trimResults().splitToList(coding.toLowerCase(Locale.ROOT));
+                                 if (!parts.get(0).equals("gzip") && !parts.get(0).equals("*"))
+                                     return false;
+                                 return parts.stream()
+                                             .skip(1)
+                                             .filter(parameter -> parameter.startsWith("q="))
+                                             .noneMatch(parameter -> parameter.matches("q=0(\\.0*)?"));
+                             });
+    }
+}
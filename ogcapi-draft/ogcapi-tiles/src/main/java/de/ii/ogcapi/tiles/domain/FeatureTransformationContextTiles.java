@@ -8,6 +8,7 @@
 package de.ii.ogcapi.tiles.domain;
 
 import de.ii.ogcapi.features.core.domain.FeatureTransformationContext;
+import java.util.List;
 import java.util.Map;
 import org.immutables.value.Value;
 
@@ -19,8 +20,16 @@ public interface FeatureTransformationContextTiles extends FeatureTransformation
 
   Tile tile();
 
+  /**
+   * @return the tiles that are generated from the features of the query, if the query covers a metatile; the tiles
+   *     are written to the tile cache and no content is returned; empty for a single tile
+   */
+  List<Tile> metatile();
+
   TileCache getTileCache();
 
+  TileStatistics getTileStatistics();
+
   @Value.Lazy
   default TilesConfiguration tilesConfiguration() {
     return getConfiguration(TilesConfiguration.class);
@@ -0,0 +1,43 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.domain;
+
+import java.util.Set;
+
+/**
+ * The persistent progress of the seeding of an API, so that a seeding run that has been stopped, e.g. by a restart,
+ * resumes where it has stopped. Each phase of the seeding has a checkpoint with the keys of the completed blocks of
+ * tiles and of the completed tile matrices. A key identifies the tile set, the tiling scheme, the tile format and the
+ * zoom level; the key of a block additionally the range of rows and columns.
+ */
+public interface SeedingCheckpoints {
+
+    /**
+     * start recording the progress of a phase; a checkpoint of a previous run of the phase is discarded, if the
+     * tiles of the run have changed
+     * @param apiId the API
+     * @param phase the phase of the seeding
+     * @param fingerprint identifies the tiles of the run
+     * @return the keys of the blocks and tile matrices that have been completed in a previous run with the same tiles
+     */
+    Set<String> resume(String apiId, String phase, String fingerprint);
+
+    /**
+     * record that a block or tile matrix has been completed
+     * @param apiId the API
+     * @param phase the phase of the seeding
+     * @param key the key of the block or tile matrix
+     */
+    void completed(String apiId, String phase, String key);
+
+    /**
+     * remove the checkpoints of all phases, e.g. when a seeding run has finished or when tiles are purged or evicted
+     * @param apiId the API
+     */
+    void reset(String apiId);
+}
@@ -61,4 +61,50 @@ public interface SeedingOptions {
     return Objects.isNull(getMaxThreads()) || getMaxThreads() <= 1 ? 1 : getMaxThreads();
   }
 
+  @Nullable
+  Integer getMetatileSize();
+
+  @Nullable
+  Integer getMetatileMinLevel();
+
+  /**
+   * @param level the zoom level of the tiles
+   * @return the number of rows and columns of the metatiles that are generated with a single feature query, 1 for
+   *     single tiles
+   */
+  @JsonIgnore
+  default int getEffectiveMetatileSize(int level) {
+    if (Objects.isNull(getMetatileSize()) || getMetatileSize() <= 1) {
+      return 1;
+    }
+    return Objects.nonNull(getMetatileMinLevel()) && level < getMetatileMinLevel() ? 1 : getMetatileSize();
+  }
+
+  @Nullable
+  Integer getOverviewMaxLevel();
+
+  /**
+   * @param level the zoom level of the tiles
+   * @return {@code true}, if the tiles are built from the tiles of the next zoom level instead of the features
+   */
+  @JsonIgnore
+  default boolean shouldBuildOverview(int level) {
+    return Objects.nonNull(getOverviewMaxLevel()) && level <= getOverviewMaxLevel();
+  }
+
+  @Nullable
+  Integer getPopularTiles();
+
+  @Nullable
+  Integer getPopularTilesMaxSeconds();
+
+  /**
+   * @return {@code true}, if the most requested tiles are generated before the other tiles
+   */
+  @Value.Lazy
+  @JsonIgnore
+  default boolean shouldSeedPopularTilesFirst() {
+    return Objects.nonNull(getPopularTiles()) && getPopularTiles() > 0;
+  }
+
 }
@@ -0,0 +1,31 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.domain;
+
+import org.immutables.value.Value;
+
+/**
+ * The number and size of the tiles in the cache of a tile set or of a zoom level of a tile set. The size is the sum
+ * of the sizes of the tiles; in an MBTiles file tiles with the same content are stored only once.
+ */
+@Value.Immutable
+@Value.Style(builder = "new")
+public interface StoredTiles {
+
+  StoredTiles NONE = new ImmutableStoredTiles.Builder().tiles(0).bytes(0).build();
+
+  long getTiles();
+
+  long getBytes();
+
+  default StoredTiles add(StoredTiles other) {
+    return new ImmutableStoredTiles.Builder().tiles(getTiles() + other.getTiles())
+                                             .bytes(getBytes() + other.getBytes())
+                                             .build();
+  }
+}
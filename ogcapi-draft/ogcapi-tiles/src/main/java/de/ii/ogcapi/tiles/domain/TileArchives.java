@@ -0,0 +1,93 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.domain;
+
+import de.ii.ogcapi.foundation.domain.OgcApiDataV2;
+import de.ii.ogcapi.tiles.app.mbtiles.MbtilesTileset;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Optional;
+
+/**
+ * PMTILES: The PMTiles archives of the tile sets with a PMTiles cache. The tiles are written to the Mbtiles cache file
+ * of the tile set and exported to the archive. Tiles that have been written or deleted since the export are served
+ * from the Mbtiles cache file until the archive has been exported again in the background.
+ */
+public interface TileArchives {
+
+    /**
+     * open an existing PMTiles archive
+     * @param apiData the API
+     * @param collectionId the collection; an empty value represents the dataset
+     * @param tileMatrixSetId the tile matrix set
+     * @throws IOException an error occurred while accessing files
+     */
+    void open(OgcApiDataV2 apiData, Optional<String> collectionId, String tileMatrixSetId) throws IOException;
+
+    /**
+     * write the tiles in the Mbtiles cache file to a new PMTiles archive and replace the current archive
+     * @param apiData the API
+     * @param collectionId the collection; an empty value represents the dataset
+     * @param tileMatrixSet the tile matrix set
+     * @param tileset the Mbtiles cache file of the tile set
+     * @throws IOException an error occurred while accessing files
+     * @throws SQLException an error occurred while accessing an Mbtiles file
+     */
+    void export(OgcApiDataV2 apiData, Optional<String> collectionId, TileMatrixSet tileMatrixSet, MbtilesTileset tileset) throws IOException, SQLException;
+
+    /**
+     * export the archive of a tile set in the background, changes within a few minutes are included in a single export
+     * @param apiData the API
+     * @param collectionId the collection; an empty value represents the dataset
+     * @param tileMatrixSet the tile matrix set
+     * @param tileset the Mbtiles cache file of the tile set
+     */
+    void scheduleExport(OgcApiDataV2 apiData, Optional<String> collectionId, TileMatrixSet tileMatrixSet, MbtilesTileset tileset);
+
+    /**
+     * fetch a tile from the PMTiles archive
+     * @param tile the tile
+     * @return the tile, if the archive exists and contains the current version of the tile
+     * @throws IOException an error occurred while accessing files
+     */
+    Optional<CachedTile> getTile(Tile tile) throws IOException;
+
+    /**
+     * checks whether a tile is in the PMTiles archive, but contains no features
+     * @param tile the tile
+     * @return {@code true}, if the tile contains no features; the result is empty, if the archive does not exist or
+     *     does not contain the current version of the tile
+     * @throws IOException an error occurred while accessing files
+     */
+    Optional<Boolean> isEmptyTile(Tile tile) throws IOException;
+
+    /**
+     * record that a tile has been written or deleted in the Mbtiles cache file after the export of the archive; the
+     * tile is no longer served from the archive and the archive is exported again in the background
+     * @param tile the tile
+     * @param tileset the Mbtiles cache file of the tile set
+     */
+    void override(Tile tile, MbtilesTileset tileset);
+
+    /**
+     * remove the PMTiles archive of a tile set, e.g. after tiles have been deleted
+     * @param apiData the API
+     * @param collectionId the collection; an empty value represents the dataset
+     * @param tileMatrixSetId the tile matrix set
+     * @return {@code true}, if an archive has been removed
+     * @throws IOException an error occurred while accessing files
+     */
+    boolean drop(OgcApiDataV2 apiData, Optional<String> collectionId, String tileMatrixSetId) throws IOException;
+
+    /**
+     * stop the exports and close all archives before the application stops; an archive is removed, if tiles have
+     * been changed since the export
+     */
+    void close();
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.domain;
+
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimits;
+import java.util.BitSet;
+
+/**
+ * This class represents a set of tiles in a range of rows and columns of a tile matrix with one bit per tile.
+ */
+public class TileBitmap {
+
+    private final int level;
+    private final int minRow;
+    private final int maxRow;
+    private final int minCol;
+    private final int maxCol;
+    private final BitSet bits;
+
+    public TileBitmap(TileMatrixSetLimits limits) {
+        this(Integer.parseInt(limits.getTileMatrix()), limits.getMinTileRow(), limits.getMaxTileRow(), limits.getMinTileCol(), limits.getMaxTileCol());
+    }
+
+    public TileBitmap(int level, int minRow, int maxRow, int minCol, int maxCol) {
+        if ((long) (maxRow - minRow + 1) * (maxCol - minCol + 1) > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(String.format("Too many tiles for a tile bitmap, restrict the range of rows. Found: rows %d-%d, columns %d-%d.", minRow, maxRow, minCol, maxCol));
+        this.level = level;
+        this.minRow = minRow;
+        this.maxRow = maxRow;
+        this.minCol = minCol;
+        this.maxCol = maxCol;
+        this.bits = new BitSet();
+    }
+
+    /**
+     *
+     * @return the zoom level / tile matrix of the tiles
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     *
+     * @param row the row of the tile
+     * @param col the column of the tile
+     * @return {@code true}, if the tile is within the range of rows and columns of the bitmap
+     */
+    public boolean covers(int row, int col) {
+        return row >= minRow && row <= maxRow && col >= minCol && col <= maxCol;
+    }
+
+    /**
+     *
+     * @param row the row of the tile
+     * @param col the column of the tile
+     * @return {@code true}, if the tile is included in the set; tiles outside of the range are never included
+     */
+    public boolean contains(int row, int col) {
+        return covers(row, col) && bits.get(index(row, col));
+    }
+
+    /**
+     * add a tile to the set; tiles outside of the range are ignored
+     * @param row the row of the tile
+     * @param col the column of the tile
+     */
+    public void add(int row, int col) {
+        if (covers(row, col)) {
+            bits.set(index(row, col));
+        }
+    }
+
+    /**
+     * remove a tile from the set
+     * @param row the row of the tile
+     * @param col the column of the tile
+     */
+    public void remove(int row, int col) {
+        if (covers(row, col)) {
+            bits.clear(index(row, col));
+        }
+    }
+
+    /**
+     *
+     * @return the number of tiles in the set
+     */
+    public long size() {
+        return bits.cardinality();
+    }
+
+    private int index(int row, int col) {
+        return (row - minRow) * (maxCol - minCol + 1) + (col - minCol);
+    }
+}
@@ -9,11 +9,14 @@ package de.ii.ogcapi.tiles.domain;
 
 import de.ii.ogcapi.foundation.domain.ApiExtension;
 import de.ii.ogcapi.foundation.domain.OgcApi;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimits;
 import de.ii.xtraplatform.crs.domain.BoundingBox;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.SQLException;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -30,15 +33,47 @@ public interface TileCache extends ApiExtension {
      */
     boolean tileExists(Tile tile) throws IOException, SQLException;
 
+    /**
+     * determine all cached tiles in a range of a tile matrix with a single lookup
+     * @param api the API
+     * @param collectionId the collection of single-layer tiles, empty = multi-layer tiles of the dataset
+     * @param tileMatrixSet the tiling scheme
+     * @param limits the tile matrix and the range of rows and columns
+     * @param outputFormat the tile format
+     * @return the cached tiles in the range, including the tiles that are pending and have not been written yet
+     * @throws IOException an error occurred while accessing files
+     * @throws SQLException an error occurred while accessing an Mbtiles file
+     */
+    TileBitmap getCachedTiles(OgcApi api, Optional<String> collectionId, TileMatrixSet tileMatrixSet,
+                              TileMatrixSetLimits limits, TileFormatExtension outputFormat) throws IOException, SQLException;
+
     /**
      * fetch a tile from the cache
      * @param tile the tile
-     * @return the tile as an input stream; the result is empty, if the tile is not cached
+     * @return the tile as an input stream; the result is empty, if the tile is not cached or stale
      * @throws IOException an error occurred while accessing files
      * @throws SQLException an error occurred while accessing an Mbtiles file
      */
     Optional<InputStream> getTile(Tile tile) throws IOException, SQLException;
 
+    /**
+     * fetch a tile from the cache together with its entity tag; frequently requested tiles are kept in memory;
+     * if the tile set serves stale tiles while they are revalidated, the result may be a stale tile
+     * @param tile the tile
+     * @return the tile content and entity tag, or empty, if the tile is not cached
+     * @throws IOException an error occurred while accessing files
+     * @throws SQLException an error occurred while accessing an Mbtiles file
+     */
+    Optional<CachedTile> getCachedTile(Tile tile) throws IOException, SQLException;
+
+    /**
+     * generate a stale tile again in the background; while the tile is generated, further calls for the same
+     * tile are ignored
+     * @param tile the stale tile
+     * @param generation generates the tile and stores it in the cache
+     */
+    void revalidate(Tile tile, Runnable generation);
+
     /**
      * checks whether a tile is cached, but contains no features
      * @param tile the tile
@@ -77,7 +112,56 @@ public interface TileCache extends ApiExtension {
     void deleteTiles(OgcApi api, Optional<String> collectionId, Optional<String> tileMatrixSetId, Optional<BoundingBox> boundingBox) throws IOException, SQLException;
 
     /**
-     * clean-up temporary files that cannot be cached due to the use of parameters
+     * invalidate the cached tiles of a collection and the multi-collection tiles after a change of features,
+     * including the tiles next to the bounding box; if the tile set serves stale tiles while they are revalidated,
+     * the tiles are only marked as stale
+     * @param api the API
+     * @param collectionId the collection with the changed features
+     * @param boundingBox the bounding box of the changed features, empty = the spatial extent of the collection
+     * @throws IOException an error occurred while accessing files
+     * @throws SQLException an error occurred while accessing an Mbtiles file
+     */
+    void invalidateTiles(OgcApi api, String collectionId, Optional<BoundingBox> boundingBox) throws IOException, SQLException;
+
+    /**
+     * write all tiles that have been stored, but are still pending, to the cache
+     * @throws IOException an error occurred while accessing files
+     * @throws SQLException an error occurred while accessing an Mbtiles file
+     */
+    void flush() throws IOException, SQLException;
+
+    /**
+     * PMTILES: write the tiles of all tile sets of the API with a PMTiles cache to the PMTiles archives
+     * @param api the API
+     * @throws IOException an error occurred while accessing files
+     * @throws SQLException an error occurred while accessing an Mbtiles file
+     */
+    void exportArchives(OgcApi api) throws IOException, SQLException;
+
+    /**
+     * FILES, MBTILES: delete the least recently accessed tiles from each tile set of the API with a cache quota
+     * that exceeds its quota
+     * @param api the API
+     * @throws IOException an error occurred while accessing files
+     * @throws SQLException an error occurred while accessing an Mbtiles file
+     */
+    void evictTiles(OgcApi api) throws IOException, SQLException;
+
+    /**
+     * count the tiles in the cache of a tile set; for the file system, the directories are traversed, so this
+     * should not be called frequently
+     * @param api the API
+     * @param collectionId the collection of single-layer tiles, empty = multi-layer tiles of the dataset
+     * @param tileMatrixSet the tiling scheme
+     * @return the number and size of the cached tiles per zoom level, stale tiles are not included
+     * @throws IOException an error occurred while accessing files
+     * @throws SQLException an error occurred while accessing an Mbtiles file
+     */
+    Map<Integer, StoredTiles> getStoredTiles(OgcApi api, Optional<String> collectionId, TileMatrixSet tileMatrixSet) throws IOException, SQLException;
+
+    /**
+     * clean-up temporary files that cannot be cached due to the use of parameters and write the bitmaps of empty
+     * tiles that have changed
      */
     void cleanup();
 
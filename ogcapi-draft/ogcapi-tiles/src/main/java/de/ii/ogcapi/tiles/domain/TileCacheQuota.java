@@ -0,0 +1,53 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import java.util.Objects;
+import java.util.Optional;
+import javax.annotation.Nullable;
+import org.immutables.value.Value;
+
+@Value.Immutable
+@Value.Style(builder = "new")
+@JsonDeserialize(builder = ImmutableTileCacheQuota.Builder.class)
+public interface TileCacheQuota {
+
+  String DEFAULT_EVICTION_PERIODIC = "*/15 * * * *";
+
+  @Nullable
+  Long getMaxSizeMB();
+
+  @Value.Lazy
+  @JsonIgnore
+  default Optional<Long> getMaxSizeBytes() {
+    return Objects.isNull(getMaxSizeMB()) || getMaxSizeMB() <= 0
+        ? Optional.empty()
+        : Optional.of(getMaxSizeMB() * 1024 * 1024);
+  }
+
+  @Nullable
+  Integer getPinnedMaxZoomLevel();
+
+  @Value.Lazy
+  @JsonIgnore
+  default int getEffectivePinnedMaxZoomLevel() {
+    return Objects.isNull(getPinnedMaxZoomLevel()) ? -1 : getPinnedMaxZoomLevel();
+  }
+
+  @Nullable
+  String getRunPeriodic();
+
+  @Value.Lazy
+  @JsonIgnore
+  default String getCronExpression() {
+    return Objects.requireNonNullElse(getRunPeriodic(), DEFAULT_EVICTION_PERIODIC);
+  }
+
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.domain;
+
+import de.ii.ogcapi.tiles.app.mbtiles.MbtilesTileset;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+
+/**
+ * The enforcement of the cache quotas of tile sets. A tile set that exceeds its quota is reduced to a share of the
+ * quota; the least recently accessed tiles are deleted first, the tiles of pinned zoom levels are kept.
+ */
+public interface TileEviction {
+
+    /**
+     * MBTILES: evict tiles from a Mbtiles cache file, if it exceeds its quota
+     * @param tileset the Mbtiles cache file
+     * @param tileSetKey the key of the tile set for log messages
+     * @param quota the quota of the tile set
+     * @return the number of evicted tiles
+     * @throws IOException an error occurred while accessing files
+     * @throws SQLException an error occurred while accessing an Mbtiles file
+     */
+    int evictTiles(MbtilesTileset tileset, String tileSetKey, TileCacheQuota quota) throws IOException, SQLException;
+
+    /**
+     * FILES: evict tile files from the directory of a tile set, if it exceeds its quota
+     * @param tileSetDirectory the directory of the tile set
+     * @param tileSetKey the key of the tile set for log messages
+     * @param quota the quota of the tile set
+     * @return the number of evicted tiles
+     * @throws IOException an error occurred while accessing files
+     */
+    int evictTiles(Path tileSetDirectory, String tileSetKey, TileCacheQuota quota) throws IOException;
+
+    /**
+     * FILES: record a change of the size of the tile files of a tile set, if the size is tracked
+     * @param tilePath the path of a tile file, {@code {tileSetDirectory}/{level}/{row}/{col}.{extension}}
+     * @param delta the change in bytes
+     */
+    void updateTileFilesSize(Path tilePath, long delta);
+}
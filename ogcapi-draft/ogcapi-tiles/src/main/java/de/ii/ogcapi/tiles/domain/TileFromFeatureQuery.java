@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
 
 public interface TileFromFeatureQuery {
 
@@ -31,6 +32,28 @@ public interface TileFromFeatureQuery {
                         TilesConfiguration tilesConfiguration,
                         URICustomizer uriCustomizer);
 
+  /**
+   * the query for the features of all tiles of a metatile, a block of neighbouring tiles of the same tile matrix
+   * that are generated together
+   *
+   * @param metatile the tiles of the metatile
+   * @return the query, empty, if the tile format does not support metatiles
+   */
+  default Optional<FeatureQuery> getMetatileQuery(List<Tile> metatile,
+                                                  List<OgcApiQueryParameter> allowedParameters,
+                                                  Map<String, String> queryParameters,
+                                                  TilesConfiguration tilesConfiguration,
+                                                  URICustomizer uriCustomizer) {
+    return Optional.empty();
+  }
+
+  /**
+   * @return {@code true}, if the tile format provides a query for metatiles
+   */
+  default boolean supportsMetatiles() {
+    return false;
+  }
+
   class MultiLayerTileContent {
     public byte[] byteArray;
     public boolean isComplete;
@@ -40,6 +63,36 @@ public interface TileFromFeatureQuery {
 
   double getMaxAllowableOffset(Tile tile);
 
+  /**
+   * @return {@code true}, if tiles of the zoom level can be built from the four tiles of the next zoom level
+   */
+  default boolean supportsOverviews(TilesConfiguration tilesConfiguration, TileMatrixSet tileMatrixSet, int level) {
+    return false;
+  }
+
+  /**
+   * build a tile from the four tiles of the next zoom level that cover the tile, without a feature query
+   *
+   * @param tile the tile
+   * @param childTiles the encoded child tiles in the order upper left, upper right, lower left, lower right;
+   *                   {@code null} for a child tile without features
+   * @param tilesConfiguration the configuration of the tile set
+   * @return the encoded tile
+   * @throws IOException a child tile cannot be decoded
+   */
+  default byte[] getOverviewTile(Tile tile, List<byte[]> childTiles, TilesConfiguration tilesConfiguration) throws IOException {
+    throw new UnsupportedOperationException(String.format("Overview tiles are not supported by tile format %s.", getClass().getSimpleName()));
+  }
+
+  /**
+   * @param content an encoded tile
+   * @return the number of features in all layers of the tile, empty, if the tile format cannot determine it
+   * @throws IOException the tile cannot be decoded
+   */
+  default OptionalLong getNumberOfFeatures(byte[] content) throws IOException {
+    return OptionalLong.empty();
+  }
+
   default Optional<FeatureTokenEncoder<?>> getFeatureEncoder(
       FeatureTransformationContextTiles transformationContext) {
     return Optional.empty();
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.domain;
+
+import de.ii.ogcapi.foundation.domain.ApiExtension;
+import de.ii.ogcapi.foundation.domain.OgcApiDataV2;
+import de.ii.xtraplatform.crs.domain.BoundingBox;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Keeps the tile cache current with the features. The cached tiles that are affected by a change of features are
+ * invalidated in the background, and the deleted tiles within the seeding ranges are queued, so that they are
+ * generated again.
+ */
+public interface TileInvalidation extends ApiExtension {
+
+    /**
+     * queue the deleted tiles within the seeding ranges, so that they are generated again in the background
+     * @param apiData the API
+     * @param collectionId the collection for which tiles have been deleted, empty = all collections
+     * @param boundingBoxes the bounding box in which tiles have been deleted, by tiling scheme
+     * @param includeAdjacentTiles also queue the tiles next to the bounding box
+     */
+    void enqueueForReseeding(OgcApiDataV2 apiData, Optional<String> collectionId, Map<String, BoundingBox> boundingBoxes,
+                             boolean includeAdjacentTiles);
+
+    /**
+     * finish the invalidation of tiles after changes of features before the application stops
+     */
+    void shutdown();
+}
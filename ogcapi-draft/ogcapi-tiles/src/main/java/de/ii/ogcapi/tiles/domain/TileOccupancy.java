@@ -0,0 +1,26 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.domain;
+
+import de.ii.ogcapi.foundation.domain.ApiExtension;
+
+/**
+ * A coarse occupancy grid of the features of each collection, so that tiles without features can be identified
+ * without a feature query. The grid of a collection is built from the bounding boxes of the features in the
+ * background after the start of the API and is kept current with the changes of the features. Until a grid is
+ * available, no tile is considered empty.
+ */
+public interface TileOccupancy extends ApiExtension {
+
+    /**
+     *
+     * @param tile the tile
+     * @return {@code true}, if the grids of all collections of the tile prove that the tile has no features
+     */
+    boolean isEmpty(Tile tile);
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.domain;
+
+import de.ii.ogcapi.foundation.domain.ApiExtension;
+import de.ii.ogcapi.tiles.domain.TileReseedQueue.QueuedTile;
+import java.util.List;
+
+/**
+ * The request frequencies of the tiles of an API, so that the seeding can generate the most requested tiles first.
+ * The frequencies are approximate and independent of the tile format; only the most requested tiles are kept.
+ */
+public interface TilePopularity extends ApiExtension {
+
+    /**
+     * record a request of a tile that may be served from the tile cache
+     * @param tile the requested tile
+     */
+    void recordRequest(Tile tile);
+
+    /**
+     *
+     * @param apiId the API
+     * @param limit the maximum number of tiles
+     * @return the most requested tiles, the most requested tile first
+     */
+    List<QueuedTile> getPopularTiles(String apiId, int limit);
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.domain;
+
+import com.google.common.base.Splitter;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimits;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Queue of tiles that have been removed from the tile cache and should be generated again in the background.
+ * The queue is persistent and contains each tile only once, tiles on lower zoom levels are returned first.
+ */
+public interface TileReseedQueue {
+
+    /**
+     * a tile in the queue, independent of the tile format
+     */
+    final class QueuedTile implements Comparable<QueuedTile> {
+
+        private static final Comparator<QueuedTile> ORDER = Comparator.comparingInt(QueuedTile::getLevel)
+                                                                      .thenComparing(QueuedTile::getTileMatrixSetId)
+                                                                      .thenComparing(tile -> tile.getCollectionId().orElse(""))
+                                                                      .thenComparingInt(QueuedTile::getRow)
+                                                                      .thenComparingInt(QueuedTile::getCol);
+
+        private final Optional<String> collectionId;
+        private final String tileMatrixSetId;
+        private final int level;
+        private final int row;
+        private final int col;
+
+        public QueuedTile(Optional<String> collectionId, String tileMatrixSetId, int level, int row, int col) {
+            this.collectionId = collectionId;
+            this.tileMatrixSetId = tileMatrixSetId;
+            this.level = level;
+            this.row = row;
+            this.col = col;
+        }
+
+        /**
+         *
+         * @return the collection of a single-layer tile, empty for a multi-layer tile of the dataset
+         */
+        public Optional<String> getCollectionId() {
+            return collectionId;
+        }
+
+        public String getTileMatrixSetId() {
+            return tileMatrixSetId;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        public int getCol() {
+            return col;
+        }
+
+        /**
+         * @param key the tile as returned by {@link #toString()}
+         * @return the tile, empty, if the key is invalid
+         */
+        public static Optional<QueuedTile> parse(String key) {
+            List<String> parts = Splitter.on('/').splitToList(key);
+            if (parts.size() != 5)
+                return Optional.empty();
+            try {
+                return Optional.of(new QueuedTile(parts.get(0).equals("__all__") ? Optional.empty() : Optional.of(parts.get(0)),
+                                                  parts.get(1),
+                                                  Integer.parseInt(parts.get(2)),
+                                                  Integer.parseInt(parts.get(3)),
+                                                  Integer.parseInt(parts.get(4))));
+            } catch (NumberFormatException e) {
+                return Optional.empty();
+            }
+        }
+
+        @Override
+        public int compareTo(QueuedTile other) {
+            return ORDER.compare(this, other);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof QueuedTile))
+                return false;
+            QueuedTile that = (QueuedTile) o;
+            return level == that.level && row == that.row && col == that.col
+                && collectionId.equals(that.collectionId) && tileMatrixSetId.equals(that.tileMatrixSetId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(collectionId, tileMatrixSetId, level, row, col);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s/%s/%d/%d/%d", collectionId.orElse("__all__"), tileMatrixSetId, level, row, col);
+        }
+    }
+
+    /**
+     * add the tiles in a range of a tile matrix to the queue, tiles that are already queued are ignored
+     * @param apiId the API
+     * @param collectionId the collection of single-layer tiles, empty = multi-layer tiles of the dataset
+     * @param tileMatrixSetId the tiling scheme
+     * @param limits the tile matrix and the range of rows and columns
+     * @return the number of tiles that have been added
+     */
+    long enqueue(String apiId, Optional<String> collectionId, String tileMatrixSetId, TileMatrixSetLimits limits);
+
+    /**
+     * take the next tile from the queue; the tile remains in the persistent queue until {@link #done} is called
+     * @param apiId the API
+     * @return the queued tile with the lowest zoom level, empty, if the queue is empty
+     */
+    Optional<QueuedTile> poll(String apiId);
+
+    /**
+     * record that a tile has been generated or that it does not have to be generated any more
+     * @param apiId the API
+     * @param tile the tile from {@link #poll}
+     */
+    void done(String apiId, QueuedTile tile);
+
+    /**
+     * return a tile that has not been processed to the queue, e.g. when the processing is stopped
+     * @param apiId the API
+     * @param tile the tile from {@link #poll}
+     */
+    void release(String apiId, QueuedTile tile);
+
+    /**
+     *
+     * @param apiId the API
+     * @return the number of tiles in the queue
+     */
+    long size(String apiId);
+}
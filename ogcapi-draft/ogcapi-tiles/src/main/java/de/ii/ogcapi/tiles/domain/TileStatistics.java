@@ -0,0 +1,34 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.domain;
+
+import de.ii.ogcapi.foundation.domain.ApiExtension;
+
+/**
+ * Statistics about the use of the tile cache and the generation of tiles per API, tile set (a collection or the
+ * dataset), tiling scheme and zoom level. The statistics are kept in memory since the start of the API.
+ */
+public interface TileStatistics extends ApiExtension {
+
+    /**
+     * record a lookup of a tile in the cache
+     * @param tile the tile
+     * @param hit {@code true}, if the tile was found in the cache
+     */
+    void recordCacheAccess(Tile tile, boolean hit);
+
+    /**
+     * record the generation of a single-layer tile from the features of a collection
+     * @param tile the tile
+     * @param collectionId the collection
+     * @param durationNanos the time from the start of the feature query until the tile was encoded
+     * @param size the size of the encoded tile in bytes
+     * @param features the number of features in the tile
+     */
+    void recordGeneration(Tile tile, String collectionId, long durationNanos, int size, long features);
+}
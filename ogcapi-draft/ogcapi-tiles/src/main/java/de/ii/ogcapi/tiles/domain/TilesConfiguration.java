@@ -37,7 +37,7 @@ import org.immutables.value.Value;
 @JsonDeserialize(builder = ImmutableTilesConfiguration.Builder.class)
 public interface TilesConfiguration extends ExtensionConfiguration, PropertyTransformations, CachingConfiguration {
 
-    enum TileCacheType { FILES, MBTILES, NONE }
+    enum TileCacheType { FILES, MBTILES, PMTILES, NONE }
 
     abstract class Builder extends ExtensionConfiguration.Builder {
     }
@@ -50,6 +50,39 @@ public interface TilesConfiguration extends ExtensionConfiguration, PropertyTran
     @Nullable
     TileCacheType getCache();
 
+    @Nullable
+    TileCacheQuota getCacheQuota();
+
+    @Value.Auxiliary
+    @Value.Derived
+    @JsonIgnore
+    default Optional<TileCacheQuota> getCacheQuotaDerived() {
+        return Optional.ofNullable(getCacheQuota())
+                       .filter(quota -> quota.getMaxSizeBytes().isPresent())
+                       // the quota is only applied to caches that are updated tile by tile
+                       .filter(quota -> Objects.isNull(getCache()) || getCache() == TileCacheType.FILES || getCache() == TileCacheType.MBTILES);
+    }
+
+    @Nullable
+    Boolean getStaleWhileRevalidate();
+
+    @Value.Auxiliary
+    @Value.Derived
+    @JsonIgnore
+    default boolean isStaleWhileRevalidate() {
+        return Objects.equals(getStaleWhileRevalidate(), true) && getCache() != TileCacheType.NONE;
+    }
+
+    @Nullable
+    Boolean getSkipEmptyTiles();
+
+    @Value.Auxiliary
+    @Value.Derived
+    @JsonIgnore
+    default boolean isSkipEmptyTiles() {
+        return Objects.equals(getSkipEmptyTiles(), true) && getTileProvider() instanceof TileProviderFeatures;
+    }
+
     @Nullable
     MapClient.Type getMapClientType();
 
@@ -18,7 +18,6 @@ import de.ii.xtraplatform.crs.domain.EpsgCrs;
 import de.ii.xtraplatform.features.domain.FeatureQuery;
 import org.immutables.value.Value;
 
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
@@ -41,7 +40,12 @@ public interface TilesQueriesHandler extends QueriesHandler<TilesQueriesHandler.
     interface QueryInputTileStream extends QueryInput {
 
         Tile getTile();
-        InputStream getTileContent();
+        // the tile from the cache, the content is written as stored in the cache, if it is not gzip-compressed
+        // or if the compressed content is sent
+        CachedTile getCachedTile();
+        // the gzip-compressed tile content is sent with "Content-Encoding: gzip"
+        @Value.Default
+        default boolean getContentGzipped() { return false; }
     }
 
     @Value.Immutable
@@ -77,6 +81,8 @@ public interface TilesQueriesHandler extends QueriesHandler<TilesQueriesHandler.
 
         Tile getTile();
         FeatureQuery getQuery();
+        // the tiles of a metatile, if the query covers all of them; the tiles are only written to the cache
+        List<Tile> getMetatile();
         EpsgCrs getDefaultCrs();
 
         // the processing
@@ -19,9 +19,12 @@ import de.ii.ogcapi.foundation.domain.FormatExtension;
 import de.ii.ogcapi.foundation.domain.OgcApi;
 import de.ii.ogcapi.foundation.domain.OgcApiDataV2;
 import de.ii.ogcapi.tiles.api.AbstractEndpointTileMultiCollection;
+import de.ii.ogcapi.tiles.domain.CachedTile;
 import de.ii.ogcapi.tiles.domain.StaticTileProviderStore;
 import de.ii.ogcapi.tiles.domain.TileCache;
 import de.ii.ogcapi.tiles.domain.TileFormatExtension;
+import de.ii.ogcapi.tiles.domain.TileOccupancy;
+import de.ii.ogcapi.tiles.domain.TilePopularity;
 import de.ii.ogcapi.tiles.domain.TileProvider;
 import de.ii.ogcapi.tiles.domain.TilesConfiguration;
 import de.ii.ogcapi.tiles.domain.TilesQueriesHandler;
@@ -38,6 +41,7 @@ import javax.ws.rs.NotFoundException;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 import org.slf4j.Logger;
@@ -64,8 +68,10 @@ public class EndpointTileMultiCollection extends AbstractEndpointTileMultiCollec
                                 TileMatrixSetLimitsGenerator limitsGenerator,
                                 TileCache cache,
                                 StaticTileProviderStore staticTileProviderStore,
-                                TileMatrixSetRepository tileMatrixSetRepository) {
-        super(providers, extensionRegistry, queryHandler, crsTransformerFactory, limitsGenerator, cache, staticTileProviderStore, tileMatrixSetRepository);
+                                TileMatrixSetRepository tileMatrixSetRepository,
+                                TilePopularity tilePopularity,
+                                TileOccupancy tileOccupancy) {
+        super(providers, extensionRegistry, queryHandler, crsTransformerFactory, limitsGenerator, cache, staticTileProviderStore, tileMatrixSetRepository, tilePopularity, tileOccupancy);
         this.providers = providers;
     }
 
@@ -100,7 +106,8 @@ public class EndpointTileMultiCollection extends AbstractEndpointTileMultiCollec
     public Response getTile(@Context OgcApi api,
                             @PathParam("tileMatrixSetId") String tileMatrixSetId, @PathParam("tileMatrix") String tileMatrix,
                             @PathParam("tileRow") String tileRow, @PathParam("tileCol") String tileCol,
-                            @Context UriInfo uriInfo, @Context ApiRequestContext requestContext)
+                            @Context UriInfo uriInfo, @Context ApiRequestContext requestContext,
+                            @Context HttpHeaders httpHeaders)
             throws CrsTransformationException, IOException, NotFoundException {
 
         TileProvider tileProvider = api.getData()
@@ -110,6 +117,6 @@ public class EndpointTileMultiCollection extends AbstractEndpointTileMultiCollec
         return super.getTile(api, requestContext, uriInfo,
                              "/tiles/{tileMatrixSetId}/{tileMatrix}/{tileRow}/{tileCol}",
                              tileMatrixSetId, tileMatrix, tileRow, tileCol,
-                             tileProvider);
+                             tileProvider, CachedTile.isGzipAccepted(httpHeaders.getRequestHeader(HttpHeaders.ACCEPT_ENCODING)));
     }
 }
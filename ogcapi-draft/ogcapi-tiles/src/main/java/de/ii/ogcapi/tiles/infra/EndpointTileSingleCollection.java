@@ -19,9 +19,12 @@ import de.ii.ogcapi.foundation.domain.FormatExtension;
 import de.ii.ogcapi.foundation.domain.OgcApi;
 import de.ii.ogcapi.foundation.domain.OgcApiDataV2;
 import de.ii.ogcapi.tiles.api.AbstractEndpointTileSingleCollection;
+import de.ii.ogcapi.tiles.domain.CachedTile;
 import de.ii.ogcapi.tiles.domain.StaticTileProviderStore;
 import de.ii.ogcapi.tiles.domain.TileCache;
 import de.ii.ogcapi.tiles.domain.TileFormatExtension;
+import de.ii.ogcapi.tiles.domain.TileOccupancy;
+import de.ii.ogcapi.tiles.domain.TilePopularity;
 import de.ii.ogcapi.tiles.domain.TileProvider;
 import de.ii.ogcapi.tiles.domain.TilesConfiguration;
 import de.ii.ogcapi.tiles.domain.TilesQueriesHandler;
@@ -38,6 +41,7 @@ import javax.ws.rs.NotFoundException;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 import org.slf4j.Logger;
@@ -62,8 +66,10 @@ public class EndpointTileSingleCollection extends AbstractEndpointTileSingleColl
                                  TileMatrixSetLimitsGenerator limitsGenerator,
                                  TileCache cache,
                                  StaticTileProviderStore staticTileProviderStore,
-                                 TileMatrixSetRepository tileMatrixSetRepository) {
-        super(providers, extensionRegistry, queryHandler, crsTransformerFactory, limitsGenerator, cache, staticTileProviderStore, tileMatrixSetRepository);
+                                 TileMatrixSetRepository tileMatrixSetRepository,
+                                 TilePopularity tilePopularity,
+                                 TileOccupancy tileOccupancy) {
+        super(providers, extensionRegistry, queryHandler, crsTransformerFactory, limitsGenerator, cache, staticTileProviderStore, tileMatrixSetRepository, tilePopularity, tileOccupancy);
     }
 
     @Override
@@ -98,7 +104,8 @@ public class EndpointTileSingleCollection extends AbstractEndpointTileSingleColl
     public Response getTile(@Context OgcApi api, @PathParam("collectionId") String collectionId,
                             @PathParam("tileMatrixSetId") String tileMatrixSetId, @PathParam("tileMatrix") String tileMatrix,
                             @PathParam("tileRow") String tileRow, @PathParam("tileCol") String tileCol,
-                            @Context UriInfo uriInfo, @Context ApiRequestContext requestContext)
+                            @Context UriInfo uriInfo, @Context ApiRequestContext requestContext,
+                            @Context HttpHeaders httpHeaders)
             throws CrsTransformationException, IOException, NotFoundException {
 
         TileProvider tileProvider = api.getData()
@@ -108,6 +115,6 @@ public class EndpointTileSingleCollection extends AbstractEndpointTileSingleColl
         return super.getTile(api, requestContext, uriInfo,
                              "/collections/{collectionId}/tiles/{tileMatrixSetId}/{tileMatrix}/{tileRow}/{tileCol}",
                              collectionId, tileMatrixSetId, tileMatrix, tileRow, tileCol,
-                             tileProvider);
+                             tileProvider, CachedTile.isGzipAccepted(httpHeaders.getRequestHeader(HttpHeaders.ACCEPT_ENCODING)));
     }
 }
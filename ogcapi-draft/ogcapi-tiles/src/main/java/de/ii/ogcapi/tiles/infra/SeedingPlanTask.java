@@ -0,0 +1,267 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.infra;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.azahnen.dagger.annotations.AutoBind;
+import de.ii.ogcapi.foundation.domain.OgcApi;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimits;
+import de.ii.xtraplatform.base.domain.AppConfiguration;
+import de.ii.xtraplatform.base.domain.LogContext;
+import de.ii.xtraplatform.store.domain.entities.EntityRegistry;
+import de.ii.xtraplatform.web.domain.DropwizardPlugin;
+import io.dropwizard.servlets.tasks.Task;
+import io.dropwizard.setup.Environment;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+/**
+ * The admin task "tile-seeding-plan" reports the tiles of the seeding of an API without seeding them, e.g. before
+ * the seeding is enabled for additional zoom levels. The number of tiles per tile set, tiling scheme, tile format
+ * and zoom level is derived from the limits of the tile matrices. For each zoom level, a few random tiles are
+ * generated as temporary tiles (parameter "samples", default 3, 0 to skip the sampling); the number of features, the
+ * size and the generation time of the samples are extrapolated to the duration, the disk usage and the number of
+ * feature queries of the seeding. The estimates are upper bounds: overview tiles are sampled from the features and
+ * single-layer tiles that are generated with the multi-layer tiles are counted twice.
+ */
+@Singleton
+@AutoBind
+public class SeedingPlanTask extends Task implements DropwizardPlugin {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SeedingPlanTask.class);
+    private static final int DEFAULT_SAMPLES = 3;
+    private static final int MAX_SAMPLES = 100;
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final EntityRegistry entityRegistry;
+    private final VectorTileSeeding seeding;
+    private ObjectMapper objectMapper;
+
+    @Inject
+    public SeedingPlanTask(EntityRegistry entityRegistry,
+                           VectorTileSeeding seeding) {
+        super("tile-seeding-plan");
+        this.entityRegistry = entityRegistry;
+        this.seeding = seeding;
+        this.objectMapper = new ObjectMapper();
+    }
+
+    @Override
+    public void init(AppConfiguration configuration, Environment environment) {
+        this.objectMapper = environment.getObjectMapper();
+        environment.admin().addTask(this);
+    }
+
+    @Override
+    public void execute(Map<String, List<String>> parameters, PrintWriter output) throws Exception {
+        Optional<String> apiId = getParameter(parameters, "api");
+        if (apiId.isEmpty()) {
+            output.println("No api id given");
+            output.flush();
+            return;
+        }
+
+        Optional<OgcApi> api = entityRegistry.getEntity(OgcApi.class, apiId.get());
+        if (api.isEmpty()) {
+            output.println("No api with the given id found");
+            output.flush();
+            return;
+        }
+
+        int samples;
+        try {
+            samples = Math.min(MAX_SAMPLES, Math.max(0, getParameter(parameters, "samples").map(Integer::parseInt).orElse(DEFAULT_SAMPLES)));
+        } catch (NumberFormatException e) {
+            output.println("Invalid number of samples given");
+            output.flush();
+            return;
+        }
+
+        try (MDC.MDCCloseable closeable =
+            LogContext.putCloseable(LogContext.CONTEXT.SERVICE, apiId.get())) {
+            output.println(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(getPlan(api.get(), samples)));
+            output.flush();
+        }
+    }
+
+    private Map<String, Object> getPlan(OgcApi api, int samples) {
+        int threads = seeding.getMaxPartials(api);
+        List<Map<String, Object>> tileMatrices = new ArrayList<>();
+        long tiles = 0;
+        double bytes = 0.0;
+        double millis = 0.0;
+        double queries = 0.0;
+        double features = 0.0;
+        for (Map.Entry<String, SeedingScheduler> phase : seeding.createSchedulers(api).entrySet()) {
+            for (SeedingScheduler.Block tileMatrix : phase.getValue().getTileMatrices()) {
+                TileMatrixEstimate estimate = getEstimate(api, tileMatrix, samples);
+                if (estimate.tiles == 0)
+                    continue;
+                tileMatrices.add(estimate.asMap(phase.getKey(), tileMatrix));
+                tiles += estimate.tiles;
+                bytes += estimate.getBytes();
+                millis += estimate.getMillis();
+                queries += estimate.queries;
+                features += estimate.getFeatures();
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("apiId", api.getId());
+        result.put("threads", threads);
+        result.put("samplesPerTileMatrix", samples);
+        result.put("tiles", tiles);
+        if (samples > 0) {
+            result.put("estimatedBytes", Math.round(bytes));
+            result.put("estimatedSeconds", Math.round(millis / threads / 1000.0));
+            result.put("estimatedFeatures", Math.round(features));
+        }
+        result.put("estimatedQueries", Math.round(queries));
+        result.put("tileMatrices", tileMatrices);
+        return result;
+    }
+
+    private TileMatrixEstimate getEstimate(OgcApi api, SeedingScheduler.Block tileMatrix, int samples) {
+        TileMatrixSetLimits limits = tileMatrix.getLimits();
+        long tiles = SeedingScheduler.getNumberOfTiles(limits);
+        TileMatrixEstimate estimate = new TileMatrixEstimate(tiles);
+        if (tiles == 0)
+            return estimate;
+
+        // overview tiles are built from the tiles of the next zoom level without a query
+        boolean overview = tileMatrix.getChildLimits().isPresent();
+        int metatileSize = tileMatrix.getOutputFormat().supportsMetatiles() && !overview ? seeding.getMetatileSize(api, tileMatrix.getLevel()) : 1;
+        int queriesPerTile = tileMatrix.getCollectionId().isPresent()
+            ? 1
+            : seeding.getMultiLayerCollectionIds(api.getData(), tileMatrix.getTileMatrixSet(), tileMatrix.getLevel()).size();
+        long metatileRows = ceilDiv(limits.getMaxTileRow() - limits.getMinTileRow() + 1, metatileSize);
+        long metatileCols = ceilDiv(limits.getMaxTileCol() - limits.getMinTileCol() + 1, metatileSize);
+        estimate.queries = overview ? 0 : metatileRows * metatileCols * queriesPerTile;
+
+        int cols = limits.getMaxTileCol() - limits.getMinTileCol() + 1;
+        Set<Long> positions = new HashSet<>();
+        while (positions.size() < Math.min(samples, tiles))
+            positions.add(ThreadLocalRandom.current().nextLong(tiles));
+        for (long position : positions) {
+            int row = limits.getMinTileRow() + (int) (position / cols);
+            int col = limits.getMinTileCol() + (int) (position % cols);
+            long start = System.nanoTime();
+            try {
+                Optional<byte[]> tile = seeding.generateTemporaryTile(api, tileMatrix, row, col);
+                long duration = System.nanoTime() - start;
+                byte[] content = tile.orElse(new byte[0]);
+                OptionalLong numberOfFeatures = tileMatrix.getOutputFormat().getNumberOfFeatures(content);
+                estimate.addSample(duration, content.length, numberOfFeatures);
+            } catch (Throwable e) {
+                estimate.failedSamples++;
+                LOGGER.debug("Sample tile {}/{}/{}/{} of tile set '{}' could not be generated: {}", tileMatrix.getTileMatrixSet().getId(),
+                             tileMatrix.getLevel(), row, col, tileMatrix.getCollectionId().orElse("__all__"), e.getMessage());
+            }
+        }
+        return estimate;
+    }
+
+    private static long ceilDiv(long x, long y) {
+        return (x + y - 1) / y;
+    }
+
+    private static Optional<String> getParameter(Map<String, List<String>> parameters, String name) {
+        List<String> values = parameters.get(name);
+        return Objects.isNull(values) ? Optional.empty() : values.stream().findFirst();
+    }
+
+    /**
+     * the tiles of a tile matrix and the measurements of the sample tiles
+     */
+    private static class TileMatrixEstimate {
+
+        private final long tiles;
+        private long queries;
+        private int samples;
+        private int failedSamples;
+        private long nanos;
+        private long bytes;
+        private int samplesWithFeatures;
+        private long features;
+
+        TileMatrixEstimate(long tiles) {
+            this.tiles = tiles;
+        }
+
+        void addSample(long nanos, int bytes, OptionalLong features) {
+            this.samples++;
+            this.nanos += nanos;
+            this.bytes += bytes;
+            if (features.isPresent()) {
+                this.samplesWithFeatures++;
+                this.features += features.getAsLong();
+            }
+        }
+
+        double getMeanMillis() {
+            return samples == 0 ? 0.0 : nanos / NANOS_PER_MILLI / samples;
+        }
+
+        double getMeanBytes() {
+            return samples == 0 ? 0.0 : (double) bytes / samples;
+        }
+
+        double getMeanFeatures() {
+            return samplesWithFeatures == 0 ? 0.0 : (double) features / samplesWithFeatures;
+        }
+
+        double getMillis() {
+            return getMeanMillis() * tiles;
+        }
+
+        double getBytes() {
+            return getMeanBytes() * tiles;
+        }
+
+        double getFeatures() {
+            return getMeanFeatures() * tiles;
+        }
+
+        Map<String, Object> asMap(String phase, SeedingScheduler.Block tileMatrix) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("phase", phase);
+            result.put("collectionId", tileMatrix.getCollectionId().orElse("__all__"));
+            result.put("tileMatrixSetId", tileMatrix.getTileMatrixSet().getId());
+            result.put("tileMatrix", tileMatrix.getLevel());
+            result.put("format", tileMatrix.getOutputFormat().getExtension());
+            result.put("overview", tileMatrix.getChildLimits().isPresent());
+            result.put("tiles", tiles);
+            result.put("estimatedQueries", queries);
+            if (samples > 0 || failedSamples > 0) {
+                result.put("samples", samples);
+                result.put("failedSamples", failedSamples);
+                result.put("meanMillis", getMeanMillis());
+                result.put("meanBytes", getMeanBytes());
+                result.put("meanFeatures", getMeanFeatures());
+                result.put("estimatedMillis", Math.round(getMillis()));
+                result.put("estimatedBytes", Math.round(getBytes()));
+                result.put("estimatedFeatures", Math.round(getFeatures()));
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,504 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.infra;
+
+import com.google.common.base.Splitter;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import de.ii.ogcapi.tiles.domain.TileFormatWithQuerySupportExtension;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.ImmutableTileMatrixSetLimits;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimits;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+
+/**
+ * Distributes the tiles of a seeding run to the partials of the seeding task. Each tile matrix is split into square
+ * blocks of tiles that are ordered along a Hilbert curve, so that the tiles processed by a partial are close to each
+ * other and the features are read from neighbouring pages of the database. Each partial starts with its own
+ * contiguous range of blocks; when its range is exhausted, it steals blocks from the end of the range of the partial
+ * with the most remaining blocks. The tile matrices are processed in the order in which they have been added, the
+ * blocks of a tile matrix are only created, when the first partial reaches it. The tiles of an overview zoom level are
+ * built from the tiles of the next zoom level, so these zoom levels are processed from the highest level and the
+ * blocks of an overview zoom level are only handed out, when all blocks of the next zoom level are done.
+ * Blocks and tile matrices that have been completed in a previous run, that has been stopped, are skipped, if the run
+ * is resumed.
+ */
+class SeedingScheduler {
+
+    // the minimum edge length of a block in tiles
+    private static final int MIN_BLOCK_SIZE = 16;
+    // larger blocks are used for tile matrices with more blocks
+    private static final int MAX_BLOCKS_PER_TILE_MATRIX = 1 << 16;
+
+    /**
+     * a block of tiles of a tile matrix for a tile set and a tile format
+     */
+    static class Block {
+
+        private final Optional<String> collectionId;
+        private final TileFormatWithQuerySupportExtension outputFormat;
+        private final TileMatrixSet tileMatrixSet;
+        private final TileMatrixSetLimits limits;
+        private final Optional<TileMatrixSetLimits> childLimits;
+        private final int tileMatrix;
+
+        Block(Optional<String> collectionId, TileFormatWithQuerySupportExtension outputFormat, TileMatrixSet tileMatrixSet,
+              TileMatrixSetLimits limits, Optional<TileMatrixSetLimits> childLimits, int tileMatrix) {
+            this.collectionId = collectionId;
+            this.outputFormat = outputFormat;
+            this.tileMatrixSet = tileMatrixSet;
+            this.limits = limits;
+            this.childLimits = childLimits;
+            this.tileMatrix = tileMatrix;
+        }
+
+        /**
+         *
+         * @return the collection of single-layer tiles, empty for multi-layer tiles of the dataset
+         */
+        Optional<String> getCollectionId() {
+            return collectionId;
+        }
+
+        TileFormatWithQuerySupportExtension getOutputFormat() {
+            return outputFormat;
+        }
+
+        TileMatrixSet getTileMatrixSet() {
+            return tileMatrixSet;
+        }
+
+        TileMatrixSetLimits getLimits() {
+            return limits;
+        }
+
+        int getLevel() {
+            return Integer.parseInt(limits.getTileMatrix());
+        }
+
+        /**
+         *
+         * @return the seeded tiles of the next zoom level, if the tiles are built from these tiles; child tiles
+         *     outside of these limits have no features
+         */
+        Optional<TileMatrixSetLimits> getChildLimits() {
+            return childLimits;
+        }
+
+        /**
+         *
+         * @return the key of the tile matrix of the block in a checkpoint
+         */
+        String getTileMatrixKey() {
+            return String.join("/", collectionId.orElse("__all__"), tileMatrixSet.getId(), outputFormat.getExtension(), limits.getTileMatrix());
+        }
+
+        /**
+         *
+         * @return the key of the block in a checkpoint
+         */
+        String getKey() {
+            return String.join("/", getTileMatrixKey(), String.valueOf(limits.getMinTileRow()), String.valueOf(limits.getMaxTileRow()),
+                               String.valueOf(limits.getMinTileCol()), String.valueOf(limits.getMaxTileCol()));
+        }
+    }
+
+    private final int workers;
+    private final List<TileMatrixBlocks> tileMatrices;
+    private final AtomicInteger nextWorker;
+    private final AtomicInteger currentTileMatrix;
+    private final AtomicLong processedTiles;
+    private long numberOfTiles;
+
+    /**
+     * @param workers the expected number of partials
+     */
+    SeedingScheduler(int workers) {
+        this.workers = Math.max(1, workers);
+        this.tileMatrices = new ArrayList<>();
+        this.nextWorker = new AtomicInteger();
+        this.currentTileMatrix = new AtomicInteger();
+        this.processedTiles = new AtomicLong();
+    }
+
+    /**
+     * add the tiles of tile matrices; must not be called after the first partial has joined
+     *
+     * @param collectionId the collection of single-layer tiles, empty for multi-layer tiles of the dataset
+     * @param outputFormat the tile format
+     * @param tileMatrixSet the tiling scheme
+     * @param limits the tile matrices and the range of rows and columns
+     */
+    void add(Optional<String> collectionId, TileFormatWithQuerySupportExtension outputFormat, TileMatrixSet tileMatrixSet,
+             List<TileMatrixSetLimits> limits) {
+        add(collectionId, outputFormat, tileMatrixSet, limits, level -> false);
+    }
+
+    /**
+     * add the tiles of tile matrices, the tiles of overview zoom levels are built from the tiles of the next zoom
+     * level; must not be called after the first partial has joined
+     *
+     * @param collectionId the collection of single-layer tiles, empty for multi-layer tiles of the dataset
+     * @param outputFormat the tile format
+     * @param tileMatrixSet the tiling scheme
+     * @param limits the tile matrices and the range of rows and columns
+     * @param isOverview tests, if a zoom level is an overview zoom level
+     */
+    void add(Optional<String> collectionId, TileFormatWithQuerySupportExtension outputFormat, TileMatrixSet tileMatrixSet,
+             List<TileMatrixSetLimits> limits, IntPredicate isOverview) {
+        Map<Integer, TileMatrixSetLimits> levels = limits.stream()
+                                                         .collect(Collectors.toMap(tileMatrixLimits -> Integer.parseInt(tileMatrixLimits.getTileMatrix()),
+                                                                                   tileMatrixLimits -> tileMatrixLimits));
+        boolean hasOverviews = levels.keySet()
+                                     .stream()
+                                     .anyMatch(level -> isOverview.test(level) && levels.containsKey(level + 1));
+        List<Integer> order = levels.keySet()
+                                    .stream()
+                                    .sorted(hasOverviews ? Comparator.reverseOrder() : Comparator.naturalOrder())
+                                    .collect(Collectors.toList());
+        for (int level : order) {
+            TileMatrixSetLimits tileMatrixLimits = levels.get(level);
+            Optional<TileMatrixSetLimits> childLimits = isOverview.test(level)
+                ? Optional.ofNullable(levels.get(level + 1))
+                : Optional.empty();
+            Block tileMatrix = new Block(collectionId, outputFormat, tileMatrixSet, tileMatrixLimits, childLimits, tileMatrices.size());
+            // the next zoom level has been added just before
+            tileMatrices.add(new TileMatrixBlocks(tileMatrix, childLimits.isPresent()));
+            numberOfTiles += getNumberOfTiles(tileMatrixLimits);
+        }
+    }
+
+    /**
+     *
+     * @return the tile matrices in the order in which they are processed, each as a single block
+     */
+    List<Block> getTileMatrices() {
+        return tileMatrices.stream()
+                           .map(tileMatrixBlocks -> tileMatrixBlocks.tileMatrix)
+                           .collect(Collectors.toUnmodifiableList());
+    }
+
+    /**
+     * a fingerprint of the tiles of the seeding run, a checkpoint is only valid for a run with the same fingerprint
+     *
+     * @return the fingerprint
+     */
+    @SuppressWarnings("UnstableApiUsage")
+    String getFingerprint() {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        tileMatrices.forEach(tileMatrixBlocks -> {
+            Block tileMatrix = tileMatrixBlocks.tileMatrix;
+            hasher.putUnencodedChars(tileMatrix.getKey());
+            hasher.putBoolean(tileMatrix.getChildLimits().isPresent());
+        });
+        return hasher.hash().toString();
+    }
+
+    /**
+     * skip the blocks and tile matrices that have been completed in a previous run; the tiles are counted as
+     * processed; must not be called after the first partial has joined
+     *
+     * @param completed the keys of the completed blocks and tile matrices
+     */
+    void resume(Set<String> completed) {
+        if (completed.isEmpty())
+            return;
+        for (TileMatrixBlocks tileMatrixBlocks : tileMatrices) {
+            String tileMatrixKey = tileMatrixBlocks.tileMatrix.getTileMatrixKey();
+            if (completed.contains(tileMatrixKey)) {
+                tileMatrixBlocks.skipped = true;
+                processedTiles.addAndGet(getNumberOfTiles(tileMatrixBlocks.tileMatrix.getLimits()));
+                continue;
+            }
+            completed.stream()
+                     .filter(key -> key.startsWith(tileMatrixKey + "/"))
+                     .forEach(key -> {
+                         tileMatrixBlocks.completedKeys.add(key);
+                         processedTiles.addAndGet(getNumberOfTiles(key));
+                     });
+        }
+    }
+
+    /**
+     * register a partial
+     *
+     * @return the index of the range of blocks of the partial
+     */
+    int join() {
+        return nextWorker.getAndIncrement() % workers;
+    }
+
+    /**
+     * take the next block
+     *
+     * @param worker the index from {@link #join()}
+     * @return the next block of the partial, empty, if all blocks have been taken
+     */
+    Optional<Block> next(int worker) {
+        int index = currentTileMatrix.get();
+        while (index < tileMatrices.size()) {
+            if (tileMatrices.get(index).waitsForPrevious)
+                tileMatrices.get(index - 1).awaitDone();
+            Optional<Block> block = tileMatrices.get(index).next(worker);
+            if (block.isPresent())
+                return block;
+            // the tile matrix is exhausted, move on to the next one
+            currentTileMatrix.compareAndSet(index, index + 1);
+            index = currentTileMatrix.get();
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * record that a block has been processed or abandoned, must be called for every block from {@link #next(int)}
+     *
+     * @param block the block
+     * @param completed {@code true}, if all tiles of the block have been processed
+     * @return {@code true}, if all blocks of the tile matrix of the block are completed now
+     */
+    boolean done(Block block, boolean completed) {
+        TileMatrixBlocks tileMatrixBlocks = tileMatrices.get(block.tileMatrix);
+        boolean tileMatrixCompleted = completed && tileMatrixBlocks.completedBlocks.incrementAndGet() == tileMatrixBlocks.numberOfBlocks;
+        tileMatrixBlocks.blockDone();
+        return tileMatrixCompleted;
+    }
+
+    /**
+     *
+     * @return {@code true}, if all blocks of all tile matrices have been taken and processed or abandoned
+     */
+    boolean isDrained() {
+        return tileMatrices.stream()
+                           .allMatch(TileMatrixBlocks::isDrained);
+    }
+
+    /**
+     * record that tiles have been processed, either generated or skipped
+     *
+     * @param tiles the number of tiles
+     */
+    void processed(long tiles) {
+        processedTiles.addAndGet(tiles);
+    }
+
+    /**
+     *
+     * @return the share of the processed tiles in all tiles of the seeding run
+     */
+    double getCompleteness() {
+        return numberOfTiles == 0 ? 1.0 : Math.min(1.0, (double) processedTiles.get() / numberOfTiles);
+    }
+
+    /**
+     *
+     * @return the number of tiles in all tile matrices
+     */
+    long getNumberOfTiles() {
+        return numberOfTiles;
+    }
+
+    static long getNumberOfTiles(TileMatrixSetLimits limits) {
+        return Math.max(0L, (long) limits.getMaxTileRow() - limits.getMinTileRow() + 1)
+            * Math.max(0L, (long) limits.getMaxTileCol() - limits.getMinTileCol() + 1);
+    }
+
+    // the number of tiles of a block from the key of the block, see Block.getKey()
+    private static long getNumberOfTiles(String key) {
+        List<String> elements = Splitter.on('/').splitToList(key);
+        int size = elements.size();
+        try {
+            return Math.max(0L, Long.parseLong(elements.get(size - 3)) - Long.parseLong(elements.get(size - 4)) + 1)
+                * Math.max(0L, Long.parseLong(elements.get(size - 1)) - Long.parseLong(elements.get(size - 2)) + 1);
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return 0L;
+        }
+    }
+
+    /**
+     * the position of a cell on a Hilbert curve that fills a grid of n x n cells
+     *
+     * @param n the size of the grid, a power of two
+     * @param x the column of the cell
+     * @param y the row of the cell
+     * @return the distance of the cell from the start of the curve
+     */
+    static long getHilbertIndex(int n, int x, int y) {
+        long d = 0;
+        for (int s = n / 2; s > 0; s /= 2) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            // rotate the quadrant
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = n - 1 - x;
+                    y = n - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * the blocks of a tile matrix, split in contiguous ranges, one for each partial
+     */
+    private class TileMatrixBlocks {
+
+        private final Block tileMatrix;
+        private final boolean waitsForPrevious;
+        // the blocks that have not been processed yet
+        private final AtomicInteger pendingBlocks;
+        // the blocks that have been completed, in this or a previous run
+        private final AtomicInteger completedBlocks;
+        // the keys of the blocks that have been completed in a previous run
+        private final Set<String> completedKeys;
+        private boolean skipped;
+        private int numberOfBlocks;
+        private volatile List<Deque<Block>> ranges;
+
+        TileMatrixBlocks(Block tileMatrix, boolean waitsForPrevious) {
+            this.tileMatrix = tileMatrix;
+            this.waitsForPrevious = waitsForPrevious;
+            this.pendingBlocks = new AtomicInteger();
+            this.completedBlocks = new AtomicInteger();
+            this.completedKeys = new HashSet<>();
+        }
+
+        boolean isDrained() {
+            return skipped || (Objects.nonNull(ranges) && pendingBlocks.get() == 0);
+        }
+
+        void blockDone() {
+            if (pendingBlocks.decrementAndGet() == 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * wait until all blocks have been processed, the blocks have already been created
+         */
+        void awaitDone() {
+            synchronized (this) {
+                while (pendingBlocks.get() > 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+
+        Optional<Block> next(int worker) {
+            List<Deque<Block>> queues = getRanges();
+            Block block = queues.get(worker).pollFirst();
+            if (Objects.nonNull(block))
+                return Optional.of(block);
+
+            // steal from the end of the largest remaining range, the start of the range stays with its partial
+            while (true) {
+                Deque<Block> victim = queues.stream()
+                                            .max(Comparator.comparingInt(Deque::size))
+                                            .orElseThrow();
+                if (victim.isEmpty())
+                    return Optional.empty();
+                block = victim.pollLast();
+                if (Objects.nonNull(block))
+                    return Optional.of(block);
+            }
+        }
+
+        private List<Deque<Block>> getRanges() {
+            List<Deque<Block>> result = ranges;
+            if (Objects.isNull(result)) {
+                synchronized (this) {
+                    result = ranges;
+                    if (Objects.isNull(result)) {
+                        result = createRanges();
+                        pendingBlocks.set(result.stream().mapToInt(Deque::size).sum());
+                        ranges = result;
+                    }
+                }
+            }
+            return result;
+        }
+
+        private List<Deque<Block>> createRanges() {
+            TileMatrixSetLimits limits = tileMatrix.getLimits();
+            int rows = Math.max(0, limits.getMaxTileRow() - limits.getMinTileRow() + 1);
+            int cols = Math.max(0, limits.getMaxTileCol() - limits.getMinTileCol() + 1);
+            int blockSize = MIN_BLOCK_SIZE;
+            while ((long) ceilDiv(rows, blockSize) * ceilDiv(cols, blockSize) > MAX_BLOCKS_PER_TILE_MATRIX)
+                blockSize *= 2;
+            int blockRows = ceilDiv(rows, blockSize);
+            int blockCols = ceilDiv(cols, blockSize);
+            int n = Integer.highestOneBit(Math.max(1, Math.max(blockRows, blockCols) * 2 - 1));
+
+            List<long[]> order = new ArrayList<>(blockRows * blockCols);
+            for (int blockRow = 0; blockRow < blockRows; blockRow++) {
+                for (int blockCol = 0; blockCol < blockCols; blockCol++) {
+                    order.add(new long[]{getHilbertIndex(n, blockCol, blockRow), blockRow, blockCol});
+                }
+            }
+            order.sort(Comparator.comparingLong(cell -> cell[0]));
+
+            List<Deque<Block>> result = new ArrayList<>(workers);
+            for (int i = 0; i < workers; i++)
+                result.add(new ConcurrentLinkedDeque<>());
+            if (skipped)
+                return result;
+            numberOfBlocks = order.size();
+            for (int i = 0; i < order.size(); i++) {
+                int blockRow = (int) order.get(i)[1];
+                int blockCol = (int) order.get(i)[2];
+                int minRow = limits.getMinTileRow() + blockRow * blockSize;
+                int minCol = limits.getMinTileCol() + blockCol * blockSize;
+                TileMatrixSetLimits blockLimits = new ImmutableTileMatrixSetLimits.Builder()
+                    .from(limits)
+                    .minTileRow(minRow)
+                    .maxTileRow(Math.min(minRow + blockSize - 1, limits.getMaxTileRow()))
+                    .minTileCol(minCol)
+                    .maxTileCol(Math.min(minCol + blockSize - 1, limits.getMaxTileCol()))
+                    .build();
+                Block block = new Block(tileMatrix.getCollectionId(), tileMatrix.getOutputFormat(), tileMatrix.getTileMatrixSet(), blockLimits,
+                                        tileMatrix.getChildLimits(), tileMatrix.tileMatrix);
+                if (completedKeys.contains(block.getKey())) {
+                    completedBlocks.incrementAndGet();
+                    continue;
+                }
+                // contiguous ranges along the curve
+                result.get((int) ((long) i * workers / order.size()))
+                      .add(block);
+            }
+            return result;
+        }
+    }
+
+    private static int ceilDiv(int x, int y) {
+        return (x + y - 1) / y;
+    }
+}
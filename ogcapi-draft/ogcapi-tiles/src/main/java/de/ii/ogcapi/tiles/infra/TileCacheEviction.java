@@ -0,0 +1,117 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.infra;
+
+import com.github.azahnen.dagger.annotations.AutoBind;
+import de.ii.ogcapi.foundation.domain.ExtensionConfiguration;
+import de.ii.ogcapi.foundation.domain.OgcApi;
+import de.ii.ogcapi.foundation.domain.OgcApiBackgroundTask;
+import de.ii.ogcapi.foundation.domain.OgcApiDataV2;
+import de.ii.ogcapi.tiles.domain.TileCache;
+import de.ii.ogcapi.tiles.domain.TileCacheQuota;
+import de.ii.ogcapi.tiles.domain.TilesConfiguration;
+import de.ii.xtraplatform.services.domain.TaskContext;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.stream.Stream;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class is responsible for keeping the tile caches of an API within their quotas.
+ * The quotas are specified in the config.
+ * The eviction is executed, when the server is started/restarted, and then periodically.
+ */
+@Singleton
+@AutoBind
+public class TileCacheEviction implements OgcApiBackgroundTask {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TileCacheEviction.class);
+
+    private final TileCache tileCache;
+
+    @Inject
+    public TileCacheEviction(TileCache tileCache) {
+        this.tileCache = tileCache;
+    }
+
+    @Override
+    public boolean isEnabledForApi(OgcApiDataV2 apiData) {
+        if (!apiData.getEnabled()) {
+            return false;
+        }
+
+        return getQuotas(apiData).findAny()
+                                 .isPresent();
+    }
+
+    @Override
+    public Class<? extends ExtensionConfiguration> getBuildingBlockConfigurationType() {
+        return TilesConfiguration.class;
+    }
+
+    @Override
+    public Class<OgcApi> getServiceType() {
+        return OgcApi.class;
+    }
+
+    @Override
+    public String getLabel() {
+        return "Tile cache eviction";
+    }
+
+    @Override
+    public boolean runOnStart(OgcApi api) {
+        return isEnabledForApi(api.getData());
+    }
+
+    @Override
+    public Optional<String> runPeriodic(OgcApi api) {
+        if (!isEnabledForApi(api.getData())) {
+            return Optional.empty();
+        }
+        // the API and the collections may use different schedules, the first one is used
+        return getQuotas(api.getData()).map(TileCacheQuota::getCronExpression)
+                                       .findFirst();
+    }
+
+    @Override
+    public int getMaxPartials(OgcApi api) {
+        return 1;
+    }
+
+    @Override
+    public void run(OgcApi api, TaskContext taskContext) {
+        if (taskContext.isStopped())
+            return;
+        try {
+            taskContext.setStatusMessage("evicting tiles");
+            tileCache.evictTiles(api);
+            taskContext.setStatusMessage("evicted tiles successfully");
+        } catch (IOException | SQLException e) {
+            LOGGER.warn("{}: evicting tiles failed | {}", getLabel(), e.getMessage());
+        }
+    }
+
+    private Stream<TileCacheQuota> getQuotas(OgcApiDataV2 apiData) {
+        return Stream.concat(Stream.of(apiData.getExtension(TilesConfiguration.class)),
+                             apiData.getCollections()
+                                    .keySet()
+                                    .stream()
+                                    .map(collectionId -> apiData.getExtension(TilesConfiguration.class, collectionId)))
+                     .filter(Optional::isPresent)
+                     .map(Optional::get)
+                     .filter(TilesConfiguration::isEnabled)
+                     .map(TilesConfiguration::getCacheQuotaDerived)
+                     .filter(Optional::isPresent)
+                     .map(Optional::get);
+    }
+}
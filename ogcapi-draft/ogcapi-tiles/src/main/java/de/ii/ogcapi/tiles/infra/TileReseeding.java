@@ -0,0 +1,193 @@
+/**
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.infra;
+
+import com.github.azahnen.dagger.annotations.AutoBind;
+import de.ii.ogcapi.foundation.domain.ExtensionConfiguration;
+import de.ii.ogcapi.foundation.domain.ExtensionRegistry;
+import de.ii.ogcapi.foundation.domain.OgcApi;
+import de.ii.ogcapi.foundation.domain.OgcApiBackgroundTask;
+import de.ii.ogcapi.foundation.domain.OgcApiDataV2;
+import de.ii.ogcapi.tiles.domain.SeedingOptions;
+import de.ii.ogcapi.tiles.domain.TileCache;
+import de.ii.ogcapi.tiles.domain.TileFormatWithQuerySupportExtension;
+import de.ii.ogcapi.tiles.domain.TileReseedQueue;
+import de.ii.ogcapi.tiles.domain.TileReseedQueue.QueuedTile;
+import de.ii.ogcapi.tiles.domain.TilesConfiguration;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.ImmutableTileMatrixSetLimits;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimits;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetRepository;
+import de.ii.xtraplatform.services.domain.TaskContext;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class is responsible for generating the tiles again that have been removed from the tile cache, e.g.
+ * after a change of the data, before they are requested. The tiles are taken from the re-seeding queue,
+ * tiles on lower zoom levels first. The queue is processed, when the server is started/restarted, and then
+ * every minute with the same number of threads as the seeding.
+ */
+@Singleton
+@AutoBind
+public class TileReseeding implements OgcApiBackgroundTask {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TileReseeding.class);
+    private static final String EVERY_MINUTE = "* * * * *";
+
+    private final VectorTileSeeding seeding;
+    private final TileReseedQueue queue;
+    private final TileCache tileCache;
+    private final ExtensionRegistry extensionRegistry;
+    private final TileMatrixSetRepository tileMatrixSetRepository;
+
+    @Inject
+    public TileReseeding(VectorTileSeeding seeding,
+                         TileReseedQueue queue,
+                         TileCache tileCache,
+                         ExtensionRegistry extensionRegistry,
+                         TileMatrixSetRepository tileMatrixSetRepository) {
+        this.seeding = seeding;
+        this.queue = queue;
+        this.tileCache = tileCache;
+        this.extensionRegistry = extensionRegistry;
+        this.tileMatrixSetRepository = tileMatrixSetRepository;
+    }
+
+    @Override
+    public boolean isEnabledForApi(OgcApiDataV2 apiData) {
+        return seeding.isEnabledForApi(apiData);
+    }
+
+    @Override
+    public Class<? extends ExtensionConfiguration> getBuildingBlockConfigurationType() {
+        return TilesConfiguration.class;
+    }
+
+    @Override
+    public Class<OgcApi> getServiceType() {
+        return OgcApi.class;
+    }
+
+    @Override
+    public String getLabel() {
+        return "Tile cache re-seeding";
+    }
+
+    @Override
+    public boolean runOnStart(OgcApi api) {
+        return isEnabledForApi(api.getData());
+    }
+
+    @Override
+    public Optional<String> runPeriodic(OgcApi api) {
+        if (!isEnabledForApi(api.getData())) {
+            return Optional.empty();
+        }
+        return Optional.of(EVERY_MINUTE);
+    }
+
+    @Override
+    public int getMaxPartials(OgcApi api) {
+        return api.getData().getExtension(TilesConfiguration.class)
+            .flatMap(TilesConfiguration::getSeedingOptions)
+            .map(SeedingOptions::getEffectiveMaxThreads)
+            .orElse(1);
+    }
+
+    @Override
+    public void run(OgcApi api, TaskContext taskContext) {
+        long numberOfTiles = queue.size(api.getId());
+        if (numberOfTiles == 0)
+            return;
+
+        List<TileFormatWithQuerySupportExtension> outputFormats = extensionRegistry.getExtensionsForType(TileFormatWithQuerySupportExtension.class);
+        long currentTile = 0;
+        try {
+            // all partials take the tiles from the same queue
+            Optional<QueuedTile> next = queue.poll(api.getId());
+            while (next.isPresent()) {
+                QueuedTile tile = next.get();
+                if (taskContext.isStopped()) {
+                    queue.release(api.getId(), tile);
+                    return;
+                }
+                if (reseed(api, tile, outputFormats, taskContext)) {
+                    queue.done(api.getId(), tile);
+                } else {
+                    queue.release(api.getId(), tile);
+                    return;
+                }
+                currentTile++;
+                taskContext.setCompleteness(Math.min(1.0, (double) currentTile / numberOfTiles));
+                next = queue.poll(api.getId());
+            }
+        } finally {
+            // write the tiles that are still pending, also when the task has been stopped
+            try {
+                tileCache.flush();
+            } catch (IOException | SQLException e) {
+                LOGGER.warn("{}: writing pending tiles to the cache failed | {}", getLabel(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * generate a queued tile in all tile formats, unless it is already in the cache again
+     *
+     * @return {@code false}, if the re-seeding should be stopped
+     */
+    private boolean reseed(OgcApi api, QueuedTile tile, List<TileFormatWithQuerySupportExtension> outputFormats,
+                           TaskContext taskContext) {
+        Optional<TileMatrixSet> tileMatrixSet = tileMatrixSetRepository.get(tile.getTileMatrixSetId());
+        if (tileMatrixSet.isEmpty()) {
+            // the tiling scheme has been removed from the configuration
+            return true;
+        }
+        TileMatrixSetLimits limits = new ImmutableTileMatrixSetLimits.Builder()
+            .tileMatrix(String.valueOf(tile.getLevel()))
+            .minTileRow(tile.getRow())
+            .maxTileRow(tile.getRow())
+            .minTileCol(tile.getCol())
+            .maxTileCol(tile.getCol())
+            .build();
+
+        List<TileFormatWithQuerySupportExtension> formats = tile.getCollectionId().isEmpty()
+            ? outputFormats.stream()
+                           .filter(TileFormatWithQuerySupportExtension::canMultiLayer)
+                           .collect(Collectors.toList())
+            : outputFormats;
+        for (TileFormatWithQuerySupportExtension outputFormat : formats) {
+            try {
+                if (tileCache.getCachedTiles(api, tile.getCollectionId(), tileMatrixSet.get(), limits, outputFormat)
+                             .contains(tile.getRow(), tile.getCol())) {
+                    // generated by a request or the seeding in the meantime
+                    continue;
+                }
+            } catch (IOException | SQLException e) {
+                LOGGER.warn("Failed to retrieve tile {} from the cache. Reason: {}", tile, e.getMessage());
+            }
+
+            boolean shouldContinue = tile.getCollectionId().isPresent()
+                ? seeding.seedSingleLayerTile(api, tile.getCollectionId().get(), outputFormat, tileMatrixSet.get(),
+                                              tile.getLevel(), tile.getRow(), tile.getCol(), taskContext)
+                : seeding.seedMultiLayerTile(api, outputFormat, tileMatrixSet.get(),
+                                             tile.getLevel(), tile.getRow(), tile.getCol(), taskContext);
+            if (!shouldContinue || taskContext.isStopped())
+                return false;
+        }
+        return true;
+    }
+}
@@ -23,17 +23,24 @@ import de.ii.ogcapi.foundation.domain.OgcApiBackgroundTask;
 import de.ii.ogcapi.foundation.domain.OgcApiDataV2;
 import de.ii.ogcapi.foundation.domain.OgcApiQueryParameter;
 import de.ii.ogcapi.foundation.domain.ParameterExtension;
+import de.ii.ogcapi.foundation.domain.QueryInput;
 import de.ii.ogcapi.foundation.domain.URICustomizer;
 import de.ii.ogcapi.tiles.domain.ImmutableQueryInputTileMultiLayer;
 import de.ii.ogcapi.tiles.domain.ImmutableQueryInputTileSingleLayer;
 import de.ii.ogcapi.tiles.domain.ImmutableTile;
 import de.ii.ogcapi.tiles.domain.MinMax;
+import de.ii.ogcapi.tiles.domain.SeedingCheckpoints;
 import de.ii.ogcapi.tiles.domain.SeedingOptions;
 import de.ii.ogcapi.tiles.domain.Tile;
+import de.ii.ogcapi.tiles.domain.TileBitmap;
 import de.ii.ogcapi.tiles.domain.TileCache;
 import de.ii.ogcapi.tiles.domain.TileFormatWithQuerySupportExtension;
+import de.ii.ogcapi.tiles.domain.TileOccupancy;
+import de.ii.ogcapi.tiles.domain.TilePopularity;
+import de.ii.ogcapi.tiles.domain.TileReseedQueue.QueuedTile;
 import de.ii.ogcapi.tiles.domain.TilesConfiguration;
 import de.ii.ogcapi.tiles.domain.TilesQueriesHandler;
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.ImmutableTileMatrixSetLimits;
 import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet;
 import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimits;
 import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimitsGenerator;
@@ -47,15 +54,23 @@ import de.ii.xtraplatform.features.domain.ImmutableFeatureQuery;
 import de.ii.xtraplatform.services.domain.ServicesContext;
 import de.ii.xtraplatform.services.domain.TaskContext;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -66,12 +81,19 @@ import org.slf4j.LoggerFactory;
  * This class is responsible for a automatic generation of the Tiles.
  * The range is specified in the config.
  * The automatic generation is executed, when the server is started/restarted.
+ * The tiles are distributed to the partials of the task in blocks of neighbouring tiles, see {@link SeedingScheduler}.
+ * The completed blocks are recorded in {@link SeedingCheckpoints}, a run that has been stopped resumes with the
+ * remaining blocks.
  */
 @Singleton
 @AutoBind
 public class VectorTileSeeding implements OgcApiBackgroundTask {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(VectorTileSeeding.class);
+    // the phases of a seeding run with a scheduler, see createSchedulers()
+    private static final List<String> PHASES = ImmutableList.of("multi-layer", "single-layer");
+    // the number of completed blocks of a partial, after which the pending tiles are written and the blocks are recorded
+    private static final int CHECKPOINT_BLOCKS = 16;
 
     private final CrsTransformerFactory crsTransformerFactory;
     private final ExtensionRegistry extensionRegistry;
@@ -81,6 +103,15 @@ public class VectorTileSeeding implements OgcApiBackgroundTask {
     private final FeaturesCoreProviders providers;
     private final TilesQueriesHandler queryHandler;
     private final TileMatrixSetRepository tileMatrixSetRepository;
+    private final SeedingCheckpoints seedingCheckpoints;
+    private final TilePopularity tilePopularity;
+    private final TileOccupancy tileOccupancy;
+    // the seeding runs with running partials, by API
+    private final Map<String, SeedingRun> runs;
+    // the schedulers of the current seeding runs, by API and phase
+    private final Map<String, SeedingScheduler> schedulers;
+    // the most requested tiles of the current seeding runs, by API
+    private final Map<String, PopularTiles> popularTiles;
 
     @Inject
     public VectorTileSeeding(CrsTransformerFactory crsTransformerFactory,
@@ -90,7 +121,10 @@ public class VectorTileSeeding implements OgcApiBackgroundTask {
                              ServicesContext servicesContext,
                              FeaturesCoreProviders providers,
                              TilesQueriesHandler queryHandler,
-                             TileMatrixSetRepository tileMatrixSetRepository) {
+                             TileMatrixSetRepository tileMatrixSetRepository,
+                             SeedingCheckpoints seedingCheckpoints,
+                             TilePopularity tilePopularity,
+                             TileOccupancy tileOccupancy) {
         this.crsTransformerFactory = crsTransformerFactory;
         this.extensionRegistry = extensionRegistry;
         this.limitsGenerator = limitsGenerator;
@@ -99,6 +133,12 @@ public class VectorTileSeeding implements OgcApiBackgroundTask {
         this.providers = providers;
         this.queryHandler = queryHandler;
         this.tileMatrixSetRepository = tileMatrixSetRepository;
+        this.seedingCheckpoints = seedingCheckpoints;
+        this.tilePopularity = tilePopularity;
+        this.tileOccupancy = tileOccupancy;
+        this.runs = new ConcurrentHashMap<>();
+        this.schedulers = new ConcurrentHashMap<>();
+        this.popularTiles = new ConcurrentHashMap<>();
     }
 
     @Override
@@ -186,7 +226,59 @@ public class VectorTileSeeding implements OgcApiBackgroundTask {
      */
     @Override
     public void run(OgcApi api, TaskContext taskContext) {
+        SeedingRun seedingRun = runs.compute(api.getId(), (id, current) -> {
+            SeedingRun next = Objects.isNull(current) ? new SeedingRun() : current;
+            next.partials++;
+            return next;
+        });
+        boolean succeeded = false;
+        try {
+            succeeded = seed(api, taskContext);
+        } finally {
+            if (!succeeded)
+                seedingRun.failed = true;
+            boolean[] last = {false};
+            runs.computeIfPresent(api.getId(), (id, current) -> {
+                last[0] = --current.partials == 0;
+                return last[0] ? null : current;
+            });
+            if (last[0])
+                finish(api, seedingRun, taskContext);
+        }
+    }
+
+    /**
+     * the last running partial of a seeding run cleans up; only if all tiles of all phases have been processed and
+     * no partial has failed, the run is complete, that is, the next run starts from the beginning and the PMTiles
+     * archives are written; otherwise the checkpoints are kept for the next run
+     */
+    private void finish(OgcApi api, SeedingRun seedingRun, TaskContext taskContext) {
+        boolean drained = PHASES.stream()
+                                .map(phase -> schedulers.get(String.join("/", api.getId(), phase)))
+                                .allMatch(scheduler -> Objects.nonNull(scheduler) && scheduler.isDrained());
+        // the next run starts with new schedulers
+        schedulers.keySet().removeIf(key -> key.startsWith(api.getId() + "/"));
+        popularTiles.remove(api.getId());
+        if (taskContext.isStopped())
+            return;
+        if (seedingRun.failed || !drained) {
+            LOGGER.info("{}: the seeding of API '{}' has not been completed, the next run resumes from the last checkpoint", getLabel(), api.getId());
+            return;
+        }
+        seedingCheckpoints.reset(api.getId());
+        try {
+            tileCache.exportArchives(api);
+        } catch (IOException | SQLException e) {
+            LOGGER.warn("{}: writing the PMTiles archives failed | {}", getLabel(), e.getMessage());
+        }
+    }
+
+    /**
+     * @return {@code true}, if the partial has processed all blocks that it could take and has not been stopped
+     */
+    private boolean seed(OgcApi api, TaskContext taskContext) {
         if (shouldPurge(api) && taskContext.isFirstPartial()) {
+            // the purge also removes the checkpoints
             try {
                 taskContext.setStatusMessage("purging cache");
                 tileCache.deleteTiles(api, Optional.empty(), Optional.empty(), Optional.empty());
@@ -199,18 +291,17 @@ public class VectorTileSeeding implements OgcApiBackgroundTask {
         List<TileFormatWithQuerySupportExtension> outputFormats = extensionRegistry.getExtensionsForType(TileFormatWithQuerySupportExtension.class);
 
         try {
-            // first seed the multi-layer tiles, which also generates the necessary single-layer tiles
+            // first generate the most requested tiles, if configured
             if (!taskContext.isStopped())
-                seedMultiLayerTiles(api, outputFormats, taskContext);
+                seedPopularTiles(api, taskContext);
+
+            // then seed the multi-layer tiles, which also generates the necessary single-layer tiles
+            if (taskContext.isStopped() || !seedMultiLayerTiles(api, outputFormats, taskContext))
+                return false;
 
             // add any additional single-layer tiles
-            if (!taskContext.isStopped())
-                seedSingleLayerTiles(api, outputFormats, taskContext);
+            return !taskContext.isStopped() && seedSingleLayerTiles(api, outputFormats, taskContext);
 
-        } catch (IOException e) {
-            if (!taskContext.isStopped()) {
-                throw new RuntimeException("Error accessing the tile cache during seeding.", e);
-            }
         } catch (Throwable e) {
             // in general, this should only happen on shutdown (as we cannot influence shutdown order, exceptions
             // during seeding on shutdown are currently inevitable), but for other situations we still add the error
@@ -218,100 +309,240 @@ public class VectorTileSeeding implements OgcApiBackgroundTask {
             if (!taskContext.isStopped()) {
                 throw new RuntimeException("An error occurred during seeding. Note that this may be a side-effect of a server shutdown.", e);
             }
+            return false;
+        } finally {
+            // write the tiles that are still pending, also when the task has been stopped
+            try {
+                tileCache.flush();
+            } catch (IOException | SQLException e) {
+                LOGGER.warn("{}: writing pending tiles to the cache failed | {}", getLabel(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * generate the most requested tiles within the tile matrices of the seeding that are not cached, until the number
+     * of tiles or the time from the seeding options is exhausted
+     */
+    private void seedPopularTiles(OgcApi api, TaskContext taskContext) {
+        Optional<SeedingOptions> seedingOptions = api.getData().getExtension(TilesConfiguration.class)
+            .flatMap(TilesConfiguration::getSeedingOptions)
+            .filter(SeedingOptions::shouldSeedPopularTilesFirst);
+        if (seedingOptions.isEmpty())
+            return;
+
+        PopularTiles tiles = popularTiles.computeIfAbsent(api.getId(), id -> createPopularTiles(api, seedingOptions.get()));
+        Optional<PopularTile> tile = tiles.next();
+        while (tile.isPresent() && !taskContext.isStopped()) {
+            if (!seedPopularTile(api, tile.get(), taskContext))
+                return;
+            taskContext.setCompleteness(tiles.processed());
+            tile = tiles.next();
+        }
+    }
+
+    private PopularTiles createPopularTiles(OgcApi api, SeedingOptions seedingOptions) {
+        List<SeedingScheduler.Block> tileMatrices = createSchedulers(api).values()
+                                                                         .stream()
+                                                                         .flatMap(scheduler -> scheduler.getTileMatrices().stream())
+                                                                         .collect(Collectors.toList());
+        List<PopularTile> tiles = new ArrayList<>();
+        for (QueuedTile tile : tilePopularity.getPopularTiles(api.getId(), seedingOptions.getPopularTiles())) {
+            tileMatrices.stream()
+                        .filter(tileMatrix -> tileMatrix.getCollectionId().equals(tile.getCollectionId())
+                            && tileMatrix.getTileMatrixSet().getId().equals(tile.getTileMatrixSetId())
+                            && tileMatrix.getLevel() == tile.getLevel()
+                            && tileMatrix.getLimits().getMinTileRow() <= tile.getRow() && tileMatrix.getLimits().getMaxTileRow() >= tile.getRow()
+                            && tileMatrix.getLimits().getMinTileCol() <= tile.getCol() && tileMatrix.getLimits().getMaxTileCol() >= tile.getCol())
+                        .forEach(tileMatrix -> tiles.add(new PopularTile(tileMatrix, tile.getRow(), tile.getCol())));
+        }
+        long deadline = Objects.isNull(seedingOptions.getPopularTilesMaxSeconds())
+            ? Long.MAX_VALUE
+            : System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(seedingOptions.getPopularTilesMaxSeconds());
+        return new PopularTiles(tiles, deadline);
+    }
+
+    /**
+     * generate a popular tile, if it is not cached
+     *
+     * @return {@code false}, if the seeding should be stopped
+     */
+    private boolean seedPopularTile(OgcApi api, PopularTile tile, TaskContext taskContext) {
+        SeedingScheduler.Block tileMatrix = tile.tileMatrix;
+        TileMatrixSetLimits limits = new ImmutableTileMatrixSetLimits.Builder()
+            .from(tileMatrix.getLimits())
+            .minTileRow(tile.row)
+            .maxTileRow(tile.row)
+            .minTileCol(tile.col)
+            .maxTileCol(tile.col)
+            .build();
+        try {
+            if (tileCache.getCachedTiles(api, tileMatrix.getCollectionId(), tileMatrix.getTileMatrixSet(), limits, tileMatrix.getOutputFormat())
+                         .contains(tile.row, tile.col))
+                return true;
+        } catch (Exception e) {
+            LOGGER.warn("Failed to retrieve tile {}/{}/{}/{} for {} from the cache. Reason: {}", tileMatrix.getTileMatrixSet().getId(),
+                        tileMatrix.getLevel(), tile.row, tile.col, tileMatrix.getCollectionId().orElse("the dataset"), e.getMessage());
         }
+        return tileMatrix.getCollectionId().isPresent()
+            ? seedSingleLayerMetatile(api, tileMatrix.getCollectionId().get(), tileMatrix.getOutputFormat(), tileMatrix.getTileMatrixSet(),
+                                      tileMatrix.getLevel(), ImmutableList.of(new int[]{tile.row, tile.col}), taskContext)
+            : seedMultiLayerTile(api, tileMatrix.getOutputFormat(), tileMatrix.getTileMatrixSet(), tileMatrix.getLevel(), tile.row, tile.col, taskContext);
+    }
+
+    private boolean seedSingleLayerTiles(OgcApi api, List<TileFormatWithQuerySupportExtension> outputFormats, TaskContext taskContext) {
+        SeedingScheduler scheduler = getScheduler(api, "single-layer", () -> createSingleLayerScheduler(api, outputFormats));
+
+        return seedBlocks(api, "single-layer", scheduler, taskContext);
     }
 
-    private void seedSingleLayerTiles(OgcApi api, List<TileFormatWithQuerySupportExtension> outputFormats, TaskContext taskContext) throws IOException {
+    private SeedingScheduler createSingleLayerScheduler(OgcApi api, List<TileFormatWithQuerySupportExtension> outputFormats) {
         OgcApiDataV2 apiData = api.getData();
-        // isEnabled checks that we have a feature provider
-        FeatureProvider2 featureProvider = providers.getFeatureProviderOrThrow(apiData);
         Map<String, Map<String, MinMax>> seedingMap = getSeedingConfig(apiData);
 
-        long numberOfTiles = getNumberOfTiles2(api, outputFormats, seedingMap, taskContext);
-        final double[] currentTile = {0.0};
+        SeedingScheduler singleLayerScheduler = new SeedingScheduler(getMaxPartials(api));
+        for (Map.Entry<String, Map<String, MinMax>> entry : seedingMap.entrySet()) {
+            if (getTilesConfiguration(apiData, entry.getKey()).isPresent())
+                addTiles(singleLayerScheduler, api, Optional.of(entry.getKey()), outputFormats, entry.getValue());
+        }
+        return singleLayerScheduler;
+    }
 
-        walkCollectionsAndTiles(api, outputFormats, seedingMap, taskContext, (api1, collectionId, outputFormat, tileMatrixSet, level, row, col) -> {
-            TilesConfiguration tilesConfiguration = getTilesConfiguration(apiData, collectionId).get();
-            Tile tile = new ImmutableTile.Builder()
-                    .collectionIds(ImmutableList.of(collectionId))
-                    .tileMatrixSet(tileMatrixSet)
-                    .tileLevel(level)
-                    .tileRow(row)
-                    .tileCol(col)
-                    .api(api)
-                    .apiData(apiData)
-                    .temporary(false)
-                    .isDatasetTile(false)
-                    .featureProvider(featureProvider)
-                    .outputFormat(outputFormat)
-                    .build();
-            try {
-                if (tileCache.tileExists(tile)) {
-                    // already there, nothing to create, but advance progress
-                    currentTile[0] += 1;
-                    return true;
-                }
-            } catch (Exception e) {
-                LOGGER.warn("Failed to retrieve tile {}/{}/{}/{} for collection {} from the cache. Reason: {}",
-                            tile.getTileMatrixSet().getId(), tile.getTileLevel(), tile.getTileRow(),
-                            tile.getTileCol(), collectionId, e.getMessage());
-            }
+    /**
+     * generate a single-layer tile and store it in the cache
+     *
+     * @return {@code false}, if the seeding should be stopped
+     */
+    boolean seedSingleLayerTile(OgcApi api, String collectionId, TileFormatWithQuerySupportExtension outputFormat,
+                                TileMatrixSet tileMatrixSet, int level, int row, int col, TaskContext taskContext) {
+        return seedSingleLayerMetatile(api, collectionId, outputFormat, tileMatrixSet, level, ImmutableList.of(new int[]{row, col}), taskContext);
+    }
 
-            URI uri;
-            String uriString = String.format("%s/%s/collections/%s/tiles/%s/%s/%s/%s", servicesUri, apiData.getId(), collectionId, tileMatrixSet.getId(), level, row, col);
-            try {
-                uri = new URI(uriString);
-            } catch (URISyntaxException e) {
-                LOGGER.error("Stopping seeding. Invalid request URI during seeding: " + uriString);
-                return false;
+    /**
+     * generate single-layer tiles of the same tile matrix from a single feature query and store them in the cache
+     *
+     * @param positions the row and column of each tile, the tiles should be neighbours
+     * @return {@code false}, if the seeding should be stopped
+     */
+    private boolean seedSingleLayerMetatile(OgcApi api, String collectionId, TileFormatWithQuerySupportExtension outputFormat,
+                                            TileMatrixSet tileMatrixSet, int level, List<int[]> positions, TaskContext taskContext) {
+        if (positions.size() > 1 && !outputFormat.supportsMetatiles()) {
+            // each tile is generated with its own query
+            for (int[] position : positions) {
+                if (!seedSingleLayerMetatile(api, collectionId, outputFormat, tileMatrixSet, level, ImmutableList.of(position), taskContext))
+                    return false;
             }
+            return true;
+        }
 
-            URICustomizer uriCustomizer = new URICustomizer(uri);
-            ApiRequestContext requestContext = new ImmutableRequestContext.Builder()
-                    .api(api)
-                    .requestUri(uri)
-                    .mediaType(outputFormat.getMediaType())
-                    .build();
+        Optional<TileRequest> request;
+        try {
+            request = getSingleLayerTileRequest(api, collectionId, outputFormat, tileMatrixSet, level, positions, false);
+        } catch (URISyntaxException e) {
+            LOGGER.error("Stopping seeding. Invalid request URI during seeding: " + e.getInput());
+            return false;
+        }
+        if (request.isEmpty())
+            return true;
 
-            FeatureQuery query = outputFormat.getQuery(tile, ImmutableList.of(), ImmutableMap.of(), tilesConfiguration, uriCustomizer);
+        int row = positions.get(0)[0];
+        int col = positions.get(0)[1];
+        String tileText = positions.size() > 1
+            ? String.format("%s/%s/%s/%s (metatile with %d tiles)", tileMatrixSet.getId(), level, row, col, positions.size())
+            : String.format("%s/%s/%s/%s", tileMatrixSet.getId(), level, row, col);
+        taskContext.setStatusMessage(String.format("currently processing -> %s, %s, %s", collectionId, tileText, outputFormat.getExtension()));
 
-            FeaturesCoreConfiguration coreConfiguration = apiData.getExtension(FeaturesCoreConfiguration.class)
-                                                                 .get();
+        try {
+            queryHandler.handle(TilesQueriesHandler.Query.SINGLE_LAYER_TILE, request.get().queryInput, request.get().requestContext);
+        } catch (Throwable e) {
+            LOGGER.warn("{}: processing failed -> {}, {}, {} | {}", getLabel(), collectionId, tileText, outputFormat.getExtension(), e.getMessage());
+            if (LOGGER.isDebugEnabled(LogContext.MARKER.STACKTRACE))
+                LOGGER.debug(LogContext.MARKER.STACKTRACE, "Stacktrace:", e);
+        }
 
-            // skip collections without spatial queryable
-            if (coreConfiguration.getQueryables().isEmpty()
-                || coreConfiguration.getQueryables().get().getSpatial().isEmpty())
-                return true;
+        return true;
+    }
 
-            TilesQueriesHandler.QueryInputTileSingleLayer queryInput = new ImmutableQueryInputTileSingleLayer.Builder()
-                    .tile(tile)
-                    .query(query)
-                    .defaultCrs(coreConfiguration.getDefaultEpsgCrs())
-                    .build();
+    /**
+     * the request for a single-layer tile or metatile
+     *
+     * @param positions the row and column of each tile of the metatile, a single position for a tile
+     * @param temporary {@code true}, if the tile is not stored in the tile cache
+     * @return the request, empty, if the collection has no tiles or the tile format does not support metatiles
+     * @throws URISyntaxException the request URI of the tile is invalid
+     */
+    private Optional<TileRequest> getSingleLayerTileRequest(OgcApi api, String collectionId, TileFormatWithQuerySupportExtension outputFormat,
+                                                            TileMatrixSet tileMatrixSet, int level, List<int[]> positions,
+                                                            boolean temporary) throws URISyntaxException {
+        OgcApiDataV2 apiData = api.getData();
+        // isEnabled checks that we have a feature provider
+        FeatureProvider2 featureProvider = providers.getFeatureProviderOrThrow(apiData);
+        Optional<TilesConfiguration> tilesConfiguration = getTilesConfiguration(apiData, collectionId);
+        if (tilesConfiguration.isEmpty())
+            return Optional.empty();
 
+        List<Tile> tiles = positions.stream()
+                                    .map(position -> new ImmutableTile.Builder()
+                                        .collectionIds(ImmutableList.of(collectionId))
+                                        .tileMatrixSet(tileMatrixSet)
+                                        .tileLevel(level)
+                                        .tileRow(position[0])
+                                        .tileCol(position[1])
+                                        .api(api)
+                                        .apiData(apiData)
+                                        .temporary(temporary)
+                                        .isDatasetTile(false)
+                                        .featureProvider(featureProvider)
+                                        .outputFormat(outputFormat)
+                                        .build())
+                                    .collect(ImmutableList.toImmutableList());
+        Tile tile = tiles.get(0);
+        int row = tile.getTileRow();
+        int col = tile.getTileCol();
+        boolean isMetatile = tiles.size() > 1;
+
+        URI uri = new URI(String.format("%s/%s/collections/%s/tiles/%s/%s/%s/%s", servicesUri, apiData.getId(), collectionId, tileMatrixSet.getId(), level, row, col));
+
+        URICustomizer uriCustomizer = new URICustomizer(uri);
+        ApiRequestContext requestContext = new ImmutableRequestContext.Builder()
+                .api(api)
+                .requestUri(uri)
+                .mediaType(outputFormat.getMediaType())
+                .build();
+
+        // a metatile is generated from a single query for all tiles
+        Optional<FeatureQuery> query = isMetatile
+            ? outputFormat.getMetatileQuery(tiles, ImmutableList.of(), ImmutableMap.of(), tilesConfiguration.get(), uriCustomizer)
+            : Optional.of(outputFormat.getQuery(tile, ImmutableList.of(), ImmutableMap.of(), tilesConfiguration.get(), uriCustomizer));
+        if (query.isEmpty())
+            return Optional.empty();
 
-            taskContext.setStatusMessage(String.format("currently processing -> %s, %s/%s/%s/%s, %s", collectionId, tileMatrixSet.getId(), level, row, col, outputFormat.getExtension()));
+        FeaturesCoreConfiguration coreConfiguration = apiData.getExtension(FeaturesCoreConfiguration.class)
+                                                             .get();
 
-            try {
-                queryHandler.handle(TilesQueriesHandler.Query.SINGLE_LAYER_TILE, queryInput, requestContext);
-            } catch (Throwable e) {
-                LOGGER.warn("{}: processing failed -> {}, {}/{}/{}/{}, {} | {}", getLabel(), collectionId, tileMatrixSet.getId(), level, row, col, outputFormat.getExtension(), e.getMessage());
-                if (LOGGER.isDebugEnabled(LogContext.MARKER.STACKTRACE))
-                    LOGGER.debug(LogContext.MARKER.STACKTRACE, "Stacktrace:", e);
-            }
+        // skip collections without spatial queryable
+        if (coreConfiguration.getQueryables().isEmpty()
+            || coreConfiguration.getQueryables().get().getSpatial().isEmpty())
+            return Optional.empty();
+
+        TilesQueriesHandler.QueryInputTileSingleLayer queryInput = new ImmutableQueryInputTileSingleLayer.Builder()
+                .tile(tile)
+                .metatile(isMetatile ? tiles : ImmutableList.of())
+                .query(query.get())
+                .defaultCrs(coreConfiguration.getDefaultEpsgCrs())
+                .build();
 
-            currentTile[0] += 1;
-            taskContext.setCompleteness(currentTile[0] / numberOfTiles);
+        return Optional.of(new TileRequest(TilesQueriesHandler.Query.SINGLE_LAYER_TILE, queryInput, requestContext));
+    }
 
-            return !taskContext.isStopped();
+    private boolean seedMultiLayerTiles(OgcApi api, List<TileFormatWithQuerySupportExtension> outputFormats, TaskContext taskContext) {
+        SeedingScheduler scheduler = getScheduler(api, "multi-layer", () -> createMultiLayerScheduler(api, outputFormats));
 
-        });
+        return seedBlocks(api, "multi-layer", scheduler, taskContext);
     }
 
-    private void seedMultiLayerTiles(OgcApi api, List<TileFormatWithQuerySupportExtension> outputFormats, TaskContext taskContext) throws IOException {
+    private SeedingScheduler createMultiLayerScheduler(OgcApi api, List<TileFormatWithQuerySupportExtension> outputFormats) {
         OgcApiDataV2 apiData = api.getData();
-        // isEnabled checks that we have a feature provider
-        FeatureProvider2 featureProvider = providers.getFeatureProviderOrThrow(apiData);
         Map<String, MinMax> multiLayerTilesSeeding = ImmutableMap.of();
         Optional<TilesConfiguration> tilesConfiguration = apiData.getExtension(TilesConfiguration.class).filter(TilesConfiguration::isMultiCollectionEnabled);
 
@@ -326,134 +557,184 @@ public class VectorTileSeeding implements OgcApiBackgroundTask {
                                                                                    .filter(TileFormatWithQuerySupportExtension::canMultiLayer)
                                                                                    .collect(Collectors.toList());
 
-        long numberOfTiles = getNumberOfTiles(api, multiLayerFormats, multiLayerTilesSeeding, taskContext);
-        final double[] currentTile = {0.0};
-
-        walkTiles(api, "multi-layer", multiLayerFormats, multiLayerTilesSeeding, taskContext, (api1, layerName, outputFormat, tileMatrixSet, level, row, col) -> {
-            List<String> collectionIds = apiData.getCollections()
-                                                .values()
-                                                .stream()
-                                                .filter(collection -> apiData.isCollectionEnabled(collection.getId()))
-                                                // skip collections without spatial queryable
-                                                .filter(collection -> {
-                                                    Optional<FeaturesCoreConfiguration> featuresConfiguration = collection.getExtension(FeaturesCoreConfiguration.class);
-                                                    return featuresConfiguration.isPresent()
-                                                            && featuresConfiguration.get().getQueryables().isPresent()
-                                                            && !featuresConfiguration.get().getQueryables().get().getSpatial().isEmpty();
-                                                })
-                                                .filter(collection -> {
-                                                    Optional<TilesConfiguration> layerConfiguration = collection.getExtension(TilesConfiguration.class);
-                                                    if (layerConfiguration.isEmpty() || !layerConfiguration.get().isEnabled() || !layerConfiguration.get().isMultiCollectionEnabled())
-                                                        return false;
-                                                    MinMax levels = layerConfiguration.get().getZoomLevelsDerived().get(tileMatrixSet.getId());
-                                                    return !Objects.nonNull(levels) || (levels.getMax() >= level && levels.getMin() <= level);
-                                                })
-                                                .map(FeatureTypeConfiguration::getId)
-                                                .collect(Collectors.toList());
-
-            if (collectionIds.isEmpty()) {
-                // nothing to generate, still advance progress
-                currentTile[0] += 1;
-                return true;
-            }
+        SeedingScheduler multiLayerScheduler = new SeedingScheduler(getMaxPartials(api));
+        addTiles(multiLayerScheduler, api, Optional.empty(), multiLayerFormats, multiLayerTilesSeeding);
+        return multiLayerScheduler;
+    }
 
-            Tile multiLayerTile = new ImmutableTile.Builder()
-                    .collectionIds(collectionIds)
-                    .tileMatrixSet(tileMatrixSet)
-                    .tileLevel(level)
-                    .tileRow(row)
-                    .tileCol(col)
-                    .api(api)
-                    .apiData(apiData)
-                    .temporary(false)
-                    .isDatasetTile(true)
-                    .featureProvider(featureProvider)
-                    .outputFormat(outputFormat)
-                    .build();
-            try {
-                if (tileCache.tileExists(multiLayerTile)) {
-                    // already there, nothing to create, but still count for progress
-                    currentTile[0] += 1;
-                    return true;
-                }
-            } catch (Exception e) {
-                LOGGER.warn("Failed to retrieve multi-collection tile {}/{}/{}/{} from the cache. Reason: {}",
-                            multiLayerTile.getTileMatrixSet().getId(), multiLayerTile.getTileLevel(), multiLayerTile.getTileRow(),
-                            multiLayerTile.getTileCol(), e.getMessage());
-            }
+    /**
+     * the tiles of a seeding run, without seeding them
+     *
+     * @return the schedulers of the phases of the seeding run, in the order of the phases
+     */
+    Map<String, SeedingScheduler> createSchedulers(OgcApi api) {
+        List<TileFormatWithQuerySupportExtension> outputFormats = extensionRegistry.getExtensionsForType(TileFormatWithQuerySupportExtension.class);
+        return ImmutableMap.of("multi-layer", createMultiLayerScheduler(api, outputFormats),
+                               "single-layer", createSingleLayerScheduler(api, outputFormats));
+    }
 
-            URI uri;
-            String uriString = String.format("%s/%s/tiles/%s/%s/%s/%s", servicesUri, apiData.getId(), tileMatrixSet.getId(), level, row, col);
-            try {
-                uri = new URI(uriString);
-            } catch (URISyntaxException e) {
-                LOGGER.error("Stopping seeding. Invalid request URI during seeding: " + uriString);
-                return false;
-            }
+    /**
+     * generate a tile of a tile matrix of a seeding run as a temporary tile, the tile is not stored in the tile cache
+     *
+     * @param tileMatrix the tile matrix from {@link #createSchedulers(OgcApi)}
+     * @return the encoded tile, empty, if the tile has no layers
+     * @throws URISyntaxException the request URI of the tile is invalid
+     */
+    Optional<byte[]> generateTemporaryTile(OgcApi api, SeedingScheduler.Block tileMatrix, int row, int col) throws URISyntaxException {
+        Optional<TileRequest> request = tileMatrix.getCollectionId().isPresent()
+            ? getSingleLayerTileRequest(api, tileMatrix.getCollectionId().get(), tileMatrix.getOutputFormat(), tileMatrix.getTileMatrixSet(),
+                                        tileMatrix.getLevel(), ImmutableList.of(new int[]{row, col}), true)
+            : getMultiLayerTileRequest(api, tileMatrix.getOutputFormat(), tileMatrix.getTileMatrixSet(), tileMatrix.getLevel(), row, col, true);
+        if (request.isEmpty())
+            return Optional.empty();
+        Object entity = queryHandler.handle(request.get().query, request.get().queryInput, request.get().requestContext)
+                                    .getEntity();
+        return Optional.of(entity instanceof byte[] ? (byte[]) entity : new byte[0]);
+    }
 
-            ApiRequestContext requestContext = new ImmutableRequestContext.Builder()
-                    .api(api)
-                    .requestUri(uri)
-                    .mediaType(outputFormat.getMediaType())
-                    .build();
+    /**
+     * generate a multi-layer tile and store it in the cache, this also generates the necessary single-layer tiles
+     *
+     * @return {@code false}, if the seeding should be stopped
+     */
+    boolean seedMultiLayerTile(OgcApi api, TileFormatWithQuerySupportExtension outputFormat,
+                               TileMatrixSet tileMatrixSet, int level, int row, int col, TaskContext taskContext) {
+        Optional<TileRequest> request;
+        try {
+            request = getMultiLayerTileRequest(api, outputFormat, tileMatrixSet, level, row, col, false);
+        } catch (URISyntaxException e) {
+            LOGGER.error("Stopping seeding. Invalid request URI during seeding: " + e.getInput());
+            return false;
+        }
+        if (request.isEmpty())
+            return true;
 
-            Map<String, Tile> singleLayerTileMap = collectionIds.stream()
-                                                                .collect(ImmutableMap.toImmutableMap(collectionId -> collectionId, collectionId -> new ImmutableTile.Builder()
-                                                                        .from(multiLayerTile)
-                                                                        .collectionIds(ImmutableList.of(collectionId))
-                                                                        .isDatasetTile(false)
-                                                                        .build()));
-
-            Map<String, FeatureQuery> queryMap = collectionIds.stream()
-                                                              .collect(ImmutableMap.toImmutableMap(collectionId -> collectionId, collectionId -> {
-                                                                  String featureTypeId = apiData.getCollections()
-                                                                                                .get(collectionId)
-                                                                                                .getExtension(FeaturesCoreConfiguration.class)
-                                                                                                .map(cfg -> cfg.getFeatureType()
-                                                                                                               .orElse(collectionId))
-                                                                                                .orElse(collectionId);
-                                                                  List<OgcApiQueryParameter> allowedParameters = extensionRegistry.getExtensionsForType(OgcApiQueryParameter.class)
-                                                                                                                                  .stream()
-                                                                                                                                  .filter(param -> param.isApplicable(apiData, "/collections/{collectionId}/tiles/{tileMatrixSetId}/{tileMatrix}/{tileRow}/{tileCol}", collectionId, HttpMethods.GET))
-                                                                                                                                  .sorted(Comparator.comparing(ParameterExtension::getName))
-                                                                                                                                  .collect(ImmutableList.toImmutableList());
-                                                                  TilesConfiguration layerConfiguration = apiData.getCollections()
-                                                                                                                 .get(collectionId)
-                                                                                                                 .getExtension(TilesConfiguration.class)
-                                                                                                                 .orElse(tilesConfiguration.get());
-                                                                  FeatureQuery query = outputFormat.getQuery(singleLayerTileMap.get(collectionId), allowedParameters, ImmutableMap.of(), layerConfiguration, requestContext.getUriCustomizer());
-                                                                  return ImmutableFeatureQuery.builder()
-                                                                                              .from(query)
-                                                                                              .type(featureTypeId)
-                                                                                              .build();
-                                                              }));
-
-            FeaturesCoreConfiguration coreConfiguration = apiData.getExtension(FeaturesCoreConfiguration.class)
-                                                                 .get();
-
-            TilesQueriesHandler.QueryInputTileMultiLayer queryInput = new ImmutableQueryInputTileMultiLayer.Builder()
-                    .tile(multiLayerTile)
-                    .singleLayerTileMap(singleLayerTileMap)
-                    .queryMap(queryMap)
-                    .defaultCrs(coreConfiguration.getDefaultEpsgCrs())
-                    .build();
+        taskContext.setStatusMessage(String.format("currently processing -> %s, %s/%s/%s/%s, %s", "multi-layer", tileMatrixSet.getId(), level, row, col, outputFormat.getExtension()));
 
+        try {
+            queryHandler.handle(TilesQueriesHandler.Query.MULTI_LAYER_TILE, request.get().queryInput, request.get().requestContext);
+        } catch (Throwable e) {
+            LOGGER.warn("{}: processing failed -> {}, {}/{}/{}/{}, {} | {}", getLabel(), "multi-layer", tileMatrixSet.getId(), level, row, col, outputFormat.getExtension(), e.getMessage());
+            if (LOGGER.isDebugEnabled(LogContext.MARKER.STACKTRACE))
+                LOGGER.debug(LogContext.MARKER.STACKTRACE, "Stacktrace:", e);
+        }
 
-            taskContext.setStatusMessage(String.format("currently processing -> %s, %s/%s/%s/%s, %s", layerName, tileMatrixSet.getId(), level, row, col, outputFormat.getExtension()));
+        return true;
+    }
 
-            try {
-                queryHandler.handle(TilesQueriesHandler.Query.MULTI_LAYER_TILE, queryInput, requestContext);
-            } catch (Throwable e) {
-                LOGGER.warn("{}: processing failed -> {}, {}/{}/{}/{}, {} | {}", getLabel(), layerName, tileMatrixSet.getId(), level, row, col, outputFormat.getExtension(), e.getMessage());
-                if (LOGGER.isDebugEnabled(LogContext.MARKER.STACKTRACE))
-                    LOGGER.debug(LogContext.MARKER.STACKTRACE, "Stacktrace:", e);
-            }
+    /**
+     * the request for a multi-layer tile, which also generates the necessary single-layer tiles
+     *
+     * @param temporary {@code true}, if the tile is not stored in the tile cache
+     * @return the request, empty, if the tile has no layers
+     * @throws URISyntaxException the request URI of the tile is invalid
+     */
+    private Optional<TileRequest> getMultiLayerTileRequest(OgcApi api, TileFormatWithQuerySupportExtension outputFormat, TileMatrixSet tileMatrixSet,
+                                                           int level, int row, int col, boolean temporary) throws URISyntaxException {
+        OgcApiDataV2 apiData = api.getData();
+        // isEnabled checks that we have a feature provider
+        FeatureProvider2 featureProvider = providers.getFeatureProviderOrThrow(apiData);
+        Optional<TilesConfiguration> tilesConfiguration = apiData.getExtension(TilesConfiguration.class).filter(TilesConfiguration::isMultiCollectionEnabled);
+        if (tilesConfiguration.isEmpty())
+            return Optional.empty();
 
-            currentTile[0] += 1;
-            taskContext.setCompleteness(currentTile[0] / numberOfTiles);
+        List<String> collectionIds = getMultiLayerCollectionIds(apiData, tileMatrixSet, level);
 
-            return !taskContext.isStopped();
-        });
+        if (collectionIds.isEmpty()) {
+            // nothing to generate
+            return Optional.empty();
+        }
+
+        Tile multiLayerTile = new ImmutableTile.Builder()
+                .collectionIds(collectionIds)
+                .tileMatrixSet(tileMatrixSet)
+                .tileLevel(level)
+                .tileRow(row)
+                .tileCol(col)
+                .api(api)
+                .apiData(apiData)
+                .temporary(temporary)
+                .isDatasetTile(true)
+                .featureProvider(featureProvider)
+                .outputFormat(outputFormat)
+                .build();
+
+        URI uri = new URI(String.format("%s/%s/tiles/%s/%s/%s/%s", servicesUri, apiData.getId(), tileMatrixSet.getId(), level, row, col));
+
+        ApiRequestContext requestContext = new ImmutableRequestContext.Builder()
+                .api(api)
+                .requestUri(uri)
+                .mediaType(outputFormat.getMediaType())
+                .build();
+
+        Map<String, Tile> singleLayerTileMap = collectionIds.stream()
+                                                            .collect(ImmutableMap.toImmutableMap(collectionId -> collectionId, collectionId -> new ImmutableTile.Builder()
+                                                                    .from(multiLayerTile)
+                                                                    .collectionIds(ImmutableList.of(collectionId))
+                                                                    .isDatasetTile(false)
+                                                                    .build()));
+
+        Map<String, FeatureQuery> queryMap = collectionIds.stream()
+                                                          .collect(ImmutableMap.toImmutableMap(collectionId -> collectionId, collectionId -> {
+                                                              String featureTypeId = apiData.getCollections()
+                                                                                            .get(collectionId)
+                                                                                            .getExtension(FeaturesCoreConfiguration.class)
+                                                                                            .map(cfg -> cfg.getFeatureType()
+                                                                                                           .orElse(collectionId))
+                                                                                            .orElse(collectionId);
+                                                              List<OgcApiQueryParameter> allowedParameters = extensionRegistry.getExtensionsForType(OgcApiQueryParameter.class)
+                                                                                                                              .stream()
+                                                                                                                              .filter(param -> param.isApplicable(apiData, "/collections/{collectionId}/tiles/{tileMatrixSetId}/{tileMatrix}/{tileRow}/{tileCol}", collectionId, HttpMethods.GET))
+                                                                                                                              .sorted(Comparator.comparing(ParameterExtension::getName))
+                                                                                                                              .collect(ImmutableList.toImmutableList());
+                                                              TilesConfiguration layerConfiguration = apiData.getCollections()
+                                                                                                             .get(collectionId)
+                                                                                                             .getExtension(TilesConfiguration.class)
+                                                                                                             .orElse(tilesConfiguration.get());
+                                                              FeatureQuery query = outputFormat.getQuery(singleLayerTileMap.get(collectionId), allowedParameters, ImmutableMap.of(), layerConfiguration, requestContext.getUriCustomizer());
+                                                              return ImmutableFeatureQuery.builder()
+                                                                                          .from(query)
+                                                                                          .type(featureTypeId)
+                                                                                          .build();
+                                                          }));
+
+        FeaturesCoreConfiguration coreConfiguration = apiData.getExtension(FeaturesCoreConfiguration.class)
+                                                             .get();
+
+        TilesQueriesHandler.QueryInputTileMultiLayer queryInput = new ImmutableQueryInputTileMultiLayer.Builder()
+                .tile(multiLayerTile)
+                .singleLayerTileMap(singleLayerTileMap)
+                .queryMap(queryMap)
+                .defaultCrs(coreConfiguration.getDefaultEpsgCrs())
+                .build();
+
+        return Optional.of(new TileRequest(TilesQueriesHandler.Query.MULTI_LAYER_TILE, queryInput, requestContext));
+    }
+
+    /**
+     * @return the collections that are included as layers in the multi-layer tiles of a tile matrix
+     */
+    List<String> getMultiLayerCollectionIds(OgcApiDataV2 apiData, TileMatrixSet tileMatrixSet, int level) {
+        return apiData.getCollections()
+                       .values()
+                       .stream()
+                       .filter(collection -> apiData.isCollectionEnabled(collection.getId()))
+                       // skip collections without spatial queryable
+                       .filter(collection -> {
+                           Optional<FeaturesCoreConfiguration> featuresConfiguration = collection.getExtension(FeaturesCoreConfiguration.class);
+                           return featuresConfiguration.isPresent()
+                                   && featuresConfiguration.get().getQueryables().isPresent()
+                                   && !featuresConfiguration.get().getQueryables().get().getSpatial().isEmpty();
+                       })
+                       .filter(collection -> {
+                           Optional<TilesConfiguration> layerConfiguration = collection.getExtension(TilesConfiguration.class);
+                           if (layerConfiguration.isEmpty() || !layerConfiguration.get().isEnabled() || !layerConfiguration.get().isMultiCollectionEnabled())
+                               return false;
+                           MinMax levels = layerConfiguration.get().getZoomLevelsDerived().get(tileMatrixSet.getId());
+                           return !Objects.nonNull(levels) || (levels.getMax() >= level && levels.getMin() <= level);
+                       })
+                       .map(FeatureTypeConfiguration::getId)
+                       .collect(Collectors.toList());
     }
 
     /**
@@ -479,75 +760,369 @@ public class VectorTileSeeding implements OgcApiBackgroundTask {
         return minMaxMap;
     }
 
-    private long getNumberOfTiles2(OgcApi api, List<TileFormatWithQuerySupportExtension> outputFormats, Map<String, Map<String, MinMax>> seeding, TaskContext taskContext) {
-        final long[] numberOfTiles = {0};
+    /**
+     * the scheduler of a phase of the current seeding run, shared by all partials of the run; the blocks that have
+     * been completed before the run has been stopped the last time are skipped, unless the cache is purged
+     */
+    private SeedingScheduler getScheduler(OgcApi api, String phase, Supplier<SeedingScheduler> scheduler) {
+        return schedulers.computeIfAbsent(String.join("/", api.getId(), phase), key -> {
+            SeedingScheduler newScheduler = scheduler.get();
+            // each run with purging starts from the beginning, no checkpoint is recorded
+            if (!shouldPurge(api)) {
+                newScheduler.resume(seedingCheckpoints.resume(api.getId(), phase, newScheduler.getFingerprint()));
+                if (newScheduler.getCompleteness() > 0.0)
+                    LOGGER.info("{}: resuming the {} seeding of API '{}' at {}%", getLabel(), phase, api.getId(),
+                                Math.round(newScheduler.getCompleteness() * 100));
+            }
+            return newScheduler;
+        });
+    }
+
+    private void addTiles(SeedingScheduler scheduler, OgcApi api, Optional<String> collectionId,
+                          List<TileFormatWithQuerySupportExtension> outputFormats, Map<String, MinMax> seeding) {
+        Optional<TilesConfiguration> tilesConfiguration = collectionId.isPresent()
+            ? getTilesConfiguration(api.getData(), collectionId.get())
+            : api.getData().getExtension(TilesConfiguration.class);
+        Optional<SeedingOptions> seedingOptions = api.getData().getExtension(TilesConfiguration.class)
+            .flatMap(TilesConfiguration::getSeedingOptions);
+        for (TileFormatWithQuerySupportExtension outputFormat : outputFormats) {
+            for (Map.Entry<String, MinMax> entry : seeding.entrySet()) {
+                TileMatrixSet tileMatrixSet = getTileMatrixSetById(entry.getKey());
+                if (Objects.isNull(tileMatrixSet))
+                    continue;
+                // overview tiles are built from the tiles of the next zoom level
+                scheduler.add(collectionId, outputFormat, tileMatrixSet,
+                              limitsGenerator.getTileMatrixSetLimits(api, tileMatrixSet, entry.getValue()),
+                              level -> seedingOptions.filter(options -> options.shouldBuildOverview(level)).isPresent()
+                                  && tilesConfiguration.filter(config -> outputFormat.supportsOverviews(config, tileMatrixSet, level)).isPresent());
+            }
+        }
+    }
 
+    /**
+     * take blocks of tiles from the scheduler and generate the tiles that are not cached, until all blocks have been
+     * processed or the task is stopped; blocks with all tiles in the cache and completed tile matrices are recorded in
+     * the checkpoint of the phase, every {@value #CHECKPOINT_BLOCKS} blocks and when the partial ends
+     *
+     * @return {@code false}, if the seeding has been stopped or has failed before all blocks have been taken
+     */
+    private boolean seedBlocks(OgcApi api, String phase, SeedingScheduler scheduler, TaskContext taskContext) {
+        // includes the tiles completed in a previous run
+        taskContext.setCompleteness(scheduler.getCompleteness());
+        int worker = scheduler.join();
+        // the keys of the completed blocks and tile matrices that have not been recorded yet
+        List<String> completedKeys = new ArrayList<>();
         try {
-            walkCollectionsAndTiles(api, outputFormats, seeding, taskContext, (ignore1, collectionId, ignore2, ignore3, ignore4, ignore5, ignore6) -> {
-                numberOfTiles[0]++;
-                return true;
-            });
-        } catch (IOException e) {
-            //ignore
+            Optional<SeedingScheduler.Block> block = scheduler.next(worker);
+            while (block.isPresent()) {
+                boolean completed = false;
+                try {
+                    if (taskContext.isStopped() || !seedBlock(api, block.get(), scheduler, taskContext))
+                        return false;
+                    completed = !taskContext.isStopped() && isCached(api, block.get());
+                } finally {
+                    // partials that wait for the block are released, also when the seeding is stopped
+                    boolean tileMatrixCompleted = scheduler.done(block.get(), completed);
+                    if (completed)
+                        completedKeys.add(block.get().getKey());
+                    if (tileMatrixCompleted)
+                        completedKeys.add(block.get().getTileMatrixKey());
+                }
+                if (completedKeys.size() >= CHECKPOINT_BLOCKS)
+                    checkpoint(api, phase, completedKeys);
+                block = scheduler.next(worker);
+            }
+            return true;
+        } finally {
+            checkpoint(api, phase, completedKeys);
         }
+    }
 
-        return numberOfTiles[0];
+    /**
+     * check that all tiles of a block are in the cache, including the tiles that are pending and have not been
+     * written yet; the generation of a tile may have failed, then the block is processed again when the seeding is
+     * resumed
+     *
+     * @return {@code true}, if all tiles of the block are in the cache
+     */
+    private boolean isCached(OgcApi api, SeedingScheduler.Block block) {
+        try {
+            long cachedTiles = tileCache.getCachedTiles(api, block.getCollectionId(), block.getTileMatrixSet(), block.getLimits(), block.getOutputFormat())
+                                        .size();
+            return cachedTiles == SeedingScheduler.getNumberOfTiles(block.getLimits());
+        } catch (Exception e) {
+            LOGGER.debug("{}: the progress of the seeding could not be recorded | {}", getLabel(), e.getMessage());
+            return false;
+        }
     }
 
-    private long getNumberOfTiles(OgcApi api, List<TileFormatWithQuerySupportExtension> outputFormats, Map<String, MinMax> seeding, TaskContext taskContext) {
-        final long[] numberOfTiles = {0};
+    /**
+     * write the pending tiles and record the completed blocks and tile matrices in the checkpoint of the phase; if the
+     * tiles cannot be written, the blocks are not recorded and are processed again when the seeding is resumed
+     *
+     * @param completedKeys the keys of the completed blocks and tile matrices, the list is cleared
+     */
+    private void checkpoint(OgcApi api, String phase, List<String> completedKeys) {
+        if (completedKeys.isEmpty())
+            return;
+        try {
+            tileCache.flush();
+            completedKeys.forEach(key -> seedingCheckpoints.completed(api.getId(), phase, key));
+        } catch (IOException | SQLException e) {
+            LOGGER.debug("{}: the progress of the seeding could not be recorded | {}", getLabel(), e.getMessage());
+        }
+        completedKeys.clear();
+    }
 
+    /**
+     * generate the tiles of a block that are not cached; the cached tiles are determined with a single lookup
+     *
+     * @return {@code false}, if the seeding should be stopped
+     */
+    private boolean seedBlock(OgcApi api, SeedingScheduler.Block block, SeedingScheduler scheduler, TaskContext taskContext) {
+        TileMatrixSet tileMatrixSet = block.getTileMatrixSet();
+        TileMatrixSetLimits limits = block.getLimits();
+        int level = block.getLevel();
+        Optional<TileBitmap> cachedTiles = Optional.empty();
         try {
-            walkTiles(api, "", outputFormats, seeding, taskContext, (ignore1, collectionId, ignore2, ignore3, ignore4, ignore5, ignore6) -> {
-                numberOfTiles[0]++;
-                return true;
-            });
-        } catch (IOException e) {
-            //ignore
+            cachedTiles = Optional.of(tileCache.getCachedTiles(api, block.getCollectionId(), tileMatrixSet, limits, block.getOutputFormat()));
+        } catch (Exception e) {
+            LOGGER.warn("Failed to retrieve tiles {}/{}/{}-{}/{}-{} for {} from the cache. Reason: {}",
+                        tileMatrixSet.getId(), level, limits.getMinTileRow(), limits.getMaxTileRow(), limits.getMinTileCol(),
+                        limits.getMaxTileCol(), block.getCollectionId().map(id -> "collection " + id).orElse("the dataset"), e.getMessage());
         }
 
-        return numberOfTiles[0];
+        // with metatiles, the features of neighbouring tiles are queried together; overview tiles need no query
+        int metatileSize = block.getOutputFormat().supportsMetatiles() && block.getChildLimits().isEmpty() ? getMetatileSize(api, level) : 1;
+        for (int minRow = limits.getMinTileRow(); minRow <= limits.getMaxTileRow(); minRow += metatileSize) {
+            for (int minCol = limits.getMinTileCol(); minCol <= limits.getMaxTileCol(); minCol += metatileSize) {
+                TileMatrixSetLimits metatileLimits = new ImmutableTileMatrixSetLimits.Builder()
+                    .from(limits)
+                    .minTileRow(minRow)
+                    .maxTileRow(Math.min(minRow + metatileSize - 1, limits.getMaxTileRow()))
+                    .minTileCol(minCol)
+                    .maxTileCol(Math.min(minCol + metatileSize - 1, limits.getMaxTileCol()))
+                    .build();
+                List<int[]> positions = getPositions(metatileLimits, cachedTiles);
+                // tiles without features are stored without a query
+                positions = storeEmptyTiles(api, block.getCollectionId(), block.getOutputFormat(), tileMatrixSet, level, positions);
+                // already there, nothing to create, but still count for progress
+                scheduler.processed(SeedingScheduler.getNumberOfTiles(metatileLimits) - positions.size());
+
+                boolean shouldContinue = true;
+                if (positions.size() > 1 && block.getCollectionId().isPresent()) {
+                    shouldContinue = seedSingleLayerMetatile(api, block.getCollectionId().get(), block.getOutputFormat(), tileMatrixSet, level, positions, taskContext);
+                    scheduler.processed(positions.size());
+                    taskContext.setCompleteness(scheduler.getCompleteness());
+                } else {
+                    if (positions.size() > 1)
+                        // generate the single-layer tiles as metatiles, the multi-layer tiles are then combined from the cached tiles
+                        shouldContinue = seedSingleLayerMetatiles(api, block.getOutputFormat(), tileMatrixSet, metatileLimits, taskContext);
+                    for (int[] position : positions) {
+                        if (!shouldContinue || taskContext.isStopped())
+                            break;
+                        if (block.getChildLimits().isPresent()
+                            && seedOverviewTile(api, block, position[0], position[1], taskContext)) {
+                            scheduler.processed(1);
+                            taskContext.setCompleteness(scheduler.getCompleteness());
+                            continue;
+                        }
+                        shouldContinue = block.getCollectionId().isPresent()
+                            ? seedSingleLayerTile(api, block.getCollectionId().get(), block.getOutputFormat(), tileMatrixSet, level, position[0], position[1], taskContext)
+                            : seedMultiLayerTile(api, block.getOutputFormat(), tileMatrixSet, level, position[0], position[1], taskContext);
+                        scheduler.processed(1);
+                        taskContext.setCompleteness(scheduler.getCompleteness());
+                    }
+                }
+
+                if (!shouldContinue || taskContext.isStopped())
+                    return false;
+            }
+        }
+        taskContext.setCompleteness(scheduler.getCompleteness());
+        return true;
     }
 
-    interface TileWalker {
-        boolean visit(OgcApi api, String collectionId, TileFormatWithQuerySupportExtension outputFormat, TileMatrixSet tileMatrixSet, int level, int row, int col) throws IOException;
+    /**
+     * build a tile of an overview zoom level from the tiles of the next zoom level; for a multi-layer tile, the
+     * single-layer tiles are built and the multi-layer tile is then combined from the cached single-layer tiles
+     *
+     * @return {@code true}, if the tile has been built, {@code false}, if the tile has to be generated from the
+     *     features, e.g. because a child tile is missing in the cache
+     */
+    private boolean seedOverviewTile(OgcApi api, SeedingScheduler.Block block, int row, int col, TaskContext taskContext) {
+        if (block.getCollectionId().isPresent())
+            return seedSingleLayerOverviewTile(api, block.getCollectionId().get(), block, row, col, taskContext);
+
+        for (String collectionId : getMultiLayerCollectionIds(api.getData(), block.getTileMatrixSet(), block.getLevel())) {
+            // a missing single-layer tile is generated from the features with the multi-layer tile
+            seedSingleLayerOverviewTile(api, collectionId, block, row, col, taskContext);
+        }
+        return false;
     }
 
-    private void walkCollectionsAndTiles(OgcApi api, List<TileFormatWithQuerySupportExtension> outputFormats, Map<String, Map<String, MinMax>> seeding, TaskContext taskContext, TileWalker tileWalker) throws IOException {
-        for (Map.Entry<String, Map<String, MinMax>> entry : seeding.entrySet()) {
-            String collectionId = entry.getKey();
-            Map<String, MinMax> seedingConfig = entry.getValue();
-            Optional<TilesConfiguration> tilesConfiguration = getTilesConfiguration(api.getData(),collectionId);
-            if (tilesConfiguration.isPresent()) {
-                walkTiles(api, collectionId, outputFormats, seedingConfig, taskContext, tileWalker);
+    private boolean seedSingleLayerOverviewTile(OgcApi api, String collectionId, SeedingScheduler.Block block, int row, int col,
+                                                TaskContext taskContext) {
+        OgcApiDataV2 apiData = api.getData();
+        Optional<TilesConfiguration> tilesConfiguration = getTilesConfiguration(apiData, collectionId);
+        if (tilesConfiguration.isEmpty() || block.getChildLimits().isEmpty())
+            return false;
+
+        TileMatrixSet tileMatrixSet = block.getTileMatrixSet();
+        TileMatrixSetLimits childLimits = block.getChildLimits().get();
+        int level = block.getLevel();
+        Tile tile = new ImmutableTile.Builder()
+                .collectionIds(ImmutableList.of(collectionId))
+                .tileMatrixSet(tileMatrixSet)
+                .tileLevel(level)
+                .tileRow(row)
+                .tileCol(col)
+                .api(api)
+                .apiData(apiData)
+                .temporary(false)
+                .isDatasetTile(false)
+                .featureProvider(providers.getFeatureProviderOrThrow(apiData))
+                .outputFormat(block.getOutputFormat())
+                .build();
+
+        List<byte[]> childTiles = new ArrayList<>(4);
+        for (int i = 0; i < 4; i++) {
+            int childRow = 2 * row + i / 2;
+            int childCol = 2 * col + i % 2;
+            if (childRow < childLimits.getMinTileRow() || childRow > childLimits.getMaxTileRow()
+                || childCol < childLimits.getMinTileCol() || childCol > childLimits.getMaxTileCol()) {
+                // outside of the data, no features
+                childTiles.add(null);
+                continue;
+            }
+            Tile childTile = new ImmutableTile.Builder()
+                    .from(tile)
+                    .tileLevel(level + 1)
+                    .tileRow(childRow)
+                    .tileCol(childCol)
+                    .build();
+            try {
+                Optional<InputStream> content = tileCache.getTile(childTile);
+                if (content.isEmpty())
+                    return false;
+                try (InputStream inputStream = content.get()) {
+                    childTiles.add(inputStream.readAllBytes());
+                }
+            } catch (IOException | SQLException e) {
+                return false;
             }
         }
+
+        taskContext.setStatusMessage(String.format("currently processing -> %s, %s/%s/%s/%s (overview), %s", collectionId, tileMatrixSet.getId(), level, row, col, block.getOutputFormat().getExtension()));
+
+        try {
+            tileCache.storeTile(tile, block.getOutputFormat().getOverviewTile(tile, childTiles, tilesConfiguration.get()));
+            return true;
+        } catch (Throwable e) {
+            LOGGER.warn("{}: building the overview tile failed, the tile is generated from the features -> {}, {}/{}/{}/{}, {} | {}", getLabel(), collectionId, tileMatrixSet.getId(), level, row, col, block.getOutputFormat().getExtension(), e.getMessage());
+            if (LOGGER.isDebugEnabled(LogContext.MARKER.STACKTRACE))
+                LOGGER.debug(LogContext.MARKER.STACKTRACE, "Stacktrace:", e);
+            return false;
+        }
     }
 
-    private void walkTiles(OgcApi api, String collectionId, List<TileFormatWithQuerySupportExtension> outputFormats, Map<String, MinMax> seeding, TaskContext taskContext, TileWalker tileWalker) throws IOException {
-        for (TileFormatWithQuerySupportExtension outputFormat : outputFormats) {
-            for (Map.Entry<String, MinMax> entry : seeding.entrySet()) {
-                TileMatrixSet tileMatrixSet = getTileMatrixSetById(entry.getKey());
-                MinMax zoomLevels = entry.getValue();
-                List<TileMatrixSetLimits> allLimits = limitsGenerator.getTileMatrixSetLimits(api, tileMatrixSet, zoomLevels);
-
-                for (TileMatrixSetLimits limits : allLimits) {
-                    int level = Integer.parseInt(limits.getTileMatrix());
-
-                    for (int row = limits.getMinTileRow(); row <= limits.getMaxTileRow(); row++) {
-                        for (int col = limits.getMinTileCol(); col <= limits.getMaxTileCol(); col++) {
-                            if (taskContext.isPartial() && !taskContext.matchesPartialModulo(col)) {
-                                continue;
-                            }
-                            boolean shouldContinue = tileWalker.visit(api, collectionId, outputFormat, tileMatrixSet, level, row, col);
-                            if (!shouldContinue) {
-                                return;
-                            }
-                        }
-                    }
-                }
+    /**
+     * generate the single-layer tiles of all layers of the multi-layer tiles in a metatile that are not cached
+     *
+     * @return {@code false}, if the seeding should be stopped
+     */
+    private boolean seedSingleLayerMetatiles(OgcApi api, TileFormatWithQuerySupportExtension outputFormat, TileMatrixSet tileMatrixSet,
+                                             TileMatrixSetLimits metatileLimits, TaskContext taskContext) {
+        int level = Integer.parseInt(metatileLimits.getTileMatrix());
+        for (String collectionId : getMultiLayerCollectionIds(api.getData(), tileMatrixSet, level)) {
+            Optional<TileBitmap> cachedTiles = Optional.empty();
+            try {
+                cachedTiles = Optional.of(tileCache.getCachedTiles(api, Optional.of(collectionId), tileMatrixSet, metatileLimits, outputFormat));
+            } catch (Exception e) {
+                LOGGER.warn("Failed to retrieve tiles {}/{}/{}-{}/{}-{} for collection {} from the cache. Reason: {}",
+                            tileMatrixSet.getId(), level, metatileLimits.getMinTileRow(), metatileLimits.getMaxTileRow(),
+                            metatileLimits.getMinTileCol(), metatileLimits.getMaxTileCol(), collectionId, e.getMessage());
+            }
+            List<int[]> positions = storeEmptyTiles(api, Optional.of(collectionId), outputFormat, tileMatrixSet, level,
+                                                    getPositions(metatileLimits, cachedTiles));
+            // a single missing tile is generated with the multi-layer tile
+            if (positions.size() > 1
+                && (!seedSingleLayerMetatile(api, collectionId, outputFormat, tileMatrixSet, level, positions, taskContext) || taskContext.isStopped()))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * store the tiles that have no features according to the occupancy grids of their collections as empty tiles
+     *
+     * @param collectionId the collection of single-layer tiles, empty for multi-layer tiles
+     * @return the positions of the tiles that have to be generated from the features
+     */
+    private List<int[]> storeEmptyTiles(OgcApi api, Optional<String> collectionId, TileFormatWithQuerySupportExtension outputFormat,
+                                        TileMatrixSet tileMatrixSet, int level, List<int[]> positions) {
+        OgcApiDataV2 apiData = api.getData();
+        List<String> collectionIds = collectionId.map(ImmutableList::of)
+                                                 .orElseGet(() -> ImmutableList.copyOf(getMultiLayerCollectionIds(apiData, tileMatrixSet, level)));
+        if (positions.isEmpty()
+            || collectionIds.isEmpty()
+            || !collectionIds.stream().allMatch(id -> getTilesConfiguration(apiData, id).filter(TilesConfiguration::isSkipEmptyTiles).isPresent()))
+            return positions;
+
+        FeatureProvider2 featureProvider = providers.getFeatureProviderOrThrow(apiData);
+        List<int[]> remaining = new ArrayList<>(positions.size());
+        for (int[] position : positions) {
+            Tile tile = new ImmutableTile.Builder()
+                    .collectionIds(collectionIds)
+                    .tileMatrixSet(tileMatrixSet)
+                    .tileLevel(level)
+                    .tileRow(position[0])
+                    .tileCol(position[1])
+                    .api(api)
+                    .apiData(apiData)
+                    .temporary(false)
+                    .isDatasetTile(collectionId.isEmpty())
+                    .featureProvider(featureProvider)
+                    .outputFormat(outputFormat)
+                    .build();
+            if (!tileOccupancy.isEmpty(tile)) {
+                remaining.add(position);
+                continue;
+            }
+            try {
+                tileCache.storeTile(tile, outputFormat.getEmptyTile(tile));
+            } catch (Throwable e) {
+                // the tile is generated from the features instead
+                remaining.add(position);
             }
         }
+        return remaining;
+    }
+
+    /**
+     * @return the row and column of each tile within the limits that is not cached
+     */
+    private static List<int[]> getPositions(TileMatrixSetLimits limits, Optional<TileBitmap> cachedTiles) {
+        List<int[]> positions = new ArrayList<>();
+        for (int row = limits.getMinTileRow(); row <= limits.getMaxTileRow(); row++) {
+            for (int col = limits.getMinTileCol(); col <= limits.getMaxTileCol(); col++) {
+                final int tileRow = row;
+                final int tileCol = col;
+                if (cachedTiles.filter(bitmap -> bitmap.contains(tileRow, tileCol)).isEmpty())
+                    positions.add(new int[]{row, col});
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * @return the number of rows and columns of the metatiles of a zoom level, 1 without metatiles
+     */
+    int getMetatileSize(OgcApi api, int level) {
+        return api.getData().getExtension(TilesConfiguration.class)
+            .flatMap(TilesConfiguration::getSeedingOptions)
+            .map(seedingOptions -> seedingOptions.getEffectiveMetatileSize(level))
+            .orElse(1);
     }
 
     private Optional<TilesConfiguration> getTilesConfiguration(OgcApiDataV2 apiData, String collectionId) {
@@ -560,4 +1135,83 @@ public class VectorTileSeeding implements OgcApiBackgroundTask {
     private TileMatrixSet getTileMatrixSetById(String tileMatrixSetId) {
         return tileMatrixSetRepository.get(tileMatrixSetId).orElse(null);
     }
+
+    /**
+     * the state of a seeding run that is shared by its partials; the fields are only changed while the entry of the
+     * run is computed, except that a partial marks the run as failed
+     */
+    private static class SeedingRun {
+
+        private int partials;
+        private volatile boolean failed;
+    }
+
+    /**
+     * a tile query with its input and request context
+     */
+    private static class TileRequest {
+
+        private final TilesQueriesHandler.Query query;
+        private final QueryInput queryInput;
+        private final ApiRequestContext requestContext;
+
+        TileRequest(TilesQueriesHandler.Query query, QueryInput queryInput, ApiRequestContext requestContext) {
+            this.query = query;
+            this.queryInput = queryInput;
+            this.requestContext = requestContext;
+        }
+    }
+
+    /**
+     * a tile of a tile matrix of the seeding run
+     */
+    private static class PopularTile {
+
+        private final SeedingScheduler.Block tileMatrix;
+        private final int row;
+        private final int col;
+
+        PopularTile(SeedingScheduler.Block tileMatrix, int row, int col) {
+            this.tileMatrix = tileMatrix;
+            this.row = row;
+            this.col = col;
+        }
+    }
+
+    /**
+     * the most requested tiles of a seeding run, most requested first, shared by all partials of the run
+     */
+    private static class PopularTiles {
+
+        private final Queue<PopularTile> tiles;
+        private final int numberOfTiles;
+        private final AtomicInteger processedTiles;
+        private final long deadline;
+
+        PopularTiles(List<PopularTile> tiles, long deadline) {
+            this.tiles = new ConcurrentLinkedQueue<>(tiles);
+            this.numberOfTiles = tiles.size();
+            this.processedTiles = new AtomicInteger();
+            this.deadline = deadline;
+        }
+
+        /**
+         *
+         * @return the next tile, empty, if all tiles have been taken or the time is up
+         */
+        Optional<PopularTile> next() {
+            if (System.currentTimeMillis() > deadline)
+                return Optional.empty();
+            return Optional.ofNullable(tiles.poll());
+        }
+
+        /**
+         * record that a tile has been processed
+         *
+         * @return the share of the processed tiles
+         */
+        double processed() {
+            return numberOfTiles == 0 ? 1.0 : (double) processedTiles.incrementAndGet() / numberOfTiles;
+        }
+    }
 }
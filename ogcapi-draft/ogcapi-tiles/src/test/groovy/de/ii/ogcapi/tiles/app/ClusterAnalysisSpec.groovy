@@ -0,0 +1,108 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app
+
+import de.ii.ogcapi.tiles.domain.ImmutableMvtFeature
+import de.ii.ogcapi.tiles.domain.MvtFeature
+import org.locationtech.jts.io.WKTReader
+import spock.lang.Specification
+
+class ClusterAnalysisSpec extends Specification {
+
+    def 'Features that do not intersect are standalone'() {
+
+        given: "three separate squares"
+
+        def features = features(square(0, 0, 1), square(2, 0, 1), square(4, 0, 1))
+
+        when: "the clusters are determined"
+
+        def result = ClusterAnalysis.analyse(features, false)
+
+        then: 'there are no clusters'
+
+        result.clusters.isEmpty()
+        result.inCluster.isEmpty()
+        result.standalone == features as Set
+    }
+
+    def 'Features that are connected via other features are one cluster'() {
+
+        given: "three squares in a row, where only neighbours intersect"
+
+        def features = features(square(0, 0, 2), square(1, 1, 2), square(2.5, 2.5, 1.5))
+
+        when: "the clusters are determined"
+
+        def result = ClusterAnalysis.analyse(features, false)
+
+        then: 'all squares are in the cluster of the first square'
+
+        result.clusters.keySet() == [features[0]] as Set
+        result.clusters.get(features[0]) == [features[1], features[2]]
+        result.inCluster == [(features[1]): features[0], (features[2]): features[0]]
+        result.standalone.isEmpty()
+    }
+
+    def 'The feature with the lowest index is the main feature of a cluster'() {
+
+        given: "two separate squares that are connected by a third square"
+
+        def features = features(square(0, 0, 2), square(4, 0, 2), rectangle(1, 0.5, 5, 1.5))
+
+        when: "the clusters are determined"
+
+        def result = ClusterAnalysis.analyse(features, false)
+
+        then: 'the first square is the main feature, although it does not intersect the second square'
+
+        result.clusters.keySet() == [features[0]] as Set
+        result.clusters.get(features[0]) == [features[1], features[2]]
+        result.inCluster == [(features[1]): features[0], (features[2]): features[0]]
+        result.standalone.isEmpty()
+    }
+
+    def 'A contained feature is in the cluster of the containing feature, unless only boundaries are compared'() {
+
+        given: "a small square within a large square, the small square first"
+
+        def features = features(square(2, 2, 1), square(0, 0, 10))
+
+        when: "the clusters are determined from the geometries and from the boundaries"
+
+        def result = ClusterAnalysis.analyse(features, false)
+        def resultBoundary = ClusterAnalysis.analyse(features, true)
+
+        then: 'the small square is the main feature, but the boundaries are not connected'
+
+        result.clusters.get(features[0]) == [features[1]]
+        result.inCluster == [(features[1]): features[0]]
+        result.standalone.isEmpty()
+        resultBoundary.clusters.isEmpty()
+        resultBoundary.standalone == features as Set
+    }
+
+    private static List<MvtFeature> features(String... wkts) {
+        def reader = new WKTReader()
+        return wkts.toList().withIndex().collect { wkt, i ->
+            new ImmutableMvtFeature.Builder()
+                    .id(i as Long)
+                    .properties([:])
+                    .geometry(reader.read(wkt))
+                    .build() as MvtFeature
+        }
+    }
+
+    private static String square(double x, double y, double size) {
+        return rectangle(x, y, x + size, y + size)
+    }
+
+    private static String rectangle(double xmin, double ymin, double xmax, double ymax) {
+        return "POLYGON ((${xmin} ${ymin}, ${xmax} ${ymin}, ${xmax} ${ymax}, ${xmin} ${ymax}, ${xmin} ${ymin}))"
+    }
+}
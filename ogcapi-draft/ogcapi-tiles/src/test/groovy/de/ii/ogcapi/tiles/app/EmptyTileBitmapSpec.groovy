@@ -0,0 +1,177 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app
+
+import java.nio.file.Files
+import java.nio.file.Path
+import spock.lang.Specification
+
+class EmptyTileBitmapSpec extends Specification {
+
+    Path directory
+
+    def setup() {
+        directory = Files.createTempDirectory("empty-tiles")
+    }
+
+    def cleanup() {
+        directory.toFile().deleteDir()
+    }
+
+    def 'Add and remove empty tiles at the boundaries of the chunks'() {
+
+        given: "an empty bitmap"
+
+        def bitmap = EmptyTileBitmap.load(directory.resolve("bitmap"))
+
+        when: "tiles on both sides of the chunk boundaries are added"
+
+        bitmap.add(10, 63, 63)
+        bitmap.add(10, 63, 64)
+        bitmap.add(10, 64, 63)
+        bitmap.add(10, 64, 64)
+
+        then: 'exactly these tiles are empty'
+
+        bitmap.contains(10, 63, 63)
+        bitmap.contains(10, 63, 64)
+        bitmap.contains(10, 64, 63)
+        bitmap.contains(10, 64, 64)
+        !bitmap.contains(10, 62, 63)
+        !bitmap.contains(10, 63, 65)
+        !bitmap.contains(10, 65, 64)
+        !bitmap.contains(11, 63, 63)
+        bitmap.getNumberOfTiles() == [10: 4L]
+
+        when: "a tile is removed"
+
+        def removed = bitmap.remove(10, 63, 64)
+        def removedAgain = bitmap.remove(10, 63, 64)
+
+        then: 'only this tile is no longer empty'
+
+        removed
+        !removedAgain
+        !bitmap.contains(10, 63, 64)
+        bitmap.contains(10, 63, 63)
+        bitmap.contains(10, 64, 63)
+        bitmap.contains(10, 64, 64)
+        bitmap.getNumberOfTiles() == [10: 3L]
+    }
+
+    def 'Remove a tile from a chunk in which all tiles are empty'() {
+
+        given: "a chunk in which all tiles are empty"
+
+        def bitmap = EmptyTileBitmap.load(directory.resolve("bitmap"))
+        for (int row = 64; row < 128; row++) {
+            for (int col = 0; col < 64; col++) {
+                bitmap.add(7, row, col)
+            }
+        }
+
+        when: "a tile is removed"
+
+        bitmap.remove(7, 100, 31)
+
+        then: 'all other tiles of the chunk are still empty'
+
+        bitmap.getNumberOfTiles() == [7: 64L * 64 - 1]
+        !bitmap.contains(7, 100, 31)
+        bitmap.contains(7, 100, 30)
+        bitmap.contains(7, 64, 0)
+        bitmap.contains(7, 127, 63)
+        !bitmap.contains(7, 128, 0)
+    }
+
+    def 'Remove a range of tiles across chunks'() {
+
+        given: "empty tiles in four chunks"
+
+        def bitmap = EmptyTileBitmap.load(directory.resolve("bitmap"))
+        for (int row = 0; row < 128; row++) {
+            for (int col = 0; col < 128; col++) {
+                bitmap.add(8, row, col)
+            }
+        }
+
+        when: "a range of tiles that overlaps all chunks is removed"
+
+        bitmap.remove(8, 60, 70, 50, 80)
+        def visited = []
+        bitmap.visit(8, 0, 127, 0, 127, { level, row, col -> visited << [row, col] } as EmptyTileBitmap.TileVisitor)
+
+        then: 'exactly the tiles in the range are no longer empty'
+
+        visited.size() == 128 * 128 - 11 * 31
+        visited.every { row, col -> !(row >= 60 && row <= 70 && col >= 50 && col <= 80) }
+        !bitmap.contains(8, 60, 50)
+        !bitmap.contains(8, 70, 80)
+        bitmap.contains(8, 59, 50)
+        bitmap.contains(8, 70, 81)
+    }
+
+    def 'Write and read the bitmap'() {
+
+        given: "a bitmap with a full chunk and single tiles on several zoom levels"
+
+        def path = directory.resolve("bitmap")
+        def bitmap = EmptyTileBitmap.load(path)
+        for (int row = 0; row < 64; row++) {
+            for (int col = 0; col < 64; col++) {
+                bitmap.add(6, row, col)
+            }
+        }
+        bitmap.add(12, 1000, 2000)
+        bitmap.add(20, 524287, 1048575)
+
+        when: "the bitmap is written and read again"
+
+        bitmap.save(true)
+        def result = EmptyTileBitmap.load(path)
+
+        then: 'the bitmap read has the same empty tiles'
+
+        Files.exists(path)
+        result.getNumberOfTiles() == [6: 64L * 64, 12: 1L, 20: 1L]
+        result.contains(6, 63, 63)
+        result.contains(12, 1000, 2000)
+        !result.contains(12, 1000, 2001)
+        result.contains(20, 524287, 1048575)
+    }
+
+    def 'A removed tile is never read from an outdated file'() {
+
+        given: "a bitmap that has been written"
+
+        def path = directory.resolve("bitmap")
+        def bitmap = EmptyTileBitmap.load(path)
+        bitmap.add(5, 1, 2)
+        bitmap.add(5, 1, 3)
+        bitmap.save(true)
+
+        when: "a tile is removed"
+
+        bitmap.remove(5, 1, 2)
+
+        then: 'the file is deleted until the bitmap is written again'
+
+        !Files.exists(path)
+        EmptyTileBitmap.load(path).getNumberOfTiles().isEmpty()
+
+        when: "the bitmap is written again"
+
+        bitmap.save(true)
+        def result = EmptyTileBitmap.load(path)
+
+        then: 'the file has the remaining tile'
+
+        !result.contains(5, 1, 2)
+        result.contains(5, 1, 3)
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app
+
+import de.ii.ogcapi.tiles.domain.ImmutableMvtFeature
+import de.ii.ogcapi.tiles.domain.MvtFeature
+import org.locationtech.jts.geom.Geometry
+import org.locationtech.jts.geom.GeometryFactory
+import org.locationtech.jts.geom.PrecisionModel
+import org.locationtech.jts.io.WKTReader
+import org.locationtech.jts.operation.overlayng.OverlayNG
+import spock.lang.Specification
+
+class FeatureMergerSpec extends Specification {
+
+    static final PrecisionModel PRECISION_MODEL = new PrecisionModel(16.0)
+    static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory(PRECISION_MODEL)
+
+    FeatureMerger merger = new FeatureMerger(["type"], true, [], GEOMETRY_FACTORY, PRECISION_MODEL, "test")
+
+    def 'Touching polygons are merged like before'() {
+
+        given: "two touching squares with the same type"
+
+        def features = [feature(0, rectangle(0, 0, 10, 10), [type: "a"]),
+                        feature(1, rectangle(10, 0, 20, 10), [type: "a"])]
+
+        when: "the features are merged"
+
+        def result = merger.merge(features as Set)
+
+        then: 'the merged geometry is the same as the symmetric difference used before'
+
+        result.size() == 1
+        result[0].geometry.equalsTopo(previousMerge(features))
+        result[0].geometry.equalsTopo(read(rectangle(0, 0, 20, 10)))
+        result[0].properties == [type: "a"]
+    }
+
+    def 'Overlapping polygons are merged without cutting out the overlap'() {
+
+        given: "two overlapping squares with the same type"
+
+        def features = [feature(0, rectangle(0, 0, 10, 10), [type: "a"]),
+                        feature(1, rectangle(5, 0, 15, 10), [type: "a"])]
+
+        when: "the features are merged"
+
+        def result = merger.merge(features as Set)
+
+        then: 'the merged geometry includes the overlap, which the symmetric difference used before cut out'
+
+        result.size() == 1
+        result[0].geometry.equalsTopo(read(rectangle(0, 0, 15, 10)))
+        result[0].geometry.area == 150.0d
+        previousMerge(features).area == 100.0d
+        !previousMerge(features).contains(read(rectangle(6, 1, 9, 9)))
+    }
+
+    def 'Features without a value for a groupBy attribute are merged with each other like before'() {
+
+        given: "a row of touching squares, the first two with a type, the others without"
+
+        def features = [feature(0, rectangle(0, 0, 10, 10), [type: "a"]),
+                        feature(1, rectangle(10, 0, 20, 10), [type: "a", name: "x"]),
+                        feature(2, rectangle(20, 0, 30, 10), [name: "x"]),
+                        feature(3, rectangle(30, 0, 40, 10), [name: "x"])]
+
+        when: "the features are merged"
+
+        def result = merger.merge(features as Set)
+
+        then: 'the features with the type and the features without a type are merged separately'
+
+        result.size() == 2
+        def withType = result.find { it.properties.containsKey("type") }
+        def withoutType = result.find { !it.properties.containsKey("type") }
+        withType.geometry.equalsTopo(read(rectangle(0, 0, 20, 10)))
+        withType.properties == [type: "a"]
+        withoutType.geometry.equalsTopo(read(rectangle(20, 0, 40, 10)))
+        withoutType.properties == [name: "x"]
+    }
+
+    // the polygons were combined one after the other with the symmetric difference
+    private static Geometry previousMerge(List<MvtFeature> features) {
+        Geometry geometry = features[0].geometry
+        features.drop(1).each { feature ->
+            def overlay = new OverlayNG(geometry, feature.geometry, PRECISION_MODEL, OverlayNG.SYMDIFFERENCE)
+            overlay.setStrictMode(true)
+            geometry = overlay.getResult()
+        }
+        return geometry
+    }
+
+    private static MvtFeature feature(long id, String wkt, Map<String, Object> properties) {
+        return new ImmutableMvtFeature.Builder()
+                .id(id)
+                .properties(properties)
+                .geometry(read(wkt))
+                .build()
+    }
+
+    private static Geometry read(String wkt) {
+        return new WKTReader(GEOMETRY_FACTORY).read(wkt)
+    }
+
+    private static String rectangle(double xmin, double ymin, double xmax, double ymax) {
+        return "POLYGON ((${xmin} ${ymin}, ${xmax} ${ymin}, ${xmax} ${ymax}, ${xmin} ${ymax}, ${xmin} ${ymin}))"
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app
+
+import de.ii.ogcapi.tiles.domain.Tile
+import de.ii.ogcapi.tiles.domain.TilesConfiguration
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet
+import no.ecc.vectortile.VectorTileDecoder
+import no.ecc.vectortile.VectorTileEncoder
+import org.locationtech.jts.geom.Geometry
+import org.locationtech.jts.io.WKTReader
+import spock.lang.Specification
+
+class OverviewTileEncoderSpec extends Specification {
+
+    static final TileMatrixSet TILE_MATRIX_SET = TileMatrixSet.fromWellKnownId("WebMercatorQuad").orElseThrow()
+
+    OverviewTileEncoder encoder
+
+    def setup() {
+        def tile = Stub(Tile) {
+            getTileMatrixSet() >> TILE_MATRIX_SET
+            getTileLevel() >> 5
+            getTileRow() >> 10
+            getTileCol() >> 20
+        }
+        def tilesConfiguration = Stub(TilesConfiguration) {
+            getMinimumSizeInPixelDerived() >> 0.5d
+            getRulesDerived() >> [:]
+            getFiltersDerived() >> [:]
+            isIgnoreInvalidGeometriesDerived() >> false
+        }
+        encoder = new OverviewTileEncoder(tile, tilesConfiguration)
+    }
+
+    def 'A feature without an id that crosses the boundary of two child tiles is included once'() {
+
+        given: "a feature without an id in the upper left child tile that extends into the buffer of the tile"
+
+        encoder.addChild(0, 0, child(rectangle(200, 100, 264, 150), [name: "a"]))
+
+        when: "the same feature is added from the upper right child tile"
+
+        encoder.addChild(0, 1, child(rectangle(-56, 100, 8, 150), [name: "a"]))
+        def features = decode(encoder.encode())
+
+        then: 'the parts are joined to a single feature'
+
+        features.size() == 1
+        features[0].attributes == [name: "a"]
+        features[0].geometry.equalsTopo(read(rectangle(100, 50, 132, 75)))
+    }
+
+    def 'Features without an id are only joined, if they have the same properties'() {
+
+        given: "a feature without an id in the upper left child tile that extends into the buffer of the tile"
+
+        encoder.addChild(0, 0, child(rectangle(200, 100, 264, 150), [name: "a"]))
+
+        when: "a feature at the same location with other properties is added from the upper right child tile"
+
+        encoder.addChild(0, 1, child(rectangle(-56, 100, 8, 150), [name: "b"]))
+        def features = decode(encoder.encode())
+
+        then: 'both features are included'
+
+        features.size() == 2
+        features*.attributes as Set == [[name: "a"], [name: "b"]] as Set
+    }
+
+    def 'Features without an id that do not intersect are not joined'() {
+
+        given: "two features without an id with the same properties in the upper left child tile"
+
+        encoder.addChild(0, 0, child([rectangle(10, 10, 50, 50), rectangle(200, 10, 264, 50)], [name: "a"]))
+
+        when: "a feature with the same properties at another location on the boundary is added from the upper right child tile"
+
+        encoder.addChild(0, 1, child([rectangle(-56, 100, 8, 150)], [name: "a"]))
+        def features = decode(encoder.encode())
+
+        then: 'all features are included'
+
+        features.size() == 3
+    }
+
+    def 'The buffer of an overview tile is the scaled buffer of the child tiles'() {
+
+        given: "a feature in the upper left child tile that extends into the buffer"
+
+        encoder.addChild(0, 0, child(rectangle(-20, 100, 50, 150), [name: "a"]))
+
+        when: "the overview tile is encoded"
+
+        def features = decode(encoder.encode())
+
+        then: 'the feature extends 4 pixels into the buffer of the tile'
+
+        features.size() == 1
+        features[0].geometry.envelopeInternal.minX == -4.0d
+    }
+
+    private static byte[] child(String wkt, Map<String, Object> attributes) {
+        return child([wkt], attributes)
+    }
+
+    private static byte[] child(List<String> wkts, Map<String, Object> attributes) {
+        def encoder = new VectorTileEncoder(TILE_MATRIX_SET.getTileExtent())
+        wkts.each { wkt -> encoder.addFeature("layer", attributes, read(wkt)) }
+        return encoder.encode()
+    }
+
+    private static List<VectorTileDecoder.Feature> decode(byte[] content) {
+        return new VectorTileDecoder().decode(content).asList()
+    }
+
+    private static Geometry read(String wkt) {
+        return new WKTReader().read(wkt)
+    }
+
+    private static String rectangle(double xmin, double ymin, double xmax, double ymax) {
+        return "POLYGON ((${xmin} ${ymin}, ${xmax} ${ymin}, ${xmax} ${ymax}, ${xmin} ${ymax}, ${xmin} ${ymin}))"
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app
+
+import java.nio.charset.StandardCharsets
+import spock.lang.Specification
+
+class TileFormatMVTSpec extends Specification {
+
+    def 'Read the layer names of a tile'() {
+
+        when: "the layer names of a valid tile are read"
+
+        def result = TileFormatMVT.getLayerNames(tile, 4096)
+
+        then: 'the names of all layers are returned in the order of the layers'
+
+        result == Optional.of(names)
+
+        where:
+
+        tile                                                     || names
+        new byte[0]                                              || []
+        layer("buildings", 4096)                                 || ["buildings"]
+        concat(layer("buildings", 4096), layer("straßen", 4096)) || ["buildings", "straßen"]
+        layer("buildings", null)                                 || ["buildings"]
+    }
+
+    def 'Reject a tile with a different extent'() {
+
+        expect: "no layer names for a tile with layers of another extent"
+
+        TileFormatMVT.getLayerNames(concat(layer("buildings", 4096), layer("roads", 512)), 4096) == Optional.empty()
+        TileFormatMVT.getLayerNames(layer("buildings", null), 512) == Optional.empty()
+    }
+
+    def 'Reject a truncated tile'() {
+
+        given: "a tile with a single layer"
+
+        def tile = layer("buildings", 4096)
+
+        when: "the layer names of the tile cut at each position are read"
+
+        def results = (1..<tile.length).collect { length -> TileFormatMVT.getLayerNames(Arrays.copyOf(tile, length), 4096) }
+
+        then: 'no layer names are returned'
+
+        results.every { it.isEmpty() }
+    }
+
+    def 'Reject a tile that is not a sequence of layers'() {
+
+        expect: "no layer names for a tile with another field or a malformed varint"
+
+        TileFormatMVT.getLayerNames(field(1, "buildings".getBytes(StandardCharsets.UTF_8)), 4096) == Optional.empty()
+        TileFormatMVT.getLayerNames([0x1a, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0x01] as byte[], 4096) == Optional.empty()
+    }
+
+    def 'Reject a tile with duplicate layer names'() {
+
+        expect: "no layer names, if a layer name is used twice"
+
+        TileFormatMVT.getLayerNames(concat(layer("buildings", 4096), layer("roads", 4096), layer("buildings", 4096)), 4096) == Optional.empty()
+    }
+
+    // a layer message with a point feature, the extent is omitted, if it is null
+    private static byte[] layer(String name, Integer extent) {
+        def body = new ByteArrayOutputStream()
+        // version 2
+        body.write([0x78, 2] as byte[])
+        body.write(field(1, name.getBytes(StandardCharsets.UTF_8)))
+        // a point feature with id 1 and a single tag
+        body.write(field(2, [0x08, 1, 0x12, 2, 0, 0, 0x18, 1, 0x22, 3, 9, 2, 2] as byte[]))
+        body.write(field(3, "name".getBytes(StandardCharsets.UTF_8)))
+        body.write(field(4, field(1, "value".getBytes(StandardCharsets.UTF_8))))
+        if (extent != null) {
+            body.write(5 << 3)
+            writeVarint(body, extent)
+        }
+        return field(3, body.toByteArray())
+    }
+
+    // a length-delimited field
+    private static byte[] field(int number, byte[] content) {
+        def out = new ByteArrayOutputStream()
+        writeVarint(out, (number << 3) | 2)
+        writeVarint(out, content.length)
+        out.write(content)
+        return out.toByteArray()
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while (value >= 0x80) {
+            out.write((int) (value & 0x7f) | 0x80)
+            value >>>= 7
+        }
+        out.write((int) value)
+    }
+
+    private static byte[] concat(byte[]... tiles) {
+        def out = new ByteArrayOutputStream()
+        tiles.each { out.write(it) }
+        return out.toByteArray()
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app
+
+import de.ii.xtraplatform.crs.domain.BoundingBox
+import de.ii.xtraplatform.crs.domain.OgcCrs
+import de.ii.xtraplatform.features.domain.FeatureChange
+import spock.lang.Specification
+
+class TileInvalidationImplSpec extends Specification {
+
+    def 'Only the tiles at the location of a new feature are invalidated'() {
+
+        given: "a new feature"
+
+        def change = Stub(FeatureChange) {
+            getAction() >> FeatureChange.Action.CREATE
+            getBoundingBox() >> Optional.of(BoundingBox.of(7.0, 50.0, 7.1, 50.1, OgcCrs.CRS84))
+        }
+
+        when: "the tiles affected by the change are determined"
+
+        def bbox = TileInvalidationImpl.getInvalidatedBoundingBox(change)
+
+        then: 'only the bounding box of the feature is invalidated'
+
+        bbox == Optional.of(BoundingBox.of(7.0, 50.0, 7.1, 50.1, OgcCrs.CRS84))
+    }
+
+    def 'The tiles at the previous location of a moved feature are invalidated'() {
+
+        given: "a feature that has been moved, the change only has the new location"
+
+        def change = Stub(FeatureChange) {
+            getAction() >> FeatureChange.Action.UPDATE
+            getBoundingBox() >> Optional.of(BoundingBox.of(8.0, 51.0, 8.1, 51.1, OgcCrs.CRS84))
+        }
+
+        when: "the tiles affected by the change are determined"
+
+        def bbox = TileInvalidationImpl.getInvalidatedBoundingBox(change)
+
+        then: 'all tiles of the collection are invalidated, including the tiles at the previous location'
+
+        bbox.isEmpty()
+    }
+
+    def 'All tiles of the collection are invalidated for a deleted feature'() {
+
+        given: "a deleted feature"
+
+        def change = Stub(FeatureChange) {
+            getAction() >> FeatureChange.Action.DELETE
+            getBoundingBox() >> Optional.empty()
+        }
+
+        when: "the tiles affected by the change are determined"
+
+        def bbox = TileInvalidationImpl.getInvalidatedBoundingBox(change)
+
+        then: 'all tiles of the collection are invalidated'
+
+        bbox.isEmpty()
+    }
+}
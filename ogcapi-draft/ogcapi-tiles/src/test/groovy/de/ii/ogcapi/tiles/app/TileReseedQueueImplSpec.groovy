@@ -0,0 +1,163 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app
+
+import de.ii.ogcapi.tiles.domain.TileReseedQueue.QueuedTile
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.ImmutableTileMatrixSetLimits
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimits
+import de.ii.xtraplatform.base.domain.AppContext
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import spock.lang.Specification
+
+class TileReseedQueueImplSpec extends Specification {
+
+    static final String API_ID = "test"
+
+    Path directory
+    Path journal
+    AppContext appContext
+
+    def setup() {
+        directory = Files.createTempDirectory("reseed")
+        journal = directory.resolve("cache").resolve("tiles").resolve(API_ID).resolve("__reseed__.queue")
+        appContext = Stub(AppContext) {
+            getDataDir() >> directory
+        }
+    }
+
+    def cleanup() {
+        directory.toFile().deleteDir()
+    }
+
+    def 'The journal is replayed and an incomplete last line is ignored'() {
+
+        given: "a journal with added and removed tiles, the last line was not written completely"
+
+        write("+__all__/WebMercatorQuad/5/1/1\n" +
+                "+__all__/WebMercatorQuad/5/1/2\n" +
+                "+buildings/WebMercatorQuad/6/3/4\n" +
+                "-__all__/WebMercatorQuad/5/1/1\n" +
+                "+__all__/WebMercatorQuad/5/1/2")
+
+        when: "the queue is accessed after a restart"
+
+        def queue = new TileReseedQueueImpl(appContext)
+
+        then: 'the added tiles that have not been removed are queued, the incomplete line is ignored'
+
+        queue.size(API_ID) == 2
+        queue.poll(API_ID) == Optional.of(tile(Optional.empty(), 5, 1, 2))
+        queue.poll(API_ID) == Optional.of(tile(Optional.of("buildings"), 6, 3, 4))
+        queue.poll(API_ID).isEmpty()
+    }
+
+    def 'A truncated tile is not confused with another tile'() {
+
+        given: "a journal where the last line was cut off after the first digit of the column"
+
+        write("+__all__/WebMercatorQuad/5/1/2\n" +
+                "-__all__/WebMercatorQuad/5/1/2")
+
+        when: "the queue is accessed after a restart"
+
+        def queue = new TileReseedQueueImpl(appContext)
+
+        then: 'the tile is still queued'
+
+        queue.size(API_ID) == 1
+        queue.poll(API_ID) == Optional.of(tile(Optional.empty(), 5, 1, 2))
+    }
+
+    def 'The journal is compacted when it is replayed'() {
+
+        given: "a journal with added and removed tiles"
+
+        write("+__all__/WebMercatorQuad/5/1/1\n" +
+                "+__all__/WebMercatorQuad/5/1/2\n" +
+                "-__all__/WebMercatorQuad/5/1/1\n" +
+                "+__all__/WebMercatorQuad/5/1/")
+
+        when: "the queue is accessed after a restart"
+
+        new TileReseedQueueImpl(appContext).size(API_ID)
+
+        then: 'the journal only contains the queued tiles'
+
+        read() == ["+__all__/WebMercatorQuad/5/1/2"]
+    }
+
+    def 'Tiles on lower levels are polled first and processed tiles are removed from the journal'() {
+
+        given: "a queue with tiles on two levels"
+
+        def queue = new TileReseedQueueImpl(appContext)
+        queue.enqueue(API_ID, Optional.empty(), "WebMercatorQuad", limits(6, 0, 0, 0, 1))
+        queue.enqueue(API_ID, Optional.empty(), "WebMercatorQuad", limits(5, 0, 0, 0, 0))
+
+        when: "a tile is polled and processed"
+
+        def polled = queue.poll(API_ID)
+        queue.done(API_ID, polled.get())
+
+        then: 'the tile on the lower level is polled first'
+
+        polled == Optional.of(tile(Optional.empty(), 5, 0, 0))
+
+        and: 'a new queue replays the tiles that have not been processed'
+
+        new TileReseedQueueImpl(appContext).size(API_ID) == 2
+    }
+
+    def 'The journal is compacted when it has grown too large'() {
+
+        given: "a queue with many tiles"
+
+        def queue = new TileReseedQueueImpl(appContext)
+        queue.enqueue(API_ID, Optional.empty(), "WebMercatorQuad", limits(10, 0, 0, 109, 99))
+
+        when: "most tiles are processed"
+
+        10_900.times {
+            queue.done(API_ID, queue.poll(API_ID).get())
+        }
+
+        then: 'the journal has been compacted'
+
+        queue.size(API_ID) == 100
+        read().size() < 10_900
+
+        and: 'a new queue replays the tiles that have not been processed'
+
+        new TileReseedQueueImpl(appContext).size(API_ID) == 100
+    }
+
+    private void write(String content) {
+        Files.createDirectories(journal.getParent())
+        Files.writeString(journal, content, StandardCharsets.UTF_8)
+    }
+
+    private List<String> read() {
+        return Files.readAllLines(journal, StandardCharsets.UTF_8)
+    }
+
+    private static QueuedTile tile(Optional<String> collectionId, int level, int row, int col) {
+        return new QueuedTile(collectionId, "WebMercatorQuad", level, row, col)
+    }
+
+    private static TileMatrixSetLimits limits(int level, int minRow, int minCol, int maxRow, int maxCol) {
+        return new ImmutableTileMatrixSetLimits.Builder()
+                .tileMatrix(String.valueOf(level))
+                .minTileRow(minRow)
+                .minTileCol(minCol)
+                .maxTileRow(maxRow)
+                .maxTileCol(maxCol)
+                .build()
+    }
+}
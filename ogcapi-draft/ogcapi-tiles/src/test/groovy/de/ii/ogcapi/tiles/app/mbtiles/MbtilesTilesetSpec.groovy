@@ -0,0 +1,267 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app.mbtiles
+
+import de.ii.ogcapi.tiles.domain.Tile
+import de.ii.ogcapi.tiles.domain.TileFormatExtension
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.ImmutableTileMatrixSetLimits
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimits
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import spock.lang.Specification
+
+class MbtilesTilesetSpec extends Specification {
+
+    static final TileMatrixSet TILE_MATRIX_SET = TileMatrixSet.fromWellKnownId("WebMercatorQuad").orElseThrow()
+
+    Path directory
+    Path file
+    MbtilesTileset tileset
+    TileFormatExtension outputFormat = Stub(TileFormatExtension) {
+        getGzippedInMbtiles() >> false
+        getSupportsEmptyTile() >> true
+    }
+
+    def setup() {
+        directory = Files.createTempDirectory("mbtiles")
+        file = directory.resolve("WebMercatorQuad.mbtiles")
+        tileset = new MbtilesTileset(file, ImmutableMbtilesMetadata.builder()
+                                                                 .name("test")
+                                                                 .format(MbtilesMetadata.MbtilesFormat.pbf)
+                                                                 .build())
+    }
+
+    def cleanup() {
+        directory.toFile().deleteDir()
+    }
+
+    def 'Tiles with the same content share a blob until the last tile is deleted'() {
+
+        given: "two tiles with the same content and a tile with other content"
+
+        def tile1 = tile(10, 100, 200)
+        def tile2 = tile(10, 100, 201)
+        def tile3 = tile(10, 101, 200)
+        def content = bytes("same")
+
+        when: "the tiles are written"
+
+        tileset.writeTile(tile1, content)
+        tileset.writeTile(tile2, content)
+        tileset.writeTile(tile3, bytes("other"))
+        tileset.flush()
+
+        then: 'the tiles with the same content refer to a single blob'
+
+        count("SELECT count(*) FROM tile_map") == 3
+        count("SELECT count(DISTINCT tile_id) FROM tile_map") == 2
+        blobs() == 2
+
+        when: "one of the tiles with the same content is deleted"
+
+        tileset.deleteTile(tile1)
+
+        then: 'the blob is kept for the other tile'
+
+        blobs() == 2
+        !tileset.tileExists(tile1)
+        tileset.getTile(tile2).get().bytes == content
+
+        when: "the other tile with the same content is deleted"
+
+        tileset.deleteTile(tile2)
+
+        then: 'the blob is deleted, too'
+
+        blobs() == 1
+        tileset.getTile(tile3).get().bytes == bytes("other")
+    }
+
+    def 'A batch that cannot be written is rolled back and the tiles remain queued'() {
+
+        given: "a tile and a tile that fails when the batch is written"
+
+        def failing = false
+        def failingTileMatrixSet = Stub(TileMatrixSet) {
+            getTmsRow(_, _) >> { int level, int row ->
+                if (failing)
+                    throw new IllegalStateException("failure")
+                return TILE_MATRIX_SET.getTmsRow(level, row)
+            }
+        }
+        def tile1 = tile(10, 100, 200)
+        def tile2 = tile(10, 100, 201, failingTileMatrixSet)
+        tileset.writeTile(tile1, bytes("first"))
+        tileset.writeTile(tile2, bytes("second"))
+
+        when: "the batch is written"
+
+        failing = true
+        tileset.flush()
+
+        then: 'no tile of the batch is in the file, but the tiles are still available'
+
+        thrown(IllegalStateException)
+        count("SELECT count(*) FROM tile_map") == 0
+        blobs() == 0
+        tileset.getTile(tile1).get().bytes == bytes("first")
+
+        when: "the batch is written again"
+
+        failing = false
+        tileset.flush()
+
+        then: 'all tiles of the batch are in the file'
+
+        count("SELECT count(*) FROM tile_map") == 2
+        blobs() == 2
+        tileset.getTile(tile1).get().bytes == bytes("first")
+        tileset.getTile(tile2).get().bytes == bytes("second")
+    }
+
+    def 'The tiles that have not been accessed for the longest time are evicted first'() {
+
+        given: "a tile on level 0 and three tiles on level 1, accessed one after the other"
+
+        def tile0 = tile(0, 0, 0)
+        def tile1 = tile(1, 0, 0)
+        def tile2 = tile(1, 0, 1)
+        def tile3 = tile(1, 1, 0)
+        tileset.writeTile(tile0, bytes("level0"))
+        tileset.writeTile(tile1, bytes("tile1"))
+        tileset.writeTile(tile2, bytes("tile2"))
+        tileset.writeTile(tile3, bytes("tile-3"))
+        tileset.flush()
+        // the rows in the MBTiles file are counted from the bottom
+        execute("UPDATE tile_map SET last_access=1 WHERE zoom_level=0")
+        execute("UPDATE tile_map SET last_access=2 WHERE zoom_level=1 AND tile_column=0 AND tile_row=1")
+        execute("UPDATE tile_map SET last_access=4 WHERE zoom_level=1 AND tile_column=1")
+        execute("UPDATE tile_map SET last_access=3 WHERE zoom_level=1 AND tile_column=0 AND tile_row=0")
+
+        expect: 'all tiles are counted with the size of their content'
+
+        tileset.getStoredTiles().get(0).tiles == 1
+        tileset.getStoredTiles().get(0).bytes == 6
+        tileset.getStoredTiles().get(1).tiles == 3
+        tileset.getStoredTiles().get(1).bytes == 16
+
+        when: "two tiles from level 1 are evicted"
+
+        def evicted = tileset.evictTiles(1, 2)
+
+        then: 'the two tiles of level 1 that have not been accessed for the longest time are deleted with their blobs'
+
+        evicted == 2
+        !tileset.tileExists(tile1)
+        !tileset.tileExists(tile3)
+        tileset.tileExists(tile2)
+        blobs() == 2
+
+        and: 'the tile on level 0 is kept, although it has not been accessed for the longest time'
+
+        tileset.tileExists(tile0)
+
+        and: 'the evicted tiles are no longer counted'
+
+        tileset.getStoredTiles().get(0).tiles == 1
+        tileset.getStoredTiles().get(0).bytes == 6
+        tileset.getStoredTiles().get(1).tiles == 1
+        tileset.getStoredTiles().get(1).bytes == 5
+    }
+
+    def 'Stale tiles are only served until they have been generated again'() {
+
+        given: "two tiles, one of them in the range that is invalidated"
+
+        def tile1 = tile(10, 100, 200)
+        def tile2 = tile(10, 100, 201)
+        tileset.writeTile(tile1, bytes("old"))
+        tileset.writeTile(tile2, bytes("other"))
+        tileset.flush()
+        def range = limits(10, 100, 200, 100, 200)
+
+        when: "the tiles in the range are marked as stale"
+
+        tileset.markTilesStale(TILE_MATRIX_SET, range)
+
+        then: 'the stale tile can still be served, but is marked as stale'
+
+        tileset.getCachedTile(tile1).get().isStale()
+        tileset.getCachedTile(tile1).get().getContentStream().bytes == bytes("old")
+        !tileset.getCachedTile(tile2).get().isStale()
+
+        and: 'the stale tile is not considered as cached, so that it is generated again'
+
+        !tileset.tileExists(tile1)
+        tileset.tileExists(tile2)
+        tileset.getCachedTiles(TILE_MATRIX_SET, limits(10, 100, 200, 100, 201)).size() == 1
+        !tileset.getCachedTiles(TILE_MATRIX_SET, range).contains(100, 200)
+        tileset.getStoredTiles().get(10).tiles == 1
+
+        when: "the tile is generated again"
+
+        tileset.writeTile(tile1, bytes("new"))
+        tileset.flush()
+
+        then: 'the new tile is served and is no longer stale'
+
+        !tileset.getCachedTile(tile1).get().isStale()
+        tileset.getCachedTile(tile1).get().getContentStream().bytes == bytes("new")
+        tileset.tileExists(tile1)
+        tileset.getStoredTiles().get(10).tiles == 2
+    }
+
+    private Tile tile(int level, int row, int col, TileMatrixSet tileMatrixSet = TILE_MATRIX_SET) {
+        return Stub(Tile) {
+            getTileMatrixSet() >> tileMatrixSet
+            getTileLevel() >> level
+            getTileRow() >> row
+            getTileCol() >> col
+            getOutputFormat() >> outputFormat
+        }
+    }
+
+    private static TileMatrixSetLimits limits(int level, int minRow, int minCol, int maxRow, int maxCol) {
+        return new ImmutableTileMatrixSetLimits.Builder()
+                .tileMatrix(String.valueOf(level))
+                .minTileRow(minRow)
+                .minTileCol(minCol)
+                .maxTileRow(maxRow)
+                .maxTileCol(maxCol)
+                .build()
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8)
+    }
+
+    // the blobs of tiles, without the blob of the empty tile
+    private long blobs() {
+        return count("SELECT count(*) FROM tile_blobs WHERE tile_id<>1")
+    }
+
+    private void execute(String sql) {
+        SqlHelper.getConnection(file.toFile(), false).withCloseable { connection ->
+            connection.createStatement().withCloseable { statement ->
+                statement.executeUpdate(sql)
+            }
+        }
+    }
+
+    private long count(String sql) {
+        return SqlHelper.getConnection(file.toFile(), true).withCloseable { connection ->
+            connection.createStatement().withCloseable { statement ->
+                statement.executeQuery(sql).withCloseable { rs ->
+                    rs.next() ? rs.getLong(1) : 0
+                }
+            }
+        }
+    }
+}
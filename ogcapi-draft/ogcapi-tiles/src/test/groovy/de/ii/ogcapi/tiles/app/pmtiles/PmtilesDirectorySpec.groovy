@@ -0,0 +1,134 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.app.pmtiles
+
+import spock.lang.Specification
+
+class PmtilesDirectorySpec extends Specification {
+
+    def 'Compute the tile id of a tile'() {
+
+        expect: "the tile ids of the PMTiles specification"
+
+        PmtilesDirectory.zxyToTileId(z, x, y) == tileId
+
+        where:
+
+        z  | x    | y    || tileId
+        0  | 0    | 0    || 0
+        1  | 0    | 0    || 1
+        1  | 0    | 1    || 2
+        1  | 1    | 1    || 3
+        1  | 1    | 0    || 4
+        2  | 0    | 0    || 5
+        3  | 0    | 0    || 21
+        12 | 3423 | 1763 || 19078479
+    }
+
+    def 'The tile ids of a zoom level are consecutive positions on a Hilbert curve'() {
+
+        given: "all tiles of a zoom level"
+
+        def n = 1 << z
+        def firstTileId = ((1L << (2 * z)) - 1).intdiv(3)
+        def tiles = new Object[n * n]
+
+        when: "the tile ids are computed"
+
+        for (int x = 0; x < n; x++) {
+            for (int y = 0; y < n; y++) {
+                def tileId = PmtilesDirectory.zxyToTileId(z, x, y)
+                assert tileId >= firstTileId && tileId < firstTileId + n * n
+                assert tiles[(int) (tileId - firstTileId)] == null
+                tiles[(int) (tileId - firstTileId)] = [x, y]
+            }
+        }
+
+        then: "each tile id is used exactly once and the tiles of consecutive tile ids are neighbours"
+
+        tiles.every { it != null }
+        (1..<tiles.length).every { i -> Math.abs(tiles[i][0] - tiles[i - 1][0]) + Math.abs(tiles[i][1] - tiles[i - 1][1]) == 1 }
+
+        where:
+
+        z << [1, 2, 3, 4, 5]
+    }
+
+    def 'Reject tiles outside of the tile matrix'() {
+
+        when: "the tile id of a tile outside of the tile matrix is computed"
+
+        PmtilesDirectory.zxyToTileId(z, x, y)
+
+        then: 'an exception is thrown'
+
+        thrown(IllegalArgumentException)
+
+        where:
+
+        z  | x  | y
+        1  | 2  | 0
+        1  | 0  | -1
+        32 | 0  | 0
+    }
+
+    def 'Write and read a directory'() {
+
+        given: "directory entries with runs and contiguous and shared contents"
+
+        def entries = [new PmtilesDirectory.Entry(0, 0, 100, 1),
+                       new PmtilesDirectory.Entry(1, 100, 50, 3),
+                       new PmtilesDirectory.Entry(5, 0, 100, 1),
+                       new PmtilesDirectory.Entry(6, 150, 20, 0)]
+
+        when: "the directory is serialized and deserialized"
+
+        def result = PmtilesDirectory.deserialize(PmtilesDirectory.serialize(entries, compression), compression)
+
+        then: 'the entries are unchanged'
+
+        result.size() == entries.size()
+        (0..<entries.size()).every { i ->
+            result[i].tileId == entries[i].tileId && result[i].offset == entries[i].offset
+                && result[i].length == entries[i].length && result[i].runLength == entries[i].runLength
+        }
+
+        where:
+
+        compression << [PmtilesDirectory.COMPRESSION_NONE, PmtilesDirectory.COMPRESSION_GZIP]
+    }
+
+    def 'Find a tile in a directory'() {
+
+        given: "a directory with a run of three tiles, a single tile and a leaf directory"
+
+        def entries = [new PmtilesDirectory.Entry(1, 100, 50, 3),
+                       new PmtilesDirectory.Entry(5, 0, 100, 1),
+                       new PmtilesDirectory.Entry(10, 0, 30, 0)]
+
+        when: "a tile id is looked up"
+
+        def result = PmtilesDirectory.findTile(entries, tileId)
+
+        then: 'the entry of the tile or of the leaf directory is found'
+
+        result.map { it.tileId }.orElse(null) == expected
+
+        where:
+
+        tileId || expected
+        0      || null
+        1      || 1
+        3      || 1
+        4      || null
+        5      || 5
+        6      || null
+        10     || 10
+        1000   || 10
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2022 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ogcapi.tiles.infra
+
+import de.ii.ogcapi.tiles.domain.TileFormatWithQuerySupportExtension
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.ImmutableTileMatrixSetLimits
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSet
+import de.ii.ogcapi.tiles.domain.tileMatrixSet.TileMatrixSetLimits
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicInteger
+import spock.lang.Specification
+
+class SeedingSchedulerSpec extends Specification {
+
+    TileMatrixSet tileMatrixSet = TileMatrixSet.fromWellKnownId("WebMercatorQuad").orElseThrow()
+
+    TileFormatWithQuerySupportExtension outputFormat = Stub(TileFormatWithQuerySupportExtension) {
+        getExtension() >> "pbf"
+    }
+
+    def 'Each tile is handed out exactly once'() {
+
+        given: "tile matrices that are not a multiple of the block size and three partials"
+
+        def scheduler = new SeedingScheduler(3)
+        scheduler.add(Optional.empty(), outputFormat, tileMatrixSet, [limits(5, 3, 20, 0, 31), limits(9, 100, 170, 200, 290)])
+
+        when: "the partials take the blocks in turn until all blocks have been taken"
+
+        def tiles = [:]
+        def completedTileMatrices = 0
+        def workers = (0..<3).collect { scheduler.join() }
+        def active = new ArrayList(workers)
+        while (!active.isEmpty()) {
+            def worker = active.remove(0)
+            def block = scheduler.next(worker)
+            if (block.isEmpty())
+                continue
+            active << worker
+            forEachTile(block.get()) { tile -> tiles[tile] = (tiles[tile] ?: 0) + 1 }
+            if (scheduler.done(block.get(), true))
+                completedTileMatrices++
+        }
+
+        then: 'all tiles have been visited exactly once'
+
+        tiles.size() == 18 * 32 + 71 * 91
+        tiles.values().every { it == 1 }
+        tiles.keySet().every { level, row, col -> level == 5 ? row in 3..20 && col in 0..31 : row in 100..170 && col in 200..290 }
+        scheduler.getNumberOfTiles() == 18 * 32 + 71 * 91
+        completedTileMatrices == 2
+    }
+
+    def 'Each tile is handed out exactly once to concurrent partials and overview zoom levels wait for the next zoom level'() {
+
+        given: "two overview zoom levels and four partials"
+
+        def scheduler = new SeedingScheduler(4)
+        scheduler.add(Optional.of("collection"), outputFormat, tileMatrixSet,
+                      [limits(6, 0, 63, 0, 63), limits(7, 0, 127, 0, 127), limits(8, 0, 255, 0, 255)], { level -> level < 8 } as java.util.function.IntPredicate)
+        def remainingTiles = [6: new AtomicInteger(64 * 64), 7: new AtomicInteger(128 * 128), 8: new AtomicInteger(256 * 256)]
+
+        when: "the partials process the blocks concurrently"
+
+        def tiles = new ConcurrentHashMap<List<Integer>, AtomicInteger>()
+        def failures = new CopyOnWriteArrayList<String>()
+        def threads = (0..<4).collect {
+            Thread.start {
+                def worker = scheduler.join()
+                def block = scheduler.next(worker)
+                while (block.isPresent()) {
+                    def level = block.get().getLevel()
+                    if (level < 8 && remainingTiles[level + 1].get() > 0)
+                        failures << "a block of zoom level ${level} has been handed out before zoom level ${level + 1} was done".toString()
+                    forEachTile(block.get()) { tile ->
+                        tiles.computeIfAbsent(tile, { new AtomicInteger() }).incrementAndGet()
+                        remainingTiles[level].decrementAndGet()
+                    }
+                    scheduler.done(block.get(), true)
+                    block = scheduler.next(worker)
+                }
+            }
+        }
+        threads.each { it.join(60000) }
+
+        then: 'all tiles have been visited exactly once in the order of the zoom levels'
+
+        threads.every { !it.isAlive() }
+        failures.isEmpty()
+        tiles.size() == 64 * 64 + 128 * 128 + 256 * 256
+        tiles.values().every { it.get() == 1 }
+        scheduler.getTileMatrices().collect { it.getLevel() } == [8, 7, 6]
+        scheduler.getTileMatrices().collect { it.getChildLimits().isPresent() } == [false, true, true]
+    }
+
+    def 'Completed blocks and tile matrices of a previous run are skipped'() {
+
+        given: "a previous run that has completed a tile matrix and the first block of another tile matrix"
+
+        def previous = new SeedingScheduler(1)
+        previous.add(Optional.empty(), outputFormat, tileMatrixSet, [limits(4, 0, 15, 0, 15), limits(8, 0, 63, 0, 63)])
+        def worker = previous.join()
+        def tileMatrixBlock = previous.next(worker).get()
+        previous.done(tileMatrixBlock, true)
+        def firstBlock = previous.next(worker).get()
+        def completed = [tileMatrixBlock.getTileMatrixKey(), firstBlock.getKey()] as Set
+
+        when: "the run is resumed"
+
+        def scheduler = new SeedingScheduler(1)
+        scheduler.add(Optional.empty(), outputFormat, tileMatrixSet, [limits(4, 0, 15, 0, 15), limits(8, 0, 63, 0, 63)])
+        scheduler.resume(completed)
+        def fingerprints = [previous.getFingerprint(), scheduler.getFingerprint()]
+        def completeness = scheduler.getCompleteness()
+        def tiles = [] as Set
+        def blocks = []
+        worker = scheduler.join()
+        def block = scheduler.next(worker)
+        def tileMatrixCompleted = false
+        while (block.isPresent()) {
+            blocks << block.get().getKey()
+            forEachTile(block.get()) { tile -> tiles << tile }
+            tileMatrixCompleted = scheduler.done(block.get(), true)
+            block = scheduler.next(worker)
+        }
+
+        then: 'only the remaining tiles are handed out and the completed tiles are counted as processed'
+
+        tileMatrixBlock.getLevel() == 4
+        firstBlock.getLevel() == 8
+        fingerprints[0] == fingerprints[1]
+        completeness == (16 * 16 + 16 * 16) / (double) (16 * 16 + 64 * 64)
+        !blocks.contains(firstBlock.getKey())
+        tiles.size() == 64 * 64 - 16 * 16
+        tiles.every { level, row, col -> level == 8 }
+        tileMatrixCompleted
+    }
+
+    def 'A scheduler is drained when all blocks have been taken and processed'() {
+
+        given: "a tile matrix with four blocks"
+
+        def scheduler = new SeedingScheduler(1)
+        scheduler.add(Optional.empty(), outputFormat, tileMatrixSet, [limits(6, 0, 31, 0, 31)])
+        def worker = scheduler.join()
+
+        when: "three blocks are processed and the last block is taken"
+
+        def drainedBefore = scheduler.isDrained()
+        3.times { scheduler.done(scheduler.next(worker).get(), true) }
+        def lastBlock = scheduler.next(worker).get()
+        def drainedWhileTaken = scheduler.isDrained()
+        scheduler.done(lastBlock, false)
+
+        then: 'the scheduler is only drained after the last block is done, also if it has been abandoned'
+
+        !drainedBefore
+        !drainedWhileTaken
+        scheduler.next(worker).isEmpty()
+        scheduler.isDrained()
+    }
+
+    def 'The Hilbert index visits each cell once and moves to a neighbouring cell'() {
+
+        given: "a grid of n x n cells"
+
+        def cells = new Object[n * n]
+
+        when: "the index of each cell is computed"
+
+        for (int x = 0; x < n; x++) {
+            for (int y = 0; y < n; y++) {
+                cells[(int) SeedingScheduler.getHilbertIndex(n, x, y)] = [x, y]
+            }
+        }
+
+        then: 'each index is used once and consecutive cells are neighbours'
+
+        cells.every { it != null }
+        (1..<cells.length).every { i -> Math.abs(cells[i][0] - cells[i - 1][0]) + Math.abs(cells[i][1] - cells[i - 1][1]) == 1 }
+
+        where:
+
+        n << [2, 4, 16, 64]
+    }
+
+    private static TileMatrixSetLimits limits(int level, int minRow, int maxRow, int minCol, int maxCol) {
+        return new ImmutableTileMatrixSetLimits.Builder()
+            .tileMatrix(String.valueOf(level))
+            .minTileRow(minRow)
+            .maxTileRow(maxRow)
+            .minTileCol(minCol)
+            .maxTileCol(maxCol)
+            .build()
+    }
+
+    private static void forEachTile(SeedingScheduler.Block block, Closure visitor) {
+        def limits = block.getLimits()
+        for (int row = limits.getMinTileRow(); row <= limits.getMaxTileRow(); row++) {
+            for (int col = limits.getMinTileCol(); col <= limits.getMaxTileCol(); col++) {
+                visitor([block.getLevel(), row, col])
+            }
+        }
+    }
+}